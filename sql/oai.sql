@@ -123,9 +123,13 @@ CREATE TABLE `resumption_tokens` (
 
 -- Table for normal xml files (with max length of 64K)
 DROP TABLE IF EXISTS `xmls`;
+-- The digest is the MD5 hash of the record's MARCXML, the importer compares
+-- it to skip the unchanged records. For an existing database:
+-- ALTER TABLE `xmls` ADD COLUMN `digest` CHAR(32) NULL AFTER `xml`;
 CREATE TABLE `xmls` (
   `record_id` int(11) NOT NULL,
   `xml` LONGBLOB NOT NULL,
+  `digest` CHAR(32) NULL,
   PRIMARY KEY  (`record_id`),
   FOREIGN KEY (`record_id`) REFERENCES `records` (`record_id`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
@@ -21,6 +21,10 @@ public class XmlDTO extends DataTransferObject {
 	/** The MARCXML content of the record. 
 	 * Accessors: {@link #getXml}, {@link #setXml} */
 	private String xml;
+
+	/** The content digest of the record (32 hexadecimal digits).
+	 * Accessors: {@link #getDigest}, {@link #setDigest} */
+	private String digest;
 	
 	public XmlDTO() {}
 
@@ -60,10 +64,28 @@ public class XmlDTO extends DataTransferObject {
 		this.xml = xml;
 	}
 
+	/**
+	 * @return {@link #digest}
+	 */
+	public String getDigest() {
+		return digest;
+	}
+
+	/**
+	 * Set the {@link #digest}
+	 * @param digest {@link #digest}
+	 */
+	public void setDigest(String digest) {
+		this.digest = digest;
+	}
+
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
 		sb.append("recordId: ").append(recordId);
 		sb.append(", xml: ").append(xml);
+		if(digest != null) {
+			sb.append(", digest: ").append(digest);
+		}
 		return sb.toString();
 	}
 }
@@ -11,7 +11,11 @@ package info.extensiblecatalog.OAIToolkit.api;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 //import java.io.StringReader;
 import java.sql.SQLException;
 import java.text.SimpleDateFormat;
@@ -20,6 +24,7 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.zip.GZIPOutputStream;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 
@@ -39,15 +44,18 @@ import info.extensiblecatalog.OAIToolkit.db.managers.SetsMgr;
 import info.extensiblecatalog.OAIToolkit.oai.Constants;
 import info.extensiblecatalog.OAIToolkit.oai.ErrorCodes;
 import info.extensiblecatalog.OAIToolkit.oai.MetadataFormat;
+import info.extensiblecatalog.OAIToolkit.oai.PayloadRenderer;
 import info.extensiblecatalog.OAIToolkit.oai.RecordListResult;
 import info.extensiblecatalog.OAIToolkit.oai.StorageTypes;
 import info.extensiblecatalog.OAIToolkit.oai.dataproviders.FacadeDataProvider;
 import info.extensiblecatalog.OAIToolkit.oai.dataproviders.LuceneFacadeDataProvider;
 import info.extensiblecatalog.OAIToolkit.oai.dataproviders.MySQLFacadeDataProvider;
+import info.extensiblecatalog.OAIToolkit.struts.CompressedResponse;
 import info.extensiblecatalog.OAIToolkit.struts.form.OaiRequestForm;
 import info.extensiblecatalog.OAIToolkit.utils.ApplInfo;
 import info.extensiblecatalog.OAIToolkit.utils.Logging;
 import info.extensiblecatalog.OAIToolkit.utils.TextUtil;
+import info.extensiblecatalog.OAIToolkit.utils.Utf8Writer;
 import info.extensiblecatalog.OAIToolkit.utils.XMLUtil;
 import info.extensiblecatalog.OAIToolkit.utils.XsltTransformator;
 import info.extensiblecatalog.OAIToolkit.utils.ApplInfo.RequestState;
@@ -78,8 +86,7 @@ public class Facade {
 	private boolean cacheable = true;
 	
 	/** MARC21 schema URL */
-	private static String SCHEMA_URL = 
-		"http://www.loc.gov/standards/marcxml/schema/MARC21slim.xsd";
+	private static String SCHEMA_URL = PayloadRenderer.DEFAULT_SCHEMA_URL;
 	
 	/*
 	private static final Namespace marcNS = Namespace.getNamespace("marc",
@@ -89,14 +96,6 @@ public class Facade {
 								"http://www.w3.org/2001/XMLSchema-instance");
 	*/
 	
-	/**
-	 * The standard MARCXML schema and namespace
-	 */
-	private static final String NS_DECL_BEGINING = 
-		"<record xmlns:marc=\"http://www.loc.gov/MARC21/slim\" "
-		+ " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\""
-		+ " xsi:schemaLocation=\"http://www.loc.gov/MARC21/slim ";
-	
 	/** Namespace declaration URL */
 	private static String NS_DECL;
 	
@@ -106,6 +105,12 @@ public class Facade {
 	/** The extension for the cache's token files */
 	private static final String TOKEN_EXT = ".tkn";
 	
+	/** The extension for the cache's compressed XML files */
+	private static final String GZIP_EXT = ".xml.gz";
+	
+	/** The extension of the files being written */
+	private static final String TMP_EXT = ".tmp";
+	
 	/** The XSLT transformator */
 	protected XsltTransformator transformator;
 	
@@ -170,11 +175,40 @@ public class Facade {
 	/** timer for measuring XSLT transformation */
 	private long xslTransformTime = 0;
 	
+	/** The chunk of characters written to the stream of the response */
+	private char[] writeChunk;
+	
+	/** The compressed response of the streamed lists, or null */
+	private CompressedResponse compressedResponse;
+	
+	/**
+	 * The stream of the list, if it can write the stored payloads as they
+	 * are, otherwise null
+	 */
+	private Utf8Writer payloadOut;
+	
+	/**
+	 * The payload of the last transformed record, which should be written
+	 * to {@link #payloadOut} after the buffered beginning of the record
+	 */
+	private byte[] pendingPayload;
+	
 	/**
 	 * Creates a new Facade object
 	 * @param oaiForm The OAI request form bean
 	 */
 	public Facade(OaiRequestForm oaiForm) {
+		this(oaiForm, null);
+	}
+
+	/**
+	 * Creates a new Facade object, which reads the records from the given
+	 * data provider
+	 * @param oaiForm The OAI request form bean
+	 * @param provider The data provider, or null to use the provider of
+	 * the configured storage type
+	 */
+	public Facade(OaiRequestForm oaiForm, FacadeDataProvider provider) {
         
 		form = oaiForm;
 		verb = form.getVerb();
@@ -184,13 +218,17 @@ public class Facade {
 		set = form.getSet();
 		identifier = form.getIdentifier();
 		resumptionToken = form.getResumptionToken();
-		prglog.info("[PRG] " + ApplInfo.oaiConf.getStorageType());
-		if(ApplInfo.oaiConf.getStorageType().equals(StorageTypes.MYSQL)) {
-			dataProvider = new MySQLFacadeDataProvider();
-		} else if(ApplInfo.oaiConf.getStorageType().equals(StorageTypes.MIXED)) {
-			dataProvider = new MySQLFacadeDataProvider();
-		} else if(ApplInfo.oaiConf.getStorageType().equals(StorageTypes.LUCENE)) {
-			dataProvider = new LuceneFacadeDataProvider();
+		if(provider != null) {
+			dataProvider = provider;
+		} else {
+			prglog.info("[PRG] " + ApplInfo.oaiConf.getStorageType());
+			if(ApplInfo.oaiConf.getStorageType().equals(StorageTypes.MYSQL)) {
+				dataProvider = new MySQLFacadeDataProvider();
+			} else if(ApplInfo.oaiConf.getStorageType().equals(StorageTypes.MIXED)) {
+				dataProvider = new MySQLFacadeDataProvider();
+			} else if(ApplInfo.oaiConf.getStorageType().equals(StorageTypes.LUCENE)) {
+				dataProvider = new LuceneFacadeDataProvider();
+			}
 		}
 		if(form.isCacheable()) {
 			cacheable = true;
@@ -275,7 +313,10 @@ public class Facade {
 				ApplInfo.oaiConf.getGranularity()));
 		String[] compressions = ApplInfo.oaiConf.getCompression();
 		for(String compression : compressions) {
-			root.addContent(XMLUtil.xmlEl("compression", compression));
+			// only the implemented codings (gzip, deflate) are advertised
+			if(CompressedResponse.isImplemented(compression)) {
+				root.addContent(XMLUtil.xmlEl("compression", compression));
+			}
 		}
 		root.addContent(
 			XMLUtil.xmlEl("description", null)
@@ -350,6 +391,26 @@ public class Facade {
 		doCachedSearch();
 	}
 	
+	/**
+	 * Create response for the ListIdentifiers verb, and write it to the
+	 * stream instead of the form (see {@link #doCachedSearch(Writer)})
+	 * @param out The stream of the response
+	 * @return True if the list has more records
+	 * @throws IOException
+	 */
+	public boolean doListIdentifiers(Writer out) throws IOException {
+		return doCachedSearch(out);
+	}
+	
+	/**
+	 * Set the compressed response, into which the compressed cached pages
+	 * can be written directly
+	 * @param compressedResponse The response
+	 */
+	public void setCompressedResponse(CompressedResponse compressedResponse) {
+		this.compressedResponse = compressedResponse;
+	}
+	
 	/**
 	 * Create response for the ListRecords verb
 	 */
@@ -358,6 +419,17 @@ public class Facade {
 		return hasMoreResult;
 	}
 	
+	/**
+	 * Create response for the ListRecords verb, and write it to the
+	 * stream instead of the form (see {@link #doCachedSearch(Writer)})
+	 * @param out The stream of the response
+	 * @return True if the list has more records
+	 * @throws IOException
+	 */
+	public boolean doListRecords(Writer out) throws IOException {
+		return doCachedSearch(out);
+	}
+	
 	/** 
 	 * Cached search: if there is a cache (RequestState.FINISHED), 
 	 * or the cache is in making (RequestState.STARTED) read it from 
@@ -365,6 +437,26 @@ public class Facade {
 	 * cache and even it is not started, read from database
 	 */
 	private boolean doCachedSearch() {
+		try {
+			return doCachedSearch(null);
+		} catch(IOException e) {
+			// only the stream can throw it
+			prglog.error("[PRG] " + e);
+			return false;
+		}
+	}
+	
+	/** 
+	 * Cached search (see {@link #doCachedSearch()}). If the stream is not
+	 * null, the result is written to it instead of the form, and the
+	 * records read from the database are written one by one, as soon as
+	 * they are transformed.
+	 * @param out The stream of the response, or null
+	 * @return True if the list has more records
+	 * @throws IOException If the response can not be written, or the
+	 * records can not be read after the response was started
+	 */
+	private boolean doCachedSearch(Writer out) throws IOException {
 		
 		boolean hasMoreResult = true;
 		// use the cache
@@ -385,7 +477,7 @@ public class Facade {
 					&& !ApplInfo.cacheRegister.containsKey(cacheId))) {
 				prglog.info("[PRG] strategy->direct request");
 				result = handleRecordLists(from, until, metadataPrefix, set, 
-						resumptionToken, verb);
+						resumptionToken, verb, out);
 			} else {
 				prglog.info("[PRG] strategy->get from cache");
 				if(ApplInfo.cacheRegister.containsKey(cacheId)
@@ -405,10 +497,22 @@ public class Facade {
 						}
 					}
 				}
-				result = getCache(cacheId);
+				File gzipFile = new File(ApplInfo.cacheDirectory,
+						cacheId + GZIP_EXT);
+				boolean precompressed = (out != null
+						&& compressedResponse != null
+						&& compressedResponse.acceptsGzipMember()
+						&& gzipFile.exists());
+				result = getCache(cacheId, !precompressed);
+				if(precompressed && result != null) {
+					// the page is sent as it was compressed by the cacher
+					prglog.info("[PRG] sending the compressed cache");
+					out.flush();
+					compressedResponse.writeGzipMember(gzipFile);
+				}
 			}
 			long t1 = System.currentTimeMillis();
-			form.setXml(result.getContent());
+			writeResult(result, out);
 			prglog.info("[PRG] first phase: " + (t1-t0) + ", " + (System.currentTimeMillis()-t1));
 			if(result.getNextResumptionToken() != null) {
 				t0 = System.currentTimeMillis();
@@ -423,14 +527,30 @@ public class Facade {
 			}
 		} else {
 			RecordListResult result = handleRecordLists(from, until, metadataPrefix, set, 
-					resumptionToken, verb);
-			form.setXml(result.getContent());
+					resumptionToken, verb, out);
+			writeResult(result, out);
 			if(result.getNextResumptionToken() == null) {
 				hasMoreResult = false;
 			}
 		}
 		return hasMoreResult;
 	}
+
+	/**
+	 * Set the content of the result as the response, or write it to the
+	 * stream (the records read from the database are already written)
+	 * @param result The result
+	 * @param out The stream of the response, or null
+	 * @throws IOException
+	 */
+	private void writeResult(RecordListResult result, Writer out)
+			throws IOException {
+		if(out == null) {
+			form.setXml(result.getContent());
+		} else if(result.getContent() != null) {
+			out.write(result.getContent());
+		}
+	}
 	
 	public void createCache() {
 		String cacheId = getCacheId();
@@ -454,10 +574,23 @@ public class Facade {
 	}
 
 	private RecordListResult getCache(String cacheId) {
+		return getCache(cacheId, true);
+	}
+
+	/**
+	 * Read a cached page
+	 * @param cacheId The ID of the page
+	 * @param withContent Should the content be read, or only the next
+	 * resumption token?
+	 * @return The page, or null if it can not be read
+	 */
+	private RecordListResult getCache(String cacheId, boolean withContent) {
 		RecordListResult result = new RecordListResult();
 		try {
-			result.setContent(TextUtil.readFileAsString(
+			if(withContent) {
+				result.setContent(TextUtil.readFileAsString(
 					new File(ApplInfo.cacheDirectory, cacheId + XML_EXT)));
+			}
 			result.setNextResumptionToken(TextUtil.readFileAsString(
 					new File(ApplInfo.cacheDirectory, cacheId + TOKEN_EXT)));
 		} catch(IOException e) {
@@ -469,6 +602,14 @@ public class Facade {
 
 	private void setCache(String cacheId, RecordListResult result) {
 		try {
+			if(ApplInfo.oaiConf.isCompressionSupported(CompressedResponse.GZIP)
+					&& result.getContent() != null) {
+				// the compressed page is written first: it is used only
+				// after the page and its token are written
+				writeGzipFile(new File(ApplInfo.cacheDirectory,
+						cacheId + GZIP_EXT), result.getContent(),
+						ApplInfo.oaiConf.getCompressionLevel());
+			}
 			TextUtil.writeFile(new File(ApplInfo.cacheDirectory, cacheId + XML_EXT), 
 					result.getContent());
 			TextUtil.writeFile(new File(ApplInfo.cacheDirectory, cacheId + TOKEN_EXT), 
@@ -479,6 +620,37 @@ public class Facade {
 		}
 	}
 
+	/**
+	 * Write the UTF-8 text to a gzip file. The file is written with a
+	 * temporary name, and renamed at the end.
+	 * @param file The file
+	 * @param content The text
+	 * @param level The compression level
+	 * @throws IOException
+	 */
+	private static void writeGzipFile(File file, String content,
+			final int level) throws IOException {
+		File tmp = new File(file.getPath() + TMP_EXT);
+		Writer out = new OutputStreamWriter(new GZIPOutputStream(
+				new FileOutputStream(tmp), 8192) {
+			{
+				def.setLevel(level);
+			}
+		}, "UTF-8");
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+		if(!tmp.renameTo(file)) {
+			file.delete();
+			if(!tmp.renameTo(file)) {
+				tmp.delete();
+				throw new IOException("Unable to rename " + tmp + " to " + file);
+			}
+		}
+	}
+
 	/**
 	 * Delete those file from cache which are older, than the "maximum lifetime
 	 * of a cached file" value (see 
@@ -599,7 +771,7 @@ public class Facade {
 					if (!id.equals(identifier)) {
 						record.setXcOaiId(identifier);
 					}
-					xml.append(transformRecord(record, verb));
+					transformRecord(record, verb, xml);
 					insertedRecords++;
 				}
 			}
@@ -648,6 +820,37 @@ public class Facade {
 	private RecordListResult handleRecordLists(String from, String until, 
 			String metadataPrefix, String set, String resumptionToken, 
 			String verb) {
+		try {
+			return handleRecordLists(from, until, metadataPrefix, set,
+					resumptionToken, verb, null);
+		} catch(IOException e) {
+			// only the stream can throw it
+			prglog.error("[PRG] " + e);
+			return new RecordListResult();
+		}
+	}
+
+	/**
+	 * Get records from database. If the stream is not null, the records
+	 * are written to it (with the list element and the resumption token)
+	 * as soon as they are transformed, and the content of the result is
+	 * set only for the errors, which are detected before the first record.
+	 * The list element is written with the first record, so until then
+	 * an error is answered the same way as without the stream.
+	 * @param from The OAI form parameter
+	 * @param until The OAI until parameter
+	 * @param metadataPrefix The OAI metadataPrefix parameter
+	 * @param set The OAI set parameter
+	 * @param resumptionToken The OAI resumptionToken parameter 
+	 * @param verb The OAI verb (command)
+	 * @param out The stream of the response, or null
+	 * @return The list of records 
+	 * @throws IOException If the stream can not be written, or the records
+	 * can not be read after the list was started
+	 */
+	private RecordListResult handleRecordLists(String from, String until, 
+			String metadataPrefix, String set, String resumptionToken, 
+			String verb, Writer out) throws IOException {
 		
 		prglog.info("[PRG] handleRecordLists: " + from + ", " + until 
 				+ ", " + metadataPrefix + ", " + set + ", " + resumptionToken
@@ -664,8 +867,13 @@ public class Facade {
 			// the metadataPrefix is mandatory
 			if(dataProvider.getMetadataPrefix() == null) {
 				prglog.error("[PRG] no metadata");
-				result.setContent(ErrorCodes.noMetadataFormatsError(
-						"There must be a metadata format parameter."));
+				if(tokenId == null) {
+					result.setContent(ErrorCodes.badArgumentError(
+							"There must be a metadata format parameter."));
+				} else {
+					// the token does not tell the format
+					result.setContent(ErrorCodes.badResumptionTokenError());
+				}
 				return result;
 			}
 
@@ -710,6 +918,10 @@ public class Facade {
 
 		
 		//List<DataTransferObject> records;
+		// has the list been written to the stream?
+		boolean isStarted = false;
+		payloadOut = (out instanceof Utf8Writer) ? (Utf8Writer)out : null;
+		pendingPayload = null;
 		try {
             //prglog.info("Value of the lastRecordRead before select records" + offset);
 			dataProvider.selectRecords();
@@ -717,6 +929,8 @@ public class Facade {
 			if(0 == totalRecordCount){
 				xml.append(ErrorCodes.noRecordsMatchError());
 			} else {
+				boolean isList = verb.equals("ListIdentifiers")
+					|| verb.equals("ListRecords");
 				int insertedRecords = 0;
 				prglog.info("[PRG] while transformRecord");
 				long readTime = 0;
@@ -736,8 +950,26 @@ public class Facade {
 					
 					readTime += (System.currentTimeMillis()-t1);
 					t2 = System.currentTimeMillis();
-					xml.append(transformRecord(record, verb));
+					transformRecord(record, verb, xml);
 					transformTime += (System.currentTimeMillis()-t2);
+					if(out != null) {
+						if(!isStarted) {
+							isStarted = true;
+							if(isList) {
+								out.write("<" + verb + ">");
+							}
+						}
+						writeBuffer(xml, out);
+						if(pendingPayload != null) {
+							payloadOut.writeUtf8(pendingPayload);
+							pendingPayload = null;
+							out.write("</metadata></record>");
+						}
+						if(insertedRecords == 0) {
+							// the client gets the first record at once
+							out.flush();
+						}
+					}
 					insertedRecords++;
 					lastReadId = record.getXcId();
 				}
@@ -780,6 +1012,19 @@ public class Facade {
 								"completeListSize", ""+totalRecordCount}));
 				}
 				
+				if(out != null) {
+					if(!isStarted) {
+						isStarted = true;
+						if(isList) {
+							out.write("<" + verb + ">");
+						}
+					}
+					writeBuffer(xml, out);
+					if(isList) {
+						out.write("</" + verb + ">");
+					}
+					return result;
+				}
 				if(verb.equals("ListIdentifiers")) {
 					result.setContent(XMLUtil.xmlTag("ListIdentifiers", xml.toString()));
 					return result;
@@ -797,6 +1042,11 @@ public class Facade {
 		} catch(Exception e){
 			prglog.error("[PRG] " + e);
 			e.printStackTrace();
+			if(isStarted) {
+				// the started list can not be completed
+				throw (e instanceof IOException) ? (IOException)e
+					: new IOException(e.toString(), e);
+			}
 		}
 		return result;
 	}
@@ -809,6 +1059,27 @@ public class Facade {
         return result;
       }
     }
+
+	/**
+	 * Write the buffer to the stream, and empty it. The characters are
+	 * copied in chunks, without creating a String of the whole buffer.
+	 * @param xml The buffer
+	 * @param out The stream
+	 * @throws IOException
+	 */
+	private void writeBuffer(StringBuffer xml, Writer out)
+			throws IOException {
+		if(writeChunk == null) {
+			writeChunk = new char[8192];
+		}
+		int length = xml.length();
+		for(int start = 0; start < length; start += writeChunk.length) {
+			int end = Math.min(length, start + writeChunk.length);
+			xml.getChars(start, end, writeChunk, 0);
+			out.write(writeChunk, 0, end - start);
+		}
+		xml.setLength(0);
+	}
 	
 	/**
 	 * Create an OAI-PMH-compatible list from the metadata format
@@ -855,11 +1126,13 @@ public class Facade {
 	 * add id,
 	 * add xmlns declarations
 	 * transform with xsl
+	 * and write the result to the end of the response
 	 * @param record
 	 * @param verb
-	 * @return
+	 * @param out The response
 	 */
-	private String transformRecord(RecordDTO record, String verb) {
+	private void transformRecord(RecordDTO record, String verb,
+			StringBuffer out) {
 
 		StringBuilder sb = new StringBuilder();
 		sb.append(XMLUtil.xmlTag("identifier", 
@@ -893,12 +1166,41 @@ public class Facade {
 			header = XMLUtil.xmlTag("header", sb.toString());
 		}
 		if("ListIdentifiers".equals(verb)) {
-			return header;
+			out.append(header);
+			return;
 		} else if(record.getIsDeleted() == true) {
-			return XMLUtil.xmlTag("record", header);
+			out.append(XMLUtil.xmlTag("record", header));
+			return;
+		} else if(!"ListRecords".equals(verb) && !"GetRecord".equals(verb)) {
+			return;
 		}
 		
-		String content = "";
+		// the payload rendered by the importer
+		String metadataPrefix = dataProvider.getMetadataPrefix();
+		byte[] payload = dataProvider.getPayloadOfRecord(
+				record.getRecordId(), metadataPrefix);
+		if(payload != null && PayloadRenderer.isMarc(metadataPrefix)
+			&& !PayloadRenderer.hasNsDecl(payload, NS_DECL))
+		{
+			// rendered with an other schema URL
+			payload = null;
+		}
+		if(payload != null) {
+			if(payloadOut != null && payload.length > 0) {
+				// the stored bytes are copied to the stream as they are
+				out.append("<record>").append(header).append("<metadata>");
+				pendingPayload = payload;
+			} else {
+				try {
+					appendRecord(header, new String(payload, "UTF-8"), out);
+				} catch(UnsupportedEncodingException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			return;
+		}
+
+		String content = null;
 		try {
 			// extract xml from DB
 			content = dataProvider.getXmlOfRecord(record.getRecordId(), 
@@ -907,16 +1209,26 @@ public class Facade {
 			if(content == null) {
 				prglog.error("[PRG] Record #" + record.getExternalId() 
 						+ " has problem: xml is null or empty");
+				content = "";
 			}
 			
 			long b0 = System.currentTimeMillis();
-			content = content.replaceAll("<\\?xml [^<>]+\\?>", "")
-				.replaceAll("<collection[^<>]+>", "")
-				.replace("</collection>", "")
-				.replace("<record", NS_DECL)
-				.replace("</", "</marc:")
-				.replaceAll("<([^/])", "<marc:$1")
-			;
+			if(PayloadRenderer.isMarc(metadataPrefix) || transformator == null) {
+				// the marc21 payload is written directly to the response
+				int start = out.length();
+				out.append("<record>").append(header).append("<metadata>");
+				int metadataStart = out.length();
+				PayloadRenderer.appendMarc21(content, NS_DECL, out);
+				if(out.length() == metadataStart) {
+					out.setLength(start);
+					appendRecord(header, "", out);
+				} else {
+					out.append("</metadata></record>");
+				}
+				domBuildTime += System.currentTimeMillis() - b0;
+				return;
+			}
+			content = PayloadRenderer.toMarc21(content, NS_DECL);
 
 			/*
 			Document doc = XMLUtil.builder.build(new StringReader(content));
@@ -931,26 +1243,33 @@ public class Facade {
 			*/
 			domBuildTime += System.currentTimeMillis() - b0;
 			
-			if(!dataProvider.getMetadataPrefix().equals("marc21")
-					&& !dataProvider.getMetadataPrefix().equals("marcxml")
-					&& transformator != null){
-				long t1 = System.currentTimeMillis();
-				content = transformator.transform(content);
-				xslTransformTime += System.currentTimeMillis() - t1;
-			}
+			long t1 = System.currentTimeMillis();
+			content = transformator.transform(content);
+			xslTransformTime += System.currentTimeMillis() - t1;
 		//} catch(JDOMException e) {
 		//	e.printStackTrace();
 		} catch(TransformerException e) {
 			e.printStackTrace();
 		}
-		content = content.replaceAll("<\\?xml[^<>]*>", "");
+		content = PayloadRenderer.stripXmlDeclaration(content);
+		appendRecord(header, content, out);
+	}
 
-		if("ListRecords".equals(verb) || "GetRecord".equals(verb)) {
-			return XMLUtil.xmlTag("record", 
-					header + XMLUtil.xmlTag("metadata", content));
+	/**
+	 * Write a record element to the end of the response
+	 * @param header The header of the record
+	 * @param content The metadata of the record
+	 * @param out The response
+	 */
+	private static void appendRecord(String header, String content,
+			StringBuffer out) {
+		out.append("<record>").append(header);
+		if(content.length() == 0) {
+			out.append("<metadata />");
+		} else {
+			out.append("<metadata>").append(content).append("</metadata>");
 		}
-		
-		return "";
+		out.append("</record>");
 	}
 
     /**
@@ -1038,7 +1357,7 @@ public class Facade {
 		if(ApplInfo.oaiConf.getSchema().equals("custom")) {
 			SCHEMA_URL = baseUrl + "/schema/" + "MARC21slim_custom.xsd";
 		}
-		NS_DECL = NS_DECL_BEGINING + SCHEMA_URL + "\"";
+		NS_DECL = PayloadRenderer.getNsDecl(SCHEMA_URL);
 	}
 	
 	public String getResumptionToken() {
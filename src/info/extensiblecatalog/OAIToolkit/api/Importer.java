@@ -16,11 +16,20 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.List;
 import java.util.Date;
 import java.util.Collections;
+import java.util.LinkedList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 
@@ -34,7 +43,6 @@ import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.util.Version;
 import org.marc4j.MarcException;
 import org.marc4j.MarcReader;
-import org.marc4j.MarcXmlReader;
 import org.marc4j.MarcXmlWriter;
 import org.marc4j.marc.Record;
 import org.xml.sax.SAXParseException;
@@ -45,34 +53,42 @@ import org.apache.commons.cli.GnuParser;
 import org.apache.commons.cli.Options;
 
 import info.extensiblecatalog.OAIToolkit.db.LuceneIndexMgr;
+import info.extensiblecatalog.OAIToolkit.db.LuceneMergeManager;
 import info.extensiblecatalog.OAIToolkit.db.LuceneSearcher;
 import info.extensiblecatalog.OAIToolkit.DTOs.TrackingOaiIdNumberDTO;
 import info.extensiblecatalog.OAIToolkit.db.managers.TrackingOaiIdNumberMgr;
 
+import info.extensiblecatalog.OAIToolkit.importer.BufferedMarcXmlReader;
 import info.extensiblecatalog.OAIToolkit.importer.CLIProcessor;
 import info.extensiblecatalog.OAIToolkit.importer.Converter;
 import info.extensiblecatalog.OAIToolkit.importer.DirectoryNameGiver;
 import info.extensiblecatalog.OAIToolkit.importer.FileListing;
 import info.extensiblecatalog.OAIToolkit.importer.DirectoryListing;
 import info.extensiblecatalog.OAIToolkit.importer.FileNameComparator;
+import info.extensiblecatalog.OAIToolkit.importer.ImportJournal;
 import info.extensiblecatalog.OAIToolkit.importer.ImporterConfiguration;
 import info.extensiblecatalog.OAIToolkit.importer.ImporterConstants;
 import info.extensiblecatalog.OAIToolkit.importer.MARCFileNameFilter;
-import info.extensiblecatalog.OAIToolkit.importer.MARCRecordWrapper;
 import info.extensiblecatalog.OAIToolkit.importer.Modifier;
 import info.extensiblecatalog.OAIToolkit.importer.XMLFileNameFilter;
 import info.extensiblecatalog.OAIToolkit.importer.ImporterConstants.ImportType;
 import info.extensiblecatalog.OAIToolkit.importer.importers.IImporter;
+import info.extensiblecatalog.OAIToolkit.importer.importers.IParallelImporter;
 import info.extensiblecatalog.OAIToolkit.importer.importers.LuceneImporter;
 import info.extensiblecatalog.OAIToolkit.importer.importers.MixedImporter;
 import info.extensiblecatalog.OAIToolkit.importer.importers.MysqlImporter;
+import info.extensiblecatalog.OAIToolkit.importer.importers.PreparedRecord;
 import info.extensiblecatalog.OAIToolkit.importer.statistics.ConversionStatistics;
 import info.extensiblecatalog.OAIToolkit.importer.statistics.LoadStatistics;
 import info.extensiblecatalog.OAIToolkit.importer.statistics.ModificationStatistics;
+import info.extensiblecatalog.OAIToolkit.oai.MetadataFormatUnmarshaler;
+import info.extensiblecatalog.OAIToolkit.oai.MetadataFormats;
+import info.extensiblecatalog.OAIToolkit.oai.PayloadRenderer;
 import info.extensiblecatalog.OAIToolkit.oai.StorageTypes;
 import info.extensiblecatalog.OAIToolkit.utils.ApplInfo;
 import info.extensiblecatalog.OAIToolkit.utils.ExceptionPrinter;
 import info.extensiblecatalog.OAIToolkit.utils.Logging;
+import info.extensiblecatalog.OAIToolkit.utils.MilliSecFormatter;
 import info.extensiblecatalog.OAIToolkit.utils.XMLUtil;
 import info.extensiblecatalog.OAIToolkit.utils.XMLValidator;
 
@@ -98,6 +114,9 @@ public class Importer {
 
 	public static final String VERSION = "1.0.2";
 
+	/** How many records can wait for storing per load thread */
+	private static final int LOAD_QUEUE_SIZE_PER_THREAD = 100;
+
     /** Manager of Tracking OAI ID Number */
 	private static TrackingOaiIdNumberMgr trackingOaiIdNumberMgr;
 
@@ -217,35 +236,12 @@ public class Importer {
 					+ dirNameGiver.getConvertTarget() + "\n\n");
 		}
 
-		Converter converter = new Converter();
-		if(null != configuration.getMarcEncoding()) {
-			converter.setEncoding(configuration.getMarcEncoding());
-		}
-
-		if(null != configuration.getCharConversion()) {
-			converter.setConvertEncoding(configuration.getCharConversion());
-		}
-
-
-		if(configuration.isNeedModify() && configuration.isProductionMode()) {
-			converter.setModifier(new Modifier(configuration));
-		}
-
 		if(configuration.isNeedLoad() && configuration.isProductionMode()) {
 			initRecordImporter();
-			converter.setRecordImporter(recordImporter);
 			importStatistics = new LoadStatistics();
 		}
 
-		converter.setSplitSize(configuration.getSplitSize());
-		converter.setDoIndentXml(configuration.isDoIndentXml());
-		converter.setErrorDir(dirNameGiver.getConvertError().getAbsolutePath());
-		converter.setCreateXml11(configuration.isCreateXml11());
-                converter.setTranslateLeaderBadCharsToZero(configuration.isTranslateLeaderBadCharsToZero());
-                converter.setTranslateNonleaderBadCharsToSpaces(configuration.isTranslateNonleaderBadCharsToSpaces());
-		converter.setIgnoreRepositoryCode(configuration.doesIgnoreRepositoryCode());
-		converter.setDefaultRepositoryCode(configuration.getDefaultRepositoryCode());
-
+		Converter converter = createConverter();
 		prglog.info("[PRG] " + converter.getSettings());
         File[] files = null;
 
@@ -270,103 +266,25 @@ public class Importer {
 		Arrays.sort(files, new FileNameComparator());
 
 		conversionStatistics = new ConversionStatistics();
+		int threads = configuration.getConvertThreads();
+		if(threads > 1 && recordImporter != null) {
+			prglog.warn("[PRG] Parallel conversion is not available when "
+					+ "loading in production mode. Converting with one thread.");
+			threads = 1;
+		}
 
-		for(File marcFile : files) {
-			ConversionStatistics fileStatistics = null;
-
-			File xmlFile = new File(configuration.getDestinationXmlDir(),
-					marcFile.getName().replaceAll(".mrc$", ".xml"));
-            try {
-				// setting the XML file
-				if(configuration.isNeedLogDetail()){
-					prglog.info("[PRG] Converting " + marcFile.getName()
-							+ " to " + xmlFile.getName());
-                                        libconvertlog.info("[LIB] Converting " + marcFile.getName()
-							+ " to " + xmlFile.getName() + "\n\n");
-                                        }
-
-				// CONVERT !!!!
-				fileStatistics = converter.convert(marcFile, xmlFile);
-
-				if(configuration.isNeedLogDetail()) {
-					prglog.info("[PRG] " + fileStatistics.toString(marcFile.getName()));
-					if(importStatistics != null) {
-						prglog.info("[PRG] " + converter.getLoadStatistics().toString(
-							marcFile.getName()));
-					}
-				}
-
-				if(configuration.isNeedLogDetail()) {
-					prglog.info("[PRG] Moving " + marcFile.getName() + " to "
-							+ dirNameGiver.getConvertDestination());
-				}
-				// setting the destination file
-				File successFile = new File(dirNameGiver.getConvertDestination(),
-						marcFile.getName());
-
-				// delete if exists (otherwise the moving won't success)
-				if(successFile.exists()) {
-					boolean deleted = successFile.delete();
-					prglog.info("[PRG] Delete " + successFile + " - " + deleted);
-				}
-
-				// remove
-				boolean remove = marcFile.renameTo(successFile);
-				if(configuration.isNeedLogDetail()) {
-					prglog.info("[PRG] remove marc file (" + marcFile.getName() + ") to "
-							+ dirNameGiver.getConvertDestination()
-							+ ": " + remove);
-				}
-
-			} catch(Exception e){
-				if(e instanceof MarcException) {
-					prglog.error("[PRG] " + e.getMessage()
-					+ ". The last successfully read record's Control Number is "
-					+ converter.getControlNumberOfLastReadRecord()
-					+ ". The error may be in the next record.");
-       				} else {
-					e.printStackTrace();
-					prglog.error("[PRG] " + e);
-				}
-				// copy marcFile -> errorDir
-				File errorFile = new File(configuration.getErrorDir(), marcFile.getName());
-				if(errorFile.exists()) {
-					boolean deleted = errorFile.delete();
-					if(deleted) {
-						prglog.info("[PRG] Delete " + errorFile + ".");
-					} else {
-						prglog.error("[PRG] Unable to delete " + errorFile + ".");
-					}
-				}
-				boolean remove = marcFile.renameTo(errorFile);
-				if(configuration.isNeedLogDetail()) {
-					prglog.info("[PRG] remove MARC to error directory: " + remove);
+		if(threads > 1 && files.length > 1) {
+			convertInParallel(files, converter, Math.min(threads, files.length));
+		} else {
+			for(File marcFile : files) {
+				ConversionStatistics fileStatistics = convertFile(converter, marcFile);
+				if (fileStatistics != null) {
+					conversionStatistics.add(fileStatistics);
 				}
-
-				if(xmlFile.exists()){
-					File xmlErrorFile = new File(configuration.getErrorXmlDir(), xmlFile.getName());
-					if(xmlErrorFile.exists()) {
-						boolean deleted = xmlErrorFile.delete();
-						if(deleted) {
-							prglog.info("[PRG] Delete " + xmlErrorFile);
-						} else {
-							prglog.error("[PRG] Unable to delete " + xmlErrorFile);
-						}
-					}
-					remove = xmlFile.renameTo(xmlErrorFile);
-					if(configuration.isNeedLogDetail()) {
-						prglog.info("[PRG] remove XML to error_xml directory: " + remove);
-					}
+				if(importStatistics != null) {
+					importStatistics.add(converter.getLoadStatistics());
 				}
 			}
-					
-			if (fileStatistics != null) {
-				conversionStatistics.add(fileStatistics);
-			}
-			if(importStatistics != null) {
-				importStatistics.add(converter.getLoadStatistics());
-			}			
-			
 		}
 
         //Delete the directories
@@ -421,6 +339,193 @@ public class Importer {
 		*/
 	}
 
+	/**
+	 * Creates a new {@link Converter} set up from the {@link #configuration}.
+	 * Every conversion thread should have its own converter, because it
+	 * holds the writers of the file under conversion.
+	 * @return The new converter
+	 */
+	private Converter createConverter() {
+		Converter converter = new Converter();
+		if(null != configuration.getMarcEncoding()) {
+			converter.setEncoding(configuration.getMarcEncoding());
+		}
+
+		if(null != configuration.getCharConversion()) {
+			converter.setConvertEncoding(configuration.getCharConversion());
+		}
+
+		if(configuration.isNeedModify() && configuration.isProductionMode()) {
+			converter.setModifier(new Modifier(configuration));
+		}
+
+		if(configuration.isNeedLoad() && configuration.isProductionMode()) {
+			converter.setRecordImporter(recordImporter);
+		}
+
+		converter.setSplitSize(configuration.getSplitSize());
+		converter.setRecordThreads(configuration.getConvertRecordThreads());
+		converter.setMappedReader(configuration.isMappedMarcReader());
+		converter.setDirectXmlWriter(configuration.isDirectXmlWriter());
+		converter.setDoIndentXml(configuration.isDoIndentXml());
+		converter.setErrorDir(dirNameGiver.getConvertError().getAbsolutePath());
+		converter.setCreateXml11(configuration.isCreateXml11());
+                converter.setTranslateLeaderBadCharsToZero(configuration.isTranslateLeaderBadCharsToZero());
+                converter.setTranslateNonleaderBadCharsToSpaces(configuration.isTranslateNonleaderBadCharsToSpaces());
+		converter.setIgnoreRepositoryCode(configuration.doesIgnoreRepositoryCode());
+		converter.setDefaultRepositoryCode(configuration.getDefaultRepositoryCode());
+		return converter;
+	}
+
+	/**
+	 * Converts the MARC files with a pool of threads. Each thread works with
+	 * its own {@link Converter}. The statistics are summarized in the order
+	 * of the files, not in the order the conversions finish.
+	 * @param files The sorted MARC files
+	 * @param converter The already created converter, used by one of the threads
+	 * @param threads The number of threads
+	 */
+	private void convertInParallel(File[] files, Converter converter, int threads) {
+		prglog.info("[PRG] Converting " + files.length + " files with "
+				+ threads + " threads");
+		final BlockingQueue<Converter> converters =
+			new LinkedBlockingQueue<Converter>();
+		converters.add(converter);
+		for(int i = 1; i < threads; i++) {
+			converters.add(createConverter());
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<ConversionStatistics>> results =
+			new ArrayList<Future<ConversionStatistics>>(files.length);
+		for(final File marcFile : files) {
+			results.add(executor.submit(new Callable<ConversionStatistics>() {
+				public ConversionStatistics call() throws Exception {
+					Converter converter = converters.take();
+					try {
+						return convertFile(converter, marcFile);
+					} finally {
+						converters.put(converter);
+					}
+				}
+			}));
+		}
+		executor.shutdown();
+
+		for(int i = 0; i < files.length; i++) {
+			try {
+				ConversionStatistics fileStatistics = results.get(i).get();
+				if (fileStatistics != null) {
+					conversionStatistics.add(fileStatistics);
+				}
+			} catch(InterruptedException e) {
+				prglog.error("[PRG] Conversion of " + files[i].getName()
+						+ " was interrupted.");
+				Thread.currentThread().interrupt();
+			} catch(ExecutionException e) {
+				prglog.error("[PRG] " + ExceptionPrinter.getStack(e.getCause()));
+			}
+		}
+	}
+
+	/**
+	 * Converts one MARC file, and moves it to the destination directory, or
+	 * in case of error to the error directory.
+	 * @param converter The converter to use
+	 * @param marcFile The MARC file
+	 * @return The statistics of the file, or null, if the conversion failed
+	 */
+	private ConversionStatistics convertFile(Converter converter, File marcFile) {
+		ConversionStatistics fileStatistics = null;
+
+		File xmlFile = new File(configuration.getDestinationXmlDir(),
+				marcFile.getName().replaceAll(".mrc$", ".xml"));
+		try {
+			// setting the XML file
+			if(configuration.isNeedLogDetail()){
+				prglog.info("[PRG] Converting " + marcFile.getName()
+						+ " to " + xmlFile.getName());
+				libconvertlog.info("[LIB] Converting " + marcFile.getName()
+						+ " to " + xmlFile.getName() + "\n\n");
+			}
+
+			// CONVERT !!!!
+			fileStatistics = converter.convert(marcFile, xmlFile);
+
+			if(configuration.isNeedLogDetail()) {
+				prglog.info("[PRG] " + fileStatistics.toString(marcFile.getName()));
+				if(importStatistics != null) {
+					prglog.info("[PRG] " + converter.getLoadStatistics().toString(
+						marcFile.getName()));
+				}
+			}
+
+			if(configuration.isNeedLogDetail()) {
+				prglog.info("[PRG] Moving " + marcFile.getName() + " to "
+						+ dirNameGiver.getConvertDestination());
+			}
+			// setting the destination file
+			File successFile = new File(dirNameGiver.getConvertDestination(),
+					marcFile.getName());
+
+			// delete if exists (otherwise the moving won't success)
+			if(successFile.exists()) {
+				boolean deleted = successFile.delete();
+				prglog.info("[PRG] Delete " + successFile + " - " + deleted);
+			}
+
+			// remove
+			boolean remove = marcFile.renameTo(successFile);
+			if(configuration.isNeedLogDetail()) {
+				prglog.info("[PRG] remove marc file (" + marcFile.getName() + ") to "
+						+ dirNameGiver.getConvertDestination()
+						+ ": " + remove);
+			}
+
+		} catch(Exception e){
+			if(e instanceof MarcException) {
+				prglog.error("[PRG] " + e.getMessage()
+				+ ". The last successfully read record's Control Number is "
+				+ converter.getControlNumberOfLastReadRecord()
+				+ ". The error may be in the next record.");
+			} else {
+				e.printStackTrace();
+				prglog.error("[PRG] " + e);
+			}
+			// copy marcFile -> errorDir
+			File errorFile = new File(configuration.getErrorDir(), marcFile.getName());
+			if(errorFile.exists()) {
+				boolean deleted = errorFile.delete();
+				if(deleted) {
+					prglog.info("[PRG] Delete " + errorFile + ".");
+				} else {
+					prglog.error("[PRG] Unable to delete " + errorFile + ".");
+				}
+			}
+			boolean remove = marcFile.renameTo(errorFile);
+			if(configuration.isNeedLogDetail()) {
+				prglog.info("[PRG] remove MARC to error directory: " + remove);
+			}
+
+			if(xmlFile.exists()){
+				File xmlErrorFile = new File(configuration.getErrorXmlDir(), xmlFile.getName());
+				if(xmlErrorFile.exists()) {
+					boolean deleted = xmlErrorFile.delete();
+					if(deleted) {
+						prglog.info("[PRG] Delete " + xmlErrorFile);
+					} else {
+						prglog.error("[PRG] Unable to delete " + xmlErrorFile);
+					}
+				}
+				remove = xmlFile.renameTo(xmlErrorFile);
+				if(configuration.isNeedLogDetail()) {
+					prglog.info("[PRG] remove XML to error_xml directory: " + remove);
+				}
+			}
+		}
+		return fileStatistics;
+	}
+
 	private void modify(){
                 prglog.info(" *********** START OF MODIFY PROCESS ************ \n");
 		prglog.info("[PRG] Start modifying of MARCXML files from " + dirNameGiver
@@ -460,7 +565,8 @@ public class Importer {
 				System.setProperty("file.encoding", "UTF-8");
 				long fileSize = xmlFile.length();
 				in = new FileInputStream(xmlFile);
-				marcReader = new MarcXmlReader(in);
+				marcReader = new BufferedMarcXmlReader(in,
+						configuration.getXmlQueueSize());
 				out = new FileOutputStream(new File(
 						dirNameGiver.getModifyTarget(), xmlFile.getName()));
 				out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n".getBytes("UTF-8"));
@@ -634,6 +740,66 @@ public class Importer {
 			modifier = new Modifier(configuration);
 		}
 
+		LoadPipeline pipeline = null;
+		if(configuration.getLoadThreads() > 1) {
+			if(recordImporter instanceof IParallelImporter) {
+				pipeline = new LoadPipeline((IParallelImporter)recordImporter,
+						modifier, configuration.getLoadThreads());
+			} else {
+				prglog.warn("[PRG] Parallel load is not available for the "
+						+ configuration.getStorageType() + " storage type. "
+						+ "Loading with one thread.");
+			}
+		}
+
+		// The journal of the durable points. Its last checkpoint tells which
+		// OAI ID numbers were used by the previous load, and with the resume
+		// option which records of the interrupted file were stored.
+		ImportJournal journal = null;
+		ImportJournal.Checkpoint resumeFrom = null;
+		// the OAI ID numbers up to this value may be used in the index
+		int usedOaiIdNumberValue = 0;
+		if(recordImporter instanceof LuceneImporter) {
+			journal = new ImportJournal(new File(configuration.getLuceneIndex(),
+					ImportJournal.FILE_NAME));
+			ImportJournal.Checkpoint lastCheckpoint = journal.readLastCheckpoint();
+			if(lastCheckpoint != null) {
+				usedOaiIdNumberValue = lastCheckpoint.getTrackedOaiIdValue();
+				// a commit after the checkpoint (e.g. a crash before the
+				// checkpoint was written) may have used more numbers
+				LuceneImporter luceneImporter = (LuceneImporter)recordImporter;
+				long generation = luceneImporter.getCommitGeneration();
+				if(lastCheckpoint.getGeneration() != generation) {
+					prglog.info("[PRG] The index (generation " + generation
+							+ ") was committed after the last checkpoint, "
+							+ "the used OAI ID numbers are read from the index.");
+					try {
+						usedOaiIdNumberValue = Math.max(usedOaiIdNumberValue,
+								luceneImporter.getNextOaiIdValue());
+					} catch(IOException e) {
+						prglog.error("[PRG] Unable to read the OAI ID numbers "
+								+ "of the index: " + e);
+					}
+				}
+			}
+			if(configuration.isResume()) {
+				if(lastCheckpoint == null) {
+					prglog.info("[PRG] There is no checkpoint to resume from "
+							+ "in " + journal.getFile() + ", loading all files.");
+				} else {
+					prglog.info("[PRG] Resume the load from the checkpoint "
+							+ lastCheckpoint);
+					resumeFrom = lastCheckpoint;
+				}
+			} else {
+				journal.reset();
+			}
+			recordImporter.setJournal(journal);
+		} else if(configuration.isResume()) {
+			prglog.warn("[PRG] The resume option is available only for the "
+					+ StorageTypes.LUCENE + " storage type.");
+		}
+
 		int counter = 0;
 		importStatistics = new LoadStatistics();
 		LoadStatistics fileStatistics = null;
@@ -656,7 +822,8 @@ public class Importer {
 				System.setProperty("file.encoding", "UTF-8");
 				long fileSize = xmlFile.length();
 				InputStream in = new FileInputStream(xmlFile);
-				MarcReader marcReader = new MarcXmlReader(in);
+				MarcReader marcReader = new BufferedMarcXmlReader(in,
+						configuration.getXmlQueueSize());
 
 				if(configuration.isNeedLogDetail()) {
 					prglog.info("[PRG] Importing records...");
@@ -681,22 +848,47 @@ public class Importer {
                     prglog.debug("The Tracking ID is" + trackingId);
                 }
 
+                // The stored value is updated only at the end of the files, so
+                // after an interrupted file the journal or the importer may
+                // know numbers, which were already used.
+                if(usedOaiIdNumberValue > trackedOaiIdNumberValue) {
+                    prglog.info("[PRG] The Tracked OAI ID Number value is raised to "
+                    		+ usedOaiIdNumberValue);
+                    trackedOaiIdNumberValue = usedOaiIdNumberValue;
+                }
+
                 recordImporter.setTrackedOaiIdValue(trackedOaiIdNumberValue);
+
+				// skip the records stored before the checkpoint
+				int skip = 0;
+				if(resumeFrom != null && resumeFrom.isOf(xmlFile)) {
+					skip = resumeFrom.getRecords();
+					prglog.info("[PRG] Skipping the first " + skip
+							+ " records of " + xmlFile.getName());
+					// the files after it are loaded from their beginning
+					resumeFrom = null;
+				}
+				while(counter < skip && marcReader.hasNext()) {
+					marcReader.next();
+					counter++;
+				}
+				if(journal != null) {
+					journal.startFile(xmlFile, counter);
+				}
+
                 /** the percent of imported records in the size of file */
 				int percent;
 				while (marcReader.hasNext()) {
 					record = marcReader.next();
 
-                    if(modifier != null) {
-						String xml = modifier.modifyRecord(record, configuration.isFileOfDeletedRecords());
-						record = MARCRecordWrapper.MARCXML2Record(xml);
-					}
-                    List<ImportType> typeList = recordImporter.importRecord(record, configuration.isFileOfDeletedRecords());
-					fileStatistics.add(typeList);
-					fileStatistics.add(recordImporter.getCheckTime(),
-							recordImporter.getInsertTime());
-					if(typeList.contains(ImportType.INVALID)) {
-						recordImporter.writeBadRecord(record);
+					if(pipeline != null) {
+						pipeline.add(record, fileStatistics);
+					} else {
+	                    if(modifier != null) {
+							record = modifier.modify(record, configuration.isFileOfDeletedRecords());
+						}
+	                    List<ImportType> typeList = recordImporter.importRecord(record, configuration.isFileOfDeletedRecords());
+						addToStatistics(fileStatistics, record, typeList);
 					}
 					counter++;
 					if(configuration.isNeedLogDetail() && (0 == counter % 100)) {
@@ -715,6 +907,13 @@ public class Importer {
 						//System.gc();
 					}
 				}
+				if(pipeline != null) {
+					pipeline.finish(fileStatistics);
+				}
+				// the records of the file should be durable before it is moved
+				if(journal != null) {
+					recordImporter.commit();
+				}
 				if(configuration.isNeedLogDetail() && (counter > 100)) {
 					System.out.println();
 				}
@@ -785,6 +984,12 @@ public class Importer {
 						+ recordImporter.getLastRecordToImport());
                         } 
 			
+			// drop the records of the failed file, which are still waiting
+			if(pipeline != null) {
+				pipeline.clear();
+			}
+			usedOaiIdNumberValue = Math.max(usedOaiIdNumberValue,
+					recordImporter.getTrackedOaiIdValue());
 			
 			// Be sure (outside of the try/catch block) to:
 			// add file stats because if we encounter an exception,
@@ -798,8 +1003,15 @@ public class Importer {
 
 		}
 		
+		if(pipeline != null) {
+			pipeline.shutdown();
+		}
+
 		// explicitly flush writes to index
 		recordImporter.commit();
+		if(journal != null) {
+			journal.reset();
+		}
 
 		recordImporter.closeCurrentFile(); // perform any necessary cleanup on this re-usable object
 
@@ -837,6 +1049,23 @@ public class Importer {
 		}
 	}
 
+	/**
+	 * Add the result of a record's import to the statistics of the file, and
+	 * write out the record, if it is invalid.
+	 * @param fileStatistics The statistics of the current file
+	 * @param record The imported record
+	 * @param typeList The result of the import
+	 */
+	private void addToStatistics(LoadStatistics fileStatistics, Record record,
+			List<ImportType> typeList) {
+		fileStatistics.add(typeList);
+		fileStatistics.add(recordImporter.getCheckTime(),
+				recordImporter.getInsertTime());
+		if(typeList.contains(ImportType.INVALID)) {
+			recordImporter.writeBadRecord(record);
+		}
+	}
+
 	private boolean checkXml(File xmlFile) {
 		try {
 
@@ -893,6 +1122,33 @@ public class Importer {
 		}
 	}
 
+	/**
+	 * Create the renderer of the payloads configured by the lucene_payloads
+	 * option. The XSLT files are found by the metadata formats
+	 * configuration of the lucene_payload_xsl_dir directory.
+	 * @return The renderer, or null if the formats can not be loaded
+	 */
+	private PayloadRenderer createPayloadRenderer() {
+		File xslDir = new File(configuration.getLucenePayloadXslDir());
+		PayloadRenderer renderer = new PayloadRenderer(
+				configuration.getLucenePayloadSchemaUrl());
+		try {
+			MetadataFormats metadataFormats = MetadataFormatUnmarshaler.load(
+					new File(xslDir, "metadataFormats.xml"),
+					new File(xslDir, "metadata-format-mapping.xml"));
+			if(metadataFormats == null) {
+				throw new Exception("no metadata formats in " + xslDir);
+			}
+			renderer.addFormats(configuration.getLucenePayloads().split(","),
+					metadataFormats, xslDir);
+		} catch(Exception e) {
+			prglog.error("[PRG] Unable to create the payload renderer: "
+					+ e.getMessage() + ". The payloads are not rendered.");
+			return null;
+		}
+		return renderer;
+	}
+
 	private void initRecordImporter() {
 
 		String schemaFile = ImporterConstants.MARC_SCHEMA_URL;
@@ -919,14 +1175,31 @@ public class Importer {
 				&& configuration.getLuceneIndex() != null)
 		{
 			prglog.info("[PRG] LuceneIndex: " + configuration.getLuceneIndex());
-			recordImporter = new LuceneImporter(schemaFile,
-						configuration.getLuceneIndex());
+			LuceneImporter luceneImporter = new LuceneImporter(schemaFile,
+						configuration.getLuceneIndex(),
+						configuration.getLuceneShards());
+			luceneImporter.setRefreshInterval(
+					configuration.getLuceneRefreshInterval());
+			luceneImporter.setXmlInIndex(configuration.isLuceneXmlInIndex());
+			luceneImporter.setCompressXml(configuration.isLuceneCompressXml());
+			if(configuration.getLucenePayloads() != null) {
+				luceneImporter.setPayloadRenderer(createPayloadRenderer());
+			}
+			LuceneMergeManager mergeManager = luceneImporter.getMergeManager();
+			mergeManager.setMaxNumSegments(configuration.getLuceneMaxSegments());
+			mergeManager.setExpungeDeletesRatio(
+					configuration.getLuceneExpungeDeletesRatio());
+			mergeManager.setMergeMbPerSec(configuration.getLuceneMergeMbPerSec());
+			recordImporter = luceneImporter;
 		} else {
 			// else use the MySQL based RecordImporter
 			recordImporter = new MysqlImporter(schemaFile);
 		}
 
 		recordImporter.setDoIndentXml(configuration.isDoIndentXml());
+		recordImporter.setEventValidation(configuration.isEventValidation());
+		recordImporter.setNativeValidation(configuration.isNativeValidation());
+		recordImporter.setXsdSampleRate(configuration.getXsdSampleRate());
 		recordImporter.setCreateXml11(configuration.isCreateXml11());
 		recordImporter.setErrorXmlDir(configuration.getErrorXmlDir());
 		
@@ -943,6 +1216,27 @@ public class Importer {
         LuceneSearcher ls = new LuceneSearcher(configuration.getLuceneIndex());
         ls.dumpIds();
     }
+
+    /**
+     * Compress the uncompressed XML stored in the Lucene index, without
+     * reimporting the records. The index should not be loaded meanwhile.
+     */
+    private void compressXml() throws IOException {
+    	long start = System.currentTimeMillis();
+    	LuceneIndexMgr luceneMgr = new LuceneIndexMgr(
+    			configuration.getLuceneIndex());
+    	try {
+    		int rewritten = luceneMgr.compressStoredXml();
+    		luceneMgr.optimize();
+    		String message = "Compressed the XML of " + rewritten
+    			+ " records of the Lucene index in "
+    			+ MilliSecFormatter.toString(System.currentTimeMillis() - start);
+    		prglog.info("[PRG] " + message);
+    		libloadlog.info("[LIB] " + message);
+    	} finally {
+    		luceneMgr.close();
+    	}
+    }
     
     
     /**
@@ -1020,6 +1314,12 @@ public class Importer {
                 importer.statsexecute();
             } else if (importer.configuration.isLuceneDumpIds()) {
             	importer.dumpids();
+            } else if (importer.configuration.isLuceneCompressXml()
+            		&& !importer.configuration.isNeedConvert()
+            		&& !importer.configuration.isNeedModify()
+            		&& !importer.configuration.isNeedLoad()) {
+            	importer.init();
+            	importer.compressXml();
             }
             else {
 				importer.init();
@@ -1039,4 +1339,104 @@ public class Importer {
 	public ConversionStatistics getConversionStatistics() {
 		return conversionStatistics;
 	}
+
+	/**
+	 * Prepares (modifies, serializes and validates) the records of the load
+	 * step with a pool of threads, while the prepared records are stored on
+	 * the calling thread in the order of the file, so the OAI identifiers
+	 * are assigned the same way as in a single threaded load.
+	 */
+	private class LoadPipeline {
+
+		private final IParallelImporter importer;
+
+		private final ExecutorService workers;
+
+		/** The modifiers of the worker threads */
+		private final ThreadLocal<Modifier> modifiers;
+
+		/** The records under preparation, in the order of the file */
+		private final LinkedList<Future<PreparedRecord>> pending =
+			new LinkedList<Future<PreparedRecord>>();
+
+		/** How many records can wait for storing */
+		private final int capacity;
+
+		public LoadPipeline(IParallelImporter importer, final Modifier modifier,
+				int threads) {
+			this.importer = importer;
+			workers = Executors.newFixedThreadPool(threads);
+			capacity = threads * LOAD_QUEUE_SIZE_PER_THREAD;
+			modifiers = new ThreadLocal<Modifier>() {
+				protected Modifier initialValue() {
+					return (modifier == null) ? null : modifier.copy();
+				}
+			};
+		}
+
+		/**
+		 * Add the next record of the file. If too many records are waiting,
+		 * store the first one.
+		 * @param record The record
+		 * @param fileStatistics The statistics of the current file
+		 * @throws Exception
+		 */
+		public void add(final Record record, LoadStatistics fileStatistics)
+				throws Exception {
+			final boolean doFileOfDeletedRecords =
+				configuration.isFileOfDeletedRecords();
+			pending.add(workers.submit(new Callable<PreparedRecord>() {
+				public PreparedRecord call() {
+					Record modified = record;
+					Modifier modifier = modifiers.get();
+					if(modifier != null) {
+						modified = modifier.modify(record, doFileOfDeletedRecords);
+					}
+					return importer.prepareRecord(modified, doFileOfDeletedRecords);
+				}
+			}));
+			if(pending.size() >= capacity) {
+				storeNext(fileStatistics);
+			}
+		}
+
+		/**
+		 * Store all the waiting records.
+		 * @param fileStatistics The statistics of the current file
+		 * @throws Exception
+		 */
+		public void finish(LoadStatistics fileStatistics) throws Exception {
+			while(!pending.isEmpty()) {
+				storeNext(fileStatistics);
+			}
+		}
+
+		/** Drop the waiting records */
+		public void clear() {
+			for(Future<PreparedRecord> future : pending) {
+				future.cancel(true);
+			}
+			pending.clear();
+		}
+
+		/** Stop the worker threads */
+		public void shutdown() {
+			clear();
+			workers.shutdown();
+		}
+
+		private void storeNext(LoadStatistics fileStatistics) throws Exception {
+			PreparedRecord prepared;
+			try {
+				prepared = pending.removeFirst().get();
+			} catch(ExecutionException e) {
+				if(e.getCause() instanceof Exception) {
+					throw (Exception)e.getCause();
+				}
+				throw e;
+			}
+			List<ImportType> typeList = importer.importPreparedRecord(prepared);
+			addToStatistics(fileStatistics, prepared.getRecord(), typeList);
+		}
+	}
 }
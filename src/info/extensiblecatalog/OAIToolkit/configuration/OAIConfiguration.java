@@ -90,6 +90,13 @@ public class OAIConfiguration {
 	/** supported compression types */
 	private String[] compression = {};
 
+	/** The level of the response compression (1: fastest - 9: best) */
+	private int compressionLevel = 6;
+
+	/** The minimal size of a compressed response in bytes. The smaller
+	 * responses are sent uncompressed. */
+	private int compressionMinSize = 2048;
+
 	/** maximum number of sets in a ListSets response chunk */
 	private int setsChunk_maxNumberOfRecords = 0;
 
@@ -188,6 +195,14 @@ public class OAIConfiguration {
 				maxCacheLifetime = Integer.parseInt(
 					defaultProps.getProperty("maxCacheLifetime")) * 60000;
 			}
+			if(defaultProps.getProperty("compressionLevel") != null) {
+				compressionLevel = Integer.parseInt(
+					defaultProps.getProperty("compressionLevel").trim());
+			}
+			if(defaultProps.getProperty("compressionMinSize") != null) {
+				compressionMinSize = Integer.parseInt(
+					defaultProps.getProperty("compressionMinSize").trim());
+			}
 
 		} catch(FileNotFoundException e){
 			e.printStackTrace();
@@ -235,6 +250,8 @@ public class OAIConfiguration {
 			defaultProps.setProperty("schema", schema);
 			defaultProps.setProperty("storageType", storageType);
 			defaultProps.setProperty("maxCacheLifetime", String.valueOf(maxCacheLifetime / 60000));
+			defaultProps.setProperty("compressionLevel", String.valueOf(compressionLevel));
+			defaultProps.setProperty("compressionMinSize", String.valueOf(compressionMinSize));
 
 			fos = new FileOutputStream(configurationFile);
 			defaultProps.store(fos, "OAIToolkit OAI server parameters");
@@ -278,6 +295,36 @@ public class OAIConfiguration {
 		this.compression = compression;
 	}
 
+	/**
+	 * Is the compression type supported?
+	 * @param type The compression type (e.g. gzip)
+	 * @return True if the type is configured
+	 */
+	public boolean isCompressionSupported(String type) {
+		for(String supported : compression) {
+			if(supported.trim().equalsIgnoreCase(type)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+
+	public void setCompressionLevel(int compressionLevel) {
+		this.compressionLevel = compressionLevel;
+	}
+
+	public int getCompressionMinSize() {
+		return compressionMinSize;
+	}
+
+	public void setCompressionMinSize(int compressionMinSize) {
+		this.compressionMinSize = compressionMinSize;
+	}
+
 	public String getDeletedRecord() {
 		return deletedRecord;
 	}
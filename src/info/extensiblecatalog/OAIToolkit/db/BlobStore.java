@@ -0,0 +1,512 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package info.extensiblecatalog.OAIToolkit.db;
+
+import info.extensiblecatalog.OAIToolkit.utils.Logging;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.log4j.Logger;
+
+/**
+ * An append-only store of compressed texts (the XML of the records) next
+ * to the Lucene index, so the index stores only a short locator instead of
+ * the XML.
+ *
+ * The store is a directory of numbered files (00000000.blob, ...). A new
+ * text is compressed with deflate and appended to the last file, after a
+ * header of two ints: the length of the compressed bytes and the length of
+ * the original UTF-8 bytes. When the file reaches {@link #maxFileSize}, a
+ * new file is started. The locator of a text is
+ * <code>file:offset:length</code>, where length is the size of the whole
+ * record with its header.
+ *
+ * The files are never changed, only deleted as a whole, when no document
+ * refers to them any more (see {@link LuceneIndexMgr#optimize()}). Texts
+ * can be read on more threads; appending should happen on one thread.
+ * A reader of a deleted file is kept open for the searches of the older
+ * index commits, and closed by {@link #refresh()}, when it has not been
+ * used for {@link #retiredReaderTimeout} milliseconds.
+ *
+ * @author Peter Kiraly
+ */
+public class BlobStore {
+
+	private static String programmer_log = "programmer";
+	private static final Logger prglog = Logging.getLogger(programmer_log);
+
+	/** The name of the store's directory in the index directory */
+	public static final String DIR_NAME = "blobs";
+
+	private static final String EXTENSION = ".blob";
+	private static final String ENCODING = "UTF-8";
+	private static final int HEADER_SIZE = 8;
+
+	/** The directory of the store */
+	private File dir;
+
+	/** The size above which a new file is started */
+	private long maxFileSize = 256L * 1024 * 1024;
+
+	/** The number of the file the texts are appended to, -1 before the
+	 * first append */
+	private int currentFile = -1;
+	private FileOutputStream currentStream;
+	private BufferedOutputStream out;
+
+	/** The position of the next text in the current file */
+	private long position;
+
+	/** The compressor of the appended texts, created with the first one */
+	private Deflater deflater;
+
+	/** The time after which the unused reader of a deleted file is closed */
+	private long retiredReaderTimeout = 60 * 1000L;
+
+	/** The files opened for reading */
+	private Map<Integer, Reader> readers = new HashMap<Integer, Reader>();
+
+	/** The number of the readers of deleted files */
+	private int retiredReaders = 0;
+
+	/**
+	 * Create a store
+	 * @param dir The directory of the store. It is created with the first
+	 * text.
+	 */
+	public BlobStore(File dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * Append a text to the store. It is readable at once, but it is durable
+	 * only after {@link #sync()}.
+	 * @param text The text
+	 * @return The locator of the text
+	 * @throws IOException
+	 */
+	public synchronized String append(String text) throws IOException {
+		byte[] raw = text.getBytes(ENCODING);
+		if(deflater == null) {
+			deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+		}
+		deflater.reset();
+		deflater.setInput(raw);
+		deflater.finish();
+		ByteArrayOutputStream compressed =
+			new ByteArrayOutputStream(raw.length / 3 + 64);
+		byte[] buffer = new byte[8192];
+		while(!deflater.finished()) {
+			int length = deflater.deflate(buffer);
+			compressed.write(buffer, 0, length);
+		}
+
+		int length = HEADER_SIZE + compressed.size();
+		if(out == null || position + length > maxFileSize && position > 0) {
+			openNextFile();
+		}
+		String locator = currentFile + ":" + position + ":" + length;
+		writeInt(compressed.size());
+		writeInt(raw.length);
+		compressed.writeTo(out);
+		position += length;
+		return locator;
+	}
+
+	/**
+	 * Read a text
+	 * @param locator The locator returned by {@link #append(String)}
+	 * @return The text
+	 * @throws IOException If the file of the text does not exist, or the
+	 * record is damaged
+	 */
+	public String read(String locator) throws IOException {
+		String[] parts = locator.split(":");
+		if(parts.length != 3) {
+			throw new IOException("Invalid locator: " + locator);
+		}
+		int file = Integer.parseInt(parts[0]);
+		long offset = Long.parseLong(parts[1]);
+		int length = Integer.parseInt(parts[2]);
+		flush(file);
+
+		ByteBuffer record = ByteBuffer.allocate(length);
+		Reader reader = acquire(file);
+		try {
+			FileChannel channel = reader.file.getChannel();
+			while(record.hasRemaining()) {
+				if(channel.read(record, offset + record.position()) == -1) {
+					throw new EOFException("The record " + locator
+							+ " is beyond the end of the file.");
+				}
+			}
+		} finally {
+			release(reader);
+		}
+		record.flip();
+		int compressedLength = record.getInt();
+		int rawLength = record.getInt();
+		if(compressedLength != length - HEADER_SIZE || rawLength < 0) {
+			throw new IOException("Damaged record: " + locator);
+		}
+		byte[] raw = new byte[rawLength];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(record.array(), HEADER_SIZE, compressedLength);
+			int read = 0;
+			while(read < rawLength) {
+				int n = inflater.inflate(raw, read, rawLength - read);
+				if(n == 0 && (inflater.finished() || inflater.needsInput()
+						|| inflater.needsDictionary())) {
+					break;
+				}
+				read += n;
+			}
+			if(read != rawLength) {
+				throw new IOException("Damaged record: " + locator);
+			}
+		} catch(DataFormatException e) {
+			throw new IOException("Damaged record: " + locator + ": "
+					+ e.getMessage());
+		} finally {
+			inflater.end();
+		}
+		return new String(raw, ENCODING);
+	}
+
+	/**
+	 * Write the appended texts to the disk
+	 * @throws IOException
+	 */
+	public synchronized void sync() throws IOException {
+		if(out != null) {
+			out.flush();
+			currentStream.getFD().sync();
+		}
+	}
+
+	/**
+	 * Open all existing files for reading. The open files stay readable
+	 * (on most systems) even after they are deleted by a compaction, so a
+	 * reader of an older index commit should call it when it is opened.
+	 * The readers of the deleted files are closed, when they have not been
+	 * used for {@link #retiredReaderTimeout} milliseconds since the first
+	 * refresh, which found them deleted.
+	 */
+	public synchronized void refresh() {
+		Map<Integer, Long> sizes = getFileSizes();
+		long now = System.currentTimeMillis();
+		for(Map.Entry<Integer, Reader> entry : readers.entrySet()) {
+			Reader reader = entry.getValue();
+			if(!reader.retired && !sizes.containsKey(entry.getKey())) {
+				reader.retired = true;
+				reader.lastUse = now;
+				retiredReaders++;
+			}
+		}
+		closeRetiredReaders(now);
+		for(Integer file : sizes.keySet()) {
+			try {
+				getReader(file);
+			} catch(IOException e) {
+				prglog.error("[PRG] Unable to open the blob file " + file
+						+ ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Sync and close the store
+	 */
+	public synchronized void close() {
+		try {
+			sync();
+		} catch(IOException e) {
+			prglog.error("[PRG] Unable to sync the blob store " + dir + ": "
+					+ e.getMessage());
+		}
+		closeWriter();
+		for(Reader reader : readers.values()) {
+			close(reader.file);
+		}
+		readers.clear();
+		retiredReaders = 0;
+		if(deflater != null) {
+			deflater.end();
+			deflater = null;
+		}
+	}
+
+	/**
+	 * Get the files of the store
+	 * @return The sizes of the files by their numbers
+	 */
+	public synchronized Map<Integer, Long> getFileSizes() {
+		Map<Integer, Long> sizes = new TreeMap<Integer, Long>();
+		File[] files = dir.listFiles();
+		if(files != null) {
+			for(File file : files) {
+				String name = file.getName();
+				if(name.endsWith(EXTENSION)) {
+					try {
+						int number = Integer.parseInt(name.substring(0,
+								name.length() - EXTENSION.length()));
+						sizes.put(number, (number == currentFile)
+								? position : file.length());
+					} catch(NumberFormatException e) {
+						// not a file of the store
+					}
+				}
+			}
+		}
+		return sizes;
+	}
+
+	/**
+	 * Delete a file, to which no document refers. The current file can not
+	 * be deleted. Its reader is closed, or if it is being read, it is closed
+	 * by a later {@link #refresh()}.
+	 * @param number The number of the file
+	 * @return True if the file was deleted
+	 */
+	public synchronized boolean delete(int number) {
+		if(number == currentFile) {
+			return false;
+		}
+		Reader reader = readers.get(number);
+		if(reader != null && reader.users == 0) {
+			readers.remove(number);
+			if(reader.retired) {
+				retiredReaders--;
+			}
+			close(reader.file);
+		} else if(reader != null && !reader.retired) {
+			reader.retired = true;
+			reader.lastUse = System.currentTimeMillis();
+			retiredReaders++;
+		}
+		return getFile(number).delete();
+	}
+
+	/**
+	 * Get the number of the file of a text
+	 * @param locator The locator of the text
+	 * @return The number of the file
+	 */
+	public static int getFileNumber(String locator) {
+		return Integer.parseInt(locator.substring(0, locator.indexOf(':')));
+	}
+
+	/**
+	 * Get the size of a text in the store
+	 * @param locator The locator of the text
+	 * @return The size of the compressed text with its header
+	 */
+	public static int getLength(String locator) {
+		return Integer.parseInt(locator.substring(
+				locator.lastIndexOf(':') + 1));
+	}
+
+	/**
+	 * Get the number of the file the texts are appended to
+	 * @return The number of the file, or -1 if nothing was appended yet
+	 */
+	public synchronized int getCurrentFile() {
+		return currentFile;
+	}
+
+	public File getDir() {
+		return dir;
+	}
+
+	public long getMaxFileSize() {
+		return maxFileSize;
+	}
+
+	public void setMaxFileSize(long maxFileSize) {
+		this.maxFileSize = maxFileSize;
+	}
+
+	public long getRetiredReaderTimeout() {
+		return retiredReaderTimeout;
+	}
+
+	public void setRetiredReaderTimeout(long retiredReaderTimeout) {
+		this.retiredReaderTimeout = retiredReaderTimeout;
+	}
+
+	/**
+	 * Continue the last file, or start a new one, if it is full
+	 */
+	private void openNextFile() throws IOException {
+		if(out == null) {
+			if(!dir.isDirectory() && !dir.mkdirs()) {
+				throw new IOException("Unable to create the blob store " + dir);
+			}
+			int last = -1;
+			for(Integer number : getFileSizes().keySet()) {
+				last = number;
+			}
+			if(last >= 0 && getFile(last).length() < maxFileSize) {
+				open(last);
+				return;
+			}
+			open(last + 1);
+		} else {
+			sync();
+			closeWriter();
+			open(currentFile + 1);
+		}
+	}
+
+	private void open(int number) throws IOException {
+		File file = getFile(number);
+		currentStream = new FileOutputStream(file, true);
+		out = new BufferedOutputStream(currentStream, 64 * 1024);
+		currentFile = number;
+		position = file.length();
+	}
+
+	private void closeWriter() {
+		if(out != null) {
+			try {
+				out.close();
+			} catch(IOException e) {
+				prglog.error("[PRG] " + e.getMessage());
+			}
+			out = null;
+			currentStream = null;
+		}
+	}
+
+	/**
+	 * Make the appended texts of the current file visible for reading
+	 */
+	private synchronized void flush(int file) throws IOException {
+		if(out != null && file == currentFile) {
+			out.flush();
+		}
+	}
+
+	private synchronized Reader getReader(int number) throws IOException {
+		Reader reader = readers.get(number);
+		if(reader == null) {
+			File file = getFile(number);
+			if(!file.exists()) {
+				throw new FileNotFoundException("The blob file " + file
+						+ " does not exist.");
+			}
+			reader = new Reader(new RandomAccessFile(file, "r"));
+			readers.put(number, reader);
+		}
+		return reader;
+	}
+
+	/**
+	 * Get the reader of a file for a read, which should be followed by
+	 * {@link #release(Reader)}
+	 */
+	private synchronized Reader acquire(int number) throws IOException {
+		Reader reader = getReader(number);
+		reader.users++;
+		reader.lastUse = System.currentTimeMillis();
+		return reader;
+	}
+
+	private synchronized void release(Reader reader) {
+		reader.users--;
+	}
+
+	/**
+	 * Close the readers of the deleted files, which are not being read, and
+	 * have not been used for {@link #retiredReaderTimeout} milliseconds
+	 * @param now The current time
+	 */
+	private void closeRetiredReaders(long now) {
+		if(retiredReaders == 0) {
+			return;
+		}
+		Iterator<Map.Entry<Integer, Reader>> it =
+			readers.entrySet().iterator();
+		while(it.hasNext()) {
+			Map.Entry<Integer, Reader> entry = it.next();
+			Reader reader = entry.getValue();
+			if(reader.retired && reader.users == 0
+					&& now - reader.lastUse >= retiredReaderTimeout) {
+				prglog.info("[PRG] Closing the deleted blob file "
+						+ entry.getKey());
+				close(reader.file);
+				it.remove();
+				retiredReaders--;
+			}
+		}
+	}
+
+	private File getFile(int number) {
+		String name = Integer.toString(number);
+		while(name.length() < 8) {
+			name = "0" + name;
+		}
+		return new File(dir, name + EXTENSION);
+	}
+
+	private void writeInt(int value) throws IOException {
+		out.write(value >>> 24);
+		out.write(value >>> 16);
+		out.write(value >>> 8);
+		out.write(value);
+	}
+
+	private static void close(RandomAccessFile file) {
+		try {
+			file.close();
+		} catch(IOException e) {
+			prglog.error("[PRG] " + e.getMessage());
+		}
+	}
+
+	/**
+	 * A file opened for reading
+	 */
+	private static class Reader {
+
+		final RandomAccessFile file;
+
+		/** The number of the reads in progress */
+		int users = 0;
+
+		/** The time of the last read, or the time, when the file was found
+		 * deleted */
+		long lastUse = 0;
+
+		/** Is the file deleted? */
+		boolean retired = false;
+
+		Reader(RandomAccessFile file) {
+			this.file = file;
+		}
+	}
+}
@@ -15,17 +15,32 @@ import info.extensiblecatalog.OAIToolkit.utils.MilliSecFormatter;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.zip.DataFormatException;
 
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.log4j.Logger;
+import org.apache.lucene.document.CompressionTools;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.Fieldable;
+import org.apache.lucene.document.MapFieldSelector;
 import org.apache.lucene.document.NumericField;
 import org.apache.lucene.document.Field.Index;
 import org.apache.lucene.document.Field.Store;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MultiReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermEnum;
 import org.apache.lucene.search.BooleanQuery;
@@ -34,58 +49,353 @@ import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.BooleanClause.Occur;
-import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.store.SimpleFSDirectory;
-import org.apache.lucene.util.Version;
+import org.apache.lucene.util.NumericUtils;
+import org.apache.lucene.util.ReaderUtil;
 
 /**
  * Wrapper class to managing Lucene index creation
+ *
+ * The index can be split into shards: then the index directory contains
+ * the shard_0 ... shard_N-1 subdirectories, each of them a Lucene index
+ * with its own writer and writer thread. A document goes to the shard
+ * chosen by the hash of its id. The searcher reads all shards through one
+ * MultiReader, so the document numbers are global.
  * @author kiru
  */
 public class LuceneIndexMgr {
 
-	private IndexWriter   writer;
+	private static String programmer_log = "programmer";
+	private static final Logger prglog = Logging.getLogger(programmer_log);
+
+	/** The prefix of the shard directories */
+	public static final String SHARD_DIR_PREFIX = "shard_";
+
+	/** The field of the locator of the record's XML in the blob store */
+	public static final String XML_REF_FIELD = "xml_ref";
+
+	/**
+	 * The prefix of the fields of the pre-rendered payloads, followed by
+	 * the metadata prefix
+	 */
+	public static final String PAYLOAD_FIELD_PREFIX = "payload_";
+
+	/**
+	 * The maximal number of changed ids remembered. After more changes the
+	 * searcher is reopened before the next search by id.
+	 */
+	private static final int MAX_CHANGED_IDS = 10000;
+
+	/** The number of documents relocated at once by the compaction */
+	private static final int COMPACT_BATCH_SIZE = 1000;
+
+	/**
+	 * The format marker of the compressed XML: the first byte of the binary
+	 * xml field, followed by the deflated UTF-8 bytes
+	 */
+	public static final byte XML_FORMAT_DEFLATE = 1;
+
+	/** The shards, a single one if the index is not sharded */
+	private LuceneShard[] shards;
 	private IndexSearcher searcher;
 	private IndexReader   reader;
 	private Random        generator;
-	private FSDirectory   indexDir;
+	private File          indexDir;
+	private LuceneKeyIndex keys;
+	private LuceneMergeManager mergeManager = new LuceneMergeManager();
+
+	/** The store of the records' XML */
+	private BlobStore     blobs;
+
+	/** Should the XML be stored in the index instead of the blob store? */
+	private boolean       xmlInIndex = false;
+
+	/** Should the XML stored in the index be compressed? */
+	private boolean       compressXml = false;
+
+	/**
+	 * The maximal age of the searcher in milliseconds, if the index has
+	 * changed since it was opened
+	 */
+	private long          refreshInterval = 10000;
+
+	/** When was the searcher opened? */
+	private long          searcherOpened;
+
+	/** Has the index changed since the searcher was opened? */
+	private boolean       changed = false;
+
+	/**
+	 * The values of the id field of the documents added or deleted since
+	 * the searcher was opened. Searching for them reopens the searcher.
+	 */
+	private Set<String>   changedIds = new HashSet<String>();
+
+	/**
+	 * Were more ids changed than {@link #MAX_CHANGED_IDS}? Then any search
+	 * by id reopens the searcher.
+	 */
+	private boolean       tooManyChanges = false;
+
+	/**
+	 * Were changes lost by a failed operation of a shard? Then no later
+	 * commit is reported as durable.
+	 */
+	private boolean       lostChanges = false;
 	
 	public LuceneIndexMgr(String _indexDir) {
-		open(_indexDir);
+		this(_indexDir, 1);
+	}
+
+	/**
+	 * Open the index
+	 * @param _indexDir The index directory
+	 * @param shardCount The number of shards of a new index. An existing
+	 * index keeps its own number of shards.
+	 */
+	public LuceneIndexMgr(String _indexDir, int shardCount) {
+		open(_indexDir, shardCount);
 		generator = new Random();
 	}
 
+	/**
+	 * Get the shard directories of a sharded index
+	 * @param indexDir The index directory
+	 * @return The shard directories in order, empty if the index is not
+	 * sharded
+	 */
+	public static File[] getShardDirs(File indexDir) {
+		List<File> dirs = new ArrayList<File>();
+		File dir;
+		while((dir = new File(indexDir, SHARD_DIR_PREFIX + dirs.size()))
+				.isDirectory()) {
+			dirs.add(dir);
+		}
+		return dirs.toArray(new File[dirs.size()]);
+	}
+
 	/**
 	 * Open an index writer
 	 * @param indexDir
 	 */
 	public void open(String _indexDir) {
+		open(_indexDir, 1);
+	}
+
+	/**
+	 * Open the index writers
+	 * @param _indexDir The index directory
+	 * @param shardCount The number of shards of a new index
+	 */
+	public void open(String _indexDir, int shardCount) {
 		try {
-			indexDir = new SimpleFSDirectory(new File(_indexDir));
-			
-			// autocommit = true; So that flush() will cause a commit, thus allowing new docs to be visible to the Reader.  This is important because we need to lookup IDs for potential updates!			
-			writer   = new IndexWriter(indexDir, new StandardAnalyzer(Version.LUCENE_30), IndexWriter.MaxFieldLength.UNLIMITED);
+			indexDir = new File(_indexDir);
+			File[] shardDirs = getShardDirs(indexDir);
+			if(shardDirs.length > 0) {
+				if(shardDirs.length != shardCount) {
+					prglog.warn("[PRG] The Lucene index " + indexDir + " has "
+							+ shardDirs.length + " shards, not " + shardCount);
+				}
+				shardCount = shardDirs.length;
+			} else if(shardCount > 1 && isIndex(indexDir)) {
+				prglog.warn("[PRG] The Lucene index " + indexDir
+						+ " is not sharded, it can not be split into "
+						+ shardCount + " shards.");
+				shardCount = 1;
+			}
 			
 			//writer.setRAMBufferSizeMB(256.0);
-			writer.setRAMBufferSizeMB((double)
-					(Runtime.getRuntime().maxMemory()/2.0) / (double)(1024*1024));
-			//writer.setMaxBufferedDocs(100000); /* don't set this _and_ setRAMBufferSizeMB */
-			//writer.setMergeFactor(2000);
-			writer.setMergeFactor(25);
+			double ramBufferSizeMB = (double)
+					(Runtime.getRuntime().maxMemory()/2.0) / (double)(1024*1024)
+					/ Math.max(shardCount, 1);
+			if(shardCount > 1) {
+				shards = new LuceneShard[shardCount];
+				for(int i = 0; i < shardCount; i++) {
+					shards[i] = new LuceneShard(
+							new File(indexDir, SHARD_DIR_PREFIX + i),
+							mergeManager, ramBufferSizeMB, true);
+				}
+			} else {
+				shards = new LuceneShard[]{new LuceneShard(indexDir,
+						mergeManager, ramBufferSizeMB, false)};
+			}
+			blobs = new BlobStore(new File(indexDir, BlobStore.DIR_NAME));
 			openSearcher();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
+
+	/**
+	 * Is there a Lucene index (not a sharded one) in the directory?
+	 */
+	private static boolean isIndex(File dir) {
+		String[] files = dir.list();
+		if(files != null) {
+			for(String file : files) {
+				if(file.startsWith("segments")) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Get the number of shards
+	 * @return The number of shards, 1 if the index is not sharded
+	 */
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * Get the shard of a document
+	 * @param id The value of the id field
+	 * @return The shard
+	 */
+	private LuceneShard getShard(String id) {
+		return shards[shardIndex(id)];
+	}
+
+	private int shardIndex(String id) {
+		if(shards.length == 1) {
+			return 0;
+		}
+		return (id.hashCode() & Integer.MAX_VALUE) % shards.length;
+	}
+
+	/**
+	 * Wait for the queued operations of all shards. The failures are kept
+	 * for {@link #takeFailures()}.
+	 * @return True if no operation failed since the last
+	 * {@link #takeFailures()}
+	 */
+	private boolean syncShards() {
+		boolean succeeded = true;
+		for(LuceneShard shard : shards) {
+			shard.sync();
+			if(shard.getFailure() != null) {
+				succeeded = false;
+			}
+		}
+		return succeeded;
+	}
+
+	/**
+	 * Clear the failures of the shards' operations. If there was any, the
+	 * changes are lost.
+	 * @return True if no operation failed since the last call
+	 */
+	private boolean takeFailures() {
+		boolean succeeded = true;
+		for(LuceneShard shard : shards) {
+			if(shard.takeFailure() != null) {
+				succeeded = false;
+			}
+		}
+		if(!succeeded) {
+			lostChanges = true;
+		}
+		return succeeded;
+	}
+
+	/**
+	 * Run an operation on all shards in parallel, and wait for them
+	 * @return True if the operation succeeded on all shards
+	 */
+	private boolean runOnShards(LuceneShard.Operation operation) {
+		for(LuceneShard shard : shards) {
+			shard.submit(operation);
+		}
+		return syncShards();
+	}
 	
+	/**
+	 * Open a near-real-time reader of the writers, which sees the
+	 * uncommitted changes too. An open reader is reopened, sharing its
+	 * unchanged segments.
+	 */
 	private void openSearcher() throws IOException {
-		reader   = IndexReader.open(indexDir);
-    	searcher = new IndexSearcher(reader); //reader
-      	}
+		syncShards();
+		IndexReader newReader;
+		if(reader != null) {
+			newReader = reader.reopen();
+		} else if(shards.length == 1) {
+			newReader = shards[0].getWriter().getReader();
+		} else {
+			IndexReader[] readers = new IndexReader[shards.length];
+			for(int i = 0; i < shards.length; i++) {
+				readers[i] = shards[i].getWriter().getReader();
+			}
+			newReader = new MultiReader(readers);
+		}
+		if(newReader != reader) {
+			if(reader != null) {
+				closeSearcher();
+			}
+			reader   = newReader;
+			searcher = new IndexSearcher(reader); //reader
+		}
+		searcherOpened = System.currentTimeMillis();
+		changed = false;
+		changedIds.clear();
+		tooManyChanges = false;
+	}
 
 	private void closeSearcher() throws IOException {
-		reader.close();
 		searcher.close();
+		reader.close();
+		reader   = null;
+		searcher = null;
+	}
+
+	/**
+	 * Get the searcher. It is opened when it is first used, and reopened
+	 * if the index changed and the searcher is older than the refresh
+	 * interval. Commits do not affect it.
+	 */
+	private IndexSearcher getSearcher() throws IOException {
+		if(searcher == null
+			|| (changed && System.currentTimeMillis() - searcherOpened
+					>= refreshInterval))
+		{
+			openSearcher();
+		}
+		return searcher;
+	}
+
+	/**
+	 * Get the searcher, which sees the current state of the document with
+	 * the given id
+	 */
+	private IndexSearcher getSearcher(String id) throws IOException {
+		if(searcher != null
+			&& (tooManyChanges || changedIds.contains(id)))
+		{
+			openSearcher();
+		}
+		return getSearcher();
+	}
+
+	/**
+	 * Get the reader
+	 */
+	private IndexReader getReader() throws IOException {
+		getSearcher();
+		return reader;
+	}
+
+	/**
+	 * Get the number of the documents in the last commit
+	 * @return The number of documents, or -1 if the index can not be read
+	 */
+	public int numDocs() {
+		try {
+			return getReader().numDocs();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return -1;
 	}
 
 	public int getRandomId() throws IOException {
@@ -106,7 +416,24 @@ public class LuceneIndexMgr {
 
 	public boolean doesExist(String id) throws IOException {
 		Query query = new TermQuery(new Term("id", id));
-		return doesExist(query);
+		return getSearcher(id).search(query, 1).scoreDocs.length > 0;
+	}
+
+	/**
+	 * Get the current version of a document, including the changes not
+	 * yet committed
+	 * @param id The value of the id field
+	 * @return The document, or null if there is no such document
+	 * @throws IOException
+	 */
+	public Document getDocById(String id) throws IOException {
+		IndexSearcher searcher = getSearcher(id);
+		TopDocs hits = searcher.search(new TermQuery(new Term("id", id)), 1);
+		if(hits.scoreDocs.length == 1) {
+			return searcher.doc(hits.scoreDocs[0].doc);
+		} else {
+			return null;
+		}
 	}
 
 	public boolean doesExist(RecordDTO searchData) throws IOException {
@@ -118,6 +445,7 @@ public class LuceneIndexMgr {
 	}
 
     public Document getDoc(Query query) throws IOException {
+    	IndexSearcher searcher = getSearcher();
     	TopDocs hits = searcher.search(query, 1);
 		if(hits.scoreDocs.length == 1) {
 			return searcher.doc(hits.scoreDocs[0].doc);//Integer.parseInt(hits.doc(0).get("id"));
@@ -142,7 +470,7 @@ public class LuceneIndexMgr {
 	}
 
 	public boolean doesExist(Query query) throws IOException {
-		TopDocs hits = searcher.search(query, 1);
+		TopDocs hits = getSearcher().search(query, 1);
 		if(hits.scoreDocs.length == 0) {
 			return false;
 		} else {
@@ -151,6 +479,7 @@ public class LuceneIndexMgr {
 	}
 
 	public String getId(Query query) throws IOException {
+		IndexSearcher searcher = getSearcher();
 		TopDocs hits = searcher.search(query, 1);
 		if(hits.scoreDocs.length == 1) {
 			return searcher.doc(hits.scoreDocs[0].doc).get("id");
@@ -160,6 +489,7 @@ public class LuceneIndexMgr {
 	}
 
     public String getXcOaiId(Query query) throws IOException {
+		IndexSearcher searcher = getSearcher();
 		TopDocs hits = searcher.search(query, 1);
 		if(hits.scoreDocs.length == 1) {
 			return searcher.doc(hits.scoreDocs[0].doc).get("xc_oaiid");
@@ -172,10 +502,34 @@ public class LuceneIndexMgr {
 	 * Close index
 	 */
 	public void close() {
-		if (writer != null) {
+		if (shards != null) {
 			try {
-				writer.close();
-				closeSearcher();
+				if(searcher != null) {
+					closeSearcher();
+				}
+				// the documents should not refer to texts lost by a crash
+				blobs.close();
+				runOnShards(new LuceneShard.Operation() {
+					public void run(IndexWriter writer) throws IOException {
+						writer.close();
+					}
+				});
+				for(LuceneShard shard : shards) {
+					shard.stop();
+				}
+				if(!takeFailures()) {
+					prglog.error("[PRG] Changes of the Lucene index " + indexDir
+							+ " were lost.");
+				}
+				if(keys != null) {
+					// closing the writer committed the changes
+					if(!lostChanges) {
+						keys.commit(getCommitGeneration());
+					}
+					keys.close();
+					keys = null;
+				}
+				shards = null;
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -183,45 +537,88 @@ public class LuceneIndexMgr {
 	}
 
 	/**
-	 * Optimize index
+	 * Compact the blob store, then optimize index as the merge manager
+	 * decides (the shards in parallel)
 	 */
 	public void optimize() {
-		if (writer != null) {
+		if (shards != null) {
 			try {
-				writer.optimize();
+				compactBlobs();
 			} catch (IOException e) {
+				prglog.error("[PRG] The compaction of the blob store failed: "
+						+ e);
 				e.printStackTrace();
 			}
+			runOnShards(new LuceneShard.Operation() {
+				public void run(IndexWriter writer) throws IOException {
+					mergeManager.optimize(writer);
+				}
+			});
 		}
 	}
 	
 	/**
-	 * Commit changes
+	 * Commit changes. The commit makes the changes durable; the searcher
+	 * sees them already. If an operation failed since the last commit, the
+	 * index is not committed. The failed changes are lost: then this and
+	 * every later commit returns false.
+	 * @return True if the changes are durable
 	 */
-	public void commit() {
-		if (writer != null) {
+	public boolean commit() {
+		if (shards != null) {
 			try {
-				writer.commit();
-				if(searcher != null) {
-					closeSearcher();
-				}
-				openSearcher();
+				// the committed documents should not refer to lost texts
+				blobs.sync();
 			} catch (IOException e) {
 				e.printStackTrace();
+				return false;
 			}
+			boolean committed = syncShards() && runOnShards(
+				new LuceneShard.Operation() {
+					public void run(IndexWriter writer) throws IOException {
+						writer.commit();
+					}
+				});
+			committed = takeFailures() && committed && !lostChanges;
+			if(committed && keys != null) {
+				keys.commit(getCommitGeneration());
+			}
+			return committed;
 		}
+		return false;
 	}
-	
-	/**  
-	 * Add a documentum to the index
-	 * @param doc The documentum to add
+
+	/**
+	 * Get the generation of the last commit. For a sharded index it is the
+	 * sum of the shards' generations, which changes with any commit.
+	 * @return The generation, or -1 if it is unknown
 	 */
-	public void addDoc(Document doc) {
+	public long getCommitGeneration() {
 		try {
-			writer.addDocument(doc);
+			long generation = 0;
+			for(LuceneShard shard : shards) {
+				generation += shard.getCommitGeneration();
+			}
+			return generation;
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		return -1;
+	}
+	
+	/**  
+	 * Add a documentum to the index
+	 * @param doc The documentum to add
+	 */
+	public void addDoc(final Document doc) {
+		String id = doc.get("id");
+		LuceneShard shard = (id == null) ? shards[0] : getShard(id);
+		shard.submit(new LuceneShard.Operation() {
+			public void run(IndexWriter writer) throws IOException {
+				writer.addDocument(doc);
+			}
+		});
+		changed(id);
 	}
 
     /**
@@ -233,20 +630,92 @@ public class LuceneIndexMgr {
 			//if(IndexReader.isLocked(indexDir)) {
 				//IndexReader.unlock(indexDir);
 			//}
-			reader.deleteDocument(id);
+			getReader().deleteDocument(id);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 
 	public void delDoc(String fieldName, String value) {
-		try {
-			writer.deleteDocuments(new Term(fieldName, value));
-		} catch (IOException e) {
-			e.printStackTrace();
+		delDocs(fieldName, Collections.singletonList(value));
+	}
+
+	/**
+	 * Delete the documents having any of the values in one pass (per
+	 * shard). The deletion affects only the documents added before the call.
+	 * @param fieldName The name of the field
+	 * @param values The values of the field
+	 */
+	public void delDocs(String fieldName, Collection<String> values) {
+		if(values.isEmpty()) {
+			return;
+		}
+		boolean isId = "id".equals(fieldName);
+		List<List<Term>> termsOfShards = new ArrayList<List<Term>>();
+		for(int i = 0; i < shards.length; i++) {
+			termsOfShards.add(new ArrayList<Term>());
+		}
+		for(String value : values) {
+			Term term = new Term(fieldName, value);
+			if(isId) {
+				termsOfShards.get(shardIndex(value)).add(term);
+			} else {
+				for(List<Term> terms : termsOfShards) {
+					terms.add(term);
+				}
+			}
+			changed(isId ? value : null);
+		}
+		for(int i = 0; i < shards.length; i++) {
+			final List<Term> terms = termsOfShards.get(i);
+			if(!terms.isEmpty()) {
+				shards[i].submit(new LuceneShard.Operation() {
+					public void run(IndexWriter writer) throws IOException {
+						writer.deleteDocuments(
+								terms.toArray(new Term[terms.size()]));
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Register a change of the index
+	 * @param id The id of the changed document, if it is known
+	 */
+	private void changed(String id) {
+		changed = true;
+		if(id != null && searcher != null && !tooManyChanges) {
+			changedIds.add(id);
+			if(changedIds.size() > MAX_CHANGED_IDS) {
+				// a load without searches should not keep all its ids
+				changedIds.clear();
+				tooManyChanges = true;
+			}
 		}
 	}
 
+	public LuceneMergeManager getMergeManager() {
+		return mergeManager;
+	}
+
+	/**
+	 * Get the maximal age of the searcher after a change
+	 * @return The interval in milliseconds
+	 */
+	public long getRefreshInterval() {
+		return refreshInterval;
+	}
+
+	/**
+	 * Set the maximal age of the searcher after a change. The documents
+	 * changed by this manager are always searched in their current state.
+	 * @param refreshInterval The interval in milliseconds
+	 */
+	public void setRefreshInterval(long refreshInterval) {
+		this.refreshInterval = refreshInterval;
+	}
+
 	/** 
 	 * Return a text field (tokenized field)
 	 * @param name The name of the field
@@ -277,14 +746,406 @@ public class LuceneIndexMgr {
 	public Field stored(String name, String content) {
 		return new Field(name, content, Store.YES, Index.NO);
 	}
+
+	/**
+	 * Return the field of the record's XML. The XML is appended to the
+	 * blob store, and the field stores its locator. If the XML should be
+	 * stored in the index, or the blob store can not be written, the field
+	 * stores the XML itself, compressed if it is set.
+	 * @param content The XML
+	 * @return The Field object
+	 */
+	public Field xml(String content) {
+		if(!xmlInIndex) {
+			try {
+				return stored(XML_REF_FIELD, blobs.append(content));
+			} catch (IOException e) {
+				prglog.error("[PRG] Unable to write the blob store "
+						+ blobs.getDir() + ": " + e);
+			}
+		}
+		if(compressXml) {
+			return compressedXml(content);
+		}
+		return stored("xml", content);
+	}
+
+	/**
+	 * Return the field of a pre-rendered payload: its UTF-8 bytes, ready to
+	 * be sent
+	 * @param metadataPrefix The metadata prefix of the payload
+	 * @param payload The payload
+	 * @return The Field object
+	 */
+	public Field payload(String metadataPrefix, String payload) {
+		try {
+			return new Field(PAYLOAD_FIELD_PREFIX + metadataPrefix,
+					payload.getBytes("UTF-8"), Store.YES);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Return a binary xml field with the compressed XML
+	 * @param content The XML
+	 * @return The Field object
+	 */
+	public static Field compressedXml(String content) {
+		byte[] compressed = CompressionTools.compressString(content);
+		byte[] value = new byte[compressed.length + 1];
+		value[0] = XML_FORMAT_DEFLATE;
+		System.arraycopy(compressed, 0, value, 1, compressed.length);
+		return new Field("xml", value, Store.YES);
+	}
+
+	/**
+	 * Get the XML stored in the document: the xml field as text, or the
+	 * compressed binary xml field
+	 * @param doc The document
+	 * @return The XML, or null if the document does not contain it (it may
+	 * be in the blob store)
+	 * @throws IOException If the format of the field is unknown or the
+	 * field is damaged
+	 */
+	public static String getStoredXml(Document doc) throws IOException {
+		String content = doc.get("xml");
+		if(content != null) {
+			return content;
+		}
+		byte[] value = doc.getBinaryValue("xml");
+		if(value == null) {
+			return null;
+		}
+		if(value.length == 0 || value[0] != XML_FORMAT_DEFLATE) {
+			throw new IOException("Unknown format of the xml field: "
+					+ (value.length == 0 ? "empty" : "" + value[0]));
+		}
+		try {
+			return CompressionTools.decompressString(
+					Arrays.copyOfRange(value, 1, value.length));
+		} catch (DataFormatException e) {
+			throw new IOException("Damaged xml field: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Rewrite the documents storing the XML as uncompressed text, so they
+	 * store it compressed. The segments are rewritten one by one, and the
+	 * changes are committed after each of them, so an interrupted migration
+	 * can be continued. The rewritten documents are added to new segments,
+	 * the old ones are removed by the optimization.
+	 * @return The number of the rewritten documents
+	 * @throws IOException
+	 */
+	public int compressStoredXml() throws IOException {
+		openSearcher();
+		List<IndexReader> segments = new ArrayList<IndexReader>();
+		ReaderUtil.gatherSubReaders(segments, reader);
+		FieldSelector selector = new MapFieldSelector(new String[]{"xml"});
+		int rewritten = 0;
+		int segment = 0;
+		for(IndexReader segmentReader : segments) {
+			long start = System.currentTimeMillis();
+			List<Document> docs = new ArrayList<Document>();
+			int count = 0;
+			for(int i = 0, max = segmentReader.maxDoc(); i < max; i++) {
+				if(segmentReader.isDeleted(i)
+					|| segmentReader.document(i, selector).get("xml") == null)
+				{
+					continue;
+				}
+				Document doc = copyDocument(segmentReader.document(i));
+				String content = doc.get("xml");
+				doc.removeField("xml");
+				doc.add(compressedXml(content));
+				docs.add(doc);
+				if(docs.size() == COMPACT_BATCH_SIZE) {
+					replaceDocs(docs);
+					count += docs.size();
+					docs.clear();
+				}
+			}
+			replaceDocs(docs);
+			count += docs.size();
+			if(!commit()) {
+				throw new IOException("Unable to commit the compressed XML.");
+			}
+			rewritten += count;
+			segment++;
+			prglog.info("[PRG] Compressed the XML of " + count
+					+ " documents of the segment " + segment + "/"
+					+ segments.size() + " in " + MilliSecFormatter.toString(
+						System.currentTimeMillis() - start));
+		}
+		return rewritten;
+	}
+
+	/**
+	 * Compact the blob store: the files referred by few documents (less
+	 * than the merge manager's blob compaction ratio of their size) are
+	 * moved to the current file, then the files without reference are
+	 * deleted after a commit.
+	 * @throws IOException
+	 */
+	private void compactBlobs() throws IOException {
+		Map<Integer, Long> sizes = blobs.getFileSizes();
+		if(sizes.isEmpty()) {
+			return;
+		}
+		long start = System.currentTimeMillis();
+		openSearcher();
+		IndexReader reader = this.reader;
+		FieldSelector selector = new MapFieldSelector(
+				new String[]{XML_REF_FIELD});
+		Map<Integer, Long> liveSizes = new HashMap<Integer, Long>();
+		for(int i = 0, max = reader.maxDoc(); i < max; i++) {
+			if(reader.isDeleted(i)) {
+				continue;
+			}
+			String locator = reader.document(i, selector).get(XML_REF_FIELD);
+			if(locator != null) {
+				Integer file = BlobStore.getFileNumber(locator);
+				Long size = liveSizes.get(file);
+				liveSizes.put(file, (size == null ? 0 : size)
+						+ BlobStore.getLength(locator));
+			}
+		}
+
+		// the texts are appended to the last file, it is kept
+		int last = Collections.max(sizes.keySet());
+		Set<Integer> sparse = new HashSet<Integer>();
+		Set<Integer> unused = new HashSet<Integer>();
+		for(Map.Entry<Integer, Long> file : sizes.entrySet()) {
+			Long live = liveSizes.get(file.getKey());
+			if(file.getKey() == last) {
+				continue;
+			} else if(live == null) {
+				unused.add(file.getKey());
+			} else if(live < file.getValue()
+					* mergeManager.getBlobCompactRatio()) {
+				sparse.add(file.getKey());
+			}
+		}
+		if(sparse.isEmpty() && unused.isEmpty()) {
+			return;
+		}
+
+		int moved = 0;
+		if(!sparse.isEmpty()) {
+			List<Document> docs = new ArrayList<Document>();
+			for(int i = 0, max = reader.maxDoc(); i < max; i++) {
+				if(reader.isDeleted(i)) {
+					continue;
+				}
+				String locator = reader.document(i, selector)
+					.get(XML_REF_FIELD);
+				if(locator == null
+					|| !sparse.contains(BlobStore.getFileNumber(locator)))
+				{
+					continue;
+				}
+				Document doc = copyDocument(reader.document(i));
+				doc.removeField(XML_REF_FIELD);
+				doc.add(stored(XML_REF_FIELD,
+						blobs.append(blobs.read(locator))));
+				docs.add(doc);
+				if(docs.size() == COMPACT_BATCH_SIZE) {
+					replaceDocs(docs);
+					moved += docs.size();
+					docs.clear();
+				}
+			}
+			replaceDocs(docs);
+			moved += docs.size();
+			unused.addAll(sparse);
+		}
+
+		// the committed index should not refer to the deleted files
+		if(!commit()) {
+			return;
+		}
+		int deleted = 0;
+		for(Integer file : unused) {
+			if(blobs.delete(file)) {
+				deleted++;
+			} else {
+				prglog.warn("[PRG] Unable to delete the blob file " + file);
+			}
+		}
+		prglog.info("[PRG] Compacted the blob store: moved " + moved
+				+ " records, deleted " + deleted + " files in "
+				+ MilliSecFormatter.toString(
+					System.currentTimeMillis() - start));
+	}
+
+	/**
+	 * Replace the documents having the same id
+	 */
+	private void replaceDocs(List<Document> docs) {
+		List<String> ids = new ArrayList<String>(docs.size());
+		for(Document doc : docs) {
+			ids.add(doc.get("id"));
+		}
+		delDocs("id", ids);
+		for(Document doc : docs) {
+			addDoc(doc);
+		}
+	}
+
+	/**
+	 * Copy a document read from the index, so it can be added again. The
+	 * stored fields keep their indexing options, only the numeric xc_id
+	 * field should be created again.
+	 */
+	private static Document copyDocument(Document stored) {
+		Document doc = new Document();
+		for(Object object : stored.getFields()) {
+			Fieldable field = (Fieldable) object;
+			if(field.name().equals("xc_id")) {
+				NumericField xcId = new NumericField("xc_id", Store.YES, true);
+				xcId.setIntValue(Integer.parseInt(field.stringValue()));
+				doc.add(xcId);
+			} else {
+				doc.add(field);
+			}
+		}
+		return doc;
+	}
+
+	/**
+	 * Should the XML be stored in the index instead of the blob store?
+	 */
+	public boolean isXmlInIndex() {
+		return xmlInIndex;
+	}
+
+	/**
+	 * Set whether the XML should be stored in the index (as before the
+	 * blob store) instead of the blob store
+	 * @param xmlInIndex True to store the XML in the index
+	 */
+	public void setXmlInIndex(boolean xmlInIndex) {
+		this.xmlInIndex = xmlInIndex;
+	}
+
+	/**
+	 * Should the XML stored in the index be compressed?
+	 */
+	public boolean isCompressXml() {
+		return compressXml;
+	}
+
+	/**
+	 * Set whether the XML stored in the index should be compressed
+	 * @param compressXml True to store the compressed XML
+	 */
+	public void setCompressXml(boolean compressXml) {
+		this.compressXml = compressXml;
+	}
 	
+	/**
+	 * Open the primary key index of the documents. If it does not belong to
+	 * the last commit, it is rebuilt from the index. The key index is
+	 * committed and closed with the index.
+	 * @return The key index, or null if it can not be opened
+	 */
+	public LuceneKeyIndex openKeyIndex() {
+		if(keys != null) {
+			return keys;
+		}
+		keys = new LuceneKeyIndex(new File(indexDir,
+				LuceneKeyIndex.FILE_NAME));
+		try {
+			long generation = getCommitGeneration();
+			if(numDocs() > keys.getMaxEntries()) {
+				prglog.info("[PRG] The index has more documents than the "
+						+ "primary key index can hold (" + keys.getMaxEntries()
+						+ "), it is not used.");
+				keys = null;
+				return null;
+			}
+			if(!keys.open(generation)) {
+				putAllKeys(keys);
+				keys.commit(generation);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			keys.close();
+			keys = null;
+		}
+		return keys;
+	}
+
+	/**
+	 * Put the keys of all documents of the last commit into the key index
+	 * @param keys The key index
+	 * @throws IOException
+	 */
+	public void putAllKeys(LuceneKeyIndex keys) throws IOException {
+		IndexReader reader = getReader();
+		FieldSelector selector = new MapFieldSelector(new String[]{
+				"external_id", "record_type", "repository_code", "xc_id",
+				"digest", "is_deleted"});
+		keys.clear(reader.numDocs());
+		for(int i = 0, max = reader.maxDoc(); i < max; i++) {
+			if(reader.isDeleted(i)) {
+				continue;
+			}
+			Document doc = reader.document(i, selector);
+			String xcId = doc.get("xc_id");
+			keys.put(LuceneKeyIndex.hash(doc.get("external_id"),
+						doc.get("record_type"), doc.get("repository_code")),
+					xcId == null ? 0 : Integer.parseInt(xcId),
+					doc.get("digest"),
+					"true".equals(doc.get("is_deleted")));
+		}
+	}
+
+	/**
+	 * Get the largest XC ID of the documents, including the changes not
+	 * yet committed. The xc_id is a {@link NumericField}: only its full
+	 * precision (shift 0) terms are decoded, the terms of the lower
+	 * precisions are skipped. Terms written as plain text are parsed.
+	 * @return The largest XC ID, or 0 if the index is empty
+	 * @throws IOException
+	 */
+	public int getMaxXcId() throws IOException {
+		int max = 0;
+		TermEnum tenum = getReader().terms(new Term("xc_id", ""));
+		try {
+			do {
+				Term term = tenum.term();
+				if(term == null || !term.field().equals("xc_id")) {
+					break;
+				}
+				String text = term.text();
+				if(text.length() == 0) {
+					continue;
+				}
+				try {
+					if(text.charAt(0) == NumericUtils.SHIFT_START_INT) {
+						max = Math.max(max, NumericUtils.prefixCodedToInt(text));
+					} else if(text.charAt(0) < NumericUtils.SHIFT_START_INT) {
+						max = Math.max(max, Integer.parseInt(text));
+					}
+				} catch(NumberFormatException e) {
+					prglog.warn("[PRG] Invalid xc_id: " + text);
+				}
+			} while(tenum.next());
+		} finally {
+			tenum.close();
+		}
+		return max;
+	}
+
 	/**
 	 * Put all id field values from the index to a list
 	 * @param ids
 	 */
 	public void putAllIds(Set<String> ids) {
 		try {
-			TermEnum tenum = reader.terms();
+			TermEnum tenum = getReader().terms();
 			while(tenum.next()) {
 	            if(tenum.term().field().equals("id")) {
 	            	ids.add(tenum.term().text());
@@ -0,0 +1,481 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package info.extensiblecatalog.OAIToolkit.db;
+
+import info.extensiblecatalog.OAIToolkit.utils.Logging;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The primary key index of the Lucene index: a memory-mapped, open
+ * addressing hash table, which maps the 64-bit hash of the record's key
+ * (external ID, record type and repository code) to its XC ID, content
+ * digest and deleted status. It answers whether a record exists and
+ * whether it is changed without searching the index.
+ *
+ * The file starts with a header (magic number, capacity, number of
+ * entries, generation), followed by the slots. Each slot contains the hash
+ * (0 for an empty slot), the XC ID, the flags and the 16 bytes of the
+ * digest. The generation is the generation of the index commit the table
+ * belongs to; it is -1 while the table has changes not committed with the
+ * index, so after an interrupted load the table is rebuilt from the index.
+ *
+ * The table has at most {@link #MAX_CAPACITY} slots, so the mapped file
+ * stays below 2 GB; it holds at most {@link #getMaxEntries()} entries.
+ * When it is full, {@link #put(long, int, String, boolean)} throws an
+ * IOException, and the table is not committed any more.
+ *
+ * The table is not thread safe.
+ *
+ * @author Peter Kiraly
+ */
+public class LuceneKeyIndex {
+
+	private static String programmer_log = "programmer";
+	private static final Logger prglog = Logging.getLogger(programmer_log);
+
+	/** The name of the file in the index directory */
+	public static final String FILE_NAME = "primary.keys";
+
+	private static final int MAGIC = 0x584B4931;
+	private static final int HEADER_SIZE = 32;
+	private static final int SLOT_SIZE = 32;
+	private static final int MIN_CAPACITY = 1024;
+
+	/**
+	 * The maximal number of slots. The mapped region (header and slots)
+	 * should be smaller than Integer.MAX_VALUE bytes.
+	 */
+	public static final int MAX_CAPACITY = 1 << 25;
+
+	private static final int DELETED = 1;
+	private static final int HAS_DIGEST = 2;
+
+	/** The file of the table */
+	private File file;
+
+	private RandomAccessFile raf;
+	private MappedByteBuffer buffer;
+
+	/** The number of slots, a power of two */
+	private int capacity;
+
+	/** The maximal number of slots, a power of two */
+	private int maxCapacity;
+
+	/** The number of entries */
+	private int count;
+
+	/** Has the table changes not committed with the index? */
+	private boolean dirty = false;
+
+	/** Did a change fail? Then the table is never committed again. */
+	private boolean failed = false;
+
+	/**
+	 * An entry of the table
+	 */
+	public static class Entry {
+
+		private int xcId;
+		private int flags;
+		private long digestHigh;
+		private long digestLow;
+
+		private Entry(int xcId, int flags, long digestHigh, long digestLow) {
+			this.xcId = xcId;
+			this.flags = flags;
+			this.digestHigh = digestHigh;
+			this.digestLow = digestLow;
+		}
+
+		public int getXcId() {
+			return xcId;
+		}
+
+		public boolean isDeleted() {
+			return (flags & DELETED) != 0;
+		}
+
+		/**
+		 * Get the content digest
+		 * @return The digest as 32 hexadecimal digits, or null if the record
+		 * was stored without digest
+		 */
+		public String getDigest() {
+			if((flags & HAS_DIGEST) == 0) {
+				return null;
+			}
+			return hex(digestHigh) + hex(digestLow);
+		}
+
+		/**
+		 * Is the stored record the same as the given content?
+		 * @param digest The content digest
+		 * @param isDeleted The deleted status
+		 * @return True if the digests and the deleted status are the same
+		 */
+		public boolean isUnchanged(String digest, boolean isDeleted) {
+			return digest != null
+				&& digest.equals(getDigest())
+				&& isDeleted == isDeleted();
+		}
+
+		private static String hex(long value) {
+			String text = Long.toHexString(value);
+			while(text.length() < 16) {
+				text = "0" + text;
+			}
+			return text;
+		}
+	}
+
+	/**
+	 * Create a table
+	 * @param file The file of the table
+	 */
+	public LuceneKeyIndex(File file) {
+		this(file, MAX_CAPACITY);
+	}
+
+	/**
+	 * Create a table with limited capacity
+	 * @param file The file of the table
+	 * @param maxCapacity The maximal number of slots. It is rounded down to
+	 * a power of two between 1024 and {@link #MAX_CAPACITY}.
+	 */
+	public LuceneKeyIndex(File file, int maxCapacity) {
+		this.file = file;
+		this.maxCapacity = MIN_CAPACITY;
+		while(this.maxCapacity < MAX_CAPACITY
+			&& this.maxCapacity * 2 <= maxCapacity)
+		{
+			this.maxCapacity *= 2;
+		}
+	}
+
+	/**
+	 * Get the maximal number of entries of the table
+	 * @return The number of entries the table can hold
+	 */
+	public int getMaxEntries() {
+		return maxCapacity / 4 * 3;
+	}
+
+	/**
+	 * The 64-bit hash of the record's key
+	 * @param externalId The external ID (field 001)
+	 * @param recordType The record type
+	 * @param repositoryCode The repository code
+	 * @return The hash, never 0
+	 */
+	public static long hash(String externalId, String recordType,
+			String repositoryCode) {
+		long hash = 0xCBF29CE484222325L;
+		hash = hash(hash, externalId);
+		hash = (hash ^ '|') * 0x100000001B3L;
+		hash = hash(hash, recordType);
+		hash = (hash ^ '|') * 0x100000001B3L;
+		hash = hash(hash, repositoryCode);
+		// finalizer of MurmurHash3
+		hash ^= hash >>> 33;
+		hash *= 0xFF51AFD7ED558CCDL;
+		hash ^= hash >>> 33;
+		hash *= 0xC4CEB9FE1A85EC53L;
+		hash ^= hash >>> 33;
+		return hash == 0 ? 1 : hash;
+	}
+
+	/** FNV-1a over the characters of the text */
+	private static long hash(long hash, String text) {
+		if(text == null) {
+			return hash;
+		}
+		for(int i = 0, len = text.length(); i < len; i++) {
+			hash = (hash ^ text.charAt(i)) * 0x100000001B3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Open the table.
+	 * @param generation The generation of the index commit
+	 * @return True if the table belongs to the commit. If it is false, the
+	 * table is empty, and it should be rebuilt from the index.
+	 * @throws IOException
+	 */
+	public boolean open(long generation) throws IOException {
+		raf = new RandomAccessFile(file, "rw");
+		if(raf.length() >= HEADER_SIZE
+			&& raf.length() <= HEADER_SIZE + (long)maxCapacity * SLOT_SIZE)
+		{
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+					raf.length());
+			int storedCapacity = buffer.getInt(4);
+			if(buffer.getInt(0) == MAGIC
+				&& buffer.getLong(16) == generation
+				&& storedCapacity >= MIN_CAPACITY
+				&& raf.length() == HEADER_SIZE + (long)storedCapacity * SLOT_SIZE)
+			{
+				capacity = storedCapacity;
+				count = buffer.getInt(8);
+				return true;
+			}
+		}
+		prglog.info("[PRG] The primary key index " + file
+				+ " does not belong to the index commit " + generation
+				+ ", it should be rebuilt.");
+		clear(0);
+		return false;
+	}
+
+	/**
+	 * Remove all entries
+	 * @param expectedCount The expected number of entries
+	 * @throws IOException
+	 */
+	public void clear(int expectedCount) throws IOException {
+		map(capacityFor(expectedCount));
+		count = 0;
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(8, count);
+		setDirty();
+	}
+
+	/**
+	 * Find the entry of a key
+	 * @param hash The hash of the key ({@link #hash(String, String, String)})
+	 * @return The entry, or null if the key is not in the table
+	 */
+	public Entry get(long hash) {
+		int slot = find(hash);
+		int position = HEADER_SIZE + slot * SLOT_SIZE;
+		if(buffer.getLong(position) == 0) {
+			return null;
+		}
+		return new Entry(buffer.getInt(position + 8),
+				buffer.getInt(position + 12),
+				buffer.getLong(position + 16),
+				buffer.getLong(position + 24));
+	}
+
+	/**
+	 * Put the current state of a record into the table
+	 * @param hash The hash of the key ({@link #hash(String, String, String)})
+	 * @param xcId The XC ID
+	 * @param digest The content digest (32 hexadecimal digits), or null
+	 * @param isDeleted The deleted status
+	 * @throws IOException
+	 */
+	public void put(long hash, int xcId, String digest, boolean isDeleted)
+			throws IOException {
+		setDirty();
+		int slot = find(hash);
+		int position = HEADER_SIZE + slot * SLOT_SIZE;
+		if(buffer.getLong(position) == 0) {
+			if((long)(count + 1) * 4 > (long)capacity * 3) {
+				if(capacity >= maxCapacity) {
+					failed = true;
+					throw new IOException("The primary key index " + file
+							+ " is full (" + count + " entries)");
+				}
+				try {
+					grow();
+				} catch(IOException e) {
+					failed = true;
+					throw e;
+				}
+				slot = find(hash);
+				position = HEADER_SIZE + slot * SLOT_SIZE;
+			}
+			count++;
+			buffer.putInt(8, count);
+		}
+		int flags = isDeleted ? DELETED : 0;
+		long digestHigh = 0;
+		long digestLow = 0;
+		if(digest != null && digest.length() == 32) {
+			flags |= HAS_DIGEST;
+			digestHigh = parseHex(digest.substring(0, 16));
+			digestLow = parseHex(digest.substring(16));
+		}
+		write(position, hash, xcId, flags, digestHigh, digestLow);
+	}
+
+	/**
+	 * Record that the table belongs to an index commit, and write it to
+	 * the disk. After a failed change the table stays uncommitted.
+	 * @param generation The generation of the index commit
+	 */
+	public void commit(long generation) {
+		if(failed) {
+			buffer.force();
+			return;
+		}
+		buffer.putLong(16, generation);
+		buffer.force();
+		dirty = false;
+	}
+
+	/**
+	 * Close the table. The changes since the last commit are kept, but the
+	 * table will be rebuilt when it is opened again.
+	 */
+	public void close() {
+		if(buffer != null) {
+			buffer.force();
+			buffer = null;
+		}
+		if(raf != null) {
+			try {
+				raf.close();
+			} catch(IOException e) {
+				prglog.error("[PRG] " + e.getMessage());
+			}
+			raf = null;
+		}
+	}
+
+	/**
+	 * Get the number of entries
+	 * @return The number of entries
+	 */
+	public int size() {
+		return count;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Find the slot of the hash: the slot containing it, or the empty slot
+	 * where it should be put (linear probing)
+	 */
+	private int find(long hash) {
+		int mask = capacity - 1;
+		int slot = (int)(hash ^ (hash >>> 32)) & mask;
+		while(true) {
+			long stored = buffer.getLong(HEADER_SIZE + slot * SLOT_SIZE);
+			if(stored == 0 || stored == hash) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Double the capacity, and put the entries into their new slots. The
+	 * entries are copied to a temporary file next to the table (not to the
+	 * heap), and read back after the table is mapped again.
+	 */
+	private void grow() throws IOException {
+		File copy = new File(file.getPath() + ".grow");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(copy)));
+		int n = 0;
+		try {
+			for(int slot = 0; slot < capacity; slot++) {
+				int position = HEADER_SIZE + slot * SLOT_SIZE;
+				long hash = buffer.getLong(position);
+				if(hash != 0) {
+					out.writeLong(hash);
+					out.writeLong(buffer.getLong(position + 8));
+					out.writeLong(buffer.getLong(position + 16));
+					out.writeLong(buffer.getLong(position + 24));
+					n++;
+				}
+			}
+		} finally {
+			out.close();
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(copy)));
+		try {
+			map(capacity * 2);
+			for(int i = 0; i < n; i++) {
+				long hash = in.readLong();
+				int position = HEADER_SIZE + find(hash) * SLOT_SIZE;
+				buffer.putLong(position, hash);
+				buffer.putLong(position + 8, in.readLong());
+				buffer.putLong(position + 16, in.readLong());
+				buffer.putLong(position + 24, in.readLong());
+			}
+		} finally {
+			in.close();
+			copy.delete();
+		}
+	}
+
+	/**
+	 * Map the file with the given capacity, and empty all slots
+	 */
+	private void map(int newCapacity) throws IOException {
+		long size = HEADER_SIZE + (long)newCapacity * SLOT_SIZE;
+		raf.setLength(size);
+		buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		for(int position = HEADER_SIZE; position < size; position += 8) {
+			buffer.putLong(position, 0);
+		}
+		capacity = newCapacity;
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, capacity);
+		buffer.putLong(16, -1);
+		dirty = true;
+	}
+
+	/**
+	 * Mark the table as not belonging to any index commit before the first
+	 * change after a commit
+	 */
+	private void setDirty() {
+		if(!dirty) {
+			buffer.putLong(16, -1);
+			buffer.force();
+			dirty = true;
+		}
+	}
+
+	private void write(int position, long hash, int xcId, int flags,
+			long digestHigh, long digestLow) {
+		buffer.putLong(position, hash);
+		buffer.putInt(position + 8, xcId);
+		buffer.putInt(position + 12, flags);
+		buffer.putLong(position + 16, digestHigh);
+		buffer.putLong(position + 24, digestLow);
+	}
+
+	private int capacityFor(int expectedCount) {
+		int capacity = MIN_CAPACITY;
+		while(capacity < maxCapacity
+			&& (long)expectedCount * 4 > (long)capacity * 3)
+		{
+			capacity *= 2;
+		}
+		return capacity;
+	}
+
+	private static long parseHex(String text) {
+		return (Long.parseLong(text.substring(0, 8), 16) << 32)
+			| Long.parseLong(text.substring(8), 16);
+	}
+}
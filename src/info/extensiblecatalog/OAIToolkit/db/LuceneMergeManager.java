@@ -0,0 +1,175 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package info.extensiblecatalog.OAIToolkit.db;
+
+import info.extensiblecatalog.OAIToolkit.utils.Logging;
+import info.extensiblecatalog.OAIToolkit.utils.MilliSecFormatter;
+
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+
+/**
+ * Decides how much the index should be merged at the end of a load:
+ * <ul>
+ *   <li>the index is optimized only down to {@link #maxNumSegments}
+ *   segments, so a small load does not rewrite the whole index (the
+ *   default 1 is the full optimization)</li>
+ *   <li>the deleted documents are expunged only if their ratio is above
+ *   {@link #expungeDeletesRatio}</li>
+ *   <li>the files of the blob store are compacted (see
+ *   {@link LuceneIndexMgr#optimize()}), if the ratio of their texts still
+ *   referred is below {@link #blobCompactRatio}</li>
+ * </ul>
+ * The merges are run by {@link ThrottledMergeScheduler}s (one for each
+ * writer), which limit their common writing speed. The durations are
+ * written to the load log.
+ *
+ * @author Peter Kiraly
+ */
+public class LuceneMergeManager {
+
+	private static String programmer_log = "programmer";
+	private static String library_loadlog = "librarian_load";
+	private static final Logger prglog = Logging.getLogger(programmer_log);
+	private static final Logger libloadlog = Logging.getLogger(library_loadlog);
+
+	/**
+	 * The maximal number of segments after the optimization (0 means no
+	 * optimization)
+	 */
+	private int maxNumSegments = 1;
+
+	/**
+	 * The ratio of deleted documents above which they are expunged
+	 */
+	private double expungeDeletesRatio = 0.1;
+
+	/**
+	 * The ratio of the referred texts in a blob store file below which the
+	 * texts are moved, and the file is deleted
+	 */
+	private double blobCompactRatio = 0.5;
+
+	/** The rate limit of the merges of all writers */
+	private ThrottledMergeScheduler.Throttle throttle =
+		new ThrottledMergeScheduler.Throttle();
+
+	/**
+	 * Optimize the index and expunge its deleted documents as configured
+	 * @param writer The writer of the index
+	 * @throws IOException
+	 */
+	public void optimize(IndexWriter writer) throws IOException {
+		int segments = getSegmentCount(writer);
+		if(maxNumSegments > 0 && segments > maxNumSegments) {
+			long start = System.currentTimeMillis();
+			writer.optimize(maxNumSegments);
+			log("Optimized the Lucene index from " + segments + " to "
+					+ getSegmentCount(writer) + " segments in "
+					+ MilliSecFormatter.toString(
+						System.currentTimeMillis() - start));
+		} else {
+			log("The Lucene index has " + segments + " segments, it is not"
+					+ " optimized (maximum: " + maxNumSegments + ")");
+		}
+
+		double ratio = getDeletedRatio(writer);
+		if(ratio > expungeDeletesRatio) {
+			long start = System.currentTimeMillis();
+			writer.expungeDeletes();
+			log("Expunged the deleted documents (ratio: " + ratio + ") in "
+					+ MilliSecFormatter.toString(
+						System.currentTimeMillis() - start));
+		}
+
+		if(throttle.getMerges() > 0) {
+			log("Lucene segment merges: " + throttle.getMerges()
+					+ ", total time: "
+					+ MilliSecFormatter.toString(throttle.getMergeTime()));
+		}
+	}
+
+	private void log(String message) {
+		prglog.info("[PRG] " + message);
+		libloadlog.info("[LIB] " + message);
+	}
+
+	private static int getSegmentCount(IndexWriter writer) throws IOException {
+		IndexReader reader = writer.getReader();
+		try {
+			IndexReader[] subReaders = reader.getSequentialSubReaders();
+			return subReaders == null ? 1 : subReaders.length;
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static double getDeletedRatio(IndexWriter writer)
+			throws IOException {
+		IndexReader reader = writer.getReader();
+		try {
+			if(reader.maxDoc() == 0) {
+				return 0;
+			}
+			return (double)(reader.maxDoc() - reader.numDocs())
+				/ reader.maxDoc();
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Create a merge scheduler for a writer. The schedulers share the rate
+	 * limit.
+	 * @return The scheduler
+	 */
+	public ThrottledMergeScheduler newScheduler() {
+		return new ThrottledMergeScheduler(throttle);
+	}
+
+	public ThrottledMergeScheduler.Throttle getThrottle() {
+		return throttle;
+	}
+
+	public int getMaxNumSegments() {
+		return maxNumSegments;
+	}
+
+	public void setMaxNumSegments(int maxNumSegments) {
+		this.maxNumSegments = maxNumSegments;
+	}
+
+	public double getExpungeDeletesRatio() {
+		return expungeDeletesRatio;
+	}
+
+	public void setExpungeDeletesRatio(double expungeDeletesRatio) {
+		this.expungeDeletesRatio = expungeDeletesRatio;
+	}
+
+	public double getBlobCompactRatio() {
+		return blobCompactRatio;
+	}
+
+	public void setBlobCompactRatio(double blobCompactRatio) {
+		this.blobCompactRatio = blobCompactRatio;
+	}
+
+	/**
+	 * Set the allowed writing rate of the merges
+	 * @param mbPerSec The rate in MB/s, 0 means unlimited
+	 */
+	public void setMergeMbPerSec(double mbPerSec) {
+		throttle.setMbPerSec(mbPerSec);
+	}
+}
@@ -27,8 +27,10 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldSelector;
 import org.apache.lucene.document.FieldSelectorResult;
+import org.apache.lucene.document.MapFieldSelector;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MultiReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermEnum;
 import org.apache.lucene.queryParser.ParseException;
@@ -66,6 +68,9 @@ public class LuceneSearcher {
 	private IndexReader indexReader;
 		
 	private String luceneDir;
+
+	/** The store of the records' XML */
+	private BlobStore blobs;
 	
 	private String earliestDatestamp;
 	//private FieldSelector xmlSelector;
@@ -116,6 +121,7 @@ public class LuceneSearcher {
 	        	   prglog.info("[PRG] " + "Lucene index reader was successfully reopen()-ed.");
 	        	   //indexReader.close(); // closing this causes issues!!! leave it open...
 	        	   indexReader = newir;
+	        	   blobs.refresh();
 	        	 }
 	        }
 
@@ -130,9 +136,15 @@ public class LuceneSearcher {
 	}
 	
 	private void createNewLuceneIndex() {
+		File indexDir = new File(luceneDir);
+		blobs.refresh();
+		File[] shardDirs = LuceneIndexMgr.getShardDirs(indexDir);
+		if(shardDirs.length > 0) {
+			openShards(shardDirs);
+			return;
+		}
 		prglog.info("Creating new, empty lucene index.");
 		try {
-			File indexDir = new File(luceneDir);
 			SimpleFSDirectory fsDir = new SimpleFSDirectory(indexDir);
 	
 			IndexWriter writer = new IndexWriter(fsDir, new StandardAnalyzer(Version.LUCENE_30), IndexWriter.MaxFieldLength.UNLIMITED);
@@ -147,11 +159,43 @@ public class LuceneSearcher {
 		}
 
 	}
+
+	/**
+	 * Open the shards of a sharded index with one reader, so the document
+	 * numbers are the same as in an unsharded index: unique over the
+	 * shards, and the sub-readers get their docBase.
+	 * @param shardDirs The directories of the shards
+	 */
+	private void openShards(File[] shardDirs) {
+		prglog.info("[PRG] Opening the " + shardDirs.length
+				+ " shards of the lucene index.");
+		IndexReader[] readers = new IndexReader[shardDirs.length];
+		try {
+			for(int i = 0; i < shardDirs.length; i++) {
+				readers[i] = IndexReader.open(FSDirectory.open(shardDirs[i]),
+						true);
+			}
+			indexReader = new MultiReader(readers);
+			searcher = new IndexSearcher(indexReader);
+		} catch (IOException e) {
+			prglog.error("[PRG] Failed to open the lucene index shards: " + e);
+			for(IndexReader reader : readers) {
+				if(reader != null) {
+					try {
+						reader.close();
+					} catch (IOException e2) {
+						prglog.error("[PRG] " + e2);
+					}
+				}
+			}
+		}
+	}
 	
 	
 	public LuceneSearcher(String luceneDir) {
 		
 		this.luceneDir = luceneDir;
+		blobs = new BlobStore(new File(luceneDir, BlobStore.DIR_NAME));
 		
         //bits = new BitSet(indexReader.maxDoc());
             		
@@ -173,7 +217,8 @@ public class LuceneSearcher {
 			private static final long serialVersionUID = 1426724242925499003L;
 
 			public FieldSelectorResult accept(String fieldName) {
-				if (fieldName.equals("xml")) {
+				if (fieldName.equals("xml") || fieldName.startsWith(
+						LuceneIndexMgr.PAYLOAD_FIELD_PREFIX)) {
 					return FieldSelectorResult.NO_LOAD;
 				} else {
 					return FieldSelectorResult.LOAD;
@@ -207,7 +252,11 @@ public class LuceneSearcher {
 		try {
 			Document doc = getSearcher().doc(recordId);
             if(doc != null) {
-				content = doc.get("xml");
+				content = LuceneIndexMgr.getStoredXml(doc);
+				String locator = doc.get(LuceneIndexMgr.XML_REF_FIELD);
+				if(content == null && locator != null) {
+					content = blobs.read(locator);
+				}
 			} else {
 				prglog.error("[PRG] There's no record with this ID: " + recordId);
 			}
@@ -235,6 +284,27 @@ public class LuceneSearcher {
 		return content;
 	}
 
+	/**
+	 * Get the payload of the record rendered by the importer
+	 * @param recordId The document number of the record
+	 * @param metadataPrefix The metadata prefix of the payload
+	 * @return The UTF-8 bytes of the payload, ready to be sent, or null if
+	 * the record has no payload of the metadata prefix
+	 */
+	public byte[] getPayloadOfRecord(Integer recordId, String metadataPrefix) {
+		String field = LuceneIndexMgr.PAYLOAD_FIELD_PREFIX + metadataPrefix;
+		try {
+			Document doc = getSearcher().doc(recordId,
+					new MapFieldSelector(new String[]{field}));
+			if(doc != null) {
+				return doc.getBinaryValue(field);
+			}
+		} catch(IOException e) {
+			prglog.error("[PRG] " + e);
+		}
+		return null;
+	}
+
     /**
      * Get the record from the ID passed to it
      * @param recordId
@@ -0,0 +1,265 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package info.extensiblecatalog.OAIToolkit.db;
+
+import info.extensiblecatalog.OAIToolkit.utils.Logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+
+/**
+ * One Lucene index of the {@link LuceneIndexMgr}: its directory and its
+ * writer. If the shard has its own thread, the operations are queued and
+ * the thread runs them in order, so the shards are written in parallel.
+ * Otherwise the operations run on the caller's thread.
+ *
+ * The errors of the operations (including the runtime exceptions and
+ * errors, which do not stop the thread) are logged, and remembered until
+ * {@link #takeFailure()}.
+ *
+ * @author Peter Kiraly
+ */
+class LuceneShard {
+
+	private static String programmer_log = "programmer";
+	private static final Logger prglog = Logging.getLogger(programmer_log);
+
+	/** The number of operations waiting for the shard's thread */
+	private static final int QUEUE_SIZE = 1000;
+
+	/**
+	 * How long to wait (milliseconds) for the shard's thread, before
+	 * checking whether it is still running
+	 */
+	private static final long THREAD_WAIT = 100;
+
+	/** An operation on the writer of the shard */
+	interface Operation {
+		void run(IndexWriter writer) throws IOException;
+	}
+
+	/** Stops the thread of the shard */
+	private static final Runnable STOP = new Runnable() {
+		public void run() {
+		}
+	};
+
+	private String name;
+	private FSDirectory dir;
+	private IndexWriter writer;
+
+	/** The thread of the shard, null if the operations run on the caller */
+	private Thread thread;
+	private BlockingQueue<Runnable> queue;
+
+	/** The first error since the last {@link #takeFailure()} */
+	private volatile IOException failure;
+
+	/**
+	 * Open the writer of the shard
+	 * @param path The directory of the shard
+	 * @param mergeManager The merge manager
+	 * @param ramBufferSizeMB The RAM buffer of the writer
+	 * @param ownThread Should the shard have its own thread?
+	 * @throws IOException
+	 */
+	LuceneShard(File path, LuceneMergeManager mergeManager,
+			double ramBufferSizeMB, boolean ownThread) throws IOException {
+		name = path.getName();
+		dir = new ThrottledMergeScheduler.ThrottledDirectory(path,
+				mergeManager.getThrottle());
+		writer = new IndexWriter(dir, new StandardAnalyzer(Version.LUCENE_30),
+				IndexWriter.MaxFieldLength.UNLIMITED);
+		writer.setRAMBufferSizeMB(ramBufferSizeMB);
+		writer.setMergeFactor(25);
+		writer.setMergeScheduler(mergeManager.newScheduler());
+		if(ownThread) {
+			queue = new ArrayBlockingQueue<Runnable>(QUEUE_SIZE);
+			thread = new Thread("lucene-" + name) {
+				public void run() {
+					try {
+						Runnable task;
+						while((task = queue.take()) != STOP) {
+							task.run();
+						}
+					} catch(InterruptedException e) {
+						// the queued operations are never run
+						setFailure(new IOException("The thread of " + name
+								+ " was interrupted."));
+					}
+				}
+			};
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Run the operation on the shard's thread after the queued ones, or on
+	 * the caller's thread, if the shard has no thread
+	 * @param operation The operation
+	 */
+	void submit(final Operation operation) {
+		Runnable task = new Runnable() {
+			public void run() {
+				try {
+					operation.run(writer);
+				} catch(Throwable e) {
+					e.printStackTrace();
+					if(e instanceof IOException) {
+						setFailure((IOException)e);
+					} else {
+						setFailure(new IOException(e.toString(), e));
+					}
+				}
+			}
+		};
+		if(thread == null) {
+			task.run();
+		} else {
+			put(task);
+		}
+	}
+
+	/**
+	 * Wait until the queued operations are finished. If the waiting is
+	 * interrupted, or the thread of the shard stopped, the shard fails.
+	 */
+	void sync() {
+		Thread shardThread = thread;
+		if(shardThread == null) {
+			return;
+		}
+		final CountDownLatch done = new CountDownLatch(1);
+		if(!put(new Runnable() {
+			public void run() {
+				done.countDown();
+			}
+		})) {
+			return;
+		}
+		try {
+			while(!done.await(THREAD_WAIT, TimeUnit.MILLISECONDS)) {
+				if(!shardThread.isAlive()) {
+					setFailure(new IOException("The thread of " + name
+							+ " stopped before the queued operations."));
+					return;
+				}
+			}
+		} catch(InterruptedException e) {
+			setFailure(new IOException("Waiting for the operations of "
+					+ name + " was interrupted."));
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Get the first error of the operations, without clearing it
+	 * @return The error, or null
+	 */
+	IOException getFailure() {
+		return failure;
+	}
+
+	/**
+	 * Get and clear the first error of the operations
+	 * @return The error, or null
+	 */
+	synchronized IOException takeFailure() {
+		IOException e = failure;
+		failure = null;
+		return e;
+	}
+
+	/**
+	 * Record the error, if it is the first one since the last
+	 * {@link #takeFailure()}
+	 * @param e The error
+	 */
+	private synchronized void setFailure(IOException e) {
+		prglog.error("[PRG] Lucene " + name + ": " + e.getMessage());
+		if(failure == null) {
+			failure = e;
+		}
+	}
+
+	/**
+	 * Stop the thread of the shard after the queued operations
+	 */
+	void stop() {
+		if(thread != null) {
+			put(STOP);
+			try {
+				thread.join();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			thread = null;
+		}
+	}
+
+	/**
+	 * Get the writer. The caller should {@link #sync()} the shard first.
+	 * @return The writer
+	 */
+	IndexWriter getWriter() {
+		return writer;
+	}
+
+	/**
+	 * Get the generation of the last commit of the shard
+	 * @return The generation
+	 * @throws IOException
+	 */
+	long getCommitGeneration() throws IOException {
+		return SegmentInfos.getCurrentSegmentGeneration(dir);
+	}
+
+	File getFile() {
+		return dir.getFile();
+	}
+
+	/**
+	 * Queue the task for the shard's thread. If the task can not be queued
+	 * (the caller is interrupted, or the thread stopped), the shard fails,
+	 * so the dropped operation is not reported as committed.
+	 * @param task The task
+	 * @return True if the task is queued
+	 */
+	private boolean put(Runnable task) {
+		Thread shardThread = thread;
+		try {
+			do {
+				if(shardThread == null || !shardThread.isAlive()) {
+					setFailure(new IOException("The thread of " + name
+							+ " is stopped, an operation was dropped."));
+					return false;
+				}
+			} while(!queue.offer(task, THREAD_WAIT, TimeUnit.MILLISECONDS));
+			return true;
+		} catch(InterruptedException e) {
+			setFailure(new IOException("Queueing an operation of " + name
+					+ " was interrupted, the operation was dropped."));
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+}
@@ -0,0 +1,242 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package info.extensiblecatalog.OAIToolkit.db;
+
+import info.extensiblecatalog.OAIToolkit.utils.Logging;
+import info.extensiblecatalog.OAIToolkit.utils.MilliSecFormatter;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.SimpleFSDirectory;
+
+/**
+ * A merge scheduler, which limits the writing speed of the merges, so the
+ * merges do not saturate the disk, while the OAI server reads the same
+ * index. The merges write through a {@link ThrottledDirectory}, which
+ * pauses the merge threads when they are ahead of the allowed rate. The
+ * rate ({@link Throttle}) is shared by all merge threads, and it can be
+ * shared by the schedulers of more writers. The documents added by the importer
+ * are never throttled.
+ *
+ * The duration of each merge is written to the load log.
+ *
+ * @author Peter Kiraly
+ */
+public class ThrottledMergeScheduler extends ConcurrentMergeScheduler {
+
+	private static String library_loadlog = "librarian_load";
+	private static final Logger libloadlog = Logging.getLogger(library_loadlog);
+
+	/** The number of bytes written between two checks of the rate */
+	private static final int CHUNK = 64 * 1024;
+
+	/** Is the current thread merging? */
+	private static final ThreadLocal<Boolean> merging =
+		new ThreadLocal<Boolean>();
+
+	/** The rate limit shared with the other schedulers */
+	private Throttle throttle;
+
+	/**
+	 * The rate limit of the merges of one or more writers, and the
+	 * statistics of their merges
+	 */
+	public static class Throttle {
+
+		/** The allowed rate in MB/s, 0 means unlimited */
+		private volatile double mbPerSec = 0;
+
+		/** The time (System.nanoTime()) when the next chunk can be written */
+		private long nextFree = 0;
+
+		/** The number of finished merges */
+		private int merges = 0;
+
+		/** The total time of the finished merges in milliseconds */
+		private long mergeTime = 0;
+
+		/**
+		 * Wait until the merges can write the bytes with the allowed rate
+		 * @param bytes The number of bytes
+		 */
+		void pause(long bytes) {
+			double rate = mbPerSec;
+			if(rate <= 0) {
+				return;
+			}
+			long cost = (long)(bytes * 1000000000.0 / (rate * 1024 * 1024));
+			long wait;
+			synchronized(this) {
+				long now = System.nanoTime();
+				long start = Math.max(nextFree, now);
+				nextFree = start + cost;
+				wait = start - now;
+			}
+			if(wait > 0) {
+				try {
+					Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		synchronized void merged(long time) {
+			merges++;
+			mergeTime += time;
+		}
+
+		/**
+		 * Get the allowed writing rate of the merges
+		 * @return The rate in MB/s, 0 means unlimited
+		 */
+		public double getMbPerSec() {
+			return mbPerSec;
+		}
+
+		/**
+		 * Set the allowed writing rate of the merges
+		 * @param mbPerSec The rate in MB/s, 0 means unlimited
+		 */
+		public void setMbPerSec(double mbPerSec) {
+			this.mbPerSec = mbPerSec;
+		}
+
+		/**
+		 * Get the number of the finished merges
+		 * @return The number of merges
+		 */
+		public synchronized int getMerges() {
+			return merges;
+		}
+
+		/**
+		 * Get the total time of the finished merges
+		 * @return The time in milliseconds
+		 */
+		public synchronized long getMergeTime() {
+			return mergeTime;
+		}
+	}
+
+	/**
+	 * Create a scheduler
+	 * @param throttle The rate limit of the merges
+	 */
+	public ThrottledMergeScheduler(Throttle throttle) {
+		this.throttle = throttle;
+	}
+
+	/**
+	 * A file system directory, which writes the files of the merges with
+	 * the rate allowed by the scheduler
+	 */
+	public static class ThrottledDirectory extends SimpleFSDirectory {
+
+		private Throttle throttle;
+
+		public ThrottledDirectory(File path, Throttle throttle)
+				throws IOException {
+			super(path);
+			this.throttle = throttle;
+		}
+
+		public IndexOutput createOutput(String name) throws IOException {
+			IndexOutput output = super.createOutput(name);
+			if(Boolean.TRUE.equals(merging.get())) {
+				return new ThrottledOutput(output, throttle);
+			}
+			return output;
+		}
+	}
+
+	/**
+	 * An output, which reports the written bytes to the throttle
+	 */
+	private static class ThrottledOutput extends IndexOutput {
+
+		private IndexOutput output;
+		private Throttle throttle;
+
+		/** The bytes written since the last check */
+		private int unchecked = 0;
+
+		ThrottledOutput(IndexOutput output, Throttle throttle) {
+			this.output = output;
+			this.throttle = throttle;
+		}
+
+		public void writeByte(byte b) throws IOException {
+			output.writeByte(b);
+			written(1);
+		}
+
+		public void writeBytes(byte[] b, int offset, int length)
+				throws IOException {
+			output.writeBytes(b, offset, length);
+			written(length);
+		}
+
+		public void flush() throws IOException {
+			output.flush();
+		}
+
+		public void close() throws IOException {
+			output.close();
+		}
+
+		public long getFilePointer() {
+			return output.getFilePointer();
+		}
+
+		public void seek(long pos) throws IOException {
+			output.seek(pos);
+		}
+
+		public long length() throws IOException {
+			return output.length();
+		}
+
+		public void setLength(long length) throws IOException {
+			output.setLength(length);
+		}
+
+		private void written(int bytes) {
+			unchecked += bytes;
+			if(unchecked >= CHUNK) {
+				throttle.pause(unchecked);
+				unchecked = 0;
+			}
+		}
+	}
+
+	protected void doMerge(MergePolicy.OneMerge merge) throws IOException {
+		long start = System.currentTimeMillis();
+		merging.set(Boolean.TRUE);
+		try {
+			super.doMerge(merge);
+		} finally {
+			merging.remove();
+		}
+		long time = System.currentTimeMillis() - start;
+		throttle.merged(time);
+		libloadlog.info("[LIB] Lucene segment merge took "
+				+ MilliSecFormatter.toString(time));
+	}
+
+	public Throttle getThrottle() {
+		return throttle;
+	}
+}
@@ -81,7 +81,7 @@ public class PrototypeMgr {
 	 * Check if the connection does exist and open. If not, reopen this.
 	 * @throws Exception
 	 */
-	private void checkConnection() throws Exception {
+	protected void checkConnection() throws Exception {
 		try {
             //prglog.info("The conn value in check connection before the if loop for resetting: " + conn);
 			if(conn == null || conn.isClosed()) {
@@ -140,6 +140,15 @@ public class PrototypeMgr {
 		}
 	}
 
+	/**
+	 * Does the table have this column?
+	 * @param name The name of the column
+	 * @return True if the column exists
+	 */
+	public boolean hasColumn(String name) {
+		return meta != null && meta.containsKey(name);
+	}
+
 	/**
 	 * Delete the specified record(s).
 	 * @param record 
@@ -9,6 +9,9 @@
 
 package info.extensiblecatalog.OAIToolkit.db.managers;
 
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
 /**
  * The manager of records in the xmls table
  * @author Peter Kiraly
@@ -19,4 +22,29 @@ public class XmlsMgr  extends PrototypeMgr {
 		super("xmls");
 	}
 
+	/**
+	 * Get the content digest of a record's XML without fetching the XML
+	 * @param recordId The ID of the record
+	 * @return The digest, or null if the record has no XML or no digest
+	 * @throws Exception
+	 */
+	public String getDigest(Integer recordId) throws Exception {
+		checkConnection();
+
+		PreparedStatement stmt = null;
+		ResultSet result = null;
+		try {
+			stmt = conn.prepareStatement("SELECT digest FROM " + TABLE_NAME
+					+ " WHERE record_id = ?");
+			stmt.setInt(1, recordId);
+			lastSQL = stmt.toString();
+			result = stmt.executeQuery();
+			return result.next() ? result.getString(1) : null;
+		} finally {
+			if(result != null)
+				result.close();
+			if(stmt != null)
+				stmt.close();
+		}
+	}
 }
@@ -0,0 +1,63 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package info.extensiblecatalog.OAIToolkit.importer;
+
+import java.io.InputStream;
+
+import org.marc4j.MarcReader;
+import org.marc4j.MarcXmlParserThread;
+import org.marc4j.marc.Record;
+import org.xml.sax.InputSource;
+
+/**
+ * MARCXML reader like the <code>org.marc4j.MarcXmlReader</code>, but the
+ * parser thread and the reader communicate through a {@link RecordQueue},
+ * so the parser can run ahead of the reader.
+ *
+ * @author Peter Kiraly
+ */
+public class BufferedMarcXmlReader implements MarcReader {
+
+	private RecordQueue queue;
+
+	public BufferedMarcXmlReader(InputStream input) {
+		this(new InputSource(input), RecordQueue.DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a reader
+	 * @param input The MARCXML stream
+	 * @param capacity The number of records the queue between the parser
+	 * and the reader can hold
+	 */
+	public BufferedMarcXmlReader(InputStream input, int capacity) {
+		this(new InputSource(input), capacity);
+	}
+
+	/**
+	 * Creates a reader
+	 * @param input The MARCXML source
+	 * @param capacity The number of records the queue between the parser
+	 * and the reader can hold
+	 */
+	public BufferedMarcXmlReader(InputSource input, int capacity) {
+		queue = new RecordQueue(capacity);
+		MarcXmlParserThread producer = new MarcXmlParserThread(queue, input);
+		producer.start();
+	}
+
+	public boolean hasNext() {
+		return queue.hasNext();
+	}
+
+	public Record next() {
+		return queue.pop();
+	}
+}
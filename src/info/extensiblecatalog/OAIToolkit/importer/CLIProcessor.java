@@ -56,8 +56,74 @@ import info.extensiblecatalog.OAIToolkit.utils.Logging;
  * ISO5426, ISO6937, none</dd>
  * <dt>-split_size</dt>
  * <dd>How many records can an XML file contain?</dd>
+ * <dt>-convert_threads</dt>
+ * <dd>How many MARC files should be converted in parallel?</dd>
+ * <dt>-convert_record_threads</dt>
+ * <dd>How many threads should process the records of a MARC file?</dd>
+ * <dt>-load_threads</dt>
+ * <dd>How many threads should prepare (modify, serialize and validate) the
+ * records for loading? Available for the Lucene storage.</dd>
+ * <dt>-xml_queue_size</dt>
+ * <dd>How many parsed MARCXML records can wait for the modification and
+ * the load? (default 1000)</dd>
+ * <dt>-mapped_marc_reader</dt>
+ * <dd>Flag to read the MARC files through memory mapping during the
+ * conversion</dd>
+ * <dt>-direct_xml_writer</dt>
+ * <dd>Flag to write the MARCXML files during the conversion without the
+ * SAX serializer (the output is the same)</dd>
+ * <dt>-event_validation</dt>
+ * <dd>Flag to validate the records during the load from SAX events,
+ * without parsing their MARCXML</dd>
+ * <dt>-native_validation</dt>
+ * <dd>Flag to check the records during the load against the MARC21slim
+ * constraints directly, and validate against the schema only the
+ * suspicious records</dd>
+ * <dt>-xsd_sample_rate</dt>
+ * <dd>Validate every Nth record accepted by the native check against the
+ * schema as well (default 0: never)</dd>
+ * <dt>-resume</dt>
+ * <dd>Flag to continue an interrupted load from the last checkpoint of its
+ * journal: the records of the interrupted file stored before the checkpoint
+ * are skipped</dd>
  * <dt>-lucene_index</dt>
  * <dd>The Lucene index directory to create</dd>
+ * <dt>-lucene_refresh_interval</dt>
+ * <dd>The maximal age of the Lucene searcher in milliseconds after the
+ * index changed (default 10000). The records changed by the load are always
+ * searched in their current state.</dd>
+ * <dt>-lucene_max_segments</dt>
+ * <dd>The maximal number of Lucene segments after the optimization at the
+ * end of the load (default 1: full optimization, 0: no optimization)</dd>
+ * <dt>-lucene_expunge_deletes_ratio</dt>
+ * <dd>Expunge the deleted Lucene documents at the end of the load, if
+ * their ratio is above this value (default 0.1)</dd>
+ * <dt>-lucene_merge_mb_per_sec</dt>
+ * <dd>The allowed writing rate of the Lucene segment merges in MB/s
+ * (default 0: unlimited)</dd>
+ * <dt>-lucene_shards</dt>
+ * <dd>The number of shards of a new Lucene index (default 1). The shards
+ * are written in parallel. An existing index keeps its number of
+ * shards.</dd>
+ * <dt>-lucene_xml_in_index</dt>
+ * <dd>Flag to store the XML of the records in the Lucene index, instead
+ * of the compressed blob store next to it</dd>
+ * <dt>-lucene_compress_xml</dt>
+ * <dd>Flag to store the XML in the Lucene index deflate-compressed (with
+ * -lucene_xml_in_index). Without -convert, -modify and -load it compresses
+ * the uncompressed XML of the existing index, segment by segment.</dd>
+ * <dt>-lucene_payloads</dt>
+ * <dd>The metadata prefixes (separated by comma, e.g. marc21,oai_dc),
+ * whose OAI payloads are rendered during the load and stored in the Lucene
+ * index, so the OAI server does not transform the records. After the
+ * formats (or the schema URL) are changed, every loaded record is stored
+ * again with its new payloads, even if it is not changed.</dd>
+ * <dt>-lucene_payload_xsl_dir</dt>
+ * <dd>The directory of the metadata formats configuration and the XSLT
+ * files of the rendered payloads (default: xsl)</dd>
+ * <dt>-lucene_payload_schema_url</dt>
+ * <dd>The MARC21 schema URL of the rendered payloads. It should be the
+ * same as the OAI server's.</dd>
  * <dt>-storage_type</dt>
  * <dd>The storage type of records: MySQL, mixed, Lucene</dd>
  * </dl>
@@ -176,11 +242,122 @@ public class CLIProcessor {
 				" contain?");
 		Option split_size = OptionBuilder.create("split_size");
 
+		OptionBuilder.withArgName("convert_threads");
+		OptionBuilder.hasArg();
+		OptionBuilder.withDescription("How many MARC files should be " +
+				"converted in parallel?");
+		Option convert_threads = OptionBuilder.create("convert_threads");
+
+		OptionBuilder.withArgName("convert_record_threads");
+		OptionBuilder.hasArg();
+		OptionBuilder.withDescription("How many threads should process " +
+				"the records of a MARC file?");
+		Option convert_record_threads = OptionBuilder.create(
+				"convert_record_threads");
+
+		OptionBuilder.withArgName("load_threads");
+		OptionBuilder.hasArg();
+		OptionBuilder.withDescription("How many threads should prepare " +
+				"the records for loading?");
+		Option load_threads = OptionBuilder.create("load_threads");
+
+		OptionBuilder.withArgName("xml_queue_size");
+		OptionBuilder.hasArg();
+		OptionBuilder.withDescription("How many parsed MARCXML records " +
+				"can wait for the modification and the load?");
+		Option xml_queue_size = OptionBuilder.create("xml_queue_size");
+
+		Option mapped_marc_reader = new Option("mapped_marc_reader",
+				"Flag to read the MARC files through memory mapping");
+
+		Option direct_xml_writer = new Option("direct_xml_writer",
+				"Flag to write the MARCXML files without the SAX serializer");
+
+		Option event_validation = new Option("event_validation",
+				"Flag to validate the records without parsing their MARCXML");
+
+		Option native_validation = new Option("native_validation",
+				"Flag to validate against the schema only the records " +
+				"failing the native MARC21slim check");
+
+		OptionBuilder.withArgName("xsd_sample_rate");
+		OptionBuilder.hasArg();
+		OptionBuilder.withDescription("Validate every Nth record accepted " +
+				"by the native check against the schema as well");
+		Option xsd_sample_rate = OptionBuilder.create("xsd_sample_rate");
+
+		Option resume = new Option("resume",
+				"Flag to continue an interrupted load from its last checkpoint");
+
 		OptionBuilder.withArgName("lucene_index");
 		OptionBuilder.hasArg();
 		OptionBuilder.withDescription("Lucene index directory.");
 		Option lucene_index = OptionBuilder.create("lucene_index");
 
+		OptionBuilder.withArgName("lucene_refresh_interval");
+		OptionBuilder.hasArg();
+		OptionBuilder.withDescription("The maximal age of the Lucene " +
+				"searcher in milliseconds after the index changed");
+		Option lucene_refresh_interval = OptionBuilder.create(
+				"lucene_refresh_interval");
+
+		OptionBuilder.withArgName("lucene_max_segments");
+		OptionBuilder.hasArg();
+		OptionBuilder.withDescription("The maximal number of Lucene " +
+				"segments after the optimization at the end of the load " +
+				"(default 1: full optimization of the whole index, " +
+				"0: no optimization)");
+		Option lucene_max_segments = OptionBuilder.create(
+				"lucene_max_segments");
+
+		OptionBuilder.withArgName("lucene_expunge_deletes_ratio");
+		OptionBuilder.hasArg();
+		OptionBuilder.withDescription("Expunge the deleted Lucene " +
+				"documents if their ratio is above this value");
+		Option lucene_expunge_deletes_ratio = OptionBuilder.create(
+				"lucene_expunge_deletes_ratio");
+
+		OptionBuilder.withArgName("lucene_merge_mb_per_sec");
+		OptionBuilder.hasArg();
+		OptionBuilder.withDescription("The allowed writing rate of the " +
+				"Lucene segment merges in MB/s (0: unlimited)");
+		Option lucene_merge_mb_per_sec = OptionBuilder.create(
+				"lucene_merge_mb_per_sec");
+
+		OptionBuilder.withArgName("lucene_shards");
+		OptionBuilder.hasArg();
+		OptionBuilder.withDescription("The number of shards of a new " +
+				"Lucene index");
+		Option lucene_shards = OptionBuilder.create("lucene_shards");
+
+		Option lucene_xml_in_index = new Option("lucene_xml_in_index",
+				"Flag to store the XML of the records in the Lucene index " +
+				"instead of the blob store");
+
+		Option lucene_compress_xml = new Option("lucene_compress_xml",
+				"Flag to compress the XML stored in the Lucene index " +
+				"(alone: compress the XML of the existing index)");
+
+		OptionBuilder.withArgName("lucene_payloads");
+		OptionBuilder.hasArg();
+		OptionBuilder.withDescription("The metadata prefixes of the " +
+				"payloads rendered during the load (e.g. marc21,oai_dc)");
+		Option lucene_payloads = OptionBuilder.create("lucene_payloads");
+
+		OptionBuilder.withArgName("lucene_payload_xsl_dir");
+		OptionBuilder.hasArg();
+		OptionBuilder.withDescription("The directory of the metadata " +
+				"formats and the XSLT files of the payloads");
+		Option lucene_payload_xsl_dir = OptionBuilder.create(
+				"lucene_payload_xsl_dir");
+
+		OptionBuilder.withArgName("lucene_payload_schema_url");
+		OptionBuilder.hasArg();
+		OptionBuilder.withDescription("The MARC21 schema URL of the " +
+				"payloads");
+		Option lucene_payload_schema_url = OptionBuilder.create(
+				"lucene_payload_schema_url");
+
 		//OptionBuilder.withArgName("storage_type");
 		//OptionBuilder.hasArg();
 		//OptionBuilder.withDescription("The storage type of records: MySQL," +
@@ -273,7 +450,27 @@ public class CLIProcessor {
 		options.addOption(marc_encoding);
 		options.addOption(char_conversion);
 		options.addOption(split_size);
+		options.addOption(convert_threads);
+		options.addOption(convert_record_threads);
+		options.addOption(load_threads);
+		options.addOption(xml_queue_size);
+		options.addOption(mapped_marc_reader);
+		options.addOption(direct_xml_writer);
+		options.addOption(event_validation);
+		options.addOption(native_validation);
+		options.addOption(xsd_sample_rate);
+		options.addOption(resume);
 		options.addOption(lucene_index);
+		options.addOption(lucene_refresh_interval);
+		options.addOption(lucene_max_segments);
+		options.addOption(lucene_expunge_deletes_ratio);
+		options.addOption(lucene_merge_mb_per_sec);
+		options.addOption(lucene_shards);
+		options.addOption(lucene_xml_in_index);
+		options.addOption(lucene_compress_xml);
+		options.addOption(lucene_payloads);
+		options.addOption(lucene_payload_xsl_dir);
+		options.addOption(lucene_payload_schema_url);
 		//options.addOption(storage_type);
 		options.addOption(indent_xml);
 		options.addOption(xml_version_11);
@@ -412,12 +609,125 @@ public class CLIProcessor {
 						"split_size"));
 			}
 			
+			// convert_threads
+			if (line.hasOption("convert_threads")) {
+				importer.configuration.setConvertThreads(line.getOptionValue(
+						"convert_threads"));
+			}
+			
+			// convert_record_threads
+			if (line.hasOption("convert_record_threads")) {
+				importer.configuration.setConvertRecordThreads(
+						line.getOptionValue("convert_record_threads"));
+			}
+			
+			// load_threads
+			if (line.hasOption("load_threads")) {
+				importer.configuration.setLoadThreads(line.getOptionValue(
+						"load_threads"));
+			}
+			
+			// xml_queue_size
+			if (line.hasOption("xml_queue_size")) {
+				importer.configuration.setXmlQueueSize(line.getOptionValue(
+						"xml_queue_size"));
+			}
+			
+			// mapped_marc_reader
+			if (line.hasOption("mapped_marc_reader")) {
+				importer.configuration.setMappedMarcReader(true);
+			}
+			
+			// direct_xml_writer
+			if (line.hasOption("direct_xml_writer")) {
+				importer.configuration.setDirectXmlWriter(true);
+			}
+			
+			// event_validation
+			if (line.hasOption("event_validation")) {
+				importer.configuration.setEventValidation(true);
+			}
+			
+			// native_validation
+			if (line.hasOption("native_validation")) {
+				importer.configuration.setNativeValidation(true);
+			}
+			
+			// xsd_sample_rate
+			if (line.hasOption("xsd_sample_rate")) {
+				importer.configuration.setXsdSampleRate(line.getOptionValue(
+						"xsd_sample_rate"));
+			}
+			
+			// resume
+			if (line.hasOption("resume")) {
+				importer.configuration.setResume(true);
+			}
+			
 			// lucene_index
 			if (line.hasOption("lucene_index")) {
 				importer.configuration.setLuceneIndex(line.getOptionValue(
 						"lucene_index"));
 			}
 			
+			// lucene_refresh_interval
+			if (line.hasOption("lucene_refresh_interval")) {
+				importer.configuration.setLuceneRefreshInterval(
+						line.getOptionValue("lucene_refresh_interval"));
+			}
+			
+			// lucene_max_segments
+			if (line.hasOption("lucene_max_segments")) {
+				importer.configuration.setLuceneMaxSegments(
+						line.getOptionValue("lucene_max_segments"));
+			}
+			
+			// lucene_expunge_deletes_ratio
+			if (line.hasOption("lucene_expunge_deletes_ratio")) {
+				importer.configuration.setLuceneExpungeDeletesRatio(
+						line.getOptionValue("lucene_expunge_deletes_ratio"));
+			}
+			
+			// lucene_merge_mb_per_sec
+			if (line.hasOption("lucene_merge_mb_per_sec")) {
+				importer.configuration.setLuceneMergeMbPerSec(
+						line.getOptionValue("lucene_merge_mb_per_sec"));
+			}
+			
+			// lucene_shards
+			if (line.hasOption("lucene_shards")) {
+				importer.configuration.setLuceneShards(
+						line.getOptionValue("lucene_shards"));
+			}
+			
+			// lucene_xml_in_index
+			if (line.hasOption("lucene_xml_in_index")) {
+				importer.configuration.setLuceneXmlInIndex(true);
+			}
+			
+			// lucene_compress_xml
+			if (line.hasOption("lucene_compress_xml")) {
+				importer.configuration.setLuceneCompressXml(true);
+			}
+			
+			// lucene_payloads
+			if (line.hasOption("lucene_payloads")) {
+				importer.configuration.setLucenePayloads(
+						line.getOptionValue("lucene_payloads"));
+			}
+			
+			// lucene_payload_xsl_dir
+			if (line.hasOption("lucene_payload_xsl_dir")) {
+				importer.configuration.setLucenePayloadXslDir(
+						line.getOptionValue("lucene_payload_xsl_dir"));
+			}
+			
+			// lucene_payload_schema_url
+			if (line.hasOption("lucene_payload_schema_url")) {
+				importer.configuration.setLucenePayloadSchemaUrl(
+						line.getOptionValue("lucene_payload_schema_url"));
+			}
+			
 			// storage_type
 //			if (line.hasOption("storage_type")) {
 //				importer.configuration.setStorageType(line.getOptionValue(
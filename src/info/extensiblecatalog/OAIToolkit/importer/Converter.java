@@ -18,13 +18,21 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 import org.marc4j.Constants;
 import org.marc4j.MarcException;
 import org.marc4j.MarcPermissiveStreamReader;
+import org.marc4j.MarcReader;
 import org.marc4j.MarcStreamWriter;
 import org.marc4j.MarcWriter;
 import org.marc4j.MarcXmlWriter;
@@ -33,14 +41,13 @@ import org.marc4j.converter.impl.AnselToUnicode;
 import org.marc4j.converter.impl.Iso5426ToUnicode;
 import org.marc4j.converter.impl.Iso6937ToUnicode;
 import org.marc4j.marc.ControlField;
-import org.marc4j.marc.DataField;
 import org.marc4j.marc.Record;
-import org.marc4j.marc.Subfield;
-import org.marc4j.marc.impl.LeaderImpl;
-import org.marc4j.marc.impl.SubfieldImpl;
 
 import info.extensiblecatalog.OAIToolkit.importer.ImporterConstants.ImportType;
+import info.extensiblecatalog.OAIToolkit.importer.RecordSanitizer.BadCharacter;
 import info.extensiblecatalog.OAIToolkit.importer.importers.IImporter;
+import info.extensiblecatalog.OAIToolkit.importer.importers.IParallelImporter;
+import info.extensiblecatalog.OAIToolkit.importer.importers.PreparedRecord;
 import info.extensiblecatalog.OAIToolkit.importer.statistics.ConversionStatistics;
 import info.extensiblecatalog.OAIToolkit.importer.statistics.LoadStatistics;
 import info.extensiblecatalog.OAIToolkit.utils.ApplInfo;
@@ -63,14 +70,21 @@ public class Converter {
         private static final Logger libconvertlog = Logging.getLogger(library_convertlog);
         private static final Logger prglog = Logging.getLogger(programmer_log);
 
-	/** The range of non allowable characters in XML 1.0 (ASCII Control Characters) */
-	private static final String WEIRD_CHARACTERS =
-		"[\u0001-\u0008\u000b-\u000c\u000e-\u001f]";
+	/** How many records can wait between the reader and the writer, when
+	 * the records are processed in parallel */
+	private static final int PIPELINE_QUEUE_SIZE = 1000;
 
-	/** Regex Pattern for the non allowable characters in XML 1.0 (ASCII
-	 * Control Characters) */
-	private static final Pattern WEIRD_CHARACTERS_PATTERN =
-		Pattern.compile(WEIRD_CHARACTERS);
+	/** How long the reader waits for a place in the queue of the
+	 * {@link RecordPipeline} before it checks the writer (milliseconds) */
+	private static final long PIPELINE_OFFER_WAIT = 100;
+
+	/** Marks the end of records in the queue of the {@link RecordPipeline} */
+	private static final Future<ProcessedRecord> END_OF_RECORDS =
+		new FutureTask<ProcessedRecord>(new Callable<ProcessedRecord>() {
+			public ProcessedRecord call() {
+				return null;
+			}
+		});
 
 	/** encoding of the MARC file */
 	//private String encoding = "UTF-8";
@@ -86,6 +100,17 @@ public class Converter {
 	/** How many records can an xml file contain? */
 	private int splitSize = 10000;
 
+	/** How many threads process the records of a file? With more threads
+	 * the records are serialized by the threads with the
+	 * {@link DirectMarcXmlWriter}, which writes the same MARCXML. */
+	private int recordThreads = 1;
+
+	/** Read the MARC file with the {@link MappedMarcReader}? */
+	private boolean mappedReader = false;
+
+	/** Write the MARCXML with the {@link DirectMarcXmlWriter}? */
+	private boolean directXmlWriter = false;
+
 	/** The directory that the toolkit moves records into
 	 * when there is a processing error for that file. */
 	private String errorDir;
@@ -106,6 +131,10 @@ public class Converter {
 	 * to spaces */
 	private boolean translateNonleaderBadCharsToSpaces = false;
 
+	/** Finds and replaces the non allowable characters in XML 1.0 (ASCII
+	 * Control Characters) */
+	private RecordSanitizer sanitizer = new RecordSanitizer();
+
 	private String controlNumberOfLastReadRecord = null;
 
 	/**
@@ -129,8 +158,13 @@ public class Converter {
 
 	private MarcWriter badRecordWriter = null;
 
+	/** The MARCXML writer of the current file */
+	private MarcWriter writer = null;
+
 	private File currentMarcFile = null;
 
+	private File currentXmlFile = null;
+
 	public Converter() {
 	}
 
@@ -153,21 +187,30 @@ public class Converter {
 
 		ConversionStatistics statistics = new ConversionStatistics();
 		currentMarcFile = marcFile;
+		currentXmlFile = xmlFile;
 		InputStream inputStream = null;
+		MappedMarcReader mappedMarcReader = null;
+		MarcReader reader = null;
 
 		try {
-			inputStream = new FileInputStream(marcFile);
+			if(mappedReader) {
+				mappedMarcReader = new MappedMarcReader(marcFile);
+				reader = mappedMarcReader;
+			} else {
+				inputStream = new FileInputStream(marcFile);
+			}
 		} catch (FileNotFoundException e) {
 			throw new Exception("File Not Found error: " + marcFile + ", "
 					+ e.getMessage());
 		}
 		long fileSize = marcFile.length();
-		MarcPermissiveStreamReader reader = null;
-		boolean permissive      = true;
-		boolean convertToUtf8   = true;
-		reader = new MarcPermissiveStreamReader(inputStream, permissive, convertToUtf8);
+		if(reader == null) {
+			boolean permissive      = true;
+			boolean convertToUtf8   = true;
+			reader = new MarcPermissiveStreamReader(inputStream, permissive, convertToUtf8);
+		}
 
-		MarcXmlWriter writer = null;
+		writer = null;
 		if(recordImporter == null) {
 			writer = getWriter(xmlFile, 0);
 		} else {
@@ -182,15 +225,6 @@ public class Converter {
 		 * '\u001F' - as subfield separator
 		 */
 
-		/** do the record have invalid characters? */
-		boolean hasInvalidChars;
-
-		/** the index of an invalid character */
-		//int invalidCharIndex;
-
-		/** the weird character matcher */
-		Matcher matcher;
-
 		/** record counter */
 		int counter = 0;
 
@@ -199,6 +233,12 @@ public class Converter {
 
 		/** the percent of imported records in the size of file */
 		int percent;
+
+		/** the pipeline of record processing, if there are more threads */
+		RecordPipeline pipeline = null;
+		if(recordThreads > 1) {
+			pipeline = new RecordPipeline(statistics);
+		}
 		try {
 			while (reader.hasNext()) {
 
@@ -220,74 +260,21 @@ public class Converter {
 				counter++;
 				controlNumberOfLastReadRecord = record.getControlNumber();
 
-                				//if(!reader.isCorrupted()) {
-				if (Constants.MARC_8_ENCODING.equals(convertEncoding)) {
-					record.getLeader().setCharCodingScheme('a');
-				}
-
-				hasInvalidChars = false;
-				matcher = WEIRD_CHARACTERS_PATTERN.matcher(record.toString());
-				if(matcher.find()) {
-					hasInvalidChars = doReplacements(record, matcher);
-				}
-				if(!hasInvalidChars) {
-
-					//if(!ignoreRepositoryCode) {
-						//merge003and001(record);
-					//}
-
-					if(modifier != null) {
-						String xml = modifier.modifyRecord(record, false);
-						//System.out.println(xml);
-						try {
-							Record newRecord = MARCRecordWrapper.MARCXML2Record(xml);
-							if(newRecord == null){
-								prglog.error("[PRG] Error occured when transforming record "
-									+ marcFile.getName() + "#" + record.getControlNumber());
-							} else {
-								record = newRecord;
-							}
-						} catch(Exception e) {
-							e.printStackTrace();
-							prglog.error("[PRG] Error on record " + marcFile.getName() + "#" + record.getControlNumber()
-									+ " " + ExceptionPrinter.getStack(e));
-							System.out.println(xml);
-						}
-					}
-
-					if(recordImporter == null) {
-						writer.write(record);
-					} else {
-						List<ImportType> typeList = recordImporter.importRecord(record, false);
-						loadStatistics.add(typeList);
-						if(typeList.contains(ImportType.INVALID)) {
-							recordImporter.writeBadRecord(record);
-						}
-					}
-
-					// close previous, open new
-					if(recordImporter == null
-						&& 0 < splitSize
-						&& statistics.getConverted() > 0
-						&& 0 == statistics.getConverted() % splitSize)
-					{
-						writer.close();
-						writer = getWriter(xmlFile, statistics.getConverted());
-					}
-					statistics.addConverted();
+				if(pipeline == null) {
+					storeRecord(processRecord(record, modifier), statistics);
 				} else {
-					prglog.error("[PRG] INVALID " + record.getControlNumber());
-					statistics.addInvalid();
-					
-					badRecordWriter.write(record);
+					pipeline.add(record);
 				}
 
 				if((0 == counter % 100)){
 					System.out.print('.');
 					if(reader.hasNext()) {
 						try {
-							if(inputStream != null && inputStream.available() != 0) {
-								percent = (int)((fileSize - inputStream.available())
+							long remaining = (mappedMarcReader != null)
+								? mappedMarcReader.getRemaining()
+								: inputStream.available();
+							if(remaining != 0) {
+								percent = (int)((fileSize - remaining)
 									* 100 / fileSize);
 								if((0 == percent % 10) && percent != prevPercent) {
 									System.out.println(" (" + percent + "%)");
@@ -302,13 +289,23 @@ public class Converter {
 					//System.gc();
 				}
 			}
+			if(pipeline != null) {
+				pipeline.finish();
+			}
 		} finally {
+			if(pipeline != null) {
+				pipeline.shutdown();
+			}
 			if(writer != null) {
 				writer.close();
 			}
 			badRecordWriter.close();
 			try {
-				inputStream.close();
+				if(mappedMarcReader != null) {
+					mappedMarcReader.close();
+				} else {
+					inputStream.close();
+				}
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -324,6 +321,107 @@ public class Converter {
 		return statistics;
 	}
 
+	/**
+	 * Sanitize and modify a record. This step does not touch the writers, so
+	 * it can run in parallel for different records.
+	 * @param record The MARC record
+	 * @param modifier The modifier to use, or null
+	 * @return The processed record
+	 */
+	private ProcessedRecord processRecord(Record record, Modifier modifier) {
+		ProcessedRecord processed = new ProcessedRecord();
+
+		//if(!reader.isCorrupted()) {
+		if (Constants.MARC_8_ENCODING.equals(convertEncoding)) {
+			record.getLeader().setCharCodingScheme('a');
+		}
+
+		boolean hasInvalidChars = false;
+		List<BadCharacter> badCharacters = sanitizer.sanitize(record);
+		if(!badCharacters.isEmpty()) {
+			hasInvalidChars = doReplacements(record, badCharacters,
+					processed.badRecords);
+		}
+		if(!hasInvalidChars) {
+
+			//if(!ignoreRepositoryCode) {
+				//merge003and001(record);
+			//}
+
+			if(modifier != null) {
+				try {
+					Record newRecord = modifier.modify(record, false);
+					if(newRecord == null){
+						prglog.error("[PRG] Error occured when transforming record "
+							+ currentMarcFile.getName() + "#" + record.getControlNumber());
+					} else {
+						record = newRecord;
+					}
+				} catch(Exception e) {
+					e.printStackTrace();
+					prglog.error("[PRG] Error on record " + currentMarcFile.getName() + "#" + record.getControlNumber()
+							+ " " + ExceptionPrinter.getStack(e));
+				}
+			}
+		} else {
+			processed.badRecords.add(record);
+		}
+		processed.record = record;
+		processed.invalid = hasInvalidChars;
+		return processed;
+	}
+
+	/**
+	 * Write out a processed record to the MARCXML file (or import it), and
+	 * write out the bad records. The records should arrive here in the order
+	 * of the MARC file.
+	 * @param processed The processed record
+	 * @param statistics The statistics of the current file
+	 * @throws Exception
+	 */
+	private void storeRecord(ProcessedRecord processed,
+			ConversionStatistics statistics) throws Exception {
+		Record record = processed.record;
+		if(!processed.invalid) {
+			if(recordImporter == null) {
+				if(processed.xml != null) {
+					((DirectMarcXmlWriter)writer).writeRecordXml(processed.xml);
+				} else {
+					writer.write(record);
+				}
+			} else {
+				List<ImportType> typeList = (processed.prepared != null)
+					? ((IParallelImporter)recordImporter)
+						.importPreparedRecord(processed.prepared)
+					: recordImporter.importRecord(record, false);
+				loadStatistics.add(typeList);
+				if(typeList.contains(ImportType.INVALID)) {
+					recordImporter.writeBadRecord(record);
+				}
+			}
+
+			// close previous, open new
+			if(recordImporter == null
+				&& 0 < splitSize
+				&& statistics.getConverted() > 0
+				&& 0 == statistics.getConverted() % splitSize)
+			{
+				writer.close();
+				writer = getWriter(currentXmlFile, statistics.getConverted());
+			}
+			statistics.addConverted();
+		} else {
+			prglog.error("[PRG] INVALID " + record.getControlNumber());
+			statistics.addInvalid();
+		}
+
+		for(Record badRecord : processed.badRecords) {
+			if(null != badRecordWriter) {
+				badRecordWriter.write(badRecord);
+			}
+		}
+	}
+
 	private OutputStream getOutputStream(File xmlFile, int counter)
 			throws Exception {
 		OutputStream out = null;
@@ -350,10 +448,20 @@ public class Converter {
 		return out;
 	}
 
-	private MarcXmlWriter getWriter(File xmlFile, int counter) throws Exception {
+	private MarcWriter getWriter(File xmlFile, int counter) throws Exception {
 
 		OutputStream out = getOutputStream(xmlFile, counter);
 
+		if(directXmlWriter || recordThreads > 1) {
+			// the parallel threads serialize the records for this writer
+			DirectMarcXmlWriter writer = new DirectMarcXmlWriter(out, doIndentXml);
+			setConverter(writer);
+			if (normalize == true) {
+				writer.setUnicodeNormalization(true);
+			}
+			return writer;
+		}
+
 		MarcXmlWriter writer = null;
 		writer = new MarcXmlWriter(out, "UTF8", doIndentXml); //, createXml11);
 		//writer.setIndent(doIndentXml);
@@ -379,7 +487,7 @@ public class Converter {
 		}
 	}
 
-	private void setConverter(MarcXmlWriter writer) throws Exception {
+	private void setConverter(MarcWriter writer) throws Exception {
 
 		if (null != convertEncoding) {
 			CharConverter charconv = null;
@@ -410,10 +518,6 @@ public class Converter {
 		}
 	}
 
-	private RecordLine getLineOfRecord(String recordString, int position) {
-		return new RecordLine(recordString, position);
-	}
-
 	public void setEncoding(String encoding) {
 		//this.encoding = encoding;
 	}
@@ -429,122 +533,6 @@ public class Converter {
 	}
 
 
-	/**
-	 * Replace invalid characters in a record
-	 * @param record
-	 * @param line
-	 */
-	@SuppressWarnings("unchecked")
-	private void modifyRecord(Record record, RecordLine line, String invalidCharacter, String badCharacterLocator) {
-
-
-            // change LEADER
-                if(translateLeaderBadCharsToZero == true) {
-                    String leaderReplaced = "The character is replaced with zero.\n";
-                    if(line.getLine().startsWith("LEADER")) {
-			record.setLeader(new LeaderImpl(
-					record.getLeader().toString()
-						.replaceAll(WEIRD_CHARACTERS, "0")));
-
-                 libconvertlog.info("[LIB] OAI Toolkit corrected the MARC record #" +
-                         record.getControlNumber() +
-                         "having the bad character in the Leader field at " +
-                         invalidCharacter + "." +
-                         leaderReplaced);
-                 /*logger.warn( "[LIB] The MARC record " +
-                            (currentMarcFile.getName()) +
-                            "#" + record.getControlNumber() +
-                            " is corrupted." +
-                            " Cause: invalid character " +
-                            invalidCharacter + ", " +
-                            "." + ApplInfo.LN +
-                            leaderReplaced +
-                            badCharacterLocator) ;*/
-                    }
-                }
-
-                // change control fields
-                if(translateNonleaderBadCharsToSpaces == true) {
-                    String NonleaderReplaced = "The character is replaced with space.\n";
-                    if(line.getLine().startsWith("00")) {
-                            String tag = line.getLine().substring(0,3);
-                            ControlField fd = (ControlField)record.getVariableField(tag);
-                            fd.setData(fd.getData().replaceAll(WEIRD_CHARACTERS, " "));
-                            record.addVariableField(fd);
-
-                     libconvertlog.info("[LIB] OAI Toolkit corrected the MARC record #" +
-                         record.getControlNumber() +
-                         "having the bad character in the Non-Leader field at" +
-                         invalidCharacter + "." +
-                         NonleaderReplaced);
-                     /*logger.warn( "[LIB] The MARC record " +
-                                (currentMarcFile.getName()) +
-                                 "#" + record.getControlNumber() +
-                                 " is corrupted." +
-                                " Cause: invalid character " +
-                                invalidCharacter + ", " +
-                                "." + ApplInfo.LN +
-                                NonleaderReplaced +
-                                badCharacterLocator) ; */
-
-                    // change data fields
-                    } else if (line.getLine().startsWith("LEADER") == false){
-                            String tag = line.getLine().substring(0,3);
-                            DataField fd = (DataField)record.getVariableField(tag);
-                            record.removeVariableField(fd);
-
-                            // indicators
-                            fd.setIndicator1(String.valueOf(fd.getIndicator1())
-                                            .replaceAll(WEIRD_CHARACTERS, " ").charAt(0));
-                            fd.setIndicator2(String.valueOf(fd.getIndicator2())
-                                            .replaceAll(WEIRD_CHARACTERS, " ").charAt(0));
-
-                            // subfields
-                            List<Subfield> sfs = (List<Subfield>)fd.getSubfields();
-                            List<Subfield> newSfs = new ArrayList<Subfield>();
-                            List<Subfield> oldSfs = new ArrayList<Subfield>();
-                            // replace the subfields' weird characters
-                            for(Subfield sf : sfs) {
-                                    oldSfs.add(sf);
-                                    char code;
-                                    if(WEIRD_CHARACTERS_PATTERN.matcher(String.valueOf(sf.getCode())).find()) {
-                                            code = String.valueOf(sf.getCode())
-                                                    .replaceAll(WEIRD_CHARACTERS, " ").charAt(0);
-                                    } else {
-                                            code = sf.getCode();
-                                    }
-                                    newSfs.add(new SubfieldImpl(
-                                                    code,
-                                                    sf.getData().replaceAll(WEIRD_CHARACTERS, " ")));
-                            }
-                            // remove old subfields ...
-                            for(Subfield sf : oldSfs) {
-                                    fd.removeSubfield(sf);
-                            }
-                            // ... and add the new ones
-                            for(Subfield sf : newSfs) {
-                                    fd.addSubfield(sf);
-                            }
-                            record.addVariableField(fd);
-
-                         libconvertlog.info("[LIB] OAI Toolkit corrected the MARC record #" +
-                         record.getControlNumber() +
-                         "having the bad character in the Non-Leader field at" +
-                         invalidCharacter + "." +
-                         NonleaderReplaced);
-                         /*logger.warn( "[LIB] The MARC record " +
-                                    (currentMarcFile.getName()) +
-                                     "#" + record.getControlNumber() +
-                                     " is corrupted." +
-                                    " Cause: invalid character " +
-                                    invalidCharacter + ", " +
-                                    "." + ApplInfo.LN +
-                                    NonleaderReplaced +
-                                    badCharacterLocator) ;*/
-                    }
-            }
-        }
-
 	/**
 	 * Merge 003 and 001 as the record's new Control Number
 	 * @param record
@@ -574,59 +562,59 @@ public class Converter {
 	}
 
 	/**
-	 * Handle weird character replacements. Collect the location of such
-	 * caracters, call the character replacement method
-	 * ({@link #modifyRecord(Record, RecordLine)}), log the locations.
+	 * Handle weird character replacements. The {@link RecordSanitizer}
+	 * has already replaced the characters, as the translate flags allow;
+	 * log the corrections and the locations.
 	 * @param record The marc record object
-	 * @param matcher The regex matcher, which contains the locations
+	 * @param badCharacters The bad characters of the record
+	 * @param badRecords The list of records to write out into the bad
+	 * records file
 	 * @return true if the record still contains invalid characters,
 	 * otherwise false
 	 */
-	private boolean doReplacements(Record record, Matcher matcher) {
-		boolean hasInvalidChars = true;
-		String recordString = record.toString();
-
-		//invalidCharIndex = matcher.start();
-		List<Integer> invalidCharsIndex = new ArrayList<Integer>();
-		do {
-			invalidCharsIndex.add(matcher.start());
-		} while(matcher.find());
+	private boolean doReplacements(Record record,
+			List<BadCharacter> badCharacters, List<Record> badRecords) {
+		boolean hasInvalidChars = false;
 		StringBuffer badCharLocator = new StringBuffer();
 		List<String> invalidChars = new ArrayList<String>();
-		for(Integer i : invalidCharsIndex) {
-			RecordLine line = getLineOfRecord(recordString, i);
-			badCharLocator.append(line.getErrorLocation()).append(ApplInfo.LN);
-			invalidChars.add(line.getInvalidChar()+ " ("
-					+ line.getInvalidCharHexa() + ")" + " position: " + i);
-                        String invalidCharacter = (line.getInvalidChar() + " (" + line.getInvalidCharHexa() + ")" + "position: " + i);
-                        String badCharacterLocator = (line.getErrorLocation() + ApplInfo.LN);
-                        if(translateLeaderBadCharsToZero == true || translateNonleaderBadCharsToSpaces == true) {
-                            modifyRecord(record, line, invalidCharacter, badCharacterLocator);
+		for(BadCharacter badCharacter : badCharacters) {
+			String invalidCharacter = badCharacter.getInvalidChar() + " ("
+				+ badCharacter.getInvalidCharHexa() + ")";
+			if(!badCharacter.isReplaced()) {
+				hasInvalidChars = true;
 			}
-		}
-                String replaced = "The character is replaced with space or zeros.\n" ;
-		if(translateLeaderBadCharsToZero == false && translateNonleaderBadCharsToSpaces == false) {
-			if(null != badRecordWriter) {
-				badRecordWriter.write(record);
+			if(badCharacter.isInLeader() && translateLeaderBadCharsToZero) {
+				libconvertlog.info("[LIB] OAI Toolkit corrected the MARC record #" +
+					badCharacter.getControlNumber() +
+					"having the bad character in the Leader field at " +
+					invalidCharacter + "position: " + badCharacter.getPosition() + "." +
+					"The character is replaced with zero.\n");
+			} else if(!badCharacter.isInLeader() && translateNonleaderBadCharsToSpaces) {
+				libconvertlog.info("[LIB] OAI Toolkit corrected the MARC record #" +
+					badCharacter.getControlNumber() +
+					"having the bad character in the Non-Leader field at" +
+					invalidCharacter + "position: " + badCharacter.getPosition() + "." +
+					"The character is replaced with space.\n");
+			}
+			if(translateLeaderBadCharsToZero == false && translateNonleaderBadCharsToSpaces == false) {
+				badCharLocator.append(badCharacter.getLine().getErrorLocation())
+					.append(ApplInfo.LN);
+				invalidChars.add(invalidCharacter + " position: "
+					+ badCharacter.getPosition());
 			}
-			replaced = "";
-			hasInvalidChars = true;
-		} else {
-			matcher = WEIRD_CHARACTERS_PATTERN.matcher(record.toString());
-			hasInvalidChars = matcher.find() ? true : false;
 		}
-		StringBuffer logEntry = new StringBuffer();
-		logEntry.append("[LIB] The MARC record #")
-			.append(currentMarcFile.getName())
-			.append("#").append(record.getControlNumber())
-			.append(" is corrupted.")
-			.append(" Cause: invalid character ")
-			.append(TextUtil.join(invalidChars, ", "))
-			.append("." + ApplInfo.LN)
-			.append(replaced)
-			.append(badCharLocator);
-
 		if(translateLeaderBadCharsToZero == false && translateNonleaderBadCharsToSpaces == false) {
+			badRecords.add(record);
+			hasInvalidChars = true;
+			StringBuffer logEntry = new StringBuffer();
+			logEntry.append("[LIB] The MARC record #")
+				.append(currentMarcFile.getName())
+				.append("#").append(record.getControlNumber())
+				.append(" is corrupted.")
+				.append(" Cause: invalid character ")
+				.append(TextUtil.join(invalidChars, ", "))
+				.append("." + ApplInfo.LN)
+				.append(badCharLocator);
 			prglog.error("[PRG] " + logEntry.toString());
 		}
 		return hasInvalidChars;
@@ -636,6 +624,8 @@ public class Converter {
 		StringBuffer settings = new StringBuffer();
 		settings.append("Converter settings: ");
 		settings.append("createXml11: ").append(createXml11);
+		settings.append(", mappedReader: ").append(mappedReader);
+		settings.append(", directXmlWriter: ").append(directXmlWriter);
                 settings.append(", translateLeaderBadCharsToZero: ")
                         .append(translateLeaderBadCharsToZero);
                 settings.append(", translateNonleaderBadCharsToSpaces: ")
@@ -655,6 +645,30 @@ public class Converter {
 		this.splitSize = splitSize;
 	}
 
+	public int getRecordThreads() {
+		return recordThreads;
+	}
+
+	public void setRecordThreads(int recordThreads) {
+		this.recordThreads = recordThreads;
+	}
+
+	public boolean isMappedReader() {
+		return mappedReader;
+	}
+
+	public void setMappedReader(boolean mappedReader) {
+		this.mappedReader = mappedReader;
+	}
+
+	public boolean isDirectXmlWriter() {
+		return directXmlWriter;
+	}
+
+	public void setDirectXmlWriter(boolean directXmlWriter) {
+		this.directXmlWriter = directXmlWriter;
+	}
+
 	public void setErrorDir(String errorDir) {
 		this.errorDir = errorDir;
 	}
@@ -677,6 +691,7 @@ public class Converter {
 
 	public void setTranslateLeaderBadCharsToZero(boolean translateLeaderBadCharsToZero) {
 		this.translateLeaderBadCharsToZero = translateLeaderBadCharsToZero;
+		sanitizer.setTranslateLeaderBadCharsToZero(translateLeaderBadCharsToZero);
 	}
 
         public boolean isTranslateNonleaderBadCharsToSpaces() {
@@ -685,6 +700,7 @@ public class Converter {
 
 	public void setTranslateNonleaderBadCharsToSpaces(boolean translateNonleaderBadCharsToSpaces) {
 		this.translateNonleaderBadCharsToSpaces = translateNonleaderBadCharsToSpaces;
+		sanitizer.setTranslateNonleaderBadCharsToSpaces(translateNonleaderBadCharsToSpaces);
 	}
 
 	public String getControlNumberOfLastReadRecord() {
@@ -718,4 +734,225 @@ public class Converter {
 	public void setDefaultRepositoryCode(String defaultRepositoryCode) {
 		this.defaultRepositoryCode = defaultRepositoryCode;
 	}
+
+	/** A record after the sanitizing and modification steps */
+	private static class ProcessedRecord {
+
+		/** The (modified) record */
+		private Record record;
+
+		/** Does the record still have invalid characters? */
+		private boolean invalid = false;
+
+		/** The records to write out into the bad records file */
+		private List<Record> badRecords = new ArrayList<Record>(1);
+
+		/** The record serialized for the {@link DirectMarcXmlWriter} of the
+		 * file, or null */
+		private byte[] xml;
+
+		/** The record prepared for the import, or null */
+		private PreparedRecord prepared;
+	}
+
+	/**
+	 * Process the records of a file with {@link #recordThreads} threads.
+	 * The reader adds the records in the order of the file, the worker
+	 * threads sanitize, modify (each thread with its own {@link Modifier})
+	 * and serialize them (or prepare them for a parallel importer), and a
+	 * writer thread stores them in the same order they were added, so the
+	 * split of XML files does not change.
+	 */
+	private class RecordPipeline {
+
+		private final ExecutorService workers;
+
+		/** The records under processing, in the order of the file */
+		private final BlockingQueue<Future<ProcessedRecord>> queue;
+
+		private final ThreadLocal<Modifier> modifiers;
+
+		/** The serializers of the worker threads, created by
+		 * {@link #getSerializer()} */
+		private final ThreadLocal<DirectMarcXmlWriter> serializers =
+			new ThreadLocal<DirectMarcXmlWriter>();
+
+		private final Thread writerThread;
+
+		private volatile Exception failure = null;
+
+		private boolean finished = false;
+
+		public RecordPipeline(final ConversionStatistics statistics) {
+			workers = Executors.newFixedThreadPool(recordThreads);
+			queue = new ArrayBlockingQueue<Future<ProcessedRecord>>(
+					PIPELINE_QUEUE_SIZE);
+			modifiers = new ThreadLocal<Modifier>() {
+				protected Modifier initialValue() {
+					return (modifier == null) ? null : modifier.copy();
+				}
+			};
+			writerThread = new Thread(new Runnable() {
+				public void run() {
+					write(statistics);
+				}
+			}, "Converter writer of " + currentMarcFile.getName());
+			writerThread.start();
+		}
+
+		/**
+		 * Add the next record of the file. Blocks if there are too many
+		 * records waiting for the writer.
+		 * @param record The MARC record
+		 * @throws Exception The error of the writer, if it has failed
+		 */
+		public void add(final Record record) throws Exception {
+			if(failure != null) {
+				throw failure;
+			}
+			Future<ProcessedRecord> processed = workers.submit(
+					new Callable<ProcessedRecord>() {
+				public ProcessedRecord call() throws Exception {
+					ProcessedRecord processed = processRecord(record,
+							modifiers.get());
+					serialize(processed);
+					return processed;
+				}
+			});
+			while(!queue.offer(processed, PIPELINE_OFFER_WAIT,
+					TimeUnit.MILLISECONDS)) {
+				if(failure != null) {
+					throw failure;
+				}
+				if(!writerThread.isAlive()) {
+					throw new IllegalStateException(
+							"The writer of the records has stopped.");
+				}
+			}
+		}
+
+		/**
+		 * Wait until all the added records are stored.
+		 * @throws Exception The error of the writer, if it has failed
+		 */
+		public void finish() throws Exception {
+			close();
+			if(failure != null) {
+				throw failure;
+			}
+		}
+
+		/** Stop the threads of the pipeline */
+		public void shutdown() {
+			try {
+				close();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			workers.shutdownNow();
+		}
+
+		/**
+		 * Deliver the end of the records to the writer, and wait until it
+		 * stops. The end is delivered even if the thread is interrupted:
+		 * then the writer drops the records still in the queue, and the
+		 * interruption is thrown after the writer has stopped.
+		 */
+		private void close() throws InterruptedException {
+			if(finished) {
+				return;
+			}
+			finished = true;
+			boolean interrupted = false;
+			boolean delivered = false;
+			while(!delivered && writerThread.isAlive()) {
+				try {
+					delivered = queue.offer(END_OF_RECORDS,
+							PIPELINE_OFFER_WAIT, TimeUnit.MILLISECONDS);
+				} catch(InterruptedException e) {
+					interrupted = true;
+					cancel(e);
+				}
+			}
+			while(writerThread.isAlive()) {
+				try {
+					writerThread.join();
+				} catch(InterruptedException e) {
+					interrupted = true;
+					cancel(e);
+				}
+			}
+			if(interrupted) {
+				throw new InterruptedException("The conversion of "
+						+ currentMarcFile.getName() + " was interrupted.");
+			}
+		}
+
+		/** Make the writer drop the records still in the queue */
+		private void cancel(Exception cause) {
+			if(failure == null) {
+				failure = cause;
+			}
+		}
+
+		/**
+		 * Serialize the valid record for the writer of the file, or prepare
+		 * it for the importer, if it can be prepared in parallel
+		 */
+		private void serialize(ProcessedRecord processed) throws Exception {
+			if(processed.invalid) {
+				return;
+			}
+			if(recordImporter == null) {
+				processed.xml = getSerializer().toRecordXml(processed.record);
+			} else if(recordImporter instanceof IParallelImporter) {
+				processed.prepared = ((IParallelImporter)recordImporter)
+					.prepareRecord(processed.record, false);
+			}
+		}
+
+		/**
+		 * Get the serializer of the current thread, with the settings of the
+		 * writer of the file
+		 */
+		private DirectMarcXmlWriter getSerializer() throws Exception {
+			DirectMarcXmlWriter serializer = serializers.get();
+			if(serializer == null) {
+				serializer = new DirectMarcXmlWriter(doIndentXml);
+				setConverter(serializer);
+				if (normalize == true) {
+					serializer.setUnicodeNormalization(true);
+				}
+				serializers.set(serializer);
+			}
+			return serializer;
+		}
+
+		private void write(ConversionStatistics statistics) {
+			while(true) {
+				Future<ProcessedRecord> next;
+				try {
+					next = queue.take();
+				} catch(InterruptedException e) {
+					failure = e;
+					return;
+				}
+				if(next == END_OF_RECORDS) {
+					return;
+				}
+				// after an error we only drain the queue
+				if(failure != null) {
+					continue;
+				}
+				try {
+					storeRecord(next.get(), statistics);
+				} catch(ExecutionException e) {
+					failure = (e.getCause() instanceof Exception)
+						? (Exception)e.getCause() : e;
+				} catch(Exception e) {
+					failure = e;
+				}
+			}
+		}
+	}
 }
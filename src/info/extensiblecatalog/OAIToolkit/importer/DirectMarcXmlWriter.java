@@ -0,0 +1,521 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package info.extensiblecatalog.OAIToolkit.importer;
+
+import java.io.CharConversionException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.marc4j.MarcException;
+import org.marc4j.MarcWriter;
+import org.marc4j.converter.CharConverter;
+import org.marc4j.marc.ControlField;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.Record;
+import org.marc4j.marc.Subfield;
+
+import com.ibm.icu.text.Normalizer;
+
+/**
+ * MARCXML writer which produces the same bytes as the
+ * <code>org.marc4j.MarcXmlWriter</code> with UTF-8 encoding, but without
+ * the SAX events and the <code>TransformerHandler</code> in between. The
+ * markup is written from pre-encoded byte fragments, the text is escaped
+ * and UTF-8 encoded in one pass into a byte buffer, which is flushed to the
+ * output stream after the records.
+ *
+ * The escaping follows the JDK's XML serializer: in text the
+ * <code>&amp;</code>, <code>&lt;</code> and <code>&gt;</code> characters are
+ * replaced by entities, the control characters (except the tab and the new
+ * line) and the C1 characters by character references; in attributes the
+ * double quote and all control characters are also replaced. Surrogate
+ * pairs are written as character references, and invalid surrogates are
+ * handled as in the serializer. Empty elements are closed
+ * with <code>/&gt;</code>.
+ *
+ * Without an output stream the writer serializes single records into
+ * byte arrays with {@link #toXml(Record)} (as documents) or with
+ * {@link #toRecordXml(Record)} (as elements of a collection written by an
+ * other writer), reusing its buffer.
+ *
+ * @author Peter Kiraly
+ */
+public class DirectMarcXmlWriter implements MarcWriter {
+
+	/** The size of the buffer, after which it is written out */
+	private static final int FLUSH_SIZE = 64 * 1024;
+
+	/** The initial size of the buffer of the single records */
+	private static final int RECORD_BUFFER_SIZE = 8 * 1024;
+
+	private static final byte[] DOCUMENT_START = ascii(
+			"<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			+ "<collection xmlns=\"http://www.loc.gov/MARC21/slim\"");
+	private static final byte[] COLLECTION_END = ascii("</collection>");
+	private static final byte[] RECORD_START = ascii("<record>");
+	private static final byte[] RECORD_END = ascii("</record>");
+	private static final byte[] LEADER_START = ascii("<leader");
+	private static final byte[] LEADER_END = ascii("</leader>");
+	private static final byte[] CONTROL_FIELD_START = ascii("<controlfield tag=\"");
+	private static final byte[] CONTROL_FIELD_END = ascii("</controlfield>");
+	private static final byte[] DATA_FIELD_START = ascii("<datafield tag=\"");
+	private static final byte[] IND1 = ascii("\" ind1=\"");
+	private static final byte[] IND2 = ascii("\" ind2=\"");
+	private static final byte[] DATA_FIELD_END = ascii("</datafield>");
+	private static final byte[] SUBFIELD_START = ascii("<subfield code=\"");
+	private static final byte[] SUBFIELD_END = ascii("</subfield>");
+	private static final byte[] EMPTY_END = ascii("/>");
+
+	/** Indentations before the record, the fields and the subfields */
+	private static final byte[] INDENT_2 = ascii("\n  ");
+	private static final byte[] INDENT_4 = ascii("\n    ");
+	private static final byte[] INDENT_6 = ascii("\n      ");
+
+	/** The replacements of the ASCII characters in text (null: no change) */
+	private static final byte[][] TEXT_ESCAPES = new byte[128][];
+
+	/** The replacements of the ASCII characters in attributes */
+	private static final byte[][] ATTRIBUTE_ESCAPES = new byte[128][];
+
+	/** The character references of the C1 characters (0x80-0x9F) in text */
+	private static final byte[][] C1_ESCAPES = new byte[0x20][];
+
+	static {
+		byte[] lineSeparator = ascii(System.getProperty("line.separator", "\n"));
+		for(int c = 0; c < 0x20; c++) {
+			TEXT_ESCAPES[c] = charRef(c);
+			ATTRIBUTE_ESCAPES[c] = charRef(c);
+		}
+		TEXT_ESCAPES['\t'] = null;
+		TEXT_ESCAPES['\n'] = lineSeparator;
+		TEXT_ESCAPES[0x7F] = charRef(0x7F);
+		TEXT_ESCAPES['&'] = ATTRIBUTE_ESCAPES['&'] = ascii("&amp;");
+		TEXT_ESCAPES['<'] = ATTRIBUTE_ESCAPES['<'] = ascii("&lt;");
+		TEXT_ESCAPES['>'] = ATTRIBUTE_ESCAPES['>'] = ascii("&gt;");
+		ATTRIBUTE_ESCAPES['"'] = ascii("&quot;");
+		for(int c = 0; c < 0x20; c++) {
+			C1_ESCAPES[c] = charRef(0x80 + c);
+		}
+	}
+
+	private OutputStream out;
+
+	private boolean indent;
+
+	private CharConverter converter = null;
+
+	private boolean normalize = false;
+
+	/** The output which is not yet written to the stream */
+	private byte[] buffer;
+
+	/** The number of bytes in the buffer */
+	private int count = 0;
+
+	/** The high surrogate at the end of the last text, waiting for its pair */
+	private char highSurrogate = 0;
+
+	/** Is the start tag of the collection closed? */
+	private boolean collectionStarted = false;
+
+	/**
+	 * Creates a writer, and writes out the XML declaration and the start
+	 * of the collection element.
+	 * @param out The output stream
+	 * @param indent Indent the XML?
+	 */
+	public DirectMarcXmlWriter(OutputStream out, boolean indent) {
+		if(out == null) {
+			throw new NullPointerException("null OutputStream");
+		}
+		this.out = out;
+		this.indent = indent;
+		buffer = new byte[FLUSH_SIZE * 2];
+		append(DOCUMENT_START);
+	}
+
+	/**
+	 * Creates a writer without output stream, which serializes single
+	 * records with {@link #toXml(Record)}. The writer is not thread safe,
+	 * but it can be reused for any number of records.
+	 * @param indent Indent the XML?
+	 */
+	public DirectMarcXmlWriter(boolean indent) {
+		this.indent = indent;
+		buffer = new byte[RECORD_BUFFER_SIZE];
+	}
+
+	/**
+	 * Serializes a record as a MARCXML document: a collection which contains
+	 * only this record. The result is the same as a new
+	 * <code>MarcXmlWriter</code> would write for the record.
+	 * @param record The record to serialize
+	 * @return The UTF-8 encoded document
+	 */
+	public byte[] toXml(Record record) {
+		if(out != null) {
+			throw new IllegalStateException(
+					"The writer of an output stream can not serialize single records");
+		}
+		count = 0;
+		highSurrogate = 0;
+		collectionStarted = false;
+		append(DOCUMENT_START);
+		try {
+			writeRecord(record);
+		} catch(IOException e) {
+			throw new MarcException("SAX error occured while writing record", e);
+		}
+		writeEndDocument();
+		return Arrays.copyOf(buffer, count);
+	}
+
+	/**
+	 * Serializes a record as an element of the collection, as
+	 * {@link #write(Record)} would write it. A writer of an output stream
+	 * with the same settings writes it with {@link #writeRecordXml(byte[])},
+	 * so more threads can serialize the records of one file.
+	 * @param record The record to serialize
+	 * @return The UTF-8 encoded record element
+	 */
+	public byte[] toRecordXml(Record record) {
+		if(out != null) {
+			throw new IllegalStateException(
+					"The writer of an output stream can not serialize single records");
+		}
+		count = 0;
+		highSurrogate = 0;
+		// only the record element
+		collectionStarted = true;
+		try {
+			writeRecord(record);
+		} catch(IOException e) {
+			throw new MarcException("SAX error occured while writing record", e);
+		}
+		return Arrays.copyOf(buffer, count);
+	}
+
+	/**
+	 * Writes a record serialized by {@link #toRecordXml(Record)}
+	 * @param recordXml The UTF-8 encoded record element
+	 */
+	public void writeRecordXml(byte[] recordXml) {
+		if(out == null) {
+			throw new IllegalStateException(
+					"The writer has no output stream, use toRecordXml()");
+		}
+		startCollection();
+		append(recordXml);
+		if(count >= FLUSH_SIZE) {
+			try {
+				flush();
+			} catch(IOException e) {
+				throw new MarcException("SAX error occured while writing record", e);
+			}
+		}
+	}
+
+	public void write(Record record) {
+		if(out == null) {
+			throw new IllegalStateException(
+					"The writer has no output stream, use toXml()");
+		}
+		try {
+			writeRecord(record);
+			if(count >= FLUSH_SIZE) {
+				flush();
+			}
+		} catch(IOException e) {
+			throw new MarcException("SAX error occured while writing record", e);
+		}
+	}
+
+	public void close() {
+		if(out == null) {
+			return;
+		}
+		writeEndDocument();
+		try {
+			flush();
+			out.close();
+		} catch(IOException e) {
+			throw new MarcException(e.getMessage(), e);
+		}
+	}
+
+	public CharConverter getConverter() {
+		return converter;
+	}
+
+	public void setConverter(CharConverter converter) {
+		this.converter = converter;
+	}
+
+	/**
+	 * Sets the Unicode normalization (NFC) of the data. As in the
+	 * <code>MarcXmlWriter</code> it takes effect only if a character
+	 * converter is set.
+	 */
+	public void setUnicodeNormalization(boolean normalize) {
+		this.normalize = normalize;
+	}
+
+	public boolean hasIndent() {
+		return indent;
+	}
+
+	private void writeEndDocument() {
+		if(indent) {
+			startCollection();
+			append((byte)'\n');
+		}
+		if(collectionStarted) {
+			append(COLLECTION_END);
+		} else {
+			append(EMPTY_END);
+		}
+	}
+
+	private void writeRecord(Record record) throws IOException {
+		startCollection();
+		if(indent) {
+			append(INDENT_2);
+		}
+		append(RECORD_START);
+		if(indent) {
+			append(INDENT_4);
+		}
+		append(LEADER_START);
+		writeContent(record.getLeader().toString(), LEADER_END);
+
+		for(Object o : record.getControlFields()) {
+			ControlField field = (ControlField)o;
+			if(indent) {
+				append(INDENT_4);
+			}
+			append(CONTROL_FIELD_START);
+			writeAttribute(field.getTag());
+			append((byte)'"');
+			writeContent(getDataElement(field.getData()), CONTROL_FIELD_END);
+		}
+
+		for(Object o : record.getDataFields()) {
+			DataField field = (DataField)o;
+			if(indent) {
+				append(INDENT_4);
+			}
+			append(DATA_FIELD_START);
+			writeAttribute(field.getTag());
+			append(IND1);
+			writeAttribute(String.valueOf(field.getIndicator1()));
+			append(IND2);
+			writeAttribute(String.valueOf(field.getIndicator2()));
+			append((byte)'"');
+			// marc4j returns a raw List of Subfield objects
+			@SuppressWarnings("unchecked")
+			List<Subfield> subfields = field.getSubfields();
+			if(indent || !subfields.isEmpty()) {
+				append((byte)'>');
+				for(Subfield subfield : subfields) {
+					if(indent) {
+						append(INDENT_6);
+					}
+					append(SUBFIELD_START);
+					writeAttribute(String.valueOf(subfield.getCode()));
+					append((byte)'"');
+					writeContent(getDataElement(subfield.getData()), SUBFIELD_END);
+				}
+				if(indent) {
+					append(INDENT_4);
+				}
+				append(DATA_FIELD_END);
+			} else {
+				append(EMPTY_END);
+			}
+		}
+
+		if(indent) {
+			append(INDENT_2);
+		}
+		append(RECORD_END);
+	}
+
+	private String getDataElement(String data) {
+		if(converter == null) {
+			return data;
+		}
+		String dataElement = converter.convert(data);
+		if(normalize) {
+			dataElement = Normalizer.normalize(dataElement, Normalizer.NFC);
+		}
+		return dataElement;
+	}
+
+	/** Closes the start tag of the collection before the first content */
+	private void startCollection() {
+		if(!collectionStarted) {
+			append((byte)'>');
+			collectionStarted = true;
+		}
+	}
+
+	/**
+	 * Finishes an element the start tag of which is open: writes out the
+	 * text and the end tag, or closes it as an empty element.
+	 */
+	private void writeContent(String text, byte[] endTag)
+			throws IOException {
+		if(text.length() == 0) {
+			append(EMPTY_END);
+		} else {
+			append((byte)'>');
+			writeEscaped(text, TEXT_ESCAPES, false);
+			append(endTag);
+		}
+	}
+
+	private void writeAttribute(String value) throws IOException {
+		writeEscaped(value, ATTRIBUTE_ESCAPES, true);
+	}
+
+	/**
+	 * Escapes and encodes the text into the buffer
+	 * @param text The text to write
+	 * @param escapes The replacements of the ASCII characters
+	 * @param isAttribute Whether the text is an attribute value
+	 */
+	private void writeEscaped(String text, byte[][] escapes,
+			boolean isAttribute) throws IOException {
+		int length = text.length();
+		for(int i = 0; i < length; i++) {
+			// a char takes at most 3 bytes in UTF-8,
+			// the longer references are written by append()
+			if(count + 3 > buffer.length) {
+				ensure(3);
+			}
+			char c = text.charAt(i);
+			if(c < 0x80) {
+				byte[] escape = escapes[c];
+				if(escape == null) {
+					buffer[count++] = (byte)c;
+				} else {
+					if(escape[0] == '&' && escape[1] == '#') {
+						// only character references check the pending surrogate
+						checkPendingSurrogate(c);
+					}
+					append(escape);
+				}
+			} else if(c < 0xA0) {
+				if(isAttribute) {
+					buffer[count++] = (byte)(0xC0 | (c >> 6));
+					buffer[count++] = (byte)(0x80 | (c & 0x3F));
+				} else {
+					checkPendingSurrogate(c);
+					append(C1_ESCAPES[c - 0x80]);
+				}
+			} else if(c < 0x800) {
+				buffer[count++] = (byte)(0xC0 | (c >> 6));
+				buffer[count++] = (byte)(0x80 | (c & 0x3F));
+			} else if(Character.isSurrogate(c)) {
+				i = writeSurrogate(text, i, c);
+			} else {
+				buffer[count++] = (byte)(0xE0 | (c >> 12));
+				buffer[count++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+				buffer[count++] = (byte)(0x80 | (c & 0x3F));
+			}
+		}
+	}
+
+	/**
+	 * Writes a surrogate as a character reference the way the serializer
+	 * does. A high surrogate at the end of a text is kept until the next
+	 * character which needs escaping, and a low surrogate there completes it.
+	 * @return The index of the last character processed
+	 */
+	private int writeSurrogate(String text, int i, char c)
+			throws IOException {
+		if(highSurrogate != 0) {
+			checkPendingSurrogate(c);
+			append(charRef(Character.toCodePoint(highSurrogate, c)));
+			highSurrogate = 0;
+		} else if(Character.isHighSurrogate(c)) {
+			if(i + 1 == text.length()) {
+				highSurrogate = c;
+			} else {
+				char low = text.charAt(++i);
+				if(!Character.isLowSurrogate(low)) {
+					throw invalidSurrogate(c, low);
+				}
+				append(charRef(Character.toCodePoint(c, low)));
+			}
+		} else {
+			append(charRef(c));
+		}
+		return i;
+	}
+
+	/**
+	 * Throws an exception if a high surrogate is pending, and the current
+	 * character is not a low surrogate
+	 */
+	private void checkPendingSurrogate(char c) throws IOException {
+		if(highSurrogate != 0 && !Character.isLowSurrogate(c)) {
+			throw invalidSurrogate(highSurrogate, c);
+		}
+	}
+
+	private static IOException invalidSurrogate(char high, char next) {
+		return new CharConversionException("Invalid UTF-16 surrogate detected: "
+				+ Integer.toHexString(high) + " " + Integer.toHexString(next));
+	}
+
+	private void append(byte b) {
+		ensure(1);
+		buffer[count++] = b;
+	}
+
+	private void append(byte[] bytes) {
+		append(bytes, 0, bytes.length);
+	}
+
+	private void append(byte[] bytes, int offset, int length) {
+		ensure(length);
+		System.arraycopy(bytes, offset, buffer, count, length);
+		count += length;
+	}
+
+	/** Makes sure the buffer has room for at least n more bytes */
+	private void ensure(int n) {
+		if(count + n > buffer.length) {
+			byte[] newBuffer = new byte[Math.max(buffer.length * 2, count + n)];
+			System.arraycopy(buffer, 0, newBuffer, 0, count);
+			buffer = newBuffer;
+		}
+	}
+
+	private void flush() throws IOException {
+		out.write(buffer, 0, count);
+		count = 0;
+	}
+
+	private static byte[] charRef(int codePoint) {
+		return ascii("&#" + codePoint + ";");
+	}
+
+	private static byte[] ascii(String s) {
+		byte[] bytes = new byte[s.length()];
+		for(int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte)s.charAt(i);
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,276 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package info.extensiblecatalog.OAIToolkit.importer;
+
+import info.extensiblecatalog.OAIToolkit.utils.Logging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The checkpoint journal of the load. At each durable point of the load
+ * (after the importer committed its changes) a line is appended to the
+ * journal file with the current MARCXML file, its length, the number of its
+ * records stored so far, the last tracked OAI ID number and the generation
+ * of the index commit, separated by tabs. The line is synced to the disk
+ * before the load goes on.
+ *
+ * After an interrupted load the last complete line of the journal
+ * ({@link #readLastCheckpoint()}) tells which records of the file can be
+ * skipped, and which OAI ID numbers are already used.
+ *
+ * The journal is not thread safe: the records should be stored on one
+ * thread.
+ *
+ * @author Peter Kiraly
+ */
+public class ImportJournal {
+
+	private static String programmer_log = "programmer";
+	private static final Logger prglog = Logging.getLogger(programmer_log);
+
+	/** The name of the journal file in the index directory */
+	public static final String FILE_NAME = "import.journal";
+
+	private static final String SEPARATOR = "\t";
+	private static final String ENCODING = "UTF-8";
+
+	/** The journal file */
+	private File file;
+
+	/** The name of the current MARCXML file */
+	private String currentFile = null;
+
+	/** The length of the current MARCXML file */
+	private long currentFileLength = 0;
+
+	/** The number of the records of the current file stored so far */
+	private int records = 0;
+
+	/**
+	 * A durable point of the load
+	 */
+	public static class Checkpoint {
+
+		private String fileName;
+		private long fileLength;
+		private int records;
+		private int trackedOaiIdValue;
+		private long generation;
+
+		public Checkpoint(String fileName, long fileLength, int records,
+				int trackedOaiIdValue, long generation) {
+			this.fileName = fileName;
+			this.fileLength = fileLength;
+			this.records = records;
+			this.trackedOaiIdValue = trackedOaiIdValue;
+			this.generation = generation;
+		}
+
+		/**
+		 * Parse a line of the journal
+		 * @param line The line
+		 * @return The checkpoint, or null if the line is not a checkpoint
+		 */
+		public static Checkpoint parse(String line) {
+			String[] parts = line.split(SEPARATOR);
+			if(parts.length < 5) {
+				return null;
+			}
+			try {
+				return new Checkpoint(parts[0], Long.parseLong(parts[1]),
+						Integer.parseInt(parts[2]), Integer.parseInt(parts[3]),
+						Long.parseLong(parts[4]));
+			} catch(NumberFormatException e) {
+				return null;
+			}
+		}
+
+		/**
+		 * Is the checkpoint taken inside this file? The file should have the
+		 * same name and length.
+		 * @param xmlFile The MARCXML file
+		 * @return True if the checkpoint belongs to the file
+		 */
+		public boolean isOf(File xmlFile) {
+			return fileName.equals(xmlFile.getName())
+				&& fileLength == xmlFile.length();
+		}
+
+		public String getFileName() {
+			return fileName;
+		}
+
+		public long getFileLength() {
+			return fileLength;
+		}
+
+		/**
+		 * Get the number of the records of the file stored before the
+		 * checkpoint
+		 * @return The number of records
+		 */
+		public int getRecords() {
+			return records;
+		}
+
+		public int getTrackedOaiIdValue() {
+			return trackedOaiIdValue;
+		}
+
+		public long getGeneration() {
+			return generation;
+		}
+
+		public String toString() {
+			return fileName + SEPARATOR + fileLength + SEPARATOR + records
+				+ SEPARATOR + trackedOaiIdValue + SEPARATOR + generation;
+		}
+	}
+
+	/**
+	 * Create a journal
+	 * @param file The journal file
+	 */
+	public ImportJournal(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Start the journal of a new load: remove the checkpoints of the
+	 * previous load.
+	 */
+	public void reset() {
+		if(file.exists() && !file.delete()) {
+			prglog.error("[PRG] Unable to delete the journal " + file);
+		}
+	}
+
+	/**
+	 * Start storing the records of a MARCXML file
+	 * @param xmlFile The file
+	 * @param records The number of its records, which were stored by a
+	 * previous load
+	 */
+	public void startFile(File xmlFile, int records) {
+		this.currentFile = xmlFile.getName();
+		this.currentFileLength = xmlFile.length();
+		this.records = records;
+	}
+
+	/**
+	 * Count a stored record of the current file
+	 */
+	public void recordStored() {
+		records++;
+	}
+
+	/**
+	 * Get the number of the records of the current file stored so far
+	 * @return The number of records
+	 */
+	public int getRecords() {
+		return records;
+	}
+
+	/**
+	 * Append a checkpoint to the journal and sync it to the disk. It should
+	 * be called after the changes of the stored records became durable.
+	 * @param trackedOaiIdValue The last tracked OAI ID number
+	 * @param generation The generation of the index commit
+	 */
+	public void checkpoint(int trackedOaiIdValue, long generation) {
+		if(currentFile == null) {
+			return;
+		}
+		Checkpoint checkpoint = new Checkpoint(currentFile, currentFileLength,
+				records, trackedOaiIdValue, generation);
+		String line = checkpoint.toString() + SEPARATOR
+			+ new SimpleDateFormat("yyyy/MM/dd HH:mm:ss").format(new Date())
+			+ "\n";
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(file, true);
+			out.write(line.getBytes(ENCODING));
+			out.flush();
+			out.getFD().sync();
+		} catch(IOException e) {
+			prglog.error("[PRG] Unable to write the checkpoint (" + checkpoint
+					+ ") to the journal " + file + ": " + e.getMessage());
+		} finally {
+			close(out);
+		}
+	}
+
+	/**
+	 * Read the last checkpoint of the journal. The last line is ignored, if
+	 * it was not written completely.
+	 * @return The last checkpoint, or null if the journal has no checkpoint
+	 */
+	public Checkpoint readLastCheckpoint() {
+		if(!file.exists()) {
+			return null;
+		}
+		String content;
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while((read = in.read(buffer)) != -1) {
+				bytes.write(buffer, 0, read);
+			}
+			content = bytes.toString(ENCODING);
+		} catch(IOException e) {
+			prglog.error("[PRG] Unable to read the journal " + file + ": "
+					+ e.getMessage());
+			return null;
+		} finally {
+			close(in);
+		}
+
+		Checkpoint last = null;
+		int end = content.lastIndexOf('\n');
+		if(end == -1) {
+			return null;
+		}
+		for(String line : content.substring(0, end).split("\n")) {
+			Checkpoint checkpoint = Checkpoint.parse(line);
+			if(checkpoint != null) {
+				last = checkpoint;
+			}
+		}
+		return last;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	private static void close(Closeable stream) {
+		if(stream != null) {
+			try {
+				stream.close();
+			} catch(IOException e) {
+				prglog.error("[PRG] " + e.getMessage());
+			}
+		}
+	}
+}
@@ -9,6 +9,7 @@
 
 package info.extensiblecatalog.OAIToolkit.importer;
 
+import info.extensiblecatalog.OAIToolkit.oai.PayloadRenderer;
 import info.extensiblecatalog.OAIToolkit.oai.StorageTypes;
 import info.extensiblecatalog.OAIToolkit.utils.Logging;
 
@@ -69,9 +70,102 @@ public class ImporterConfiguration {
 	/** How many records can an XML file contain? */
 	private int splitSize = 10000;
 	
+	/** How many MARC files should be converted in parallel? */
+	private int convertThreads = 1;
+	
+	/** How many threads should process the records of a MARC file? */
+	private int convertRecordThreads = 1;
+	
+	/** How many threads should prepare the records for loading? */
+	private int loadThreads = 1;
+	
+	/** How many parsed MARCXML records can wait for the importer? */
+	private int xmlQueueSize = RecordQueue.DEFAULT_CAPACITY;
+	
+	/** Read the MARC files through memory mapping? */
+	private boolean mappedMarcReader = false;
+	
+	/** Write the MARCXML files with the {@link DirectMarcXmlWriter}? */
+	private boolean directXmlWriter = false;
+	
+	/** Validate the records from SAX events instead of their MARCXML? */
+	private boolean eventValidation = false;
+	
+	/**
+	 * Check the records with the {@link MarcStructureValidator}, and
+	 * validate against the schema only the suspicious ones?
+	 */
+	private boolean nativeValidation = false;
+	
+	/**
+	 * Validate every Nth record accepted by the native check against the
+	 * schema too (0 means never)
+	 */
+	private int xsdSampleRate = 0;
+	
+	/**
+	 * Continue an interrupted load from the last checkpoint of its journal?
+	 */
+	private boolean resume = false;
+	
 	/** The Lucene index directory */
 	private String luceneIndex = "lucene_index";
 
+	/**
+	 * The maximal age of the Lucene searcher in milliseconds after the
+	 * index changed
+	 */
+	private long luceneRefreshInterval = 10000;
+
+	/**
+	 * The maximal number of Lucene segments after the optimization at the
+	 * end of the load (0 means no optimization)
+	 */
+	private int luceneMaxSegments = 1;
+
+	/**
+	 * The ratio of deleted Lucene documents above which they are expunged
+	 * at the end of the load
+	 */
+	private double luceneExpungeDeletesRatio = 0.1;
+
+	/** The allowed writing rate of the Lucene merges in MB/s (0: unlimited) */
+	private double luceneMergeMbPerSec = 0;
+
+	/**
+	 * The number of shards of a new Lucene index (an existing index keeps
+	 * its own number)
+	 */
+	private int luceneShards = 1;
+
+	/**
+	 * Should the XML of the records be stored in the Lucene index instead
+	 * of the blob store next to it?
+	 */
+	private boolean luceneXmlInIndex = false;
+
+	/**
+	 * Should the XML stored in the Lucene index be compressed? Without a
+	 * step to run, the XML of the existing index is compressed.
+	 */
+	private boolean luceneCompressXml = false;
+
+	/**
+	 * The metadata prefixes (separated by comma), whose payloads are
+	 * rendered during the load
+	 */
+	private String lucenePayloads = null;
+
+	/**
+	 * The directory of metadataFormats.xml, metadata-format-mapping.xml and
+	 * the XSLT files of the rendered formats
+	 */
+	private String lucenePayloadXslDir = "xsl";
+
+	/** The MARC21 schema URL of the rendered payloads */
+	private String lucenePayloadSchemaUrl =
+		PayloadRenderer.DEFAULT_SCHEMA_URL;
+
 	/** The Lucene index directory */
 	private String storageType = StorageTypes.LUCENE;
 	
@@ -166,7 +260,27 @@ public class ImporterConfiguration {
 		sb.append(", marcEncoding: ").append(marcEncoding);
 		sb.append(", charConversion: ").append(charConversion);
 		sb.append(", splitSize: ").append(splitSize);
+		sb.append(", convertThreads: ").append(convertThreads);
+		sb.append(", convertRecordThreads: ").append(convertRecordThreads);
+		sb.append(", loadThreads: ").append(loadThreads);
+		sb.append(", xmlQueueSize: ").append(xmlQueueSize);
+		sb.append(", mappedMarcReader? ").append(mappedMarcReader);
+		sb.append(", directXmlWriter? ").append(directXmlWriter);
+		sb.append(", eventValidation? ").append(eventValidation);
+		sb.append(", nativeValidation? ").append(nativeValidation);
+		sb.append(", xsdSampleRate: ").append(xsdSampleRate);
+		sb.append(", resume? ").append(resume);
 		sb.append(", luceneIndex: ").append(luceneIndex);
+		sb.append(", luceneRefreshInterval: ").append(luceneRefreshInterval);
+		sb.append(", luceneMaxSegments: ").append(luceneMaxSegments);
+		sb.append(", luceneExpungeDeletesRatio: ").append(luceneExpungeDeletesRatio);
+		sb.append(", luceneMergeMbPerSec: ").append(luceneMergeMbPerSec);
+		sb.append(", luceneShards: ").append(luceneShards);
+		sb.append(", luceneXmlInIndex? ").append(luceneXmlInIndex);
+		sb.append(", luceneCompressXml? ").append(luceneCompressXml);
+		sb.append(", lucenePayloads: ").append(lucenePayloads);
+		sb.append(", lucenePayloadXslDir: ").append(lucenePayloadXslDir);
+		sb.append(", lucenePayloadSchemaUrl: ").append(lucenePayloadSchemaUrl);
 		sb.append(", storageType: ").append(storageType);
 		sb.append(", createXml11: ").append(createXml11);
         sb.append(", translateLeaderBadCharsToZero: ").append(translateLeaderBadCharsToZero);
@@ -282,6 +396,207 @@ public class ImporterConfiguration {
 		this.splitSize = Integer.parseInt(splitSize);
 	}
 
+	public int getConvertThreads() {
+		return convertThreads;
+	}
+
+	public void setConvertThreads(int convertThreads) {
+		this.convertThreads = convertThreads;
+	}
+
+	public void setConvertThreads(String convertThreads) {
+		this.convertThreads = Integer.parseInt(convertThreads);
+	}
+
+	public int getConvertRecordThreads() {
+		return convertRecordThreads;
+	}
+
+	public void setConvertRecordThreads(int convertRecordThreads) {
+		this.convertRecordThreads = convertRecordThreads;
+	}
+
+	public void setConvertRecordThreads(String convertRecordThreads) {
+		this.convertRecordThreads = Integer.parseInt(convertRecordThreads);
+	}
+
+	public int getLoadThreads() {
+		return loadThreads;
+	}
+
+	public void setLoadThreads(int loadThreads) {
+		this.loadThreads = loadThreads;
+	}
+
+	public void setLoadThreads(String loadThreads) {
+		this.loadThreads = Integer.parseInt(loadThreads);
+	}
+
+	public int getXmlQueueSize() {
+		return xmlQueueSize;
+	}
+
+	public void setXmlQueueSize(int xmlQueueSize) {
+		this.xmlQueueSize = xmlQueueSize;
+	}
+
+	public void setXmlQueueSize(String xmlQueueSize) {
+		this.xmlQueueSize = Integer.parseInt(xmlQueueSize);
+	}
+
+	public boolean isMappedMarcReader() {
+		return mappedMarcReader;
+	}
+
+	public void setMappedMarcReader(boolean mappedMarcReader) {
+		this.mappedMarcReader = mappedMarcReader;
+	}
+
+	public boolean isDirectXmlWriter() {
+		return directXmlWriter;
+	}
+
+	public void setDirectXmlWriter(boolean directXmlWriter) {
+		this.directXmlWriter = directXmlWriter;
+	}
+
+	public boolean isEventValidation() {
+		return eventValidation;
+	}
+
+	public void setEventValidation(boolean eventValidation) {
+		this.eventValidation = eventValidation;
+	}
+
+	public boolean isNativeValidation() {
+		return nativeValidation;
+	}
+
+	public void setNativeValidation(boolean nativeValidation) {
+		this.nativeValidation = nativeValidation;
+	}
+
+	public int getXsdSampleRate() {
+		return xsdSampleRate;
+	}
+
+	public void setXsdSampleRate(int xsdSampleRate) {
+		this.xsdSampleRate = xsdSampleRate;
+	}
+
+	public void setXsdSampleRate(String xsdSampleRate) {
+		this.xsdSampleRate = Integer.parseInt(xsdSampleRate);
+	}
+
+	public boolean isResume() {
+		return resume;
+	}
+
+	public void setResume(boolean resume) {
+		this.resume = resume;
+	}
+
+	public long getLuceneRefreshInterval() {
+		return luceneRefreshInterval;
+	}
+
+	public void setLuceneRefreshInterval(long luceneRefreshInterval) {
+		this.luceneRefreshInterval = luceneRefreshInterval;
+	}
+
+	public void setLuceneRefreshInterval(String luceneRefreshInterval) {
+		this.luceneRefreshInterval = Long.parseLong(luceneRefreshInterval);
+	}
+
+	public boolean isLuceneXmlInIndex() {
+		return luceneXmlInIndex;
+	}
+
+	public void setLuceneXmlInIndex(boolean luceneXmlInIndex) {
+		this.luceneXmlInIndex = luceneXmlInIndex;
+	}
+
+	public String getLucenePayloads() {
+		return lucenePayloads;
+	}
+
+	public void setLucenePayloads(String lucenePayloads) {
+		this.lucenePayloads = lucenePayloads;
+	}
+
+	public String getLucenePayloadXslDir() {
+		return lucenePayloadXslDir;
+	}
+
+	public void setLucenePayloadXslDir(String lucenePayloadXslDir) {
+		this.lucenePayloadXslDir = lucenePayloadXslDir;
+	}
+
+	public String getLucenePayloadSchemaUrl() {
+		return lucenePayloadSchemaUrl;
+	}
+
+	public void setLucenePayloadSchemaUrl(String lucenePayloadSchemaUrl) {
+		this.lucenePayloadSchemaUrl = lucenePayloadSchemaUrl;
+	}
+
+	public boolean isLuceneCompressXml() {
+		return luceneCompressXml;
+	}
+
+	public void setLuceneCompressXml(boolean luceneCompressXml) {
+		this.luceneCompressXml = luceneCompressXml;
+	}
+
+	public int getLuceneShards() {
+		return luceneShards;
+	}
+
+	public void setLuceneShards(int luceneShards) {
+		this.luceneShards = luceneShards;
+	}
+
+	public void setLuceneShards(String luceneShards) {
+		this.luceneShards = Integer.parseInt(luceneShards);
+	}
+
+	public int getLuceneMaxSegments() {
+		return luceneMaxSegments;
+	}
+
+	public void setLuceneMaxSegments(int luceneMaxSegments) {
+		this.luceneMaxSegments = luceneMaxSegments;
+	}
+
+	public void setLuceneMaxSegments(String luceneMaxSegments) {
+		this.luceneMaxSegments = Integer.parseInt(luceneMaxSegments);
+	}
+
+	public double getLuceneExpungeDeletesRatio() {
+		return luceneExpungeDeletesRatio;
+	}
+
+	public void setLuceneExpungeDeletesRatio(double luceneExpungeDeletesRatio) {
+		this.luceneExpungeDeletesRatio = luceneExpungeDeletesRatio;
+	}
+
+	public void setLuceneExpungeDeletesRatio(String luceneExpungeDeletesRatio) {
+		this.luceneExpungeDeletesRatio =
+			Double.parseDouble(luceneExpungeDeletesRatio);
+	}
+
+	public double getLuceneMergeMbPerSec() {
+		return luceneMergeMbPerSec;
+	}
+
+	public void setLuceneMergeMbPerSec(double luceneMergeMbPerSec) {
+		this.luceneMergeMbPerSec = luceneMergeMbPerSec;
+	}
+
+	public void setLuceneMergeMbPerSec(String luceneMergeMbPerSec) {
+		this.luceneMergeMbPerSec = Double.parseDouble(luceneMergeMbPerSec);
+	}
+
 	public boolean checkDir(String dir, boolean create, String dirName) {
 		if(dir == null) {
 			prglog.warn("[PRG] You should add the " + dirName + " directory.");
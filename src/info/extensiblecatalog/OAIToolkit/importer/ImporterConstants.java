@@ -55,6 +55,12 @@ public class ImporterConstants {
 		/** The record was skipped (the new and old was the same) */
 		SKIPPED,
 		
+		/**
+		 * The stored record has the same content digest, so it was left
+		 * untouched
+		 */
+		UNCHANGED,
+		
 		/** The record was invalid */
 		INVALID,
 		
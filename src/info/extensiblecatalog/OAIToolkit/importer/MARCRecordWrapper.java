@@ -10,8 +10,9 @@
 package info.extensiblecatalog.OAIToolkit.importer;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Timestamp;
 import java.text.ParseException;
 import java.util.ArrayList;
@@ -23,7 +24,6 @@ import java.util.regex.Pattern;
 import org.apache.log4j.Logger;
 import org.marc4j.MarcException;
 import org.marc4j.MarcXmlReader;
-import org.marc4j.MarcXmlWriter;
 import org.marc4j.marc.ControlField;
 import org.marc4j.marc.Leader;
 import org.marc4j.marc.Record;
@@ -145,7 +145,49 @@ public class MARCRecordWrapper {
 	 */
 	private char bibliographicLevel;
 	
-	/** The MARCXML version of MARC record */
+	/**
+	 * The reusable MARCXML serializers of the threads. A record is
+	 * serialized once, and the same bytes are validated and stored.
+	 */
+	private static final ThreadLocal<DirectMarcXmlWriter> xmlWriters =
+		new ThreadLocal<DirectMarcXmlWriter>() {
+			protected DirectMarcXmlWriter initialValue() {
+				return new DirectMarcXmlWriter(false);
+			}
+		};
+
+	/** The reusable serializers of the threads creating indented XML */
+	private static final ThreadLocal<DirectMarcXmlWriter> indentedXmlWriters =
+		new ThreadLocal<DirectMarcXmlWriter>() {
+			protected DirectMarcXmlWriter initialValue() {
+				return new DirectMarcXmlWriter(true);
+			}
+		};
+
+	/**
+	 * The MD5 digesters of the threads. MD5 gives 128 bit digests, which
+	 * are enough to tell whether the content of a record has changed.
+	 */
+	private static final ThreadLocal<MessageDigest> digesters =
+		new ThreadLocal<MessageDigest>() {
+			protected MessageDigest initialValue() {
+				try {
+					return MessageDigest.getInstance("MD5");
+				} catch(NoSuchAlgorithmException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		};
+
+	private static final char[] HEXA_DIGITS = "0123456789abcdef".toCharArray();
+
+	/** The MARCXML version of MARC record in UTF-8 */
+	private byte[] xmlBytes;
+
+	/** The content digest of the record, see {@link #getDigest()} */
+	private String digest;
+
+	/** The MARCXML version of MARC record, decoded from {@link #xmlBytes} */
 	private String xml;
 	
 	/** The 003 field */
@@ -362,7 +404,7 @@ public class MARCRecordWrapper {
 			lastTrField.setData(lastTransaction);
 
 			// recreate XML
-			if(null != xml) {
+			if(null != xmlBytes) {
 				createXml();
 			}
 		}
@@ -386,30 +428,63 @@ public class MARCRecordWrapper {
 		return timestamp;
 	}
 
+	/** Get the raw Marc4j Record */
+	public Record getRecord() {
+		return record;
+	}
+
 	/** Get the XML presentation of the record */
 	public String getXml() {
 		if(null == xml) {
-			createXml();
+			try {
+				xml = new String(getXmlBytes(), "UTF-8");
+			} catch(UnsupportedEncodingException e) {
+				e.printStackTrace();
+				xml = new String(getXmlBytes());
+			}
 		}
 		return xml;
 	}
 
+	/** Get the XML presentation of the record encoded in UTF-8 */
+	public byte[] getXmlBytes() {
+		if(null == xmlBytes) {
+			createXml();
+		}
+		return xmlBytes;
+	}
+
+	/**
+	 * Get the content digest of the record: the MD5 hash of its canonical
+	 * MARCXML (UTF-8, without indentation) in 32 hexadecimal digits. Two
+	 * records with the same digest have the same content, whatever the
+	 * indentation of the stored XML is.
+	 * @return The digest
+	 */
+	public String getDigest() {
+		if(null == digest) {
+			byte[] bytes = doIndentXml
+				? xmlWriters.get().toXml(record) : getXmlBytes();
+			byte[] hash = digesters.get().digest(bytes);
+			char[] chars = new char[hash.length * 2];
+			for(int i = 0; i < hash.length; i++) {
+				chars[i * 2] = HEXA_DIGITS[(hash[i] >> 4) & 0x0F];
+				chars[i * 2 + 1] = HEXA_DIGITS[hash[i] & 0x0F];
+			}
+			digest = new String(chars);
+		}
+		return digest;
+	}
+
 	/**
 	 * Create the MARCXML from MARC Record. Store this in 
-	 * {@link #xml} variable 
+	 * {@link #xmlBytes} variable 
 	 */
 	private void createXml() {
-		ByteArrayOutputStream stringOut = new ByteArrayOutputStream();
-		MarcXmlWriter writer = new MarcXmlWriter(stringOut, "UTF-8", doIndentXml); //, createXml11);
-		//writer.setIndent(doIndentXml);
-		writer.write(record);
-		writer.close();
-		try {
-			xml = stringOut.toString("UTF-8");
-		} catch(UnsupportedEncodingException e) {
-			e.printStackTrace();
-			xml = stringOut.toString();
-		}
+		DirectMarcXmlWriter writer = doIndentXml
+			? indentedXmlWriters.get() : xmlWriters.get();
+		xmlBytes = writer.toXml(record);
+		xml = null;
 	}
 
 	/**
@@ -0,0 +1,487 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package info.extensiblecatalog.OAIToolkit.importer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.regex.Pattern;
+
+import org.marc4j.Constants;
+import org.marc4j.MarcException;
+import org.marc4j.MarcPermissiveStreamReader;
+import org.marc4j.MarcReader;
+import org.marc4j.marc.ControlField;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.Leader;
+import org.marc4j.marc.MarcFactory;
+import org.marc4j.marc.Record;
+import org.marc4j.marc.Subfield;
+import org.marc4j.marc.impl.Verifier;
+
+/**
+ * Reads binary MARC records from a memory mapped file. It returns the same
+ * records as the <code>MarcPermissiveStreamReader</code> in permissive mode
+ * with UTF-8 conversion, but parses the leader and the directory of the
+ * records directly from a reused buffer, without creating temporary strings.
+ *
+ * Only the well formed ASCII and UTF-8 records are parsed here. If a record
+ * needs the error correction or the character conversion of the permissive
+ * reader (eg. MARC-8 records), the record is passed to a
+ * <code>MarcPermissiveStreamReader</code>. If the length of a record is
+ * wrong, the rest of the file is read by a
+ * <code>MarcPermissiveStreamReader</code>, because finding the start of the
+ * next record needs its heuristics.
+ *
+ * @author Peter Kiraly
+ */
+public class MappedMarcReader implements MarcReader {
+
+	/** The size of the mapped part of the file */
+	private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+	/** The maximal length of a MARC record */
+	private static final int MAX_RECORD_LENGTH = 99999;
+
+	private static final int LEADER_LENGTH = 24;
+
+	private static final int DIRECTORY_ENTRY_LENGTH = 12;
+
+	/** Records with more fields are passed to the permissive reader */
+	private static final int MAX_FIELDS = 1000;
+
+	private static final byte ESC = 0x1B;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	/** The permissive reader unescapes the HTML entities matching this */
+	private static final Pattern ENTITY_PATTERN =
+		Pattern.compile("[^&]*&[a-z]*;.*");
+
+	/** The numeric tags, to avoid creating a new String for every field */
+	private static final String[] TAGS = new String[1000];
+	static {
+		for(int i = 0; i < TAGS.length; i++) {
+			TAGS[i] = String.valueOf((char)('0' + i / 100))
+					+ (char)('0' + i / 10 % 10) + (char)('0' + i % 10);
+		}
+	}
+
+	private File file;
+
+	private RandomAccessFile randomAccessFile;
+
+	private FileChannel channel;
+
+	private long fileSize;
+
+	/** The mapped part of the file */
+	private MappedByteBuffer window = null;
+
+	/** The file position of the first byte of the window */
+	private long windowStart = 0;
+
+	/** The file position of the next record */
+	private long position = 0;
+
+	/** The bytes of the current record */
+	private byte[] buffer = new byte[MAX_RECORD_LENGTH];
+
+	private MarcFactory factory = MarcFactory.newInstance();
+
+	/** The input stream of the rest of the file, after a damaged record */
+	private FileInputStream stream = null;
+
+	/** The reader of the rest of the file, after a damaged record */
+	private MarcReader streamReader = null;
+
+	/**
+	 * Opens the file
+	 * @param file The binary MARC file
+	 * @throws IOException
+	 */
+	public MappedMarcReader(File file) throws IOException {
+		this.file = file;
+		randomAccessFile = new RandomAccessFile(file, "r");
+		channel = randomAccessFile.getChannel();
+		fileSize = channel.size();
+	}
+
+	public boolean hasNext() {
+		if(streamReader != null) {
+			return streamReader.hasNext();
+		}
+		return position < fileSize;
+	}
+
+	public Record next() {
+		if(streamReader != null) {
+			return streamReader.next();
+		}
+
+		int available = (int)Math.min(fileSize - position, MAX_RECORD_LENGTH);
+		int recordLength = -1;
+		if(available >= LEADER_LENGTH) {
+			map(available);
+			int offset = (int)(position - windowStart);
+			recordLength = parseNumber(window, offset, 5);
+			if(recordLength > LEADER_LENGTH && recordLength <= available
+				&& window.get(offset + recordLength - 1) == Constants.RT)
+			{
+				window.position(offset);
+				window.get(buffer, 0, recordLength);
+			} else {
+				recordLength = -1;
+			}
+		}
+
+		if(recordLength == -1) {
+			openStreamReader();
+			return streamReader.next();
+		}
+
+		position += recordLength;
+		Record record = parseRecord(recordLength);
+		if(record == null) {
+			record = new MarcPermissiveStreamReader(
+						new ByteArrayInputStream(buffer, 0, recordLength),
+						true, true).next();
+		}
+		return record;
+	}
+
+	/**
+	 * Returns the number of bytes not read yet.
+	 */
+	public long getRemaining() throws IOException {
+		if(stream != null) {
+			return stream.available();
+		}
+		return fileSize - position;
+	}
+
+	public void close() throws IOException {
+		window = null;
+		if(stream != null) {
+			stream.close();
+		}
+		channel.close();
+		randomAccessFile.close();
+	}
+
+	/**
+	 * Maps the part of the file containing the next <code>length</code>
+	 * bytes, if it is not mapped yet.
+	 */
+	private void map(int length) {
+		if(window != null && position >= windowStart
+			&& position + length <= windowStart + window.limit())
+		{
+			return;
+		}
+		try {
+			window = null;
+			windowStart = position;
+			window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+					Math.min(WINDOW_SIZE, fileSize - position));
+		} catch(IOException e) {
+			throw new MarcException("an error occured reading input", e);
+		}
+	}
+
+	/** Continues to read the file from the current position as a stream */
+	private void openStreamReader() {
+		try {
+			window = null;
+			stream = new FileInputStream(file);
+			long skipped = 0;
+			while(skipped < position) {
+				skipped += stream.skip(position - skipped);
+			}
+		} catch(IOException e) {
+			throw new MarcException("an error occured reading input", e);
+		}
+		streamReader = new MarcPermissiveStreamReader(stream, true, true);
+	}
+
+	/**
+	 * Parses a well formed ASCII or UTF-8 record from the buffer.
+	 * @param recordLength The length of the record
+	 * @return The record, or null if the permissive reader should parse it
+	 */
+	private Record parseRecord(int recordLength) {
+		byte[] buf = buffer;
+		for(int i = 0; i < LEADER_LENGTH; i++) {
+			if(buf[i] < 0) {
+				return null;
+			}
+		}
+		boolean isUtf8 = (buf[9] == 'a');
+		if(!isDigit(buf[10]) || !isDigit(buf[11])
+			|| buf[20] != '4' || buf[21] != '5'
+			|| buf[22] != '0' || buf[23] != '0')
+		{
+			return null;
+		}
+		int baseAddress = parseNumber(buf, 12, 5);
+		int directoryLength = baseAddress - (LEADER_LENGTH + 1);
+		if(directoryLength < 0 || baseAddress >= recordLength
+			|| directoryLength % DIRECTORY_ENTRY_LENGTH != 0
+			|| directoryLength / DIRECTORY_ENTRY_LENGTH > MAX_FIELDS
+			|| buf[baseAddress - 1] != Constants.FT)
+		{
+			return null;
+		}
+		if(!hasPlainContent(buf, recordLength, isUtf8)) {
+			return null;
+		}
+
+		Record record = factory.newRecord();
+		Leader leader = factory.newLeader();
+		leader.setRecordLength(recordLength);
+		leader.setRecordStatus((char)buf[5]);
+		leader.setTypeOfRecord((char)buf[6]);
+		leader.setImplDefined1(new char[]{(char)buf[7], (char)buf[8]});
+		leader.setCharCodingScheme((char)buf[9]);
+		leader.setIndicatorCount(buf[10] - '0');
+		leader.setSubfieldCodeLength(buf[11] - '0');
+		leader.setBaseAddressOfData(baseAddress);
+		leader.setImplDefined2(
+				new char[]{(char)buf[17], (char)buf[18], (char)buf[19]});
+		leader.setEntryMap(new char[]{'4', '5', '0', '0'});
+		record.setLeader(leader);
+
+		// The fields should follow each other in the order of the directory,
+		// and contain a field terminator only at their end. Different
+		// versions of the permissive reader locate the fields by the
+		// directory or by the terminators, these agree only in this case.
+		Charset charset = isUtf8 ? UTF_8 : ISO_8859_1;
+		int end = baseAddress;
+		for(int entry = LEADER_LENGTH; entry < baseAddress - 1;
+				entry += DIRECTORY_ENTRY_LENGTH)
+		{
+			String tag = parseTag(buf, entry);
+			int length = parseNumber(buf, entry + 3, 4);
+			int start = parseNumber(buf, entry + 7, 5);
+			if(tag == null || length < 1 || start + baseAddress != end) {
+				return null;
+			}
+			start = end;
+			end = start + length;
+			if(end >= recordLength || buf[end - 1] != Constants.FT) {
+				return null;
+			}
+			for(int i = start; i < end - 1; i++) {
+				if(buf[i] == Constants.FT) {
+					return null;
+				}
+			}
+			if(Verifier.isControlField(tag)) {
+				ControlField field = factory.newControlField();
+				field.setTag(tag);
+				field.setData(getData(buf, start, length - 1, charset));
+				record.addVariableField(field);
+			} else {
+				DataField field = parseDataField(tag, buf, start, end, charset);
+				if(field == null) {
+					return null;
+				}
+				record.addVariableField(field);
+			}
+		}
+		if(buf[end] != Constants.RT) {
+			return null;
+		}
+
+		leader.setCharCodingScheme('a');
+		record.setLeader(leader);
+		return record;
+	}
+
+	/**
+	 * Parses the data field between the start and end positions the same way
+	 * as the permissive reader.
+	 * @return The field, or null if the permissive reader should clean it up
+	 */
+	private DataField parseDataField(String tag, byte[] buf, int start,
+			int end, Charset charset)
+	{
+		for(int i = start; i < end - 1; i++) {
+			if(buf[i] == Constants.US && buf[i + 1] == Constants.US) {
+				return null;
+			}
+		}
+		DataField field = factory.newDataField();
+		field.setTag(tag);
+		field.setIndicator1(start < end ? (char)(buf[start] & 0xFF) : (char)-1);
+		field.setIndicator2(start + 1 < end
+				? (char)(buf[start + 1] & 0xFF) : (char)-1);
+
+		int i = start + 2;
+		while(i < end) {
+			if(buf[i++] != Constants.US) {
+				continue;
+			}
+			if(i == end) {
+				return null;
+			}
+			int code = buf[i++] & 0xFF;
+			if(code == Constants.FT) {
+				continue;
+			}
+			int dataStart = i;
+			while(i < end && buf[i] != Constants.US && buf[i] != Constants.FT) {
+				i++;
+			}
+			Subfield subfield = factory.newSubfield();
+			subfield.setCode((char)code);
+			subfield.setData(getData(buf, dataStart, i - dataStart, charset));
+			field.addSubfield(subfield);
+		}
+		return field;
+	}
+
+	/**
+	 * Decodes the data, and unescapes the HTML entities the same way as the
+	 * permissive reader.
+	 */
+	private static String getData(byte[] buf, int start, int length,
+			Charset charset)
+	{
+		String data = new String(buf, start, length, charset);
+		if(data.indexOf('&') != -1 && ENTITY_PATTERN.matcher(data).matches()) {
+			data = data.replace("&lt;", "<")
+						.replace("&gt;", ">")
+						.replace("&amp;", "&")
+						.replace("&apos;", "'")
+						.replace("&quot;", "\"");
+		}
+		return data;
+	}
+
+	/**
+	 * Checks whether the record body needs no character conversion: it is
+	 * ASCII, or well formed UTF-8 in a record marked as UTF-8, and it has no
+	 * MARC-8 escape.
+	 */
+	private static boolean hasPlainContent(byte[] buf, int length,
+			boolean isUtf8)
+	{
+		int i = LEADER_LENGTH;
+		while(i < length) {
+			int b = buf[i] & 0xFF;
+			if(b == ESC) {
+				return false;
+			}
+			if(b < 0x80) {
+				i++;
+				continue;
+			}
+			if(!isUtf8) {
+				return false;
+			}
+			int extra;
+			int min;
+			if(b >= 0xC2 && b <= 0xDF) {
+				extra = 1;
+				min = 0x80;
+			} else if(b >= 0xE0 && b <= 0xEF) {
+				extra = 2;
+				min = 0x800;
+			} else if(b >= 0xF0 && b <= 0xF4) {
+				extra = 3;
+				min = 0x10000;
+			} else {
+				return false;
+			}
+			if(i + extra >= length) {
+				return false;
+			}
+			int codePoint = b & (0x3F >> extra);
+			for(int j = 1; j <= extra; j++) {
+				int c = buf[i + j] & 0xFF;
+				if((c & 0xC0) != 0x80) {
+					return false;
+				}
+				codePoint = (codePoint << 6) | (c & 0x3F);
+			}
+			if(codePoint < min || codePoint > 0x10FFFF
+				|| (codePoint >= 0xD800 && codePoint <= 0xDFFF))
+			{
+				return false;
+			}
+			i += extra + 1;
+		}
+		// the permissive reader handles this as MARC-8 with missing escapes
+		if(isUtf8) {
+			for(i = LEADER_LENGTH; i < length - 3; i++) {
+				if(buf[i] == 'a' && buf[i + 1] == '$' && buf[i + 2] == '1'
+					&& buf[i + 3] == '!')
+				{
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static String parseTag(byte[] buf, int offset) {
+		int number = parseNumber(buf, offset, 3);
+		if(number != -1) {
+			return TAGS[number];
+		}
+		for(int i = offset; i < offset + 3; i++) {
+			if(buf[i] < 0) {
+				return null;
+			}
+		}
+		return new String(buf, offset, 3, ISO_8859_1);
+	}
+
+	/**
+	 * Parses a positive decimal number.
+	 * @return The number, or -1 if there is a non digit character
+	 */
+	private static int parseNumber(byte[] buf, int offset, int length) {
+		int number = 0;
+		for(int i = offset; i < offset + length; i++) {
+			if(!isDigit(buf[i])) {
+				return -1;
+			}
+			number = number * 10 + (buf[i] - '0');
+		}
+		return number;
+	}
+
+	private static int parseNumber(MappedByteBuffer buf, int offset,
+			int length)
+	{
+		int number = 0;
+		for(int i = offset; i < offset + length; i++) {
+			byte b = buf.get(i);
+			if(!isDigit(b)) {
+				return -1;
+			}
+			number = number * 10 + (b - '0');
+		}
+		return number;
+	}
+
+	private static boolean isDigit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+}
@@ -0,0 +1,251 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package info.extensiblecatalog.OAIToolkit.importer;
+
+import org.marc4j.marc.ControlField;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.Leader;
+import org.marc4j.marc.Record;
+import org.marc4j.marc.Subfield;
+
+/**
+ * Checks the constraints of the MARC21slim schema directly on the record,
+ * without creating its MARCXML. The checks are the patterns of the
+ * original Library of Congress schema (web/schema/MARC21_original.xsd):
+ * <ul>
+ *   <li>the leader has 24 characters and matches the leader pattern,
+ *   ending with "4500" or four spaces</li>
+ *   <li>the control field tags are "00" and a digit or letter</li>
+ *   <li>the data field tags are three digits or letters of the same case,
+ *   not starting with "00"</li>
+ *   <li>the indicators are digits, lower case letters or space</li>
+ *   <li>the subfield codes are digits, letters or the allowed
+ *   punctuation</li>
+ *   <li>each data field has at least one subfield</li>
+ *   <li>all the strings contain only characters allowed in XML 1.0</li>
+ * </ul>
+ *
+ * The checks accept only ASCII digits and letters, so they are never looser
+ * than the schema: a record accepted here is valid against the original
+ * schema, and against the bundled Rochester and custom schemas, which
+ * allow more leader endings. A rejected record is not necessarily invalid,
+ * it should be validated against the schema, which gives the exact error.
+ *
+ * @author Peter Kiraly
+ */
+public class MarcStructureValidator {
+
+	/** The length of the leader */
+	private static final int LEADER_LENGTH = 24;
+
+	/**
+	 * The punctuation allowed as subfield code beside the digits and letters
+	 */
+	private static final String CODE_PUNCTUATION = "!\"#$%&'()*+,-./:;<=>?{}_^`~[]\\";
+
+	/** The allowed subfield codes, indexed by ASCII code */
+	private static final boolean[] CODES = new boolean[128];
+
+	static {
+		for(char c = 0; c < 128; c++) {
+			CODES[c] = isDigit(c) || isUpper(c) || isLower(c)
+				|| CODE_PUNCTUATION.indexOf(c) != -1;
+		}
+	}
+
+	/**
+	 * Checks whether the record certainly fulfills the constraints of the
+	 * MARC21slim schema.
+	 * @param record The record
+	 * @return true if the record is valid, false if it can be invalid
+	 */
+	public static boolean isValid(Record record) {
+		Leader leader = record.getLeader();
+		if(null == leader || !isValidLeader(leader.toString())) {
+			return false;
+		}
+
+		for(Object o : record.getControlFields()) {
+			ControlField field = (ControlField)o;
+			if(!isValidControlTag(field.getTag())
+				|| !isValidText(field.getData()))
+			{
+				return false;
+			}
+		}
+
+		for(Object o : record.getDataFields()) {
+			DataField field = (DataField)o;
+			if(!isValidTag(field.getTag())
+				|| !isValidIndicator(field.getIndicator1())
+				|| !isValidIndicator(field.getIndicator2())
+				|| field.getSubfields().isEmpty())
+			{
+				return false;
+			}
+			for(Object s : field.getSubfields()) {
+				Subfield subfield = (Subfield)s;
+				if(!isValidCode(subfield.getCode())
+					|| !isValidText(subfield.getData()))
+				{
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks the leader against the pattern
+	 * <code>[\d ]{5}[\dA-Za-z ]{1}[\dA-Za-z]{1}[\dA-Za-z ]{3}(2| )(2| )[\d ]{5}[\dA-Za-z ]{3}(4500|    )</code>
+	 * @param leader The leader
+	 * @return true if the leader matches
+	 */
+	public static boolean isValidLeader(String leader) {
+		if(null == leader || leader.length() != LEADER_LENGTH) {
+			return false;
+		}
+		for(int i = 0; i < LEADER_LENGTH; i++) {
+			char c = leader.charAt(i);
+			boolean valid;
+			if(i < 5 || (i >= 12 && i < 17)) {
+				valid = isDigit(c) || c == ' ';
+			} else if(i == 6) {
+				valid = isAlphanumeric(c);
+			} else if(i == 10 || i == 11) {
+				valid = c == '2' || c == ' ';
+			} else if(i < 20) {
+				valid = isAlphanumeric(c) || c == ' ';
+			} else {
+				valid = true;
+			}
+			if(!valid) {
+				return false;
+			}
+		}
+		String end = leader.substring(20);
+		return end.equals("4500") || end.equals("    ");
+	}
+
+	/**
+	 * Checks the tag of a control field against the pattern
+	 * <code>00[1-9A-Za-z]{1}</code>
+	 * @param tag The tag
+	 * @return true if the tag matches
+	 */
+	public static boolean isValidControlTag(String tag) {
+		if(null == tag || tag.length() != 3
+			|| tag.charAt(0) != '0' || tag.charAt(1) != '0')
+		{
+			return false;
+		}
+		char c = tag.charAt(2);
+		return c != '0' && isAlphanumeric(c);
+	}
+
+	/**
+	 * Checks the tag of a data field against the pattern
+	 * <code>(0([1-9A-Z][0-9A-Z])|0([1-9a-z][0-9a-z]))|(([1-9A-Z][0-9A-Z]{2})|([1-9a-z][0-9a-z]{2}))</code>:
+	 * three digits or letters of the same case, which do not start with
+	 * "00".
+	 * @param tag The tag
+	 * @return true if the tag matches
+	 */
+	public static boolean isValidTag(String tag) {
+		if(null == tag || tag.length() != 3) {
+			return false;
+		}
+		char c0 = tag.charAt(0);
+		char c1 = tag.charAt(1);
+		if(c0 == '0' && c1 == '0') {
+			return false;
+		}
+		return isTagOfCase(tag, true) || isTagOfCase(tag, false);
+	}
+
+	/**
+	 * Checks whether all the characters of the tag are digits or letters
+	 * of the given case
+	 */
+	private static boolean isTagOfCase(String tag, boolean upper) {
+		for(int i = 0; i < 3; i++) {
+			char c = tag.charAt(i);
+			if(!isDigit(c) && !(upper ? isUpper(c) : isLower(c))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks the indicator against the pattern <code>[\da-z ]{1}</code>
+	 * @param indicator The indicator
+	 * @return true if the indicator matches
+	 */
+	public static boolean isValidIndicator(char indicator) {
+		return isDigit(indicator) || isLower(indicator) || indicator == ' ';
+	}
+
+	/**
+	 * Checks the subfield code against the pattern
+	 * <code>[\dA-Za-z!"#$%&amp;'()*+,-./:;&lt;=&gt;?{}_^`~\[\]\\]{1}</code>
+	 * @param code The subfield code
+	 * @return true if the code matches
+	 */
+	public static boolean isValidCode(char code) {
+		return code < 128 && CODES[code];
+	}
+
+	/**
+	 * Checks whether all the characters of the text are allowed in XML 1.0,
+	 * and the surrogates are in pairs
+	 * @param text The text
+	 * @return true if the text is valid
+	 */
+	public static boolean isValidText(String text) {
+		if(null == text) {
+			return false;
+		}
+		int length = text.length();
+		for(int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			if(c < 0x20) {
+				if(c != '\t' && c != '\n' && c != '\r') {
+					return false;
+				}
+			} else if(c < 0xD800) {
+				continue;
+			} else if(c < 0xDC00) {
+				if(i + 1 == length || !Character.isLowSurrogate(text.charAt(++i))) {
+					return false;
+				}
+			} else if(c < 0xE000 || c > 0xFFFD) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isUpper(char c) {
+		return c >= 'A' && c <= 'Z';
+	}
+
+	private static boolean isLower(char c) {
+		return c >= 'a' && c <= 'z';
+	}
+
+	private static boolean isAlphanumeric(char c) {
+		return isDigit(c) || isUpper(c) || isLower(c);
+	}
+}
@@ -0,0 +1,176 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package info.extensiblecatalog.OAIToolkit.importer;
+
+import org.marc4j.Constants;
+import org.marc4j.marc.ControlField;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.Record;
+import org.marc4j.marc.Subfield;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Sends a record to a <code>ContentHandler</code> as the SAX events of its
+ * MARCXML document, the same document as the {@link DirectMarcXmlWriter}
+ * writes for the record (without the indentation). It is used to validate
+ * the records with a <code>ValidatorHandler</code>, without writing and
+ * parsing the XML.
+ *
+ * Some strings can not be represented as events: the characters which are
+ * not allowed in XML 1.0 appear in the text as invalid character
+ * references, and the unpaired surrogates are changed by the serializer.
+ * When the record contains such a string, the writer stops, and the caller
+ * should validate the text instead.
+ *
+ * The writer is not thread safe, but it can be reused for any number of
+ * records.
+ *
+ * @author Peter Kiraly
+ */
+public class MarcXmlSaxWriter {
+
+	private static final String NS = Constants.MARCXML_NS_URI;
+	private static final String COLLECTION = "collection";
+	private static final String RECORD = "record";
+	private static final String LEADER = "leader";
+	private static final String CONTROL_FIELD = "controlfield";
+	private static final String DATA_FIELD = "datafield";
+	private static final String SUBFIELD = "subfield";
+	private static final String CDATA = "CDATA";
+
+	private AttributesImpl atts = new AttributesImpl();
+
+	/** The characters of the current text */
+	private char[] chars = new char[256];
+
+	/**
+	 * Sends the events of the record's MARCXML document to the handler.
+	 * @param record The record
+	 * @param handler The handler
+	 * @return false if the record contains a string which can not be
+	 * represented as events. In this case the document is not finished.
+	 * @throws SAXException The exception of the handler
+	 */
+	public boolean write(Record record, ContentHandler handler)
+			throws SAXException {
+		atts.clear();
+		handler.startDocument();
+		handler.startPrefixMapping("", NS);
+		handler.startElement(NS, COLLECTION, COLLECTION, atts);
+		handler.startElement(NS, RECORD, RECORD, atts);
+
+		if(!writeElement(LEADER, record.getLeader().toString(), handler)) {
+			return false;
+		}
+
+		for(Object o : record.getControlFields()) {
+			ControlField field = (ControlField)o;
+			atts.clear();
+			if(!addAttribute("tag", field.getTag())
+				|| !writeElement(CONTROL_FIELD, field.getData(), handler))
+			{
+				return false;
+			}
+		}
+
+		for(Object o : record.getDataFields()) {
+			DataField field = (DataField)o;
+			atts.clear();
+			if(!addAttribute("tag", field.getTag())
+				|| !addAttribute("ind1", String.valueOf(field.getIndicator1()))
+				|| !addAttribute("ind2", String.valueOf(field.getIndicator2())))
+			{
+				return false;
+			}
+			handler.startElement(NS, DATA_FIELD, DATA_FIELD, atts);
+			for(Object s : field.getSubfields()) {
+				Subfield subfield = (Subfield)s;
+				atts.clear();
+				if(!addAttribute("code", String.valueOf(subfield.getCode()))
+					|| !writeElement(SUBFIELD, subfield.getData(), handler))
+				{
+					return false;
+				}
+			}
+			handler.endElement(NS, DATA_FIELD, DATA_FIELD);
+		}
+
+		handler.endElement(NS, RECORD, RECORD);
+		handler.endElement(NS, COLLECTION, COLLECTION);
+		handler.endPrefixMapping("");
+		handler.endDocument();
+		return true;
+	}
+
+	/**
+	 * Writes an element with the current attributes and a text content
+	 * @return false if the text is not valid XML
+	 */
+	private boolean writeElement(String name, String text,
+			ContentHandler handler) throws SAXException {
+		int length = text.length();
+		if(length > chars.length) {
+			chars = new char[Math.max(length, chars.length * 2)];
+		}
+		text.getChars(0, length, chars, 0);
+		if(!isValid(chars, length)) {
+			return false;
+		}
+		handler.startElement(NS, name, name, atts);
+		if(length > 0) {
+			handler.characters(chars, 0, length);
+		}
+		handler.endElement(NS, name, name);
+		return true;
+	}
+
+	/**
+	 * Adds an attribute to the current attributes
+	 * @return false if the value is not valid XML
+	 */
+	private boolean addAttribute(String name, String value) {
+		int length = value.length();
+		if(length > chars.length) {
+			chars = new char[Math.max(length, chars.length * 2)];
+		}
+		value.getChars(0, length, chars, 0);
+		if(!isValid(chars, length)) {
+			return false;
+		}
+		atts.addAttribute("", name, name, CDATA, value);
+		return true;
+	}
+
+	/**
+	 * Checks whether all the characters are allowed in XML 1.0, and the
+	 * surrogates are in pairs.
+	 */
+	private static boolean isValid(char[] chars, int length) {
+		for(int i = 0; i < length; i++) {
+			char c = chars[i];
+			if(c < 0x20) {
+				if(c != '\t' && c != '\n' && c != '\r') {
+					return false;
+				}
+			} else if(c < 0xD800) {
+				continue;
+			} else if(c < 0xDC00) {
+				if(i + 1 == length || !Character.isLowSurrogate(chars[++i])) {
+					return false;
+				}
+			} else if(c < 0xE000 || c > 0xFFFD) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
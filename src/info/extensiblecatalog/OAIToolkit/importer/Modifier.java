@@ -9,22 +9,47 @@
 
 package info.extensiblecatalog.OAIToolkit.importer;
 
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.List;
 
 import info.extensiblecatalog.OAIToolkit.utils.ExceptionPrinter;
 import info.extensiblecatalog.OAIToolkit.utils.Logging;
-import info.extensiblecatalog.OAIToolkit.utils.XsltTransformator;
 
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
 
 import org.apache.log4j.Logger;
+import org.marc4j.MarcXmlHandler;
+import org.marc4j.RecordStack;
 import org.marc4j.marc.Record;
 
 /**
- * Class to modify records with XML transformation (XSLT)
+ * Class to modify records with XML transformation (XSLT).
+ *
+ * The stylesheets are compiled once to <code>Templates</code>, which are
+ * shared by the copies of the modifier. The stylesheets are chained with
+ * <code>TransformerHandler</code>s, so the intermediate results are passed
+ * as SAX events, and the record is parsed only once. The transformers are
+ * not thread safe, so each thread should work with its own copy
+ * ({@link #copy()}).
+ *
+ * The modified record can be built directly from the SAX events of the last
+ * stylesheet ({@link #modify(Record, boolean)}), without serializing and
+ * parsing it again.
  * @author Király Péter pkiraly@tesuji.eu
  */
 public class Modifier {
@@ -34,8 +59,20 @@ public class Modifier {
         private static final Logger prglog = Logging.getLogger(programmer_log);
 	//private static final Logger logger = Logging.getLogger();
 
-	/** XSLT transformators */
-	private List<XsltTransformator> transformators;
+	/** The compiled stylesheets, shared by the copies */
+	private List<Templates> templates;
+
+	/**
+	 * The transformers of the stylesheets. The first one starts the chain,
+	 * the others are used only if the chain fails.
+	 */
+	private List<Transformer> transformers;
+
+	/** The factory of the transformer handlers of the chain */
+	private SAXTransformerFactory factory;
+
+	/** The names of the registered stylesheets */
+	private List<String> xslts = new ArrayList<String>();
 	
 	private boolean doIndent = false;
     private boolean doFileOfDeletedRecords = false;
@@ -70,13 +107,16 @@ public class Modifier {
 
 
 	public void addStyleSheets(List<String> xslts) {
-		if(transformators == null) {
-			transformators = new ArrayList<XsltTransformator>();
+		if(templates == null) {
+			templates = new ArrayList<Templates>();
 		}
 		for(String xslt : xslts) {
+			this.xslts.add(xslt);
 			prglog.info("[PRG] registering stylesheet " + xslt);
 			try {
-				transformators.add(new XsltTransformator("xslts/" + xslt));
+				templates.add(getFactory().newTemplates(new StreamSource(
+						new FileInputStream("xslts/" + xslt))));
+				transformers = null;
 			} catch(FileNotFoundException e) {
 				e.printStackTrace();
 				prglog.info("[PRG] " + ExceptionPrinter.getStack(e));
@@ -88,6 +128,44 @@ public class Modifier {
 		}
 	}
 	
+	/**
+	 * Create a new modifier with the same stylesheets. The transformers
+	 * are not thread safe, so each thread should work with its own copy.
+	 * The copy shares the compiled stylesheets.
+	 * @return The new modifier
+	 */
+	public Modifier copy() {
+		Modifier copy = new Modifier(doIndent, doFileOfDeletedRecords);
+		copy.xslts.addAll(xslts);
+		if(templates != null) {
+			copy.templates = new ArrayList<Templates>(templates);
+		}
+		return copy;
+	}
+
+	private SAXTransformerFactory getFactory() {
+		if(factory == null) {
+			factory = (SAXTransformerFactory)TransformerFactory.newInstance();
+		}
+		return factory;
+	}
+
+	/**
+	 * Get the transformers of this modifier, one for each stylesheet
+	 * @throws TransformerConfigurationException
+	 */
+	private List<Transformer> getTransformers()
+			throws TransformerConfigurationException {
+		if(transformers == null) {
+			List<Transformer> list = new ArrayList<Transformer>();
+			for(Templates t : templates) {
+				list.add(t.newTransformer());
+			}
+			transformers = list;
+		}
+		return transformers;
+	}
+
 	/** Modify a Record's XML string */
 	public String modifyRecord(Record record, boolean doFileOfDeletedRecords) {
 		MARCRecordWrapper marc = new MARCRecordWrapper(record, doFileOfDeletedRecords);
@@ -97,16 +175,69 @@ public class Modifier {
 		return modifyRecord(marc);
 	}
 
+	/**
+	 * Modify a Record, and build the new Record from the SAX events of the
+	 * stylesheets on the current thread. It gives the same record as
+	 * <code>MARCRecordWrapper.MARCXML2Record(modifyRecord(record,
+	 * doFileOfDeletedRecords))</code>, without creating and parsing the
+	 * result string. If the transformation fails, it falls back to that.
+	 * @param record The record
+	 * @param doFileOfDeletedRecords
+	 * @return The modified record, or null if the result contains no record
+	 */
+	public Record modify(Record record, boolean doFileOfDeletedRecords) {
+		MARCRecordWrapper marc = new MARCRecordWrapper(record, doFileOfDeletedRecords);
+		lastRecordToModify = marc.getId();
+		marc.setDoIndentXml(doIndent);
+		marc.setDoFileOfDeletedRecords(doFileOfDeletedRecords);
+		String xml = marc.getXml();
+
+		RecordReceiver receiver = new RecordReceiver();
+		try {
+			Source source = new StreamSource(new StringReader(xml));
+			Result result = new SAXResult(new MarcXmlHandler(receiver));
+			if(templates == null || templates.isEmpty()) {
+				getFactory().newTransformer().transform(source, result);
+			} else {
+				transform(source, result);
+			}
+			return receiver.getRecord();
+		} catch(TransformerException e) {
+			// the string based way reports the errors
+		} catch(RuntimeException e) {
+			// the string based way reports the errors
+		}
+		return MARCRecordWrapper.MARCXML2Record(modifyRecord(xml));
+	}
+
 	/** Modify a MARCRecordWrapper's XML string */
 	public String modifyRecord(MARCRecordWrapper record) {
 		return modifyRecord(record.getXml());
 	}
 
-	/** Modify XML string */
+	/**
+	 * Modify XML string. If the chain of the stylesheets fails, the
+	 * stylesheets are applied one by one, and the failing one is skipped.
+	 */
 	public String modifyRecord(String xml) {
-		for(XsltTransformator transformator : transformators) {
+		if(templates == null || templates.isEmpty()) {
+			return xml;
+		}
+		try {
+			StringWriter out = new StringWriter();
+			transform(new StreamSource(new StringReader(xml)),
+					new StreamResult(out));
+			return out.toString();
+		} catch(TransformerException e) {
+			// the stylesheets one by one report the failing one
+		}
+		for(int i = 0; i < templates.size(); i++) {
 			try {
-				xml = transformator.transform(xml);
+				StringWriter out = new StringWriter();
+				getTransformers().get(i).transform(
+						new StreamSource(new StringReader(xml)),
+						new StreamResult(out));
+				xml = out.toString();
 			} catch(TransformerException e) {
 				e.printStackTrace();
 				prglog.info("[PRG] " + ExceptionPrinter.getStack(e));
@@ -115,6 +246,50 @@ public class Modifier {
 		return xml;
 	}
 
+	/**
+	 * Transform the source with the chain of the stylesheets. The first
+	 * stylesheet reads the source, and each stylesheet sends its result as
+	 * SAX events to the next one. The result gets the output of the last
+	 * stylesheet.
+	 * @param source The source
+	 * @param result The result
+	 * @throws TransformerException
+	 */
+	public void transform(Source source, Result result)
+			throws TransformerException {
+		Result next = result;
+		for(int i = templates.size() - 1; i > 0; i--) {
+			TransformerHandler handler = getFactory().newTransformerHandler(
+					templates.get(i));
+			handler.setResult(next);
+			next = new SAXResult(handler);
+		}
+		getTransformers().get(0).transform(source, next);
+	}
+
+	/**
+	 * Receives the record built by the <code>MarcXmlHandler</code> on the
+	 * same thread. It keeps the first record, like
+	 * <code>MARCRecordWrapper.MARCXML2Record()</code>, and it never waits.
+	 */
+	private static class RecordReceiver extends RecordStack {
+
+		private Record record = null;
+
+		public void push(Record record) {
+			if(this.record == null) {
+				this.record = record;
+			}
+		}
+
+		public void end() {
+		}
+
+		public Record getRecord() {
+			return record;
+		}
+	}
+
 	public boolean isDoIndent() {
 		return doIndent;
 	}
@@ -0,0 +1,222 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package info.extensiblecatalog.OAIToolkit.importer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.marc4j.MarcException;
+import org.marc4j.RecordStack;
+import org.marc4j.marc.Record;
+
+/**
+ * Bounded ring buffer between the SAX parser thread and the reader of the
+ * records. The original <code>RecordStack</code> is a one element handoff,
+ * so the parser and the consumer synchronize on every record. This queue
+ * holds up to <code>capacity</code> records, the parser pushes them in
+ * batches and the consumer pops them in batches, so both sides can run ahead
+ * of each other.
+ *
+ * The <code>push</code>, <code>end</code> and <code>passException</code>
+ * methods must be called from the producer thread only, the <code>pop</code>
+ * and <code>hasNext</code> methods from the consumer thread only.
+ *
+ * @author Peter Kiraly
+ */
+public class RecordQueue extends RecordStack {
+
+	/** The default number of records the queue can hold */
+	public static final int DEFAULT_CAPACITY = 1000;
+
+	/** The maximal number of records moved in one batch */
+	public static final int MAX_BATCH_SIZE = 100;
+
+	/** The ring buffer */
+	private final Record[] ring;
+
+	/** The index of the first record in the ring */
+	private int head = 0;
+
+	/** The number of records in the ring */
+	private int count = 0;
+
+	/** The number of records moved in one batch */
+	private final int batchSize;
+
+	/** The records parsed, but not yet pushed into the ring (producer side) */
+	private final List<Record> pushBuffer;
+
+	/** The records popped from the ring, but not yet returned (consumer side) */
+	private final List<Record> popBuffer;
+
+	/** The index of the next record to return from the popBuffer */
+	private int popIndex = 0;
+
+	/** The exception the parser thread passed */
+	private RuntimeException exception = null;
+
+	/** Is the end of the document reached? */
+	private boolean eof = false;
+
+	public RecordQueue() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a queue
+	 * @param capacity The number of records the queue can hold
+	 */
+	public RecordQueue(int capacity) {
+		if(capacity < 1) {
+			throw new IllegalArgumentException(
+					"The capacity of the queue should be positive: " + capacity);
+		}
+		ring = new Record[capacity];
+		batchSize = Math.max(1, Math.min(MAX_BATCH_SIZE, capacity / 4));
+		pushBuffer = new ArrayList<Record>(batchSize);
+		popBuffer = new ArrayList<Record>(batchSize);
+	}
+
+	public int getCapacity() {
+		return ring.length;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Adds a record to the current batch. The batch is moved to the ring
+	 * when it is full.
+	 */
+	@Override
+	public void push(Record record) {
+		pushBuffer.add(record);
+		if(pushBuffer.size() >= batchSize) {
+			flush();
+		}
+	}
+
+	/**
+	 * Moves all the records into the ring. Blocks while the ring is full.
+	 * @param records The records to add
+	 */
+	public synchronized void pushAll(List<Record> records) {
+		int i = 0;
+		int size = records.size();
+		while(i < size) {
+			while(count == ring.length) {
+				await();
+			}
+			while(i < size && count < ring.length) {
+				ring[(head + count) % ring.length] = records.get(i++);
+				count++;
+			}
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Moves at most <code>max</code> records from the ring into the target
+	 * list. Blocks while the ring is empty and the end of the document is
+	 * not reached.
+	 * @param target The list to add the records to
+	 * @param max The maximal number of records to move
+	 * @return The number of records moved. 0 means the end of the records.
+	 */
+	public synchronized int popAll(List<Record> target, int max) {
+		while(count == 0 && !eof) {
+			await();
+		}
+		int moved = 0;
+		while(count > 0 && moved < max) {
+			target.add(ring[head]);
+			ring[head] = null;
+			head = (head + 1) % ring.length;
+			count--;
+			moved++;
+		}
+		if(moved > 0) {
+			notifyAll();
+		} else if(exception != null) {
+			throw exception;
+		}
+		return moved;
+	}
+
+	/**
+	 * Returns the next record, or null if there are no more records.
+	 */
+	@Override
+	public Record pop() {
+		if(!fill()) {
+			return null;
+		}
+		return popBuffer.get(popIndex++);
+	}
+
+	@Override
+	public boolean hasNext() {
+		return fill();
+	}
+
+	/**
+	 * Passes the exception to the consumer thread. It receives the exception
+	 * after the records parsed before the error.
+	 */
+	@Override
+	public void passException(RuntimeException e) {
+		flush();
+		synchronized(this) {
+			exception = e;
+			eof = true;
+			notifyAll();
+		}
+	}
+
+	@Override
+	public void end() {
+		flush();
+		synchronized(this) {
+			eof = true;
+			notifyAll();
+		}
+	}
+
+	/** Moves the current batch of the producer to the ring */
+	private void flush() {
+		if(pushBuffer.size() > 0) {
+			pushAll(pushBuffer);
+			pushBuffer.clear();
+		}
+	}
+
+	/**
+	 * Makes sure there is a record to return in the popBuffer.
+	 * @return false if there are no more records
+	 */
+	private boolean fill() {
+		if(popIndex < popBuffer.size()) {
+			return true;
+		}
+		popBuffer.clear();
+		popIndex = 0;
+		return popAll(popBuffer, batchSize) > 0;
+	}
+
+	private void await() {
+		try {
+			wait();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MarcException("Interrupted while waiting for records", e);
+		}
+	}
+}
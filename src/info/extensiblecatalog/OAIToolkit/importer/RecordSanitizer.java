@@ -0,0 +1,329 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package info.extensiblecatalog.OAIToolkit.importer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.marc4j.marc.ControlField;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.Record;
+import org.marc4j.marc.Subfield;
+import org.marc4j.marc.impl.LeaderImpl;
+
+/**
+ * Finds the bad characters of a MARC record: the ASCII control characters
+ * which are not allowed in XML 1.0 (1-8, B-C, E-1F hexadecimal codes). It
+ * walks through the leader, the tags, the control field data, the
+ * indicators, the subfield codes and the subfield data once, and replaces
+ * the bad characters in place:
+ * <ul>
+ *   <li>in the leader with zeros, if {@link #translateLeaderBadCharsToZero}
+ *   is set</li>
+ *   <li>in the control and data fields with spaces, if
+ *   {@link #translateNonleaderBadCharsToSpaces} is set</li>
+ * </ul>
+ * The tags are never changed.
+ *
+ * The positions of the bad characters refer to the textual presentation
+ * of the record (<code>Record.toString()</code>), but only the lines of
+ * the fields containing bad characters are created.
+ *
+ * @author Peter Kiraly
+ */
+public class RecordSanitizer {
+
+	/** The beginning of the leader's line */
+	private static final String LEADER_PREFIX = "LEADER ";
+
+	/** Replace the bad characters of the leader with zeros */
+	private boolean translateLeaderBadCharsToZero = false;
+
+	/** Replace the bad characters of the control and data fields with spaces */
+	private boolean translateNonleaderBadCharsToSpaces = false;
+
+	/**
+	 * A bad character of the record
+	 */
+	public static class BadCharacter {
+
+		/** The line of the field in the record's textual presentation */
+		private RecordLine line;
+
+		/** The position of the character in the record */
+		private int position;
+
+		/** Is the character in the leader? */
+		private boolean inLeader;
+
+		/** Is the character replaced? */
+		private boolean replaced;
+
+		/** The control number of the record after the field was sanitized */
+		private String controlNumber;
+
+		private BadCharacter(String line, int positionInLine, int position,
+				boolean inLeader, boolean replaced, String controlNumber) {
+			this.line = new RecordLine(line + "\n", positionInLine);
+			this.position = position;
+			this.inLeader = inLeader;
+			this.replaced = replaced;
+			this.controlNumber = controlNumber;
+		}
+
+		/**
+		 * Get the line of the field. The position of the line is the
+		 * position of the character inside the line.
+		 * @return The line
+		 */
+		public RecordLine getLine() {
+			return line;
+		}
+
+		/**
+		 * Get the position of the character in the record's textual
+		 * presentation
+		 * @return The position
+		 */
+		public int getPosition() {
+			return position;
+		}
+
+		/**
+		 * Get the bad character
+		 * @return The character
+		 */
+		public String getInvalidChar() {
+			return line.getInvalidChar();
+		}
+
+		/**
+		 * Get the hexa representation of the bad character
+		 * @return The hexa code
+		 */
+		public String getInvalidCharHexa() {
+			return line.getInvalidCharHexa();
+		}
+
+		/**
+		 * Is the character in the leader?
+		 * @return True if it is in the leader, false if it is in a field
+		 */
+		public boolean isInLeader() {
+			return inLeader;
+		}
+
+		/**
+		 * Is the character replaced?
+		 * @return False if the record still contains it
+		 */
+		public boolean isReplaced() {
+			return replaced;
+		}
+
+		/**
+		 * Get the control number of the record after the leader or the
+		 * field of the character was sanitized
+		 * @return The control number
+		 */
+		public String getControlNumber() {
+			return controlNumber;
+		}
+	}
+
+	/**
+	 * Is the character a bad character?
+	 * @param c The character
+	 * @return True if the character is not allowed in XML 1.0
+	 */
+	public static boolean isBadCharacter(char c) {
+		return (c >= 0x01 && c <= 0x08) || c == 0x0B || c == 0x0C
+			|| (c >= 0x0E && c <= 0x1F);
+	}
+
+	/**
+	 * Does the text contain any bad character?
+	 * @param text The text
+	 * @return True if the text contains a bad character
+	 */
+	public static boolean hasBadCharacter(String text) {
+		if(text == null) {
+			return false;
+		}
+		for(int i = 0, len = text.length(); i < len; i++) {
+			if(isBadCharacter(text.charAt(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Find and replace the bad characters of the record.
+	 * @param record The record
+	 * @return The bad characters in the order of their positions. Empty if
+	 * the record has no bad character.
+	 */
+	public List<BadCharacter> sanitize(Record record) {
+		List<BadCharacter> found = null;
+
+		String leader = record.getLeader().toString();
+		if(hasBadCharacter(leader)) {
+			found = new ArrayList<BadCharacter>();
+			if(translateLeaderBadCharsToZero) {
+				record.setLeader(new LeaderImpl(replace(leader, '0')));
+			}
+			addBadCharacters(found, LEADER_PREFIX + leader, 0,
+					LEADER_PREFIX.length(), true,
+					translateLeaderBadCharsToZero, record);
+		}
+		int position = LEADER_PREFIX.length() + leader.length() + 1;
+
+		for(Object o : record.getControlFields()) {
+			ControlField field = (ControlField)o;
+			int length = field.getTag().length() + 1
+				+ String.valueOf(field.getData()).length();
+			if(hasBadCharacter(field.getTag())
+				|| hasBadCharacter(field.getData()))
+			{
+				if(found == null) {
+					found = new ArrayList<BadCharacter>();
+				}
+				String line = field.toString();
+				if(translateNonleaderBadCharsToSpaces
+					&& hasBadCharacter(field.getData()))
+				{
+					field.setData(replace(field.getData(), ' '));
+				}
+				addBadCharacters(found, line, position,
+						field.getTag().length(), false,
+						translateNonleaderBadCharsToSpaces, record);
+			}
+			position += length + 1;
+		}
+
+		for(Object o : record.getDataFields()) {
+			DataField field = (DataField)o;
+			int length = field.getTag().length() + 3;
+			boolean hasBadCharacter = hasBadCharacter(field.getTag())
+				|| isBadCharacter(field.getIndicator1())
+				|| isBadCharacter(field.getIndicator2());
+			for(Object s : field.getSubfields()) {
+				Subfield subfield = (Subfield)s;
+				length += 2 + String.valueOf(subfield.getData()).length();
+				if(!hasBadCharacter && (isBadCharacter(subfield.getCode())
+					|| hasBadCharacter(subfield.getData())))
+				{
+					hasBadCharacter = true;
+				}
+			}
+			if(hasBadCharacter) {
+				if(found == null) {
+					found = new ArrayList<BadCharacter>();
+				}
+				String line = field.toString();
+				if(translateNonleaderBadCharsToSpaces) {
+					replace(field);
+				}
+				addBadCharacters(found, line, position,
+						field.getTag().length(), false,
+						translateNonleaderBadCharsToSpaces, record);
+			}
+			position += length + 1;
+		}
+
+		if(found == null) {
+			return Collections.emptyList();
+		}
+		return found;
+	}
+
+	/**
+	 * Add the bad characters of a line.
+	 * @param found The list of bad characters
+	 * @param line The line of the leader or the field before the replacement
+	 * @param position The position of the line in the record
+	 * @param prefixLength The length of the line's prefix, which is never
+	 * replaced ("LEADER " or the tag)
+	 * @param inLeader Is the line the leader's line?
+	 * @param replace Are the bad characters of the line replaced?
+	 * @param record The record
+	 */
+	private void addBadCharacters(List<BadCharacter> found, String line,
+			int position, int prefixLength, boolean inLeader, boolean replace,
+			Record record) {
+		String controlNumber = record.getControlNumber();
+		for(int i = 0, len = line.length(); i < len; i++) {
+			if(isBadCharacter(line.charAt(i))) {
+				found.add(new BadCharacter(line, i, position + i, inLeader,
+						replace && i >= prefixLength, controlNumber));
+			}
+		}
+	}
+
+	/**
+	 * Replace the bad characters of the data field's indicators, subfield
+	 * codes and subfield data with spaces.
+	 * @param field The data field
+	 */
+	private static void replace(DataField field) {
+		if(isBadCharacter(field.getIndicator1())) {
+			field.setIndicator1(' ');
+		}
+		if(isBadCharacter(field.getIndicator2())) {
+			field.setIndicator2(' ');
+		}
+		for(Object s : field.getSubfields()) {
+			Subfield subfield = (Subfield)s;
+			if(isBadCharacter(subfield.getCode())) {
+				subfield.setCode(' ');
+			}
+			if(hasBadCharacter(subfield.getData())) {
+				subfield.setData(replace(subfield.getData(), ' '));
+			}
+		}
+	}
+
+	/**
+	 * Replace the bad characters of a text.
+	 * @param text The text
+	 * @param replacement The replacement character
+	 * @return The new text
+	 */
+	private static String replace(String text, char replacement) {
+		char[] chars = text.toCharArray();
+		for(int i = 0; i < chars.length; i++) {
+			if(isBadCharacter(chars[i])) {
+				chars[i] = replacement;
+			}
+		}
+		return new String(chars);
+	}
+
+	public boolean isTranslateLeaderBadCharsToZero() {
+		return translateLeaderBadCharsToZero;
+	}
+
+	public void setTranslateLeaderBadCharsToZero(
+			boolean translateLeaderBadCharsToZero) {
+		this.translateLeaderBadCharsToZero = translateLeaderBadCharsToZero;
+	}
+
+	public boolean isTranslateNonleaderBadCharsToSpaces() {
+		return translateNonleaderBadCharsToSpaces;
+	}
+
+	public void setTranslateNonleaderBadCharsToSpaces(
+			boolean translateNonleaderBadCharsToSpaces) {
+		this.translateNonleaderBadCharsToSpaces =
+			translateNonleaderBadCharsToSpaces;
+	}
+}
@@ -12,12 +12,17 @@ package info.extensiblecatalog.OAIToolkit.importer.importers;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.sql.Timestamp;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
 
 import info.extensiblecatalog.OAIToolkit.DTOs.RecordDTO;
 import info.extensiblecatalog.OAIToolkit.DTOs.SetToRecordDTO;
+import info.extensiblecatalog.OAIToolkit.importer.ImportJournal;
 import info.extensiblecatalog.OAIToolkit.importer.MARCRecordWrapper;
+import info.extensiblecatalog.OAIToolkit.importer.MarcStructureValidator;
+import info.extensiblecatalog.OAIToolkit.importer.MarcXmlSaxWriter;
 import info.extensiblecatalog.OAIToolkit.importer.MarcXmlErrorParser;
 import info.extensiblecatalog.OAIToolkit.utils.ApplInfo;
 import info.extensiblecatalog.OAIToolkit.utils.ExceptionPrinter;
@@ -28,6 +33,7 @@ import info.extensiblecatalog.OAIToolkit.utils.TextUtil;
 import org.apache.log4j.Logger;
 import org.marc4j.MarcXmlWriter;
 import org.marc4j.marc.Record;
+import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
 /**
@@ -59,6 +65,44 @@ public class BasicRecordImporter {
 	/** The SAX based XML validator, validates against schema file */
 	protected XMLValidator validator;
 
+	/**
+	 * The validators of the threads preparing records in parallel. They
+	 * share the compiled schema of {@link #validator}.
+	 */
+	private ThreadLocal<XMLValidator> validators = new ThreadLocal<XMLValidator>() {
+		protected XMLValidator initialValue() {
+			return validator.copy();
+		}
+	};
+
+	/**
+	 * The SAX event writers of the threads for the validation of the
+	 * records without parsing
+	 */
+	private ThreadLocal<MarcXmlSaxWriter> saxWriters = new ThreadLocal<MarcXmlSaxWriter>() {
+		protected MarcXmlSaxWriter initialValue() {
+			return new MarcXmlSaxWriter();
+		}
+	};
+
+	/** Flag to validate the records from SAX events */
+	protected boolean eventValidation = false;
+
+	/**
+	 * Flag to check the records with the {@link MarcStructureValidator},
+	 * and validate against the schema only the suspicious ones
+	 */
+	protected boolean nativeValidation = false;
+
+	/**
+	 * Validate every Nth record against the schema even if the
+	 * {@link MarcStructureValidator} accepts it. 0 means never.
+	 */
+	protected int xsdSampleRate = 0;
+
+	/** The number of records accepted by the native validation */
+	private AtomicLong nativeCounter = new AtomicLong();
+
 	/** Flag to indent XML */
 	protected boolean doIndentXml;
 	
@@ -87,6 +131,9 @@ public class BasicRecordImporter {
      */
     private int trackedOaiIdValue;
 
+	/** The checkpoint journal of the load, or null */
+	protected ImportJournal journal = null;
+
 	/**
 	 * The duration of checking whether the record is existent.
 	 */
@@ -104,6 +151,60 @@ public class BasicRecordImporter {
 	 */
 	public BasicRecordImporter(String schemaFile) {
 		validator = new XMLValidator(schemaFile);
+		validators.set(validator);
+	}
+
+	/**
+	 * Get the validator of the current thread.
+	 * @return The validator
+	 */
+	protected XMLValidator getValidator() {
+		return validators.get();
+	}
+
+	/**
+	 * Validate the MARCXML of the record against the schema. If
+	 * {@link #nativeValidation} is set, the record is checked by the
+	 * {@link MarcStructureValidator} first, and it goes to the schema only
+	 * if the check fails, or if it is the sample of every
+	 * {@link #xsdSampleRate}th record. If
+	 * {@link #eventValidation} is set, the record goes to the validator as
+	 * SAX events, without creating and parsing its XML. The XML is validated
+	 * only if the events are invalid, or can not represent it, so the
+	 * exception has the same message, line and column as before.
+	 * @param rec The record
+	 * @throws SAXException The validation error
+	 * @throws IOException
+	 */
+	protected void validate(MARCRecordWrapper rec)
+			throws SAXException, IOException {
+		if(nativeValidation && MarcStructureValidator.isValid(rec.getRecord())
+			&& !isSample())
+		{
+			return;
+		}
+		XMLValidator validator = getValidator();
+		if(eventValidation && null != validator.getValidatorHandler()) {
+			try {
+				if(saxWriters.get().write(rec.getRecord(),
+						validator.getValidatorHandler())) {
+					return;
+				}
+			} catch(SAXException e) {
+				// the text validation reports the error with its location
+			}
+		}
+		validator.validate(rec.getXmlBytes());
+	}
+
+	/**
+	 * Decide whether the record accepted by the native validation should be
+	 * validated against the schema too
+	 * @return true for every {@link #xsdSampleRate}th record
+	 */
+	private boolean isSample() {
+		return xsdSampleRate > 0
+			&& nativeCounter.incrementAndGet() % xsdSampleRate == 0;
 	}
 
 	/**
@@ -121,7 +222,7 @@ public class BasicRecordImporter {
 			+ "load again. \n\tCause: " + message
 		);
                 if (ex instanceof SAXParseException) {
-			error.append(validator.showContext((SAXParseException)ex,
+			error.append(getValidator().showContext((SAXParseException)ex,
 					rec.getXml(), doIndentXml));
                         //error.append("\n The above arrow shows the area location where the error is. \n");
 		}
@@ -256,6 +357,62 @@ public class BasicRecordImporter {
 		this.doIndentXml = doIndentXml;
 	}
 
+	/**
+	 * Decide whether validate the records from SAX events or from their
+	 * MARCXML text
+	 * @param eventValidation True means SAX events
+	 */
+	public void setEventValidation(boolean eventValidation) {
+		this.eventValidation = eventValidation;
+	}
+
+	/**
+	 * Decide whether check the records natively, and validate against the
+	 * schema only the suspicious ones
+	 * @param nativeValidation True means native check
+	 */
+	public void setNativeValidation(boolean nativeValidation) {
+		this.nativeValidation = nativeValidation;
+	}
+
+	/**
+	 * Set how often a record accepted by the native check should be
+	 * validated against the schema
+	 * @param xsdSampleRate Every Nth record, 0 means never
+	 */
+	public void setXsdSampleRate(int xsdSampleRate) {
+		this.xsdSampleRate = xsdSampleRate;
+	}
+
+	/**
+	 * Set the journal, which records the durable points of the load
+	 * @param journal The journal, or null
+	 */
+	public void setJournal(ImportJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * Count a stored record of the current file in the journal
+	 */
+	protected void recordStored() {
+		if(journal != null) {
+			journal.recordStored();
+		}
+	}
+
+	/**
+	 * Record a durable point of the load in the journal. Should be called
+	 * after the stored records were committed.
+	 * @param trackedOaiIdValue The last tracked OAI ID number
+	 * @param generation The generation of the commit
+	 */
+	protected void checkpoint(int trackedOaiIdValue, long generation) {
+		if(journal != null) {
+			journal.checkpoint(trackedOaiIdValue, generation);
+		}
+	}
+
     public void setDefaultRepositoryCode(String defaultRepositoryCode) {
     	this.defaultRepositoryCode = defaultRepositoryCode;
     }
@@ -11,6 +11,7 @@ package info.extensiblecatalog.OAIToolkit.importer.importers;
 
 import java.util.List;
 
+import info.extensiblecatalog.OAIToolkit.importer.ImportJournal;
 import info.extensiblecatalog.OAIToolkit.importer.ImporterConstants.ImportType;
 
 import org.marc4j.marc.Record;
@@ -51,6 +52,27 @@ public interface IImporter {
 	 * MARCXML record
 	 */
 	public void setDoIndentXml(boolean doIndentXml);
+
+	/**
+	 * Decide whether validate the records from SAX events, without
+	 * creating and parsing their MARCXML
+	 * @param eventValidation True means SAX events, false means the text
+	 */
+	public void setEventValidation(boolean eventValidation);
+
+	/**
+	 * Decide whether check the records against the MARC21slim constraints
+	 * directly, and validate against the schema only the suspicious ones
+	 * @param nativeValidation True means native check, false means schema
+	 */
+	public void setNativeValidation(boolean nativeValidation);
+
+	/**
+	 * Set how often a record accepted by the native check should be
+	 * validated against the schema as well
+	 * @param xsdSampleRate Every Nth record, 0 means never
+	 */
+	public void setXsdSampleRate(int xsdSampleRate);
 	
 	/**
 	 * Value to use in absence of a repository code defined in 003
@@ -76,6 +98,13 @@ public interface IImporter {
 	 * Commit changes in the database
 	 */
 	public void commit();
+
+	/**
+	 * Set the journal, which records the durable points of the load at the
+	 * commits
+	 * @param journal The journal, or null
+	 */
+	public void setJournal(ImportJournal journal);
 	
 	/**
 	 * Write out bad record into a "bad records file"
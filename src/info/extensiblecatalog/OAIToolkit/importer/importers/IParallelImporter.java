@@ -0,0 +1,40 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package info.extensiblecatalog.OAIToolkit.importer.importers;
+
+import java.util.List;
+
+import info.extensiblecatalog.OAIToolkit.importer.ImporterConstants.ImportType;
+
+import org.marc4j.marc.Record;
+
+/**
+ * Record importer, which splits the import of a record into two steps: the
+ * preparation (wrapping, serialization and validation) can run in parallel
+ * threads, while the records are stored one by one.
+ */
+public interface IParallelImporter extends IImporter {
+
+	/**
+	 * Prepare a MARC record for import. This method is thread safe.
+	 * @param record The MARC record to import
+	 * @param doFileOfDeletedRecords Flag whether the records are deleted
+	 * @return The prepared record
+	 */
+	public PreparedRecord prepareRecord(Record record, boolean doFileOfDeletedRecords);
+
+	/**
+	 * Import one prepared record. The records should be imported in the
+	 * order of the file, because this step assigns the OAI identifiers.
+	 * @param prepared The prepared record
+	 * @return Information about the record and the success
+	 */
+	public List<ImportType> importPreparedRecord(PreparedRecord prepared);
+}
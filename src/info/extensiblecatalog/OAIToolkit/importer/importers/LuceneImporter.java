@@ -9,11 +9,17 @@
 
 package info.extensiblecatalog.OAIToolkit.importer.importers;
 
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.HashMap;
+
+import javax.xml.transform.TransformerException;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
@@ -30,8 +36,12 @@ import info.extensiblecatalog.OAIToolkit.DTOs.XmlDTO;
 import info.extensiblecatalog.OAIToolkit.DTOs.TrackingOaiIdNumberDTO;
 import info.extensiblecatalog.OAIToolkit.db.managers.TrackingOaiIdNumberMgr;
 import info.extensiblecatalog.OAIToolkit.db.LuceneIndexMgr;
+import info.extensiblecatalog.OAIToolkit.db.LuceneKeyIndex;
+import info.extensiblecatalog.OAIToolkit.db.LuceneMergeManager;
 import info.extensiblecatalog.OAIToolkit.importer.MARCRecordWrapper;
 import info.extensiblecatalog.OAIToolkit.importer.ImporterConstants.ImportType;
+import info.extensiblecatalog.OAIToolkit.oai.PayloadRenderer;
+import info.extensiblecatalog.OAIToolkit.utils.BloomFilter;
 import info.extensiblecatalog.OAIToolkit.utils.MilliSecFormatter;
 import info.extensiblecatalog.OAIToolkit.utils.XcOaiIdConfigUtil;
 
@@ -40,7 +50,7 @@ import info.extensiblecatalog.OAIToolkit.utils.XcOaiIdConfigUtil;
  * @author Király Péter pkiraly@tesuji.eu
  */
 public class LuceneImporter extends BasicRecordImporter
-		implements IImporter {
+		implements IParallelImporter {
 
 	/**
 	 * The Lucene index manager
@@ -68,13 +78,58 @@ public class LuceneImporter extends BasicRecordImporter
     private String oaiIdRepositoryIdentifier;
     
     /**
-	 * The cached IDs and oaiids of records encountered during this import pass
+	 * The primary key index: the XC ID, digest and deleted status of the
+	 * stored records by their keys
+	 */
+	private LuceneKeyIndex keys;
+
+	/**
+	 * How many records to store before committing index. The records of
+	 * this pass are visible to the searcher without commits.
+	 */
+	private static int COMMIT_RECORDS_COUNT = 100000;
+
+	/**
+	 * The expected number of records of a bulk load, the size of the
+	 * Bloom filter
+	 */
+	private static int BULK_EXPECTED_RECORDS = 16 * 1024 * 1024;
+
+	/**
+	 * Bulk mode: the index was empty when the importer was created, so only
+	 * the records seen during this load can exist in it, and the index is
+	 * not searched for the new records.
+	 */
+	private boolean bulk = false;
+
+	/**
+	 * The IDs seen during a bulk load (only in bulk mode). The Bloom filter
+	 * answers for most of the new IDs, the exact set for the rest.
+	 */
+	private BloomFilter seenIdFilter;
+	private Set<String> seenIds;
+
+	/**
+	 * The new versions of the records stored more than once during a bulk
+	 * load. The old versions are deleted in one pass before the next commit,
+	 * and then these documents are added.
+	 */
+	private LinkedHashMap<String, Document> pendingDocs;
+
+	/**
+	 * Renders the OAI payloads of the configured metadata formats, which
+	 * are stored with the records (null: no payloads are stored)
 	 */
-	private static HashMap<String, Document> cachedDocs;
+	private PayloadRenderer payloadRenderer;
+
 	/**
-	 * How many documents to cache before committing index
+	 * The digester of the content digests, which cover the signature of the
+	 * payload rendering (null: no payloads are stored)
 	 */
-	private static int CACHED_DOCS_COUNT = 100000;
+	private MessageDigest payloadDigester;
+
+	/** The signature of the payload rendering */
+	private String payloadSignature;
 
 	/**
 	 * Creates a new importer, which creates Lucene index
@@ -83,10 +138,29 @@ public class LuceneImporter extends BasicRecordImporter
 	 * @param luceneIndexDir The location of Lucene index directory
 	 */
 	public LuceneImporter(String schemaFile, String luceneIndexDir) {
+		this(schemaFile, luceneIndexDir, 1);
+	}
+
+	/**
+	 * Creates a new importer, which creates a sharded Lucene index
+	 * @param schemaFile Name of XML schema file (.xsd). The validator use
+	 * this file to decide whether the record is valid or not.
+	 * @param luceneIndexDir The location of Lucene index directory
+	 * @param shards The number of shards of a new index. An existing index
+	 * keeps its number of shards.
+	 */
+	public LuceneImporter(String schemaFile, String luceneIndexDir,
+			int shards) {
 		super(schemaFile);
-		luceneMgr = new LuceneIndexMgr(luceneIndexDir);
-		long start = System.currentTimeMillis();
-		cachedDocs = new HashMap<String, Document>();
+		luceneMgr = new LuceneIndexMgr(luceneIndexDir, shards);
+		if(luceneMgr.numDocs() == 0) {
+			bulk = true;
+			seenIdFilter = new BloomFilter(BULK_EXPECTED_RECORDS);
+			seenIds = new HashSet<String>();
+			pendingDocs = new LinkedHashMap<String, Document>();
+			prglog.info("[PRG] The Lucene index is empty: bulk load mode.");
+		}
+		keys = luceneMgr.openKeyIndex();
 	}
 
 	/**
@@ -97,6 +171,50 @@ public class LuceneImporter extends BasicRecordImporter
 	 * @param record The marc record to insert
 	 */
 	public List<ImportType> importRecord(Record record, boolean doFileOfDeletedRecords) {
+		return importPreparedRecord(prepareRecord(record, doFileOfDeletedRecords));
+	}
+
+	/**
+	 * Wrap the record, create its MARCXML and validate it. This method does
+	 * not touch the index, so it can be called from more threads.
+	 *
+	 * @param record The marc record to insert
+	 */
+	public PreparedRecord prepareRecord(Record record, boolean doFileOfDeletedRecords) {
+		MARCRecordWrapper rec = new MARCRecordWrapper(record, currentFile, createXml11, doFileOfDeletedRecords);
+		rec.setDoIndentXml(doIndentXml);
+        rec.setDoFileOfDeletedRecords(doFileOfDeletedRecords);
+		PreparedRecord prepared = new PreparedRecord(record, rec);
+		if(rec.getId() == null) {
+                        prglog.error("[PRG] The record hasn't got identifier (field 001)");
+			prepared.setValid(false);
+			return prepared;
+		}
+
+		// validation
+		try {
+			validate(rec);
+		} catch (Exception ex) {
+			libloadlog.error(printError(ex, rec));
+                        prglog.error(printError(ex, rec));
+			prepared.setValid(false);
+			return prepared;
+		}
+
+		// calculate the content digest here, not while the index is locked
+		rec.getDigest();
+		return prepared;
+	}
+
+	/**
+	 * Store a prepared record into the index. First inspect, that this record
+	 * has been stored in the database or not. If not, insert it and assign a
+	 * new OAI identifier. If yes update the stored record with the current
+	 * value.
+	 *
+	 * @param prepared The prepared record to insert
+	 */
+	public synchronized List<ImportType> importPreparedRecord(PreparedRecord prepared) {
         String recordType;
         
         // we need to retain these fields when updating
@@ -105,6 +223,7 @@ public class LuceneImporter extends BasicRecordImporter
         List<String> modificationDates = new ArrayList<String>();
         
         recordCounter++;
+        recordStored();
         //prglog.debug("Inside the importRecord of Lucene Importer");
         oaiIdDomainName = XcOaiIdConfigUtil.getOaiIdDomainName();
         oaiIdRepositoryIdentifier = XcOaiIdConfigUtil.getOaiIdRepositoryIdentifier();
@@ -112,23 +231,9 @@ public class LuceneImporter extends BasicRecordImporter
         xcoaiid = "oai:" + oaiIdDomainName + ":" + oaiIdRepositoryIdentifier + "/";
 		List<ImportType> typeList = new ArrayList<ImportType>();
 
-		MARCRecordWrapper rec = new MARCRecordWrapper(record, currentFile, createXml11, doFileOfDeletedRecords);
-		rec.setDoIndentXml(doIndentXml);
-        rec.setDoFileOfDeletedRecords(doFileOfDeletedRecords);
+		MARCRecordWrapper rec = prepared.getWrapper();
         lastRecordToImport = rec.getId();
-		if(lastRecordToImport == null) {
-                        prglog.error("[PRG] The record hasn't got identifier (field 001)");
-			typeList.add(ImportType.INVALID);
-			return typeList;
-		}
-
-		// validation
-		try {
-			validator.validate(rec.getXml());
-		} catch (Exception ex) {
-			libloadlog.error(printError(ex, rec));
-                        prglog.error(printError(ex, rec));
-			rec = null;
+		if(!prepared.isValid()) {
 			typeList.add(ImportType.INVALID);
 			return typeList;
 		}
@@ -145,22 +250,28 @@ public class LuceneImporter extends BasicRecordImporter
 		
 		try {
 			long start = System.currentTimeMillis();
+			String digest = getDigest(rec);
 			String id = searchData.getExternalId() + "t" + searchData.getRecordType() + "r" + searchData.getRepositoryCode();
             boolean docTest = true;
 
             //prglog.debug("The id inserted is" + id);
             
-            // if this is an update for a record previously seen during this pass,
-            // then we need to keep track of the oaiid ourself (instead of relying on
-            // the lucene index, since the record hadn't yet been committed).
-            boolean updateThisPass = false;
             boolean isExistent = false;
+            boolean isUnchanged = false;
+            long keyHash = LuceneKeyIndex.hash(searchData.getExternalId(),
+            		searchData.getRecordType().toString(),
+            		searchData.getRepositoryCode());
+            LuceneKeyIndex.Entry key = null;
 
-            if (cachedDocs.containsKey(id)) {
-            	isExistent = true;
-            	updateThisPass = true;
+            if (bulk) {
+            	// only the records of this load can be in the index
+            	isExistent = seenIdFilter.mightContain(id) && seenIds.contains(id);
+            } else if (keys != null) {
+            	// the key index knows the records of the index and of this pass
+            	key = keys.get(keyHash);
+            	isExistent = (key != null);
             } else {
-            	isExistent = luceneMgr.doesExist(id); // check the actual lucene index, too (which is where MOST of our updated records should be)			     
+            	isExistent = luceneMgr.doesExist(id); // the searcher sees the uncommitted records of this pass too
             }
 
             checkTime = System.currentTimeMillis() - start;
@@ -196,14 +307,27 @@ public class LuceneImporter extends BasicRecordImporter
 			} else {
 				Document doc = null;
   
-				if (updateThisPass) {
-					doc = cachedDocs.get(id);
+				if (key != null && key.isUnchanged(digest,
+						data.getIsDeleted().booleanValue())) {
+					// same content: the stored document is not needed
+					typeList.add(ImportType.UNCHANGED);
+					isUnchanged = true;
+				} else if (bulk && pendingDocs.containsKey(id)) {
+					// stored more than once, not yet added to the index
+					doc = pendingDocs.get(id);
 				} else {
-					doc = luceneMgr.getDoc(searchData);
+					doc = luceneMgr.getDocById(id);
 				}
 			
                 if (doc == null) {
-                   prglog.debug("The document is null");
+                   if (!isUnchanged) {
+                      prglog.debug("The document is null");
+                   }
+                   docTest = false;
+                } else if (isUnchanged(doc, digest, data)) {
+                   // same content: keep the document with its modification date
+                   typeList.add(ImportType.UNCHANGED);
+                   isUnchanged = true;
                    docTest = false;
                 }
                
@@ -217,7 +341,9 @@ public class LuceneImporter extends BasicRecordImporter
                        modificationDates.add(flds[i].stringValue());
                    }
 					
-					luceneMgr.delDoc("id", id);
+					if (!bulk) {
+						luceneMgr.delDoc("id", id);
+					}
 					
                     if(rec.isDeleted()) {
                         typeList.add(ImportType.DELETED);
@@ -274,16 +400,30 @@ public class LuceneImporter extends BasicRecordImporter
 	
 				doc.add(luceneMgr.keyword("set",
 						setsToRecord.getSetId().toString()));
-				doc.add(luceneMgr.stored("xml", xml.getXml()));
+				doc.add(luceneMgr.xml(xml.getXml()));
+				if (payloadRenderer != null && !rec.isDeleted()) {
+					addPayloads(doc, xml.getXml(), id);
+				}
+				doc.add(luceneMgr.keyword("digest", digest));
 	
 				start = System.currentTimeMillis();
-				luceneMgr.addDoc(doc);
+				if (bulk && isExistent) {
+					// the old version is deleted with the others before the commit
+					pendingDocs.put(id, doc);
+				} else {
+					luceneMgr.addDoc(doc);
+				}
+				if (bulk) {
+					seenIdFilter.add(id);
+					seenIds.add(id);
+				}
 				insertTime = System.currentTimeMillis() - start;
 				
-            	// cache this doc in case we need it later for an update (same record can get processed twice in a single pass)
-				cachedDocs.put(id, doc);
+				if (keys != null) {
+					putKey(keyHash, xcid, digest, data.getIsDeleted());
+				}
 
-            } else {
+            } else if (!isUnchanged) {
             	// existing record, but not in lucene -
             	// this means it is probably still in the buffer?
             	// ignore it since we can't do anything with it
@@ -303,13 +443,88 @@ public class LuceneImporter extends BasicRecordImporter
 			searchData = null;
             rec = null;
 		}
-		if(recordCounter % CACHED_DOCS_COUNT == 0) {
+		if(recordCounter % COMMIT_RECORDS_COUNT == 0) {
 			commit();
 		}
 		return typeList;
 	}
 
     
+
+	/**
+	 * Put the record into the key index. If the key index can not take it,
+	 * it is not used any more, and it will be rebuilt by the next load.
+	 */
+	private void putKey(long keyHash, String xcid, String digest,
+			Boolean isDeleted) {
+		try {
+			keys.put(keyHash, Integer.parseInt(xcid), digest,
+					isDeleted.booleanValue());
+		} catch (IOException e) {
+			prglog.error("[PRG] " + e.getMessage());
+			keys = null;
+		}
+	}
+
+	/**
+	 * Is the content of the stored document the same as the record's? The
+	 * content digests and the deleted status should be the same. The
+	 * documents stored without digest are always changed.
+	 * @param doc The stored document
+	 * @param digest The content digest of the record (see
+	 * {@link #getDigest(MARCRecordWrapper)})
+	 * @param data The data of the record
+	 * @return True if the document can be left untouched
+	 */
+	private boolean isUnchanged(Document doc, String digest,
+			RecordDTO data) {
+		String storedDigest = doc.get("digest");
+		return storedDigest != null
+			&& storedDigest.equals(digest)
+			&& data.getIsDeleted().toString().equals(doc.get("is_deleted"));
+	}
+
+	/**
+	 * Get the content digest of the document of the record. The stored
+	 * payloads belong to the content, so when payloads are stored, the
+	 * digest covers the signature of the rendering too: after the payload
+	 * formats are changed (or enabled, or disabled), every record is stored
+	 * again, with its new payloads.
+	 * @param rec The record
+	 * @return The digest as 32 hexadecimal digits
+	 * @throws IOException
+	 */
+	private String getDigest(MARCRecordWrapper rec) throws IOException {
+		if (payloadDigester == null) {
+			return rec.getDigest();
+		}
+		byte[] hash = payloadDigester.digest((rec.getDigest() + " "
+				+ payloadSignature).getBytes("UTF-8"));
+		StringBuilder digest = new StringBuilder(hash.length * 2);
+		for (byte b : hash) {
+			digest.append(Character.forDigit((b >> 4) & 0x0F, 16));
+			digest.append(Character.forDigit(b & 0x0F, 16));
+		}
+		return digest.toString();
+	}
+
+	/**
+	 * Get the OAI ID number following the largest one used in the index
+	 * @return The number
+	 * @throws IOException
+	 */
+	public int getNextOaiIdValue() throws IOException {
+		return luceneMgr.getMaxXcId() + 1;
+	}
+
+	/**
+	 * Get the generation of the last commit of the index
+	 * @return The generation
+	 */
+	public long getCommitGeneration() {
+		return luceneMgr.getCommitGeneration();
+	}
+
     public int getTrackedOaiIdValue() {
         return trackedOaiIdValue;
     }
@@ -320,16 +535,109 @@ public class LuceneImporter extends BasicRecordImporter
     }
     
 
+	/**
+	 * Commit the index, and record the checkpoint in the journal
+	 */
 	public void commit() {
-		cachedDocs = new HashMap<String, Document>(); // I believe this is more efficient than clear()
-		luceneMgr.commit();
+		flushPendingDocs();
+		if(luceneMgr.commit()) {
+			checkpoint(trackedOaiIdValue, luceneMgr.getCommitGeneration());
+		}
+	}
+
+	/**
+	 * Replace the old versions of the records stored more than once during
+	 * a bulk load: delete them in one pass, then add the new versions.
+	 */
+	private void flushPendingDocs() {
+		if(!bulk || pendingDocs.isEmpty()) {
+			return;
+		}
+		luceneMgr.delDocs("id", pendingDocs.keySet());
+		for(Document doc : pendingDocs.values()) {
+			luceneMgr.addDoc(doc);
+		}
+		pendingDocs.clear();
 	}
 	
 	public void optimize() {
+		flushPendingDocs();
 		luceneMgr.optimize();
 		luceneMgr.close();
 	}
 
+	/**
+	 * Set the maximal age of the index searcher after a change
+	 * @param refreshInterval The interval in milliseconds
+	 */
+	public void setRefreshInterval(long refreshInterval) {
+		luceneMgr.setRefreshInterval(refreshInterval);
+	}
+
+	/**
+	 * Set whether the XML of the records should be stored in the index
+	 * instead of the blob store
+	 * @param xmlInIndex True to store the XML in the index
+	 */
+	public void setXmlInIndex(boolean xmlInIndex) {
+		luceneMgr.setXmlInIndex(xmlInIndex);
+	}
+
+	/**
+	 * Set whether the XML stored in the index should be compressed
+	 * @param compressXml True to store the compressed XML
+	 */
+	public void setCompressXml(boolean compressXml) {
+		luceneMgr.setCompressXml(compressXml);
+	}
+
+	/**
+	 * Set the renderer of the OAI payloads stored with the records. The
+	 * records stored with other payloads are stored again even if they are
+	 * not changed.
+	 * @param payloadRenderer The renderer, null to store no payloads
+	 */
+	public void setPayloadRenderer(PayloadRenderer payloadRenderer) {
+		this.payloadRenderer = payloadRenderer;
+		payloadDigester = null;
+		if (payloadRenderer != null) {
+			payloadSignature = payloadRenderer.getSignature();
+			try {
+				payloadDigester = MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				// every Java platform has MD5
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	/**
+	 * Render and add the payloads of the record. If a format can not be
+	 * rendered, the OAI server transforms the record when it is harvested.
+	 * @param doc The document of the record
+	 * @param xml The MARCXML of the record
+	 * @param id The ID of the record
+	 */
+	private void addPayloads(Document doc, String xml, String id) {
+		for (String metadataPrefix : payloadRenderer.getMetadataPrefixes()) {
+			try {
+				doc.add(luceneMgr.payload(metadataPrefix,
+						payloadRenderer.render(xml, metadataPrefix)));
+			} catch (TransformerException e) {
+				prglog.error("[PRG] Unable to render the " + metadataPrefix
+						+ " payload of " + id + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Get the merge manager, which optimizes the index at the end of the load
+	 * @return The merge manager
+	 */
+	public LuceneMergeManager getMergeManager() {
+		return luceneMgr.getMergeManager();
+	}
+
 	public void setCurrentFile(String currentFile) {
 		super.setCurrentFile(currentFile);
 	}
@@ -92,7 +92,7 @@ public class MixedImporter extends BasicRecordImporter
 
 		// validation
 		try {
-			validator.validate(rec.getXml());
+			validate(rec);
 		} catch (Exception ex) {
 			libloadlog.error("[LIB] " + printError(ex, rec));
                         prglog.error("[PRG] " + printError(ex, rec));
@@ -129,7 +129,7 @@ public class MixedImporter extends BasicRecordImporter
 				Document doc = new Document();
 				doc.add(luceneMgr.keyword("id", insertedIds.get(0).toString()));
                 doc.add(luceneMgr.keyword("xc_oaiid", xcoaiid));
-				doc.add(luceneMgr.stored("xml", xml.getXml()));
+				doc.add(luceneMgr.xml(xml.getXml()));
 				luceneMgr.addDoc(doc);
 					
 				insertedIds = null;
@@ -175,7 +175,7 @@ public class MixedImporter extends BasicRecordImporter
 					Document doc = new Document();
 					doc.add(luceneMgr.keyword("id", storedData.getRecordId().toString()));
                     doc.add(luceneMgr.keyword("xc_oaiid", storedData.getXcOaiId().toString()));
-					doc.add(luceneMgr.stored("xml", xml.getXml()));
+					doc.add(luceneMgr.xml(xml.getXml()));
 					luceneMgr.addDoc(doc);
 
                     if(rec.isDeleted()) {
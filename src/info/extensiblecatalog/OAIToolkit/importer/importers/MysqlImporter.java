@@ -55,7 +55,8 @@ public class MysqlImporter extends BasicRecordImporter
 	
 	private static final String[] workflowCreated = {"recordsMgr.insert", 
 			"setsToRecordsMgr.insert", "xmlMgr.insert"};
-	private static final String[] workflowUpdated = {"recordsMgr.updateByExternal", 
+	private static final String[] workflowUpdated = {"xmlMgr.getDigest",
+			"recordsMgr.updateByExternal", 
 			"recordsMgr.updateByExternal", "setsToRecordsMgr.get", 
 			"setsToRecordsMgr.insert", "setsToRecordsMgr.delete", 
 			"setsToRecordsMgr.insert", "xmlMgr.get", "xmlMgr.insert", 
@@ -96,7 +97,7 @@ public class MysqlImporter extends BasicRecordImporter
 		
 		// validation
 		try {
-			validator.validate(rec.getXml());
+			validate(rec);
 		} catch(Exception ex) {
 			prglog.error("[PRG] " + printError(ex, rec));
                         libloadlog.error("[LIB] " + printError(ex, rec));
@@ -109,6 +110,9 @@ public class MysqlImporter extends BasicRecordImporter
         recordType = rec.getRecordTypeAbbreviation();
 		RecordDTO data = createData(rec);
 		XmlDTO xml = new XmlDTO(rec.getXml());
+		if(xmlMgr.hasColumn("digest")) {
+			xml.setDigest(rec.getDigest());
+		}
 		SetToRecordDTO setsToRecord = createSetToRecordDTO(rec);
 		RecordDTO searchData = createSearchData(data);
 
@@ -157,6 +161,25 @@ public class MysqlImporter extends BasicRecordImporter
 				isCreated = false;
 				prglog.debug("[PRG] already stored");
 				RecordDTO storedData = (RecordDTO) list.get(0);
+
+				// compare the content digests instead of the whole xml
+				String storedDigest = null;
+				if(storedData != null && xml.getDigest() != null) {
+					storedDigest = xmlMgr.getDigest(storedData.getRecordId());
+					lastSuccessfullSQL = "xmlMgr.getDigest";
+				}
+				if(storedDigest != null && storedDigest.equals(xml.getDigest())
+					&& data.getIsDeleted().equals(storedData.getIsDeleted()))
+				{
+					prglog.debug("[PRG] unchanged");
+					data = null;
+					setsToRecord = null;
+					searchData = null;
+					rec = null;
+					typeList.add(ImportType.UNCHANGED);
+					return typeList;
+				}
+
 				if(storedData == null || !storedData.equalData(data)) {
 					//logger.debug("difference: " + storedData.difference(data));
 					prglog.debug("[PRG] updateByExternal data");
@@ -189,22 +212,33 @@ public class MysqlImporter extends BasicRecordImporter
 					
 					// refresh the xml
 					XmlDTO xmlSearch = new XmlDTO(storedData.getRecordId());
-					List xmlList = xmlMgr.get(xmlSearch);
-					lastSuccessfullSQL = "xmlMgr.get";
-					xmlSearch = null;
-					if(xmlList == null || xmlList.size() == 0) {
+					if(storedDigest != null) {
+						// the digests differ, the stored xml is not needed
 						xml.setRecordId(storedData.getRecordId());
-						xmlMgr.insert(xml);
-						lastSuccessfullSQL = "xmlMgr.insert";
+						xmlMgr.update(xml, xmlSearch);
+						lastSuccessfullSQL = "xmlMgr.update";
+						xml = null;
 					} else {
-						XmlDTO xmlStored = (XmlDTO)xmlList.get(0);
-						if(!xmlStored.getXml().equals(xml.getXml())){
+						List xmlList = xmlMgr.get(xmlSearch);
+						lastSuccessfullSQL = "xmlMgr.get";
+						xmlSearch = null;
+						if(xmlList == null || xmlList.size() == 0) {
 							xml.setRecordId(storedData.getRecordId());
-							xmlMgr.update(xml, xmlStored);
-							lastSuccessfullSQL = "xmlMgr.update";
+							xmlMgr.insert(xml);
+							lastSuccessfullSQL = "xmlMgr.insert";
+						} else {
+							XmlDTO xmlStored = (XmlDTO)xmlList.get(0);
+							// the xml stored without digest gets its digest
+							if(!xmlStored.getXml().equals(xml.getXml())
+								|| xml.getDigest() != null)
+							{
+								xml.setRecordId(storedData.getRecordId());
+								xmlMgr.update(xml, xmlStored);
+								lastSuccessfullSQL = "xmlMgr.update";
+							}
+							xmlStored = null;
+							xml = null;
 						}
-						xmlStored = null;
-						xml = null;
 					}
 
                     if(rec.isDeleted()) {
@@ -0,0 +1,57 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package info.extensiblecatalog.OAIToolkit.importer.importers;
+
+import info.extensiblecatalog.OAIToolkit.importer.MARCRecordWrapper;
+
+import org.marc4j.marc.Record;
+
+/**
+ * A MARC record which is wrapped, serialized and validated by
+ * {@link IParallelImporter#prepareRecord(Record, boolean)}, and waits for
+ * being stored.
+ */
+public class PreparedRecord {
+
+	/** The MARC record */
+	private final Record record;
+
+	/** The wrapper of the record, which holds the MARCXML */
+	private final MARCRecordWrapper wrapper;
+
+	/** Is the record valid? */
+	private boolean valid = true;
+
+	/**
+	 * Create a new prepared record
+	 * @param record The MARC record
+	 * @param wrapper The wrapper of the record
+	 */
+	public PreparedRecord(Record record, MARCRecordWrapper wrapper) {
+		this.record = record;
+		this.wrapper = wrapper;
+	}
+
+	public Record getRecord() {
+		return record;
+	}
+
+	public MARCRecordWrapper getWrapper() {
+		return wrapper;
+	}
+
+	public boolean isValid() {
+		return valid;
+	}
+
+	public void setValid(boolean valid) {
+		this.valid = valid;
+	}
+}
@@ -12,7 +12,8 @@ package info.extensiblecatalog.OAIToolkit.importer.statistics;
 import info.extensiblecatalog.OAIToolkit.utils.MilliSecFormatter;
 
 /** 
- * Simple statistics class to count converted and invalid MARC records
+ * Simple statistics class to count converted and invalid MARC records.
+ * The counters can be updated from more threads.
  * @author Király Péter
  */
 public class ConversionStatistics {
@@ -48,7 +49,7 @@ public class ConversionStatistics {
 	 * Add another statistics object's values to the current values
 	 * @param otherStat The other statistics object
 	 */
-	public void add(ConversionStatistics otherStat) {
+	public synchronized void add(ConversionStatistics otherStat) {
 		this.converted += otherStat.getConverted();
 		this.invalid   += otherStat.getInvalid();
 	}
@@ -83,7 +84,7 @@ public class ConversionStatistics {
 	 * Get {@link #converted}, the number of converted records
 	 * @return {@link #converted}
 	 */
-	public int getConverted() {
+	public synchronized int getConverted() {
 		return converted;
 	}
 
@@ -91,7 +92,7 @@ public class ConversionStatistics {
 	 * Set {@link #converted}, the number of converted records
 	 * @param converted The number of converted records
 	 */
-	public void setConverted(int converted) {
+	public synchronized void setConverted(int converted) {
 		this.converted = converted;
 	}
 
@@ -99,14 +100,14 @@ public class ConversionStatistics {
 	 * Add the number of converted records to the current value
 	 * @param converted
 	 */
-	public void addConverted(int converted) {
+	public synchronized void addConverted(int converted) {
 		this.converted += converted;
 	}
 
 	/**
 	 * Add one more converted record
 	 */
-	public void addConverted() {
+	public synchronized void addConverted() {
 		this.converted += 1;
 	}
 
@@ -114,7 +115,7 @@ public class ConversionStatistics {
 	 * Get the number of invalid records
 	 * @return The number of invalid records
 	 */
-	public int getInvalid() {
+	public synchronized int getInvalid() {
 		return invalid;
 	}
 
@@ -122,7 +123,7 @@ public class ConversionStatistics {
 	 * Set the number of invalid records
 	 * @param invalid The number of invalid records
 	 */
-	public void setInvalid(int invalid) {
+	public synchronized void setInvalid(int invalid) {
 		this.invalid = invalid;
 	}
 
@@ -130,14 +131,14 @@ public class ConversionStatistics {
 	 * Increase the number invalid by a given number
 	 * @param invalid The addition
 	 */
-	public void addInvalid(int invalid) {
+	public synchronized void addInvalid(int invalid) {
 		this.invalid += invalid;
 	}
 
 	/**
 	 * Increase the number invalid records by 1
 	 */
-	public void addInvalid() {
+	public synchronized void addInvalid() {
 		this.invalid += 1;
 	}
 	
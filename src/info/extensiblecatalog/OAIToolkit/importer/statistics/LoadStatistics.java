@@ -31,6 +31,10 @@ public class LoadStatistics {
 	/** The number of skipped MARC records (they have existed already) */
 	private int skipped;
 
+	/** The number of unchanged MARC records (they have existed already
+	 * with the same content digest, and they were not touched) */
+	private int unchanged;
+
 	/** The number of invalid, not converted MARC records */
 	private int invalid;
 
@@ -184,6 +188,8 @@ public class LoadStatistics {
 			updated++;
 		} else if(importType == ImportType.SKIPPED) {
 			skipped++;
+		} else if(importType == ImportType.UNCHANGED) {
+			unchanged++;
 		} else if(importType == ImportType.INVALID) {
 			invalid++;
 		} else if(importType == ImportType.DELETED) {
@@ -244,6 +250,7 @@ public class LoadStatistics {
 			other.getCheckTime(),
 			other.getInsertTime()
 		);
+		addUnchanged(other.getUnchanged());
 	}
 
 	/**
@@ -270,6 +277,14 @@ public class LoadStatistics {
 		this.skipped += skipped;
 	}
 	
+	/**
+	 * Increase the number of unchanged records
+	 * @param unchanged
+	 */
+	public void addUnchanged(int unchanged) {
+		this.unchanged += unchanged;
+	}
+	
 	/**
 	 * Increase the number of invalid records
 	 * @param invalid
@@ -296,6 +311,7 @@ public class LoadStatistics {
 		sb.append("created ").append(getCreated()); 
 		sb.append(", updated: ").append(getUpdated());
 		sb.append(", skipped: ").append(getSkipped());
+		sb.append(", unchanged: ").append(getUnchanged());
 		sb.append(", invalid: ").append(getInvalid());
 		sb.append(", deleted: ").append(getDeleted()); 
 		sb.append(", bib: ").append(getBibliographic());
@@ -356,6 +372,22 @@ public class LoadStatistics {
 		this.skipped = skipped;
 	}
 
+	/**
+	 * Get the number of unchanged records
+	 * @return
+	 */
+	public int getUnchanged() {
+		return unchanged;
+	}
+
+	/**
+	 * Set the number of unchanged records
+	 * @param unchanged
+	 */
+	public void setUnchanged(int unchanged) {
+		this.unchanged = unchanged;
+	}
+
 	/**
 	 * Get the number of updated records
 	 * @return
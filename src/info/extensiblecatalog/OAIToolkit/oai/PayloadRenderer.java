@@ -0,0 +1,326 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package info.extensiblecatalog.OAIToolkit.oai;
+
+import info.extensiblecatalog.OAIToolkit.utils.Logging;
+import info.extensiblecatalog.OAIToolkit.utils.XsltTransformator;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.UnsupportedEncodingException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Renders the metadata part of the OAI record from the stored MARCXML, the
+ * same way for the OAI server ({@link info.extensiblecatalog.OAIToolkit.api.Facade})
+ * and for the importer, which can store the rendered payloads of the
+ * configured metadata formats with the record:
+ * <ul>
+ *   <li>marc21 (and marcxml): the XML declaration and the collection
+ *   element are removed, the elements get the marc: prefix, and the record
+ *   element the namespace declarations</li>
+ *   <li>the other formats: the marc21 payload is transformed with the XSLT
+ *   file of the format</li>
+ * </ul>
+ * The XML declaration is removed from the result.
+ *
+ * An instance is not thread safe, because of its XSLT transformators.
+ *
+ * @author Peter Kiraly
+ */
+public class PayloadRenderer {
+
+	private static String programmer_log = "programmer";
+	private static final Logger prglog = Logging.getLogger(programmer_log);
+
+	/** The default MARC21 schema URL */
+	public static final String DEFAULT_SCHEMA_URL =
+		"http://www.loc.gov/standards/marcxml/schema/MARC21slim.xsd";
+
+	/**
+	 * The beginning of the standard MARCXML schema and namespace
+	 * declaration, followed by the schema URL
+	 */
+	private static final String NS_DECL_BEGINING =
+		"<record xmlns:marc=\"http://www.loc.gov/MARC21/slim\" "
+		+ " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\""
+		+ " xsi:schemaLocation=\"http://www.loc.gov/MARC21/slim ";
+
+	/** The namespace declaration of the record element */
+	private String nsDecl;
+
+	/** The XSLT transformators of the formats, null for MARC formats */
+	private Map<String, XsltTransformator> formats =
+		new LinkedHashMap<String, XsltTransformator>();
+
+	/**
+	 * Create a renderer
+	 * @param schemaUrl The MARC21 schema URL of the records
+	 */
+	public PayloadRenderer(String schemaUrl) {
+		this.nsDecl = getNsDecl(schemaUrl);
+	}
+
+	/**
+	 * Add a metadata format to render
+	 * @param metadataPrefix The metadata prefix of the format
+	 * @param xsltFile The XSLT file of the format, null for the MARC formats
+	 * @throws FileNotFoundException
+	 * @throws TransformerConfigurationException
+	 */
+	public void addFormat(String metadataPrefix, File xsltFile)
+			throws FileNotFoundException, TransformerConfigurationException {
+		formats.put(metadataPrefix,
+				xsltFile == null ? null : new XsltTransformator(xsltFile));
+	}
+
+	/**
+	 * Add the metadata formats by their prefixes. The XSLT files of the
+	 * formats come from the metadata formats configuration.
+	 * @param metadataPrefixes The metadata prefixes
+	 * @param metadataFormats The configured formats
+	 * @param xsltDir The directory of the XSLT files
+	 * @throws Exception If a format or its XSLT file is unknown
+	 */
+	public void addFormats(String[] metadataPrefixes,
+			MetadataFormats metadataFormats, File xsltDir) throws Exception {
+		for(String prefix : metadataPrefixes) {
+			prefix = prefix.trim();
+			if(prefix.length() == 0) {
+				continue;
+			}
+			MetadataFormat format = metadataFormats.getMetadataFormat(prefix);
+			if(format == null) {
+				throw new Exception("Unknown metadata prefix: " + prefix);
+			}
+			if(format.getXsltFileName() == null) {
+				addFormat(prefix, null);
+			} else {
+				addFormat(prefix, new File(xsltDir, format.getXsltFileName()));
+			}
+			prglog.info("[PRG] Rendering the " + prefix + " payloads.");
+		}
+	}
+
+	/**
+	 * Get the metadata prefixes of the formats
+	 * @return The prefixes
+	 */
+	public Set<String> getMetadataPrefixes() {
+		return formats.keySet();
+	}
+
+	/**
+	 * Get the signature of the rendering: the namespace declaration and the
+	 * metadata prefixes. The payloads of a record rendered with the same
+	 * signature are the same (while the XSLT files are not changed).
+	 * @return The signature
+	 */
+	public String getSignature() {
+		StringBuilder signature = new StringBuilder(nsDecl);
+		for(String prefix : new TreeSet<String>(formats.keySet())) {
+			signature.append(' ').append(prefix);
+		}
+		return signature.toString();
+	}
+
+	/**
+	 * Render the payload of a record
+	 * @param xml The MARCXML of the record
+	 * @param metadataPrefix The metadata prefix of the format
+	 * @return The payload
+	 * @throws TransformerException
+	 */
+	public String render(String xml, String metadataPrefix)
+			throws TransformerException {
+		String content = toMarc21(xml, nsDecl);
+		XsltTransformator transformator = formats.get(metadataPrefix);
+		if(transformator != null) {
+			content = transformator.transform(content);
+		}
+		return stripXmlDeclaration(content);
+	}
+
+	/**
+	 * Get the namespace declaration of the record element
+	 * @param schemaUrl The MARC21 schema URL
+	 * @return The beginning of the record element with the declarations
+	 */
+	public static String getNsDecl(String schemaUrl) {
+		return NS_DECL_BEGINING + schemaUrl + "\"";
+	}
+
+	/**
+	 * Create the marc21 payload: remove the XML declaration and the
+	 * collection element, add the marc: prefix to the elements and the
+	 * namespace declarations to the record element.
+	 * @param xml The MARCXML of the record
+	 * @param nsDecl The namespace declaration ({@link #getNsDecl(String)})
+	 * @return The payload
+	 */
+	public static String toMarc21(String xml, String nsDecl) {
+		StringBuffer out = new StringBuffer(xml.length() + nsDecl.length()
+				+ xml.length() / 8);
+		appendMarc21(xml, nsDecl, out);
+		return out.toString();
+	}
+
+	/**
+	 * Write the marc21 payload (see {@link #toMarc21(String, String)}) to
+	 * the end of a buffer, reading the MARCXML only once. The result is
+	 * the same as the earlier chain of regular expressions (the
+	 * XML declaration and the collection start tag with attributes are
+	 * removed, &lt;/collection&gt; is removed, &lt;record is replaced by
+	 * the namespace declaration, then every tag gets the marc: prefix) for
+	 * any well-formed MARCXML.
+	 * @param xml The MARCXML of the record
+	 * @param nsDecl The namespace declaration ({@link #getNsDecl(String)})
+	 * @param out The buffer
+	 */
+	public static void appendMarc21(String xml, String nsDecl,
+			StringBuffer out) {
+		int length = xml.length();
+		int i = 0;
+		while(i < length) {
+			int lt = xml.indexOf('<', i);
+			if(lt == -1) {
+				out.append(xml, i, length);
+				break;
+			}
+			out.append(xml, i, lt);
+			i = lt;
+			if(xml.startsWith("<?xml ", i)) {
+				int end = skipTag(xml, i, 6);
+				if(end != -1 && end - 1 > i + 6 && xml.charAt(end - 1) == '?') {
+					i = end + 1;
+					continue;
+				}
+			} else if(xml.startsWith("<collection", i)) {
+				int end = skipTag(xml, i, 11);
+				if(end != -1 && end > i + 11) {
+					i = end + 1;
+					continue;
+				}
+			} else if(xml.startsWith("</collection>", i)) {
+				i += 13;
+				continue;
+			} else if(xml.startsWith("<record", i)) {
+				out.append("<marc:").append(nsDecl, 1, nsDecl.length());
+				i += 7;
+				continue;
+			}
+			if(i + 1 == length) {
+				out.append('<');
+				i++;
+			} else if(xml.charAt(i + 1) == '/') {
+				out.append("</marc:");
+				i += 2;
+			} else {
+				out.append("<marc:").append(xml.charAt(i + 1));
+				i += 2;
+			}
+		}
+	}
+
+	/**
+	 * Find the end of a tag
+	 * @param xml The XML
+	 * @param start The start of the tag
+	 * @param offset The length of the tag's known beginning
+	 * @return The position of the closing &gt;, or -1 if a &lt; or the end
+	 * of the XML comes first
+	 */
+	private static int skipTag(String xml, int start, int offset) {
+		for(int i = start + offset; i < xml.length(); i++) {
+			char c = xml.charAt(i);
+			if(c == '>') {
+				return i;
+			} else if(c == '<') {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Remove the XML declaration
+	 * @param content The XML
+	 * @return The XML without declaration
+	 */
+	public static String stripXmlDeclaration(String content) {
+		return content.replaceAll("<\\?xml[^<>]*>", "");
+	}
+
+	/**
+	 * Is the metadata prefix a MARC format, served without transformation?
+	 * @param metadataPrefix The metadata prefix
+	 * @return True for marc21 and marcxml
+	 */
+	public static boolean isMarc(String metadataPrefix) {
+		return "marc21".equals(metadataPrefix)
+			|| "marcxml".equals(metadataPrefix);
+	}
+
+	/**
+	 * Was the marc21 payload rendered with the namespace declaration?
+	 * (The schema URL of the server may differ from the importer's.)
+	 * @param payload The payload
+	 * @param nsDecl The namespace declaration ({@link #getNsDecl(String)})
+	 * @return True if the payload starts with the declaration
+	 */
+	public static boolean hasNsDecl(String payload, String nsDecl) {
+		int start = 0;
+		while(start < payload.length()
+			&& Character.isWhitespace(payload.charAt(start)))
+		{
+			start++;
+		}
+		return payload.startsWith("<marc:" + nsDecl.substring(1), start);
+	}
+
+	/**
+	 * Was the marc21 payload rendered with the namespace declaration?
+	 * (See {@link #hasNsDecl(String, String)}.)
+	 * @param payload The UTF-8 bytes of the payload
+	 * @param nsDecl The namespace declaration ({@link #getNsDecl(String)})
+	 * @return True if the payload starts with the declaration
+	 */
+	public static boolean hasNsDecl(byte[] payload, String nsDecl) {
+		int start = 0;
+		while(start < payload.length
+			&& Character.isWhitespace((char)payload[start]))
+		{
+			start++;
+		}
+		byte[] prefix;
+		try {
+			prefix = ("<marc:" + nsDecl.substring(1)).getBytes("UTF-8");
+		} catch(UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+		if(payload.length - start < prefix.length) {
+			return false;
+		}
+		for(int i = 0; i < prefix.length; i++) {
+			if(payload[start + i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
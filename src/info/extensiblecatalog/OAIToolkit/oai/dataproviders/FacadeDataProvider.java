@@ -53,6 +53,12 @@ public interface FacadeDataProvider {
 
 	/** get the xml of record */
 	public String getXmlOfRecord(Integer recordId, Integer recordType);
+
+	/**
+	 * get the payload of record rendered by the importer (UTF-8 bytes, as
+	 * they are sent), or null
+	 */
+	public byte[] getPayloadOfRecord(Integer recordId, String metadataPrefix);
 	
 	public boolean hasBadResumptionTokenError();
 
@@ -345,6 +345,11 @@ public class LuceneFacadeDataProvider extends BasicFacadeDataProvider
 	public String getXmlOfRecord(Integer recordId, Integer recordType) {
 		return ApplInfo.luceneSearcher.getXmlOfRecord(recordId, recordType);
 	}
+
+	public byte[] getPayloadOfRecord(Integer recordId, String metadataPrefix) {
+		return ApplInfo.luceneSearcher.getPayloadOfRecord(recordId,
+				metadataPrefix);
+	}
 	
 	public int prepareQuery() {
 		if(null != tokenId) {
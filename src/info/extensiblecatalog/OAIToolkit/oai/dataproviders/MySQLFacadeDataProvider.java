@@ -167,6 +167,13 @@ public class MySQLFacadeDataProvider extends BasicFacadeDataProvider
 		return sets;
 	}
 
+	/**
+	 * The payloads are rendered only by the Lucene importer
+	 */
+	public byte[] getPayloadOfRecord(Integer recordId, String metadataPrefix) {
+		return null;
+	}
+
 	public String getXmlOfRecord(Integer recordId, Integer recordType) {
 		String content = null;
 		if(ApplInfo.oaiConf.getStorageType().equals(StorageTypes.MIXED)) {
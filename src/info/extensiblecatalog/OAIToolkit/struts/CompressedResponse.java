@@ -0,0 +1,321 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package info.extensiblecatalog.OAIToolkit.struts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * A response, which is compressed with the content coding accepted by the
+ * client (gzip or deflate). The first bytes are kept until they reach the
+ * minimal size: if the response is shorter, it is sent uncompressed.
+ * Flushing the response flushes the compressed bytes too (sync flush), so
+ * a streamed response reaches the client as it is written.
+ *
+ * With gzip an already compressed gzip member (e.g. a cached page) can be
+ * written into the response without decompressing it (see
+ * {@link #writeGzipMember(File)}).
+ *
+ * {@link #finish()} should be called after the response is written.
+ *
+ * @author Peter Kiraly
+ */
+public class CompressedResponse extends HttpServletResponseWrapper {
+
+	/** The gzip content coding */
+	public static final String GZIP = "gzip";
+
+	/** The deflate (zlib) content coding */
+	public static final String DEFLATE = "deflate";
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private String encoding;
+	private int level;
+	private int minSize;
+
+	private CompressingStream stream;
+	private PrintWriter writer;
+
+	/** Has getOutputStream() been called? */
+	private boolean streamUsed = false;
+
+	/**
+	 * Create a compressed response
+	 * @param response The response
+	 * @param encoding The content coding: {@link #GZIP} or {@link #DEFLATE}
+	 * @param level The compression level (1-9)
+	 * @param minSize The minimal size of a compressed response in bytes
+	 */
+	public CompressedResponse(HttpServletResponse response, String encoding,
+			int level, int minSize) {
+		super(response);
+		this.encoding = encoding;
+		this.level = level;
+		this.minSize = minSize;
+	}
+
+	/**
+	 * Is the content coding implemented?
+	 * @param encoding The content coding
+	 * @return True for {@link #GZIP} and {@link #DEFLATE}
+	 */
+	public static boolean isImplemented(String encoding) {
+		return GZIP.equals(encoding) || DEFLATE.equals(encoding);
+	}
+
+	/**
+	 * Get the content coding of the response
+	 * @return {@link #GZIP} or {@link #DEFLATE}
+	 */
+	public String getEncoding() {
+		return encoding;
+	}
+
+	public ServletOutputStream getOutputStream() throws IOException {
+		if(writer != null) {
+			throw new IllegalStateException("getWriter() has been called.");
+		}
+		streamUsed = true;
+		return getStream();
+	}
+
+	public PrintWriter getWriter() throws IOException {
+		if(writer == null) {
+			if(streamUsed) {
+				throw new IllegalStateException(
+						"getOutputStream() has been called.");
+			}
+			writer = new PrintWriter(new OutputStreamWriter(getStream(),
+					getCharacterEncoding()));
+		}
+		return writer;
+	}
+
+	/**
+	 * The length of the uncompressed content is not sent
+	 */
+	public void setContentLength(int length) {
+	}
+
+	/**
+	 * Flush the response. It sends the headers, so the response is
+	 * compressed from here, even if it remains short.
+	 */
+	public void flushBuffer() throws IOException {
+		if(writer != null) {
+			writer.flush();
+		}
+		getStream().startCompression();
+		stream.flush();
+		super.flushBuffer();
+	}
+
+	public void reset() {
+		super.reset();
+		writer = null;
+		stream = null;
+		streamUsed = false;
+	}
+
+	public void resetBuffer() {
+		super.resetBuffer();
+		writer = null;
+		stream = null;
+		streamUsed = false;
+	}
+
+	/**
+	 * Can an already compressed gzip member be written into the response?
+	 * @return True if the response is compressed with gzip
+	 */
+	public boolean acceptsGzipMember() {
+		return GZIP.equals(encoding);
+	}
+
+	/**
+	 * Write an already compressed gzip member (a whole gzip file) into the
+	 * response. The content written so far is closed as a gzip member, the
+	 * file is copied, and the following content goes to a new member (a
+	 * gzip stream can have more members, see RFC 1952). The writer of the
+	 * response should be flushed before.
+	 * @param file The gzip file
+	 * @return False if the response is not compressed with gzip
+	 * @throws IOException
+	 */
+	public boolean writeGzipMember(File file) throws IOException {
+		if(!acceptsGzipMember()) {
+			return false;
+		}
+		getStream().writeGzipMember(file);
+		return true;
+	}
+
+	/**
+	 * Write the rest of the response
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		if(writer != null) {
+			writer.close();
+		} else if(stream != null) {
+			stream.close();
+		}
+	}
+
+	private CompressingStream getStream() throws IOException {
+		if(stream == null) {
+			stream = new CompressingStream();
+		}
+		return stream;
+	}
+
+	/**
+	 * The output stream of the response
+	 */
+	private class CompressingStream extends ServletOutputStream {
+
+		/** The first bytes, before the compression starts */
+		private ByteArrayOutputStream pending =
+			new ByteArrayOutputStream(minSize);
+
+		/** The compressor, after the compression started */
+		private DeflaterOutputStream compressor;
+
+		/** The compressor's deflater */
+		private Deflater deflater;
+
+		private boolean closed = false;
+
+		public void write(int b) throws IOException {
+			write(new byte[]{(byte)b}, 0, 1);
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			if(closed) {
+				throw new IOException("The response is closed.");
+			}
+			if(compressor != null) {
+				compressor.write(b, off, len);
+			} else {
+				pending.write(b, off, len);
+				if(pending.size() >= minSize) {
+					startCompression();
+				}
+			}
+		}
+
+		/**
+		 * Send the compressed bytes. Before the compression starts, the
+		 * bytes are kept (their size is still unknown).
+		 */
+		public void flush() throws IOException {
+			if(compressor != null) {
+				compressor.flush();
+			}
+		}
+
+		public void close() throws IOException {
+			if(closed) {
+				return;
+			}
+			closed = true;
+			OutputStream out = getResponse().getOutputStream();
+			if(compressor != null) {
+				try {
+					compressor.finish();
+				} finally {
+					deflater.end();
+				}
+			} else {
+				// too short: it is sent uncompressed
+				getResponse().setContentLength(pending.size());
+				pending.writeTo(out);
+			}
+			out.flush();
+		}
+
+		void writeGzipMember(File file) throws IOException {
+			if(compressor == null) {
+				startCompression();
+			}
+			compressor.finish();
+			deflater.end();
+			OutputStream out = getResponse().getOutputStream();
+			InputStream in = new FileInputStream(file);
+			try {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				int length;
+				while((length = in.read(buffer)) != -1) {
+					out.write(buffer, 0, length);
+				}
+			} finally {
+				in.close();
+			}
+			createCompressor();
+		}
+
+		/**
+		 * Start the compression, if it has not started yet
+		 */
+		void startCompression() throws IOException {
+			if(compressor != null || closed) {
+				return;
+			}
+			((HttpServletResponse)getResponse()).setHeader("Content-Encoding",
+					encoding);
+			createCompressor();
+			pending.writeTo(compressor);
+			pending = null;
+		}
+
+		private void createCompressor() throws IOException {
+			OutputStream out = getResponse().getOutputStream();
+			if(GZIP.equals(encoding)) {
+				GzipStream gzip = new GzipStream(out, level);
+				compressor = gzip;
+				deflater = gzip.getDeflater();
+			} else {
+				deflater = new Deflater(level);
+				compressor = new DeflaterOutputStream(out, deflater,
+						BUFFER_SIZE, true);
+			}
+		}
+	}
+
+	/**
+	 * A gzip stream with a given compression level
+	 */
+	private static class GzipStream extends GZIPOutputStream {
+
+		GzipStream(OutputStream out, int level) throws IOException {
+			super(out, BUFFER_SIZE, true);
+			def.setLevel(level);
+		}
+
+		/** The deflater, which should be ended after the member */
+		Deflater getDeflater() {
+			return def;
+		}
+	}
+}
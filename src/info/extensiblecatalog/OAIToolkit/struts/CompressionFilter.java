@@ -0,0 +1,140 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package info.extensiblecatalog.OAIToolkit.struts;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+
+import info.extensiblecatalog.OAIToolkit.configuration.OAIConfiguration;
+import info.extensiblecatalog.OAIToolkit.utils.ApplInfo;
+import info.extensiblecatalog.OAIToolkit.utils.Logging;
+
+/**
+ * Compresses the OAI responses with the content coding (gzip or deflate),
+ * which is accepted by the client (Accept-Encoding header) and which is
+ * listed in the compression parameter of the OAI server (this list is
+ * advertised by the Identify verb). The level and the minimal size of the
+ * compressed responses are set by the compressionLevel and
+ * compressionMinSize parameters.
+ *
+ * @author Peter Kiraly
+ */
+public class CompressionFilter implements Filter {
+
+	/** The programmer's log object */
+	private static String programmer_log = "programmer";
+	private static final Logger prglog = Logging.getLogger(programmer_log);
+
+	public void init(FilterConfig config) throws ServletException {
+	}
+
+	public void destroy() {
+	}
+
+	public void doFilter(ServletRequest request, ServletResponse response,
+			FilterChain chain) throws IOException, ServletException {
+		OAIConfiguration conf = ApplInfo.oaiConf;
+		if(conf == null || !(request instanceof HttpServletRequest)) {
+			chain.doFilter(request, response);
+			return;
+		}
+		HttpServletResponse httpResponse = (HttpServletResponse)response;
+		httpResponse.addHeader("Vary", "Accept-Encoding");
+		String encoding = negotiate(
+				((HttpServletRequest)request).getHeader("Accept-Encoding"),
+				conf.isCompressionSupported(CompressedResponse.GZIP),
+				conf.isCompressionSupported(CompressedResponse.DEFLATE));
+		if(encoding == null) {
+			chain.doFilter(request, response);
+			return;
+		}
+		CompressedResponse compressed = new CompressedResponse(httpResponse,
+				encoding, conf.getCompressionLevel(),
+				conf.getCompressionMinSize());
+		try {
+			chain.doFilter(request, compressed);
+		} finally {
+			// the deflater is ended and the trailer is written even if
+			// the request failed
+			compressed.finish();
+		}
+	}
+
+	/**
+	 * Select the content coding of the response
+	 * @param acceptEncoding The Accept-Encoding header of the request
+	 * @param gzip Is gzip allowed?
+	 * @param deflate Is deflate allowed?
+	 * @return {@link CompressedResponse#GZIP},
+	 * {@link CompressedResponse#DEFLATE}, or null if the response should
+	 * not be compressed
+	 */
+	public static String negotiate(String acceptEncoding, boolean gzip,
+			boolean deflate) {
+		if(acceptEncoding == null) {
+			return null;
+		}
+		double gzipQ = -1;
+		double deflateQ = -1;
+		double anyQ = -1;
+		for(String coding : acceptEncoding.split(",")) {
+			String[] parts = coding.split(";");
+			String name = parts[0].trim().toLowerCase();
+			double q = 1;
+			for(int i = 1; i < parts.length; i++) {
+				String param = parts[i].trim();
+				if(param.startsWith("q=")) {
+					try {
+						q = Double.parseDouble(param.substring(2).trim());
+					} catch(NumberFormatException e) {
+						prglog.warn("[PRG] Invalid Accept-Encoding: "
+								+ acceptEncoding);
+						q = 0;
+					}
+				}
+			}
+			if(name.equals("gzip") || name.equals("x-gzip")) {
+				gzipQ = Math.max(gzipQ, q);
+			} else if(name.equals("deflate")) {
+				deflateQ = Math.max(deflateQ, q);
+			} else if(name.equals("*")) {
+				anyQ = q;
+			}
+		}
+		if(gzipQ < 0) {
+			gzipQ = anyQ;
+		}
+		if(deflateQ < 0) {
+			deflateQ = anyQ;
+		}
+		if(!gzip) {
+			gzipQ = 0;
+		}
+		if(!deflate) {
+			deflateQ = 0;
+		}
+		if(gzipQ > 0 && gzipQ >= deflateQ) {
+			return CompressedResponse.GZIP;
+		} else if(deflateQ > 0) {
+			return CompressedResponse.DEFLATE;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,210 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package info.extensiblecatalog.OAIToolkit.struts;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+
+import info.extensiblecatalog.OAIToolkit.api.Facade;
+import info.extensiblecatalog.OAIToolkit.oai.RecordCacher;
+import info.extensiblecatalog.OAIToolkit.struts.form.OaiRequestForm;
+import info.extensiblecatalog.OAIToolkit.utils.Logging;
+import info.extensiblecatalog.OAIToolkit.utils.Utf8Writer;
+
+/**
+ * Answers the OAI requests like the oai-request action, but it writes the
+ * response directly to the output stream of the servlet. The records of
+ * ListRecords and ListIdentifiers are written as soon as they are
+ * transformed, through a buffer of fixed size, so the client gets the
+ * first record before the whole list is read, and the server does not
+ * hold the whole list in the memory. The other verbs are answered the
+ * same way as by the action.
+ *
+ * The size of the buffer (in bytes) can be set by the bufferSize
+ * init parameter. If the response is compressed by the
+ * {@link CompressionFilter} with gzip, the cached pages are sent as they
+ * were compressed by the cacher.
+ *
+ * @author Peter Kiraly
+ */
+public class OaiStreamingServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	/** The programmer's log object */
+	private static String programmer_log = "programmer";
+	private static final Logger prglog = Logging.getLogger(programmer_log);
+
+	/** The beginning of the response (before the header) */
+	private static final String OAI_PMH_BEGIN =
+		"<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n"
+		+ "<OAI-PMH xmlns=\"http://www.openarchives.org/OAI/2.0/\" \n"
+		+ "\txmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" \n"
+		+ "\txsi:schemaLocation=\"http://www.openarchives.org/OAI/2.0/"
+		+ " http://www.openarchives.org/OAI/2.0/OAI-PMH.xsd\">\n\t";
+
+	/** The end of the response */
+	private static final String OAI_PMH_END = "\n</OAI-PMH>";
+
+	/** The size of the buffer of the response in characters */
+	private int bufferSize = 32 * 1024;
+
+	/**
+	 * Initialization of the servlet. <br>
+	 * @throws ServletException if an error occure
+	 */
+	public void init(ServletConfig cfg) throws ServletException {
+		super.init(cfg);
+		String size = cfg.getInitParameter("bufferSize");
+		if(size != null) {
+			try {
+				bufferSize = Integer.parseInt(size.trim());
+			} catch(NumberFormatException e) {
+				log("Invalid bufferSize: " + size);
+			}
+		}
+	}
+
+	/**
+	 * The doGet method of the servlet. <br>
+	 *
+	 * @param request the request send by the client to the server
+	 * @param response the response send by the server to the client
+	 * @throws ServletException if an error occurred
+	 * @throws IOException if an error occurred
+	 */
+	public void doGet(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		handleRequest(request, response);
+	}
+
+	/**
+	 * The doPost method of the servlet. <br>
+	 *
+	 * @param request the request send by the client to the server
+	 * @param response the response send by the server to the client
+	 * @throws ServletException if an error occurred
+	 * @throws IOException if an error occurred
+	 */
+	public void doPost(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		handleRequest(request, response);
+	}
+
+	/**
+	 * Answer an OAI request
+	 * @param request the request send by the client to the server
+	 * @param response the response send by the server to the client
+	 * @throws IOException if the response can not be written
+	 */
+	private void handleRequest(HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+
+		OaiRequestForm oaiForm = createForm(request);
+		String verb = oaiForm.getVerb();
+		prglog.info("[PRG] verb = " + verb + " (streaming)");
+
+		Facade facade = new Facade(oaiForm);
+		facade.setResponseHeader(request.getRequestURL());
+		if(response instanceof CompressedResponse) {
+			facade.setCompressedResponse((CompressedResponse)response);
+		}
+
+		response.setContentType("text/xml;charset=UTF-8");
+		// the stored payloads are written without encoding them again
+		Writer out = new Utf8Writer(response.getOutputStream(), bufferSize);
+		out.write(OAI_PMH_BEGIN);
+		out.write(oaiForm.getResponseDate());
+		out.write("\n\t");
+		out.write(oaiForm.getRequestUrl());
+		out.write("\n");
+
+		if("ListRecords".equals(verb) || "ListIdentifiers".equals(verb)) {
+			boolean hasMoreResult;
+			if("ListRecords".equals(verb)) {
+				facade.setMarcXMLSchema(getContextUrl(request));
+				hasMoreResult = facade.doListRecords(out);
+			} else {
+				hasMoreResult = facade.doListIdentifiers(out);
+			}
+			if(hasMoreResult && oaiForm.isCacheable()) {
+				Thread recordCacheRunner = new Thread(new RecordCacher(facade));
+				recordCacheRunner.start();
+				prglog.info("[PRG] Thread started");
+			}
+		} else {
+			if("Identify".equals(verb)) {
+				facade.doIdentify();
+			} else if("ListSets".equals(verb)) {
+				facade.doListSets();
+			} else if("ListMetadataFormats".equals(verb)) {
+				facade.doListMetadataFormats();
+			} else if("GetRecord".equals(verb)) {
+				facade.setMarcXMLSchema(getContextUrl(request));
+				facade.doGetRecord();
+				if(oaiForm.isCacheable()) {
+					Thread recordCacheRunner = new Thread(
+							new RecordCacher(facade));
+					recordCacheRunner.start();
+					prglog.info("[PRG] Thread started");
+				}
+			} else {
+				facade.doIllegalVerb();
+			}
+			if(oaiForm.getXml() != null) {
+				out.write(oaiForm.getXml());
+			}
+		}
+
+		out.write(OAI_PMH_END);
+		out.flush();
+	}
+
+	/**
+	 * Create the form of the request, as Struts does for the oai-request
+	 * action
+	 * @param request the request send by the client to the server
+	 * @return The form
+	 */
+	private static OaiRequestForm createForm(HttpServletRequest request) {
+		OaiRequestForm oaiForm = new OaiRequestForm();
+		oaiForm.setVerb(request.getParameter("verb"));
+		oaiForm.setFrom(request.getParameter("from"));
+		oaiForm.setUntil(request.getParameter("until"));
+		oaiForm.setMetadataPrefix(request.getParameter("metadataPrefix"));
+		oaiForm.setSet(request.getParameter("set"));
+		oaiForm.setResumptionToken(request.getParameter("resumptionToken"));
+		oaiForm.setIdentifier(request.getParameter("identifier"));
+		if(request.getParameter("cache") != null) {
+			oaiForm.setCache(request.getParameter("cache"));
+		}
+		return oaiForm;
+	}
+
+	/**
+	 * Get the URL of the web application
+	 * @param request the request send by the client to the server
+	 * @return The URL
+	 */
+	private static String getContextUrl(HttpServletRequest request) {
+		return request.getScheme()
+			+ "://" + request.getServerName()
+			+ ":" +  request.getServerPort()
+			+ request.getContextPath();
+	}
+}
@@ -0,0 +1,117 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package info.extensiblecatalog.OAIToolkit.utils;
+
+import java.util.Arrays;
+
+/**
+ * A Bloom filter of strings. It tells quickly and with little memory that a
+ * string was surely not added to it. If {@link #mightContain(String)}
+ * returns true, the string was added, or it is a false positive, so the
+ * caller should check an exact collection as well.
+ *
+ * The positions of the bits are calculated with double hashing from the
+ * string's hash code and an FNV-1a hash of its characters.
+ *
+ * @author Peter Kiraly
+ */
+public class BloomFilter {
+
+	/** The bits */
+	private long[] bits;
+
+	/** The number of the bits */
+	private int size;
+
+	/** The number of the hash functions */
+	private int hashCount;
+
+	/**
+	 * Create a filter with about 1% false positive rate for the expected
+	 * number of strings
+	 * @param expectedCount The expected number of strings
+	 */
+	public BloomFilter(int expectedCount) {
+		this(expectedCount, 10, 7);
+	}
+
+	/**
+	 * Create a filter
+	 * @param expectedCount The expected number of strings
+	 * @param bitsPerString The number of bits per string
+	 * @param hashCount The number of the hash functions
+	 */
+	public BloomFilter(int expectedCount, int bitsPerString, int hashCount) {
+		long wanted = Math.max(64L, (long)expectedCount * bitsPerString);
+		int words = (int)Math.min((wanted + 63) / 64, Integer.MAX_VALUE / 64);
+		this.bits = new long[words];
+		this.size = words * 64;
+		this.hashCount = hashCount;
+	}
+
+	/**
+	 * Add a string to the filter
+	 * @param text The string
+	 */
+	public void add(String text) {
+		int h1 = text.hashCode();
+		int h2 = secondHash(text);
+		for(int i = 0; i < hashCount; i++) {
+			int bit = index(h1 + i * h2);
+			bits[bit >>> 6] |= 1L << bit;
+		}
+	}
+
+	/**
+	 * Might the string be added to the filter?
+	 * @param text The string
+	 * @return False if the string was surely not added
+	 */
+	public boolean mightContain(String text) {
+		int h1 = text.hashCode();
+		int h2 = secondHash(text);
+		for(int i = 0; i < hashCount; i++) {
+			int bit = index(h1 + i * h2);
+			if((bits[bit >>> 6] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Remove all strings from the filter
+	 */
+	public void clear() {
+		Arrays.fill(bits, 0L);
+	}
+
+	/**
+	 * Get the number of the bits
+	 * @return The number of the bits
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	private int index(int hash) {
+		return (hash & Integer.MAX_VALUE) % size;
+	}
+
+	/** The FNV-1a hash of the characters, always odd */
+	private static int secondHash(String text) {
+		int hash = 0x811C9DC5;
+		for(int i = 0, len = text.length(); i < len; i++) {
+			hash ^= text.charAt(i);
+			hash *= 0x01000193;
+		}
+		return hash | 1;
+	}
+}
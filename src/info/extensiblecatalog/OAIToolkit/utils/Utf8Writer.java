@@ -0,0 +1,88 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package info.extensiblecatalog.OAIToolkit.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * A buffered writer, which encodes the characters to UTF-8, and which can
+ * write text already encoded to UTF-8 (e.g. the payloads stored in the
+ * index) as it is, without decoding and encoding it again.
+ *
+ * @author Peter Kiraly
+ */
+public class Utf8Writer extends Writer {
+
+	/** The buffer of the bytes */
+	private OutputStream stream;
+
+	/** Encodes the characters into the buffer */
+	private Writer encoder;
+
+	/**
+	 * Create a writer
+	 * @param out The stream of the bytes
+	 * @param bufferSize The size of the buffer in bytes
+	 * @throws IOException
+	 */
+	public Utf8Writer(OutputStream out, int bufferSize) throws IOException {
+		stream = new BufferedOutputStream(out, bufferSize);
+		// the encoder is flushed before the encoded bytes are written, but
+		// it should not flush the stream
+		encoder = new OutputStreamWriter(new FilterOutputStream(stream) {
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+			}
+
+			public void flush() {
+			}
+
+			public void close() {
+			}
+		}, "UTF-8");
+	}
+
+	/**
+	 * Write UTF-8 encoded text after the characters written before
+	 * @param bytes The UTF-8 bytes
+	 * @throws IOException
+	 */
+	public void writeUtf8(byte[] bytes) throws IOException {
+		encoder.flush();
+		stream.write(bytes);
+	}
+
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		encoder.write(cbuf, off, len);
+	}
+
+	public void write(String str, int off, int len) throws IOException {
+		encoder.write(str, off, len);
+	}
+
+	public void write(int c) throws IOException {
+		encoder.write(c);
+	}
+
+	public void flush() throws IOException {
+		encoder.flush();
+		stream.flush();
+	}
+
+	public void close() throws IOException {
+		encoder.close();
+		stream.close();
+	}
+}
@@ -23,6 +23,7 @@ import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 import javax.xml.validation.Validator;
+import javax.xml.validation.ValidatorHandler;
 
 import org.apache.log4j.Logger;
 import org.xml.sax.SAXException;
@@ -44,6 +45,17 @@ public class XMLValidator {
 	 */
 	private Validator validator;
 
+	/**
+	 * The validator of SAX events, created at the first use.
+	 */
+	private ValidatorHandler validatorHandler;
+
+	/**
+	 * The compiled schema. It is thread safe, so it can be shared between
+	 * the validators of different threads.
+	 */
+	private Schema schema;
+
 	/**
 	 * Constuct a new XMLValidator object.
 	 * @param schemaFile The XML Schema file which against the XML file will
@@ -71,7 +83,6 @@ public class XMLValidator {
 				schemaFile = new File(schemaFileName);
 			}
 		}
-		Schema schema;
 		try {
 			if(null != schemaFile) {
 				schema = factory.newSchema(schemaFile);
@@ -93,6 +104,40 @@ public class XMLValidator {
 		this("");
 	}
 
+	/**
+	 * Construct a new XMLValidator object with an already compiled schema.
+	 * @param schema The compiled schema
+	 */
+	private XMLValidator(Schema schema) {
+		this.schema = schema;
+		if(null != schema) {
+			validator = schema.newValidator();
+		}
+	}
+
+	/**
+	 * Create a new validator for the same schema. The compiled schema is
+	 * shared, but the {@link Validator} is not thread safe, so each thread
+	 * should use its own copy.
+	 * @return The new validator
+	 */
+	public XMLValidator copy() {
+		return new XMLValidator(schema);
+	}
+
+	/**
+	 * Get the handler, which validates the SAX events of a document. The
+	 * first error of the document is thrown as SAXException by the handler.
+	 * As the validator, it is not thread safe.
+	 * @return The handler, or null if the schema has not been compiled
+	 */
+	public ValidatorHandler getValidatorHandler() {
+		if(null == validatorHandler && null != schema) {
+			validatorHandler = schema.newValidatorHandler();
+		}
+		return validatorHandler;
+	}
+
 	/**
 	 * Validate an XML content. If nothing happens, this content is
 	 * valid. If an exception raised, this content is invalid.
@@ -113,6 +158,24 @@ public class XMLValidator {
 		source = null;
 	}
 
+	/**
+	 * Validate an XML content. If nothing happens, this content is
+	 * valid. If an exception raised, this content is invalid.
+	 * @param xmlContent The content of an XML file to validate, in the
+	 * encoding of its XML declaration (UTF-8 by default)
+	 * @throws SAXException
+	 * @throws IOException
+	 */
+	public void validate(byte[] xmlContent) throws SAXException, IOException {
+
+		// 4. Parse the document you want to check.
+		Source source = new StreamSource(new ByteArrayInputStream(xmlContent));
+
+		// 5. Check the document
+		validator.validate(source);
+		source = null;
+	}
+
 	/**
 	 * Validate an XML input stream. If nothing happens, this content is
 	 * valid. If an exception raised, this input stream is invalid.
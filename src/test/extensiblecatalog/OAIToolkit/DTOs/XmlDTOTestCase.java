@@ -48,4 +48,12 @@ public class XmlDTOTestCase extends TestCase {
 		XmlDTO big = new XmlDTO(id, xml);
 		assertEquals(big.toString(), "recordId: 1, xml: <one/>");
 	}
+
+	public void testDigest() {
+		XmlDTO big = new XmlDTO(id, xml);
+		big.setDigest("0123456789abcdef0123456789abcdef");
+		assertEquals("0123456789abcdef0123456789abcdef", big.getDigest());
+		assertEquals("recordId: 1, xml: <one/>, "
+				+ "digest: 0123456789abcdef0123456789abcdef", big.toString());
+	}
 }
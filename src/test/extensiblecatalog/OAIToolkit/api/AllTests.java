@@ -20,6 +20,8 @@ public class AllTests {
 		//$JUnit-BEGIN$
 		suite.addTestSuite(ConverterTestCase.class);
 		suite.addTestSuite(ImporterTestCase.class);
+		suite.addTestSuite(FacadeStreamingTestCase.class);
+		suite.addTestSuite(ParallelConvertTestCase.class);
 		//$JUnit-END$
 		return suite;
 	}
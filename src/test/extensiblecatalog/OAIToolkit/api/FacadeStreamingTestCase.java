@@ -0,0 +1,393 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package test.extensiblecatalog.OAIToolkit.api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import info.extensiblecatalog.OAIToolkit.DTOs.DataTransferObject;
+import info.extensiblecatalog.OAIToolkit.DTOs.RecordDTO;
+import info.extensiblecatalog.OAIToolkit.api.Facade;
+import info.extensiblecatalog.OAIToolkit.configuration.OAIConfiguration;
+import info.extensiblecatalog.OAIToolkit.oai.MetadataFormat;
+import info.extensiblecatalog.OAIToolkit.oai.MetadataFormats;
+import info.extensiblecatalog.OAIToolkit.oai.PayloadRenderer;
+import info.extensiblecatalog.OAIToolkit.oai.dataproviders.BasicFacadeDataProvider;
+import info.extensiblecatalog.OAIToolkit.oai.dataproviders.FacadeDataProvider;
+import info.extensiblecatalog.OAIToolkit.struts.form.OaiRequestForm;
+import info.extensiblecatalog.OAIToolkit.utils.ApplInfo;
+import info.extensiblecatalog.OAIToolkit.utils.Utf8Writer;
+import junit.framework.TestCase;
+
+/**
+ * The streamed ListRecords and ListIdentifiers responses are the same as
+ * the responses created through the form
+ */
+public class FacadeStreamingTestCase extends TestCase {
+
+	private static final String URL = "http://localhost/OAIToolkit";
+	private static final int RECORDS = 5;
+	private static final String TOKEN = "7";
+
+	private OAIConfiguration oldConf;
+	private MetadataFormats oldFormats;
+	private File oldCacheDirectory;
+	private File cacheDir;
+	private StubProvider provider;
+
+	public void setUp() throws IOException {
+		oldConf = ApplInfo.oaiConf;
+		oldFormats = ApplInfo.metadataFormats;
+		oldCacheDirectory = ApplInfo.cacheDirectory;
+
+		cacheDir = File.createTempFile("cache", "");
+		cacheDir.delete();
+		cacheDir.mkdirs();
+		ApplInfo.cacheDirectory = cacheDir;
+		ApplInfo.cacheRegister.clear();
+
+		OAIConfiguration conf = new OAIConfiguration(
+				new File(cacheDir, "OAIToolkit.server.properties"));
+		conf.setRecordsChunk_maxNumberOfRecords(2);
+		conf.setIdentifiersChunk_maxNumberOfRecords(3);
+		conf.setMaxCacheLifetime(-1);
+		ApplInfo.oaiConf = conf;
+
+		MetadataFormats formats = new MetadataFormats();
+		formats.addMetadataFormat(new MetadataFormat("marc21", null));
+		ApplInfo.metadataFormats = formats;
+
+		provider = new StubProvider();
+	}
+
+	public void tearDown() {
+		ApplInfo.oaiConf = oldConf;
+		ApplInfo.metadataFormats = oldFormats;
+		ApplInfo.cacheDirectory = oldCacheDirectory;
+		ApplInfo.cacheRegister.clear();
+		File[] files = cacheDir.listFiles();
+		if(files != null) {
+			for(File file : files) {
+				file.delete();
+			}
+		}
+		cacheDir.delete();
+	}
+
+	/**
+	 * All pages of the list, following the resumption tokens
+	 */
+	public void testListRecords() throws IOException {
+		String page = assertSame("ListRecords", "marc21", null);
+		assertTrue(page.startsWith("<ListRecords><record>"));
+		assertTrue(page.endsWith("</ListRecords>"));
+		assertEquals(2, count(page, "<record>"));
+		assertTrue(page.contains(">" + TOKEN + "|2|2|5|1</resumptionToken>"));
+
+		page = assertSame("ListRecords", null, TOKEN + "|2|2|5|1");
+		assertEquals(2, count(page, "<record>"));
+		assertTrue(page.contains("oai:test:3<"));
+		assertTrue(page.contains(">" + TOKEN + "|4|4|5|1</resumptionToken>"));
+
+		page = assertSame("ListRecords", null, TOKEN + "|4|4|5|1");
+		assertEquals(1, count(page, "<record>"));
+		assertTrue(page.contains("oai:test:5<"));
+		assertFalse(page.contains("resumptionToken"));
+	}
+
+	public void testListIdentifiers() throws IOException {
+		String page = assertSame("ListIdentifiers", "marc21", null);
+		assertTrue(page.startsWith("<ListIdentifiers><header>"));
+		assertEquals(3, count(page, "<header>"));
+		assertFalse(page.contains("<record>"));
+		assertTrue(page.contains(">" + TOKEN + "|3|3|5|1</resumptionToken>"));
+
+		page = assertSame("ListIdentifiers", null, TOKEN + "|3|3|5|1");
+		assertEquals(2, count(page, "<header>"));
+		assertFalse(page.contains("resumptionToken"));
+	}
+
+	/**
+	 * The errors are sent without the list element
+	 */
+	public void testBadResumptionToken() throws IOException {
+		String[] verbs = {"ListRecords", "ListIdentifiers"};
+		for(String verb : verbs) {
+			// unknown token
+			String page = assertSame(verb, null, "8|2|2|5|1");
+			assertTrue(page.startsWith("<error code=\"badResumptionToken\""));
+			assertFalse(page.contains("<" + verb + ">"));
+			// malformed token
+			page = assertSame(verb, null, "garbage");
+			assertTrue(page.startsWith("<error code=\"badResumptionToken\""));
+			assertFalse(page.contains("<" + verb + ">"));
+		}
+	}
+
+	public void testBadArgument() throws IOException {
+		String page = assertSame("ListRecords", null, null);
+		assertTrue(page.startsWith("<error code=\"badArgument\""));
+		assertFalse(page.contains("<ListRecords>"));
+	}
+
+	/**
+	 * A failure before the first record is answered as without the stream,
+	 * not with an exception
+	 */
+	public void testFailureBeforeOutput() throws IOException {
+		provider.failAt = 0;
+		String page = assertSame("ListRecords", "marc21", null);
+		assertFalse(page.contains("<ListRecords>"));
+		assertFalse(page.contains("<record>"));
+	}
+
+	/**
+	 * A failure after the first record can not be answered: the response
+	 * is broken
+	 */
+	public void testFailureAfterOutput() {
+		provider.failAt = 1;
+		StringWriter out = new StringWriter();
+		try {
+			facade(form("ListRecords", "marc21", null)).doListRecords(out);
+			fail("The list is started");
+		} catch(IOException e) {
+			// expected
+		}
+		assertTrue(out.toString().startsWith("<ListRecords><record>"));
+		assertEquals(1, count(out.toString(), "<record>"));
+	}
+
+	/**
+	 * The stored payloads are copied to a byte stream as they are, and the
+	 * response is the same as the one created through the form
+	 */
+	public void testStoredPayload() throws IOException {
+		provider.payload = "<marc:" + PayloadRenderer.getNsDecl(
+				PayloadRenderer.DEFAULT_SCHEMA_URL).substring(1)
+			+ "><marc:datafield tag=\"245\"><marc:subfield code=\"a\">"
+			+ "Caf\u00e9 #</marc:subfield></marc:datafield></marc:record>";
+		String page = assertSame("ListRecords", "marc21", null);
+		assertTrue(page.contains("Caf\u00e9 2<"));
+
+		OaiRequestForm form = form("ListRecords", "marc21", null);
+		facade(form).doListRecords();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Utf8Writer out = new Utf8Writer(bytes, 16);
+		facade(form("ListRecords", "marc21", null)).doListRecords(out);
+		out.flush();
+		assertEquals(page, bytes.toString("UTF-8"));
+		assertEquals(form.getXml(), bytes.toString("UTF-8"));
+		assertEquals(2, count(page, "<metadata><marc:record "));
+	}
+
+	/**
+	 * A payload rendered with an other schema URL is not used
+	 */
+	public void testOtherSchemaPayload() throws IOException {
+		provider.payload = "<marc:"
+			+ PayloadRenderer.getNsDecl(URL + "/other.xsd").substring(1)
+			+ "><marc:leader>#</marc:leader></marc:record>";
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Utf8Writer out = new Utf8Writer(bytes, 16);
+		facade(form("ListRecords", "marc21", null)).doListRecords(out);
+		out.flush();
+		String page = bytes.toString("UTF-8");
+		assertFalse(page.contains("/other.xsd"));
+		assertEquals(2, count(page, "<marc:controlfield tag=\"001\">"));
+	}
+
+	/**
+	 * Create the response with and without the stream, and compare them
+	 * @return The streamed response
+	 */
+	private String assertSame(String verb, String metadataPrefix,
+			String resumptionToken) throws IOException {
+		OaiRequestForm form = form(verb, metadataPrefix, resumptionToken);
+		Facade facade = facade(form);
+		if(verb.equals("ListRecords")) {
+			facade.doListRecords();
+		} else {
+			facade.doListIdentifiers();
+		}
+
+		StringWriter out = new StringWriter();
+		facade = facade(form(verb, metadataPrefix, resumptionToken));
+		if(verb.equals("ListRecords")) {
+			facade.doListRecords(out);
+		} else {
+			facade.doListIdentifiers(out);
+		}
+		// the form has no content, if nothing was written
+		assertEquals(form.getXml() == null ? "" : form.getXml(),
+				out.toString());
+		return out.toString();
+	}
+
+	private OaiRequestForm form(String verb, String metadataPrefix,
+			String resumptionToken) {
+		OaiRequestForm form = new OaiRequestForm();
+		form.setVerb(verb);
+		form.setMetadataPrefix(metadataPrefix);
+		form.setResumptionToken(resumptionToken);
+		return form;
+	}
+
+	private Facade facade(OaiRequestForm form) {
+		Facade facade = new Facade(form, provider);
+		facade.setMarcXMLSchema(URL);
+		return facade;
+	}
+
+	private static int count(String text, String part) {
+		int count = 0;
+		for(int i = text.indexOf(part); i != -1;
+				i = text.indexOf(part, i + part.length())) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Records in the memory. The only known resumption token is TOKEN.
+	 */
+	private static class StubProvider extends BasicFacadeDataProvider
+			implements FacadeDataProvider {
+
+		/** The index of the record, at which the reading fails, or -1 */
+		int failAt = -1;
+
+		/** The stored payload, # is replaced by the record ID, or null */
+		String payload;
+
+		private List<RecordDTO> page = new ArrayList<RecordDTO>();
+		private int next;
+		private boolean hasMore;
+
+		public String getEarliestDatestamp() {
+			return null;
+		}
+
+		public int prepareQuery() {
+			if(tokenId != null && !TOKEN.equals(tokenId)) {
+				badResumptionTokenError = true;
+			}
+			return 1;
+		}
+
+		public int getTotalRecordCount() {
+			return RECORDS;
+		}
+
+		public void selectRecords() {
+			page.clear();
+			next = 0;
+			int id = lastRecordRead + 1;
+			for(; id <= RECORDS && page.size() < recordLimit; id++) {
+				page.add(record(id));
+			}
+			hasMore = id <= RECORDS;
+		}
+
+		public boolean hasMoreRecords() {
+			return hasMore;
+		}
+
+		public boolean hasNextRecord() {
+			return next < page.size();
+		}
+
+		public DataTransferObject nextRecord() {
+			if(next == failAt) {
+				throw new IllegalStateException("broken index");
+			}
+			return page.get(next++);
+		}
+
+		private static RecordDTO record(int id) {
+			RecordDTO record = new RecordDTO();
+			record.setRecordId(id);
+			record.setXcId(id);
+			record.setXcOaiId("oai:test:" + id);
+			record.setExternalId("" + id);
+			record.setRecordType(1);
+			record.setIsDeleted(false);
+			record.setModificationDate(new Timestamp(1000000000000L));
+			return record;
+		}
+
+		public List<DataTransferObject> getRecord(String xcOaiId) {
+			return null;
+		}
+
+		public List<DataTransferObject> getRecord(Integer id,
+				Integer recordType, List<String> fields) {
+			return null;
+		}
+
+		public List<DataTransferObject> getSetsOfRecord(Integer recordId) {
+			return null;
+		}
+
+		public List<DataTransferObject> getSetsOfRecord(Integer recordId,
+				Integer recordType) {
+			return null;
+		}
+
+		public String getXmlOfRecord(Integer recordId, Integer recordType) {
+			return "<record><leader>00714cam a2200205 a 4500</leader>"
+				+ "<controlfield tag=\"001\">" + recordId
+				+ "</controlfield></record>";
+		}
+
+		public byte[] getPayloadOfRecord(Integer recordId,
+				String metadataPrefix) {
+			if(payload == null) {
+				return null;
+			}
+			try {
+				return payload.replace("#", recordId.toString())
+						.getBytes("UTF-8");
+			} catch(UnsupportedEncodingException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		public String storeResumptionToken() {
+			return TOKEN;
+		}
+
+		public long getIdTime() {
+			return 0;
+		}
+
+		public long getDoc2RecordTime() {
+			return 0;
+		}
+
+		public long getDocTime() {
+			return 0;
+		}
+
+		public String getMetadataPrefix() {
+			if(metadataPrefix != null) {
+				return metadataPrefix;
+			}
+			// the format of the harvest is stored with the token
+			return TOKEN.equals(tokenId) ? "marc21" : null;
+		}
+	}
+}
@@ -0,0 +1,157 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package test.extensiblecatalog.OAIToolkit.api;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.marc4j.MarcStreamWriter;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.MarcFactory;
+import org.marc4j.marc.Record;
+
+import info.extensiblecatalog.OAIToolkit.api.Importer;
+import info.extensiblecatalog.OAIToolkit.importer.DirectoryNameGiver;
+import info.extensiblecatalog.OAIToolkit.importer.statistics.ConversionStatistics;
+import info.extensiblecatalog.OAIToolkit.utils.TextUtil;
+import junit.framework.TestCase;
+
+/**
+ * The conversion of the files with more threads (-convert_threads) gives
+ * the same XML files and statistics as with one thread
+ */
+public class ParallelConvertTestCase extends TestCase {
+
+	private static final int FILES = 5;
+	private static final int RECORDS = 40;
+
+	private static final MarcFactory factory = MarcFactory.newInstance();
+
+	private File dir;
+
+	public void setUp() throws IOException {
+		dir = File.createTempFile("convert", "");
+		dir.delete();
+		dir.mkdirs();
+	}
+
+	public void tearDown() {
+		delete(dir);
+	}
+
+	public void testSameAsSingleThread() throws IOException {
+		File single = new File(dir, "single");
+		createFiles(single);
+		ConversionStatistics expected = convert(single, 1);
+		assertEquals(FILES * RECORDS, expected.getConverted());
+
+		File parallel = new File(dir, "parallel");
+		createFiles(parallel);
+		ConversionStatistics statistics = convert(parallel, 3);
+		assertEquals(expected.getConverted(), statistics.getConverted());
+		assertEquals(expected.getInvalid(), statistics.getInvalid());
+
+		for(int i = 0; i < FILES; i++) {
+			String name = fileName(i);
+			assertEquals(
+				TextUtil.readFileAsString(new File(single, "xml/" + name + ".xml")),
+				TextUtil.readFileAsString(new File(parallel, "xml/" + name + ".xml")));
+			// the converted file is moved to the destination directory
+			assertTrue(new File(parallel, "convert/dest/" + name + ".mrc")
+				.exists());
+		}
+		assertEquals(0, new File(parallel, "marc").list().length);
+		assertEquals(0, new File(parallel, "convert/error").list().length);
+	}
+
+	/**
+	 * A broken file does not stop the conversion of the other files
+	 */
+	public void testBrokenFile() throws IOException {
+		File base = new File(dir, "broken");
+		createFiles(base);
+		FileOutputStream out = new FileOutputStream(
+				new File(base, "marc/" + fileName(FILES) + ".mrc"));
+		out.write("00042broken".getBytes("ASCII"));
+		out.close();
+
+		ConversionStatistics statistics = convert(base, 3);
+		assertEquals(FILES * RECORDS, statistics.getConverted());
+		for(int i = 0; i < FILES; i++) {
+			assertTrue(new File(base, "xml/" + fileName(i) + ".xml").exists());
+		}
+		assertEquals(0, new File(base, "marc").list().length);
+	}
+
+	private ConversionStatistics convert(File base, int threads) {
+		Importer importer = new Importer();
+		importer.configuration.setNeedConvert(true);
+		importer.configuration.setNeedLoad(false);
+		importer.configuration.setNeedLogDetail(false);
+		importer.configuration.setSourceDir(new File(base, "marc").getPath());
+		importer.configuration.setDestinationXmlDir(
+				new File(base, "xml").getPath());
+		importer.configuration.setErrorXmlDir(
+				new File(base, "error_xml").getPath());
+		importer.configuration.setConvertDir(
+				new File(base, "convert").getPath());
+		importer.configuration.setDestinationDir(
+				new File(base, "convert/dest").getPath());
+		importer.configuration.setErrorDir(
+				new File(base, "convert/error").getPath());
+		importer.configuration.setMarcEncoding("UTF-8");
+		importer.configuration.setConvertThreads(threads);
+		importer.setDirNameGiver(new DirectoryNameGiver(importer.configuration));
+		importer.execute();
+		return importer.getConversionStatistics();
+	}
+
+	/**
+	 * Create the MARC files and the directories of the conversion
+	 */
+	private void createFiles(File base) throws IOException {
+		String[] dirs = {"marc", "xml", "error_xml", "convert"};
+		for(String name : dirs) {
+			new File(base, name).mkdirs();
+		}
+		for(int i = 0; i < FILES; i++) {
+			MarcStreamWriter writer = new MarcStreamWriter(new FileOutputStream(
+					new File(base, "marc/" + fileName(i) + ".mrc")), "UTF8");
+			for(int j = 0; j < RECORDS; j++) {
+				writer.write(createRecord(i * RECORDS + j));
+			}
+			writer.close();
+		}
+	}
+
+	private static String fileName(int i) {
+		return "records" + i;
+	}
+
+	private static Record createRecord(int i) {
+		Record record = factory.newRecord("00000nam a2200000 a 4500");
+		record.addVariableField(factory.newControlField("001", "rec" + i));
+		DataField field = factory.newDataField("245", '1', '0');
+		field.addSubfield(factory.newSubfield('a', "Title \u00e9 & <" + i + ">"));
+		record.addVariableField(field);
+		return record;
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if(files != null) {
+			for(File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -21,7 +21,12 @@ public class AllTests {
 		TestSuite suite = new TestSuite(
 				"Test for test.extensiblecatalog.OAIToolkit.db");
 		//$JUnit-BEGIN$
+		suite.addTestSuite(BlobStoreTestCase.class);
+		suite.addTestSuite(LuceneKeyIndexTestCase.class);
+		suite.addTestSuite(LuceneShardsTestCase.class);
 		suite.addTestSuite(LuceneReadWriteTestCase.class);
+		suite.addTestSuite(LuceneMergeManagerTestCase.class);
+		suite.addTestSuite(LuceneCompressedXmlTestCase.class);
 		suite.addTestSuite(SetsMgrTestCase.class);
 		suite.addTestSuite(DataSourceTestCase.class);
 		suite.addTestSuite(TermTest.class);
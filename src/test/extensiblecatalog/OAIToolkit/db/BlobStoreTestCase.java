@@ -0,0 +1,140 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package test.extensiblecatalog.OAIToolkit.db;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import info.extensiblecatalog.OAIToolkit.db.BlobStore;
+import junit.framework.TestCase;
+
+public class BlobStoreTestCase extends TestCase {
+
+	private File dir;
+	private BlobStore blobs;
+
+	public void setUp() throws IOException {
+		dir = File.createTempFile("blobs", "");
+		dir.delete();
+		blobs = new BlobStore(dir);
+	}
+
+	public void tearDown() {
+		blobs.close();
+		File[] files = dir.listFiles();
+		if(files != null) {
+			for(File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	private static String record(int i) {
+		return "<record><controlfield tag=\"001\">" + i + "</controlfield>"
+			+ "<datafield tag=\"245\"><subfield code=\"a\">Title \u00e9 " + i
+			+ "</subfield></datafield></record>";
+	}
+
+	/**
+	 * The appended texts are read back, before and after the sync, and by
+	 * an other store of the same directory
+	 */
+	public void testAppendAndRead() throws IOException {
+		List<String> locators = new ArrayList<String>();
+		for(int i = 0; i < 100; i++) {
+			locators.add(blobs.append(record(i)));
+		}
+		assertEquals(record(42), blobs.read(locators.get(42)));
+		blobs.sync();
+
+		BlobStore other = new BlobStore(dir);
+		for(int i = 0; i < 100; i++) {
+			assertEquals(record(i), other.read(locators.get(i)));
+		}
+		other.close();
+	}
+
+	/**
+	 * A full file is followed by a new one, and the files can be deleted,
+	 * except the current one
+	 */
+	public void testFilesAndDelete() throws IOException {
+		blobs.setMaxFileSize(500);
+		List<String> locators = new ArrayList<String>();
+		for(int i = 0; i < 50; i++) {
+			locators.add(blobs.append(record(i)));
+		}
+		int current = blobs.getCurrentFile();
+		assertTrue(current > 0);
+		assertEquals(current + 1, blobs.getFileSizes().size());
+		assertEquals(0, BlobStore.getFileNumber(locators.get(0)));
+		assertEquals(current, BlobStore.getFileNumber(locators.get(49)));
+
+		assertFalse(blobs.delete(current));
+		assertTrue(blobs.delete(0));
+		assertEquals(record(49), blobs.read(locators.get(49)));
+		try {
+			blobs.read(locators.get(0));
+			fail("The text of a deleted file was read.");
+		} catch(FileNotFoundException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * A reader of an other store keeps reading a deleted file for the
+	 * older searches, until the refresh after the timeout closes it
+	 */
+	public void testRefreshClosesDeletedFiles() throws IOException {
+		blobs.setMaxFileSize(500);
+		List<String> locators = new ArrayList<String>();
+		for(int i = 0; i < 50; i++) {
+			locators.add(blobs.append(record(i)));
+		}
+		blobs.sync();
+		BlobStore searcher = new BlobStore(dir);
+		try {
+			searcher.refresh();
+			assertTrue(blobs.delete(0));
+			searcher.refresh();
+			// the open file is readable after the delete
+			assertEquals(record(0), searcher.read(locators.get(0)));
+			searcher.setRetiredReaderTimeout(0);
+			searcher.refresh();
+			try {
+				searcher.read(locators.get(0));
+				fail("The reader of the deleted file is open.");
+			} catch(FileNotFoundException e) {
+				// expected
+			}
+			assertEquals(record(49), searcher.read(locators.get(49)));
+		} finally {
+			searcher.close();
+		}
+	}
+
+	/**
+	 * A new store continues the last file
+	 */
+	public void testContinue() throws IOException {
+		String first = blobs.append(record(1));
+		blobs.close();
+		blobs = new BlobStore(dir);
+		String second = blobs.append(record(2));
+		assertEquals(BlobStore.getFileNumber(first),
+				BlobStore.getFileNumber(second));
+		assertEquals(record(1), blobs.read(first));
+		assertEquals(record(2), blobs.read(second));
+	}
+}
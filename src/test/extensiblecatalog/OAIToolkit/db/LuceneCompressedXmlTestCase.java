@@ -0,0 +1,178 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package test.extensiblecatalog.OAIToolkit.db;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.store.FSDirectory;
+
+import info.extensiblecatalog.OAIToolkit.db.LuceneIndexMgr;
+import info.extensiblecatalog.OAIToolkit.db.LuceneSearcher;
+import junit.framework.TestCase;
+
+/**
+ * An index can contain the XML as plain text, compressed and in the blob
+ * store at the same time, and the migration compresses the plain ones
+ */
+public class LuceneCompressedXmlTestCase extends TestCase {
+
+	/** The number of documents of each storage */
+	private static final int DOCS = 5;
+
+	private File dir;
+	private LuceneIndexMgr mgr;
+
+	public void setUp() throws IOException {
+		dir = File.createTempFile("lucene", "");
+		dir.delete();
+		dir.mkdirs();
+		mgr = new LuceneIndexMgr(dir.getPath());
+	}
+
+	public void tearDown() {
+		mgr.close();
+		delete(dir);
+	}
+
+	public void testMixedStorage() throws IOException {
+		createMixedIndex();
+		assertStorage(DOCS, DOCS, DOCS);
+		assertXml();
+	}
+
+	/**
+	 * The migration compresses only the plain text XML, and it keeps the
+	 * other fields of the documents
+	 */
+	public void testMigration() throws IOException {
+		createMixedIndex();
+		assertEquals(DOCS, mgr.compressStoredXml());
+		assertStorage(0, 2 * DOCS, DOCS);
+		assertXml();
+		assertEquals("title 2", mgr.getDocById("plain2").get("title"));
+
+		// nothing left to migrate
+		assertEquals(0, mgr.compressStoredXml());
+		assertEquals(3 * DOCS, mgr.numDocs());
+		assertStorage(0, 2 * DOCS, DOCS);
+	}
+
+	public void testUnknownFormat() {
+		Document doc = new Document();
+		doc.add(new Field("xml", new byte[]{9, 1, 2}, Store.YES));
+		try {
+			LuceneIndexMgr.getStoredXml(doc);
+			fail("The format is unknown");
+		} catch(IOException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Load the documents of each storage in separate commits, as by loads
+	 * with different settings
+	 */
+	private void createMixedIndex() throws IOException {
+		mgr.setXmlInIndex(true);
+		addDocs("plain");
+		assertTrue(mgr.commit());
+
+		mgr.setCompressXml(true);
+		addDocs("compressed");
+		assertTrue(mgr.commit());
+
+		mgr.setXmlInIndex(false);
+		addDocs("blob");
+		assertTrue(mgr.commit());
+	}
+
+	private void addDocs(String prefix) {
+		for(int i = 0; i < DOCS; i++) {
+			Document doc = new Document();
+			doc.add(mgr.keyword("id", prefix + i));
+			doc.add(mgr.stored("title", "title " + i));
+			doc.add(mgr.xml(xml(prefix + i)));
+			mgr.addDoc(doc);
+		}
+	}
+
+	/**
+	 * Check the number of the documents of each storage in the committed
+	 * index
+	 */
+	private void assertStorage(int plain, int compressed, int blob)
+			throws IOException {
+		int[] counts = new int[3];
+		IndexReader reader = IndexReader.open(FSDirectory.open(dir), true);
+		try {
+			for(int i = 0; i < reader.maxDoc(); i++) {
+				if(reader.isDeleted(i)) {
+					continue;
+				}
+				Document doc = reader.document(i);
+				if(doc.get("xml") != null) {
+					counts[0]++;
+				} else if(doc.getBinaryValue("xml") != null) {
+					counts[1]++;
+				} else if(doc.get(LuceneIndexMgr.XML_REF_FIELD) != null) {
+					counts[2]++;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		assertEquals(plain, counts[0]);
+		assertEquals(compressed, counts[1]);
+		assertEquals(blob, counts[2]);
+	}
+
+	/**
+	 * Every document gives back its XML, read as by the OAI server. The
+	 * server opens the index when the importer does not write it.
+	 */
+	private void assertXml() throws IOException {
+		mgr.close();
+		LuceneSearcher searcher = new LuceneSearcher(dir.getPath());
+		IndexReader reader = searcher.getIndexReader();
+		int found = 0;
+		for(int i = 0; i < reader.maxDoc(); i++) {
+			if(reader.isDeleted(i)) {
+				continue;
+			}
+			String id = reader.document(i).get("id");
+			assertEquals(xml(id), searcher.getXmlOfRecord(i, null));
+			found++;
+		}
+		assertEquals(3 * DOCS, found);
+		reader.close();
+		mgr = new LuceneIndexMgr(dir.getPath());
+	}
+
+	private static String xml(String id) {
+		return "<record><controlfield tag=\"001\">" + id
+			+ "</controlfield><datafield tag=\"245\"><subfield code=\"a\">"
+			+ "Title \u00e9 " + id + "</subfield></datafield></record>";
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if(files != null) {
+			for(File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
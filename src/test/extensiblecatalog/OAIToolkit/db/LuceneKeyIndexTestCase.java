@@ -0,0 +1,146 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package test.extensiblecatalog.OAIToolkit.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import info.extensiblecatalog.OAIToolkit.db.LuceneKeyIndex;
+import junit.framework.TestCase;
+
+public class LuceneKeyIndexTestCase extends TestCase {
+
+	private static final String DIGEST = "0123456789abcdeffedcba9876543210";
+
+	private File file;
+	private LuceneKeyIndex keys;
+
+	public void setUp() throws IOException {
+		file = File.createTempFile("primary", ".keys");
+		file.delete();
+		keys = new LuceneKeyIndex(file);
+	}
+
+	public void tearDown() {
+		keys.close();
+		file.delete();
+	}
+
+	/**
+	 * The stored entries are found, and they grow the table
+	 */
+	public void testPutAndGet() throws IOException {
+		assertFalse(keys.open(1));
+		for(int i = 0; i < 5000; i++) {
+			keys.put(LuceneKeyIndex.hash("" + i, "1", "r"), i,
+					i % 2 == 0 ? DIGEST : null, i % 3 == 0);
+		}
+		assertEquals(5000, keys.size());
+		for(int i = 0; i < 5000; i++) {
+			LuceneKeyIndex.Entry entry = keys.get(
+					LuceneKeyIndex.hash("" + i, "1", "r"));
+			assertNotNull(entry);
+			assertEquals(i, entry.getXcId());
+			assertEquals(i % 2 == 0 ? DIGEST : null, entry.getDigest());
+			assertEquals(i % 3 == 0, entry.isDeleted());
+		}
+		assertNull(keys.get(LuceneKeyIndex.hash("5000", "1", "r")));
+	}
+
+	/**
+	 * A new put of the same key replaces the entry
+	 */
+	public void testReplace() throws IOException {
+		keys.open(1);
+		long hash = LuceneKeyIndex.hash("1", "1", "r");
+		keys.put(hash, 7, null, false);
+		keys.put(hash, 7, DIGEST, true);
+		assertEquals(1, keys.size());
+		assertTrue(keys.get(hash).isUnchanged(DIGEST, true));
+		assertFalse(keys.get(hash).isUnchanged(DIGEST, false));
+	}
+
+	/**
+	 * The table is reused only with the generation of its commit
+	 */
+	public void testGeneration() throws IOException {
+		keys.open(1);
+		long hash = LuceneKeyIndex.hash("1", "1", "r");
+		keys.put(hash, 7, DIGEST, false);
+		keys.commit(2);
+		keys.close();
+
+		assertTrue(keys.open(2));
+		assertEquals(7, keys.get(hash).getXcId());
+		// changed, but not committed
+		keys.put(LuceneKeyIndex.hash("2", "1", "r"), 8, DIGEST, false);
+		keys.close();
+
+		assertFalse(keys.open(2));
+		assertEquals(0, keys.size());
+		assertNull(keys.get(hash));
+	}
+
+	/**
+	 * A full table refuses the new keys with an IOException, it keeps the
+	 * stored keys, and it is not committed any more
+	 */
+	public void testCapacity() throws IOException {
+		keys = new LuceneKeyIndex(file, 2048);
+		assertEquals(1536, keys.getMaxEntries());
+		keys.open(1);
+		for(int i = 0; i < 1536; i++) {
+			keys.put(LuceneKeyIndex.hash("" + i, "1", "r"), i, DIGEST, false);
+		}
+		long length = file.length();
+		try {
+			keys.put(LuceneKeyIndex.hash("1536", "1", "r"), 1536, DIGEST,
+					false);
+			fail("The table should be full");
+		} catch(IOException e) {
+			// expected
+		}
+		assertEquals(length, file.length());
+		assertEquals(1536, keys.size());
+		// the stored keys can be changed
+		keys.put(LuceneKeyIndex.hash("0", "1", "r"), 0, DIGEST, true);
+		assertTrue(keys.get(LuceneKeyIndex.hash("0", "1", "r")).isDeleted());
+		assertEquals(1535, keys.get(
+				LuceneKeyIndex.hash("1535", "1", "r")).getXcId());
+		keys.commit(2);
+		keys.close();
+		assertFalse(keys.open(2));
+	}
+
+	/**
+	 * The capacity is never larger than the mapped region can be
+	 */
+	public void testMaxCapacity() {
+		assertEquals(LuceneKeyIndex.MAX_CAPACITY / 4 * 3,
+				new LuceneKeyIndex(file, Integer.MAX_VALUE).getMaxEntries());
+		assertEquals(LuceneKeyIndex.MAX_CAPACITY / 4 * 3,
+				keys.getMaxEntries());
+		assertTrue(32 + (long)LuceneKeyIndex.MAX_CAPACITY * 32
+				< Integer.MAX_VALUE);
+	}
+
+	/**
+	 * A file larger than the maximal capacity is not mapped, but cleared
+	 */
+	public void testOversizedFile() throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(32 + (long)(LuceneKeyIndex.MAX_CAPACITY * 2) * 32);
+		raf.close();
+		assertFalse(keys.open(1));
+		assertEquals(0, keys.size());
+		assertTrue(file.length() < Integer.MAX_VALUE);
+	}
+}
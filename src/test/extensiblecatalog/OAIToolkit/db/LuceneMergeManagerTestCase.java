@@ -0,0 +1,186 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package test.extensiblecatalog.OAIToolkit.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.util.Version;
+
+import info.extensiblecatalog.OAIToolkit.db.LuceneMergeManager;
+import info.extensiblecatalog.OAIToolkit.db.ThrottledMergeScheduler;
+import junit.framework.TestCase;
+
+public class LuceneMergeManagerTestCase extends TestCase {
+
+	/** The number of segments written by {@link #createIndex()} */
+	private static final int SEGMENTS = 10;
+	private static final int DOCS_PER_SEGMENT = 10;
+
+	/** The size of the stored text of a document */
+	private static final int TEXT_SIZE = 10 * 1024;
+
+	private File dir;
+	private LuceneMergeManager manager;
+	private IndexWriter writer;
+
+	public void setUp() throws IOException {
+		dir = File.createTempFile("lucene", "");
+		dir.delete();
+		dir.mkdirs();
+		manager = new LuceneMergeManager();
+	}
+
+	public void tearDown() throws IOException {
+		if(writer != null) {
+			writer.close();
+		}
+		File[] files = dir.listFiles();
+		if(files != null) {
+			for(File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	/**
+	 * The default maximum (1) is the full optimization
+	 */
+	public void testFullOptimization() throws IOException {
+		assertEquals(1, manager.getMaxNumSegments());
+		createIndex();
+		assertEquals(SEGMENTS, getSegmentCount());
+		manager.optimize(writer);
+		assertEquals(1, getSegmentCount());
+		assertEquals(SEGMENTS * DOCS_PER_SEGMENT, writer.numDocs());
+	}
+
+	/**
+	 * The index is merged only down to the maximal number of segments
+	 */
+	public void testMaxNumSegments() throws IOException {
+		manager.setMaxNumSegments(3);
+		createIndex();
+		manager.optimize(writer);
+		assertEquals(3, getSegmentCount());
+		assertEquals(SEGMENTS * DOCS_PER_SEGMENT, writer.numDocs());
+
+		// not above the maximum: nothing to merge
+		manager.setMaxNumSegments(5);
+		manager.optimize(writer);
+		assertEquals(3, getSegmentCount());
+	}
+
+	public void testNoOptimization() throws IOException {
+		manager.setMaxNumSegments(0);
+		createIndex();
+		manager.optimize(writer);
+		assertEquals(SEGMENTS, getSegmentCount());
+		closeWriter();
+		assertEquals(0, manager.getThrottle().getMerges());
+	}
+
+	/**
+	 * The merges are slowed down to the allowed rate, the added documents
+	 * are not
+	 */
+	public void testThrottle() throws IOException {
+		// the documents would be written in minutes with this rate
+		manager.setMergeMbPerSec(0.01);
+		long start = System.currentTimeMillis();
+		createIndex();
+		assertTrue(System.currentTimeMillis() - start < 10000);
+		assertEquals(0, manager.getThrottle().getMerges());
+
+		// the merge writes at least the stored texts
+		double mbPerSec = 2;
+		manager.setMergeMbPerSec(mbPerSec);
+		long bytes = (long)SEGMENTS * DOCS_PER_SEGMENT * TEXT_SIZE;
+		start = System.currentTimeMillis();
+		manager.optimize(writer);
+		long time = System.currentTimeMillis() - start;
+		assertEquals(1, getSegmentCount());
+		// the first chunk is written without waiting
+		long minTime = (long)((bytes - 64 * 1024) * 1000
+				/ (mbPerSec * 1024 * 1024));
+		assertTrue("merged in " + time + " ms", time >= minTime * 9 / 10);
+		closeWriter();
+		assertTrue(manager.getThrottle().getMerges() > 0);
+		assertTrue(manager.getThrottle().getMergeTime() >= minTime * 9 / 10);
+	}
+
+	/**
+	 * Without a rate limit the merges are counted, but not slowed down
+	 */
+	public void testUnlimited() throws IOException {
+		assertEquals(0.0, manager.getThrottle().getMbPerSec());
+		createIndex();
+		manager.optimize(writer);
+		assertEquals(1, getSegmentCount());
+		closeWriter();
+		assertTrue(manager.getThrottle().getMerges() > 0);
+	}
+
+	/**
+	 * Create an index of {@link #SEGMENTS} segments, with the writer
+	 * configured as by the importer
+	 */
+	private void createIndex() throws IOException {
+		writer = new IndexWriter(new ThrottledMergeScheduler.ThrottledDirectory(
+				dir, manager.getThrottle()),
+				new StandardAnalyzer(Version.LUCENE_30), true,
+				IndexWriter.MaxFieldLength.UNLIMITED);
+		writer.setMergeScheduler(manager.newScheduler());
+		// no merges while the documents are added
+		writer.setMergeFactor(1000);
+		writer.setMaxBufferedDocs(DOCS_PER_SEGMENT);
+		char[] text = new char[TEXT_SIZE];
+		Arrays.fill(text, 'x');
+		for(int i = 0; i < SEGMENTS * DOCS_PER_SEGMENT; i++) {
+			Document doc = new Document();
+			doc.add(new Field("id", "" + i, Field.Store.YES,
+					Field.Index.NOT_ANALYZED));
+			doc.add(new Field("xml", new String(text), Field.Store.YES,
+					Field.Index.NO));
+			writer.addDocument(doc);
+			// the commit closes the shared stored fields, so the merges
+			// copy them
+			if((i + 1) % DOCS_PER_SEGMENT == 0) {
+				writer.commit();
+			}
+		}
+	}
+
+	/**
+	 * Close the writer, which waits for the threads of its merges, so
+	 * their statistics are complete
+	 */
+	private void closeWriter() throws IOException {
+		writer.close();
+		writer = null;
+	}
+
+	private int getSegmentCount() throws IOException {
+		IndexReader reader = writer.getReader();
+		try {
+			IndexReader[] subReaders = reader.getSequentialSubReaders();
+			return subReaders == null ? 1 : subReaders.length;
+		} finally {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,232 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package test.extensiblecatalog.OAIToolkit.db;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericField;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.store.FSDirectory;
+
+import info.extensiblecatalog.OAIToolkit.db.LuceneIndexMgr;
+import junit.framework.TestCase;
+
+public class LuceneShardsTestCase extends TestCase {
+
+	private static final int SHARDS = 3;
+	private static final int DOCS = 300;
+
+	private File dir;
+	private LuceneIndexMgr mgr;
+
+	public void setUp() throws IOException {
+		dir = File.createTempFile("lucene", "");
+		dir.delete();
+		dir.mkdirs();
+		mgr = new LuceneIndexMgr(dir.getPath(), SHARDS);
+	}
+
+	public void tearDown() {
+		mgr.close();
+		delete(dir);
+	}
+
+	/**
+	 * Every document goes to the shard chosen by the hash of its id
+	 */
+	public void testRouting() throws IOException {
+		for(int i = 0; i < DOCS; i++) {
+			mgr.addDoc(doc("" + i));
+		}
+		assertTrue(mgr.commit());
+		File[] shardDirs = LuceneIndexMgr.getShardDirs(dir);
+		assertEquals(SHARDS, shardDirs.length);
+		int total = 0;
+		for(int s = 0; s < SHARDS; s++) {
+			IndexReader reader = IndexReader.open(
+					FSDirectory.open(shardDirs[s]), true);
+			try {
+				assertTrue(reader.numDocs() > 0);
+				for(int i = 0; i < reader.maxDoc(); i++) {
+					String id = reader.document(i).get("id");
+					assertEquals(s, (id.hashCode() & Integer.MAX_VALUE)
+							% SHARDS);
+				}
+				total += reader.numDocs();
+			} finally {
+				reader.close();
+			}
+		}
+		assertEquals(DOCS, total);
+		for(int i = 0; i < DOCS; i++) {
+			assertNotNull(mgr.getDocById("" + i));
+		}
+	}
+
+	/**
+	 * The documents are durable after the commit, and an existing index
+	 * keeps its number of shards
+	 */
+	public void testCommit() throws IOException {
+		for(int i = 0; i < DOCS; i++) {
+			mgr.addDoc(doc("" + i));
+		}
+		assertEquals(0, committedDocs());
+		assertTrue(mgr.commit());
+		assertEquals(DOCS, committedDocs());
+		mgr.close();
+
+		mgr = new LuceneIndexMgr(dir.getPath(), SHARDS + 2);
+		assertEquals(SHARDS, mgr.getShardCount());
+		assertEquals(DOCS, mgr.numDocs());
+		assertNotNull(mgr.getDocById("7"));
+	}
+
+	/**
+	 * A failed add is reported by the commit, even if the searcher was
+	 * refreshed in between. The shard keeps working, but no later commit
+	 * is reported as durable.
+	 */
+	public void testFailure() throws IOException {
+		mgr.addDoc(doc("1"));
+		Document bad = doc("2");
+		bad.add(new Field("bad", new TokenStream() {
+			public boolean incrementToken() {
+				throw new IllegalStateException("broken analysis");
+			}
+		}));
+		mgr.addDoc(bad);
+		mgr.setRefreshInterval(0);
+		// the searcher is refreshed, and it sees the other documents
+		assertNotNull(mgr.getDocById("1"));
+		assertNull(mgr.getDocById("2"));
+		assertFalse(mgr.commit());
+
+		// the thread of the shard is alive
+		for(int i = 10; i < 10 + DOCS; i++) {
+			mgr.addDoc(doc("" + i));
+		}
+		assertNotNull(mgr.getDocById("" + (9 + DOCS)));
+		assertFalse(mgr.commit());
+	}
+
+	/**
+	 * An operation dropped because the caller was interrupted is not
+	 * reported as committed
+	 */
+	public void testInterruptedAdd() throws IOException {
+		mgr.addDoc(doc("1"));
+		Thread.currentThread().interrupt();
+		mgr.addDoc(doc("2"));
+		assertTrue(Thread.interrupted());
+		assertFalse(mgr.commit());
+		assertNotNull(mgr.getDocById("1"));
+		assertNull(mgr.getDocById("2"));
+	}
+
+	/**
+	 * If the thread of a shard is interrupted, the operations are not
+	 * blocked, and they are not reported as committed
+	 */
+	public void testInterruptedShard() throws IOException {
+		Thread[] threads = new Thread[Thread.activeCount() + 10];
+		int count = Thread.enumerate(threads);
+		int interrupted = 0;
+		for(int i = 0; i < count; i++) {
+			if(threads[i].getName().startsWith("lucene-")) {
+				threads[i].interrupt();
+				interrupted++;
+			}
+		}
+		assertEquals(SHARDS, interrupted);
+		// more than the queues can hold
+		for(int i = 0; i < 2000 * SHARDS; i++) {
+			mgr.addDoc(doc("" + i));
+		}
+		assertFalse(mgr.commit());
+	}
+
+	/**
+	 * The largest XC ID is read from all shards, committed or not. The
+	 * xc_id is a numeric field, as written by the importer.
+	 */
+	public void testMaxXcId() throws IOException {
+		assertEquals(0, mgr.getMaxXcId());
+		for(int i = 0; i < DOCS; i++) {
+			Document doc = doc("" + i);
+			doc.add(xcId(i * 7 % DOCS + 1));
+			mgr.addDoc(doc);
+		}
+		assertTrue(mgr.commit());
+		mgr.setRefreshInterval(0);
+		assertEquals(DOCS, mgr.getMaxXcId());
+		Document doc = doc("last");
+		doc.add(xcId(1000));
+		mgr.addDoc(doc);
+		assertEquals(1000, mgr.getMaxXcId());
+		mgr.close();
+
+		mgr = new LuceneIndexMgr(dir.getPath(), SHARDS);
+		assertEquals(1000, mgr.getMaxXcId());
+	}
+
+	/**
+	 * After more changes than the remembered ids (10000), the documents are
+	 * still found in their current state
+	 */
+	public void testManyChanges() throws IOException {
+		assertNull(mgr.getDocById("0"));
+		for(int i = 0; i < 12000; i++) {
+			mgr.addDoc(doc("" + i));
+		}
+		assertNotNull(mgr.getDocById("0"));
+		assertNotNull(mgr.getDocById("11999"));
+		mgr.delDoc("id", "0");
+		assertNull(mgr.getDocById("0"));
+	}
+
+	private int committedDocs() throws IOException {
+		int total = 0;
+		for(File shardDir : LuceneIndexMgr.getShardDirs(dir)) {
+			IndexReader reader = IndexReader.open(FSDirectory.open(shardDir),
+					true);
+			total += reader.numDocs();
+			reader.close();
+		}
+		return total;
+	}
+
+	private static NumericField xcId(int value) {
+		NumericField xcId = new NumericField("xc_id", Store.YES, true);
+		xcId.setIntValue(value);
+		return xcId;
+	}
+
+	private Document doc(String id) {
+		Document doc = new Document();
+		doc.add(mgr.keyword("id", id));
+		return doc;
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if(files != null) {
+			for(File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
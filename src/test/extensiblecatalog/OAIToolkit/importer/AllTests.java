@@ -19,6 +19,17 @@ public class AllTests {
 				"Test for test.extensiblecatalog.OAIToolkit.importer");
 		//$JUnit-BEGIN$
 		suite.addTestSuite(MarcCounterTestCase.class);
+		suite.addTestSuite(RecordQueueTestCase.class);
+		suite.addTestSuite(MappedMarcReaderTestCase.class);
+		suite.addTestSuite(DirectMarcXmlWriterTestCase.class);
+		suite.addTestSuite(MarcXmlSaxWriterTestCase.class);
+		suite.addTestSuite(MarcStructureValidatorTestCase.class);
+		suite.addTestSuite(ModifierTestCase.class);
+		suite.addTestSuite(RecordSanitizerTestCase.class);
+		suite.addTestSuite(ImportJournalTestCase.class);
+		suite.addTestSuite(MARCRecordWrapperTestCase.class);
+		suite.addTestSuite(LuceneImporterTestCase.class);
+		suite.addTestSuite(ConverterPipelineTestCase.class);
 		//$JUnit-END$
 		return suite;
 	}
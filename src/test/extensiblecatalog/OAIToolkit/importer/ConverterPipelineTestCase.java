@@ -0,0 +1,295 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package test.extensiblecatalog.OAIToolkit.importer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.marc4j.MarcStreamWriter;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.MarcFactory;
+import org.marc4j.marc.Record;
+
+import info.extensiblecatalog.OAIToolkit.importer.Converter;
+import info.extensiblecatalog.OAIToolkit.importer.ImportJournal;
+import info.extensiblecatalog.OAIToolkit.importer.MARCRecordWrapper;
+import info.extensiblecatalog.OAIToolkit.importer.ImporterConstants.ImportType;
+import info.extensiblecatalog.OAIToolkit.importer.importers.IParallelImporter;
+import info.extensiblecatalog.OAIToolkit.importer.importers.PreparedRecord;
+import info.extensiblecatalog.OAIToolkit.importer.statistics.ConversionStatistics;
+import info.extensiblecatalog.OAIToolkit.utils.TextUtil;
+import junit.framework.TestCase;
+
+/**
+ * The conversion with more threads (-convert_threads) gives the same
+ * result as with one thread, and its threads stop with the conversion
+ */
+public class ConverterPipelineTestCase extends TestCase {
+
+	private static final int RECORDS = 250;
+
+	private static final MarcFactory factory = MarcFactory.newInstance();
+
+	private File dir;
+	private File marcFile;
+
+	public void setUp() throws IOException {
+		dir = File.createTempFile("convert", "");
+		dir.delete();
+		dir.mkdirs();
+		marcFile = new File(dir, "records.mrc");
+		MarcStreamWriter writer = new MarcStreamWriter(
+				new FileOutputStream(marcFile), "UTF8");
+		for(int i = 0; i < RECORDS; i++) {
+			writer.write(createRecord(i));
+		}
+		writer.close();
+	}
+
+	public void tearDown() {
+		File[] files = dir.listFiles();
+		if(files != null) {
+			for(File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	/**
+	 * The XML files written by more threads are the same as the files of
+	 * one thread (with the MarcXmlWriter), split at the same records
+	 */
+	public void testOrderOfXml() throws Exception {
+		for(boolean indent : new boolean[]{false, true}) {
+			List<String> expected = convert(1, indent, "single");
+			assertEquals(3, expected.size());
+			for(int threads : new int[]{2, 4}) {
+				assertEquals(expected, convert(threads, indent, "parallel"));
+			}
+		}
+	}
+
+	/**
+	 * The records are prepared by the threads, and imported in the order
+	 * of the file
+	 */
+	public void testOrderOfImport() throws Exception {
+		StubImporter importer = new StubImporter();
+		Converter converter = createConverter(4);
+		converter.setRecordImporter(importer);
+		ConversionStatistics statistics = converter.convert(marcFile,
+				new File(dir, "records.xml"));
+		assertEquals(RECORDS, statistics.getConverted());
+		assertEquals(RECORDS, importer.imported.size());
+		for(int i = 0; i < RECORDS; i++) {
+			assertEquals(controlNumber(i), importer.imported.get(i));
+		}
+		assertFalse(importer.preparingThreads.isEmpty());
+		assertFalse(importer.preparingThreads.contains(importer.importingThread));
+		assertFalse(isWriterAlive());
+	}
+
+	/**
+	 * An interrupted conversion stops its writer before it returns, even if
+	 * it was interrupted while it waited for the writer
+	 */
+	public void testInterrupt() throws Exception {
+		StubImporter importer = new StubImporter();
+		importer.delay = 5;
+		importer.interruptAt = 10;
+		importer.converterThread = Thread.currentThread();
+		Converter converter = createConverter(4);
+		converter.setRecordImporter(importer);
+		try {
+			converter.convert(marcFile, new File(dir, "records.xml"));
+			fail("The conversion was interrupted.");
+		} catch(InterruptedException e) {
+			// expected
+		} finally {
+			// clear the flag
+			Thread.interrupted();
+		}
+		assertFalse(isWriterAlive());
+		int imported = importer.imported.size();
+		assertTrue(imported < RECORDS);
+		Thread.sleep(200);
+		assertEquals(imported, importer.imported.size());
+	}
+
+	/**
+	 * Convert the MARC file
+	 * @return The content of the XML files
+	 */
+	private List<String> convert(int threads, boolean indent, String name)
+			throws Exception {
+		Converter converter = createConverter(threads);
+		converter.setDoIndentXml(indent);
+		converter.setSplitSize(100);
+		File xmlFile = new File(dir, name + ".xml");
+		ConversionStatistics statistics = converter.convert(marcFile, xmlFile);
+		assertEquals(RECORDS, statistics.getConverted());
+		assertFalse(isWriterAlive());
+		List<String> contents = new ArrayList<String>();
+		contents.add(TextUtil.readFileAsString(xmlFile));
+		xmlFile.delete();
+		for(int i = 100; i < RECORDS; i += 100) {
+			File part = new File(dir, name + "_" + i + ".xml");
+			contents.add(TextUtil.readFileAsString(part));
+			part.delete();
+		}
+		return contents;
+	}
+
+	private Converter createConverter(int threads) {
+		Converter converter = new Converter();
+		converter.setErrorDir(dir.getPath());
+		converter.setRecordThreads(threads);
+		return converter;
+	}
+
+	private static boolean isWriterAlive() {
+		Thread[] threads = new Thread[Thread.activeCount() + 10];
+		int count = Thread.enumerate(threads);
+		for(int i = 0; i < count; i++) {
+			if(threads[i].getName().startsWith("Converter writer of ")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String controlNumber(int i) {
+		return "rec" + i;
+	}
+
+	private static Record createRecord(int i) {
+		Record record = factory.newRecord("00000nam a2200000 a 4500");
+		record.addVariableField(factory.newControlField("001",
+				controlNumber(i)));
+		DataField field = factory.newDataField("245", '1', '0');
+		field.addSubfield(factory.newSubfield('a', "Title \u00e9 & <" + i + ">"));
+		record.addVariableField(field);
+		return record;
+	}
+
+	/**
+	 * Records the imported records
+	 */
+	private static class StubImporter implements IParallelImporter {
+
+		List<String> imported =
+			Collections.synchronizedList(new ArrayList<String>());
+		Set<Thread> preparingThreads =
+			Collections.synchronizedSet(new HashSet<Thread>());
+		Thread importingThread;
+
+		/** The time of an import (milliseconds) */
+		long delay = 0;
+
+		/** Interrupt the converter thread at the Nth import (-1: never) */
+		int interruptAt = -1;
+		Thread converterThread;
+
+		public PreparedRecord prepareRecord(Record record,
+				boolean doFileOfDeletedRecords) {
+			preparingThreads.add(Thread.currentThread());
+			return new PreparedRecord(record,
+					new MARCRecordWrapper(record, false));
+		}
+
+		public List<ImportType> importPreparedRecord(PreparedRecord prepared) {
+			return importRecord(prepared.getRecord(), false);
+		}
+
+		public List<ImportType> importRecord(Record record,
+				boolean doFileOfDeletedRecords) {
+			importingThread = Thread.currentThread();
+			if(imported.size() == interruptAt) {
+				converterThread.interrupt();
+			}
+			if(delay > 0) {
+				try {
+					Thread.sleep(delay);
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			imported.add(record.getControlNumber());
+			return Arrays.asList(ImportType.CREATED);
+		}
+
+		public String getLastRecordToImport() {
+			return null;
+		}
+
+		public void setCurrentFile(String currentFile) {
+		}
+
+		public void closeCurrentFile() {
+		}
+
+		public void setDoIndentXml(boolean doIndentXml) {
+		}
+
+		public void setEventValidation(boolean eventValidation) {
+		}
+
+		public void setNativeValidation(boolean nativeValidation) {
+		}
+
+		public void setXsdSampleRate(int xsdSampleRate) {
+		}
+
+		public void setDefaultRepositoryCode(String defaultRepositoryCode) {
+		}
+
+		@SuppressWarnings("deprecation")
+		public void setCreateXml11(boolean createXml11) {
+		}
+
+		public void optimize() {
+		}
+
+		public void commit() {
+		}
+
+		public void setJournal(ImportJournal journal) {
+		}
+
+		public void writeBadRecord(Record record) {
+		}
+
+		public void setErrorXmlDir(String errorXmlDir) {
+		}
+
+		public long getCheckTime() {
+			return 0;
+		}
+
+		public int getTrackedOaiIdValue() {
+			return 0;
+		}
+
+		public void setTrackedOaiIdValue(int trackedOaiIdNumberValue) {
+		}
+
+		public long getInsertTime() {
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,142 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package test.extensiblecatalog.OAIToolkit.importer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.marc4j.MarcException;
+import org.marc4j.MarcPermissiveStreamReader;
+import org.marc4j.MarcReader;
+import org.marc4j.MarcWriter;
+import org.marc4j.MarcXmlWriter;
+import org.marc4j.converter.impl.AnselToUnicode;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.MarcFactory;
+import org.marc4j.marc.Record;
+
+import info.extensiblecatalog.OAIToolkit.importer.DirectMarcXmlWriter;
+
+import junit.framework.TestCase;
+
+public class DirectMarcXmlWriterTestCase extends TestCase {
+
+	private static final MarcFactory factory = MarcFactory.newInstance();
+
+	private static final String[] MARC_FILES = new String[]{
+		"sample_marcdata/sample_marc1.mrc",
+		"sample_marcdata/demo_175/demo_records_bibs.mrc",
+		"sample_marcdata/diacritics/1.mrc"
+	};
+
+	public void testSameOutput() throws Exception {
+		for(String fileName : MARC_FILES) {
+			List<Record> records = new ArrayList<Record>();
+			MarcReader reader = new MarcPermissiveStreamReader(
+					new FileInputStream(fileName), true, true);
+			while(reader.hasNext()) {
+				records.add(reader.next());
+			}
+			assertSameOutput(fileName, records, false, false);
+			assertSameOutput(fileName, records, true, false);
+			assertSameOutput(fileName, records, false, true);
+		}
+	}
+
+	public void testEscaping() throws Exception {
+		Record record = factory.newRecord("00000nam a2200000 a 4500");
+		record.addVariableField(factory.newControlField("001", "a&b<c>d\"e'f"));
+		record.addVariableField(factory.newControlField("005", ""));
+		record.addVariableField(factory.newDataField("500", '"', '<'));
+		DataField field = factory.newDataField("245", '1', '0');
+		field.addSubfield(factory.newSubfield('a', "tab\tnl\ncr\rnul\u0000"));
+		field.addSubfield(factory.newSubfield('b', "c1\u0085\u009f del\u007f"));
+		field.addSubfield(factory.newSubfield('c', "\u00e9\u0151\u20ac\ud83d\ude00"));
+		field.addSubfield(factory.newSubfield('d', "lone \udc00 high\ud800"));
+		field.addSubfield(factory.newSubfield('&', ""));
+		record.addVariableField(field);
+		field = factory.newDataField("246", ' ', ' ');
+		field.addSubfield(factory.newSubfield('a', "\udc01 completes the high one"));
+		record.addVariableField(field);
+
+		List<Record> records = Arrays.asList(new Record[]{record});
+		assertSameOutput("escaping", records, false, false);
+		assertSameOutput("escaping", records, true, false);
+	}
+
+	public void testSingleRecords() throws Exception {
+		List<Record> records = new ArrayList<Record>();
+		MarcReader reader = new MarcPermissiveStreamReader(
+				new FileInputStream(MARC_FILES[0]), true, true);
+		while(reader.hasNext()) {
+			records.add(reader.next());
+		}
+		for(boolean indent : new boolean[]{false, true}) {
+			// the same writer serializes all the records
+			DirectMarcXmlWriter directWriter = new DirectMarcXmlWriter(indent);
+			for(Record record : records) {
+				ByteArrayOutputStream expected = new ByteArrayOutputStream();
+				MarcXmlWriter saxWriter = new MarcXmlWriter(expected, "UTF-8", indent);
+				saxWriter.write(record);
+				saxWriter.close();
+				assertEquals(expected.toString("UTF-8"),
+						new String(directWriter.toXml(record), "UTF-8"));
+			}
+		}
+	}
+
+	public void testEmptyCollection() throws Exception {
+		List<Record> records = new ArrayList<Record>();
+		assertSameOutput("empty", records, false, false);
+		assertSameOutput("empty", records, true, false);
+	}
+
+	public void testInvalidSurrogate() throws Exception {
+		Record record = factory.newRecord("00000nam a2200000 a 4500");
+		record.addVariableField(factory.newControlField("001", "a\ud800b&\u0001"));
+		DirectMarcXmlWriter writer = new DirectMarcXmlWriter(
+				new ByteArrayOutputStream(), false);
+		try {
+			writer.write(record);
+			fail("A high surrogate followed by a control character is invalid");
+		} catch(MarcException e) {
+			// expected, as from the MarcXmlWriter
+		}
+	}
+
+	private void assertSameOutput(String message, List<Record> records,
+			boolean indent, boolean convert) throws Exception {
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		MarcXmlWriter saxWriter = new MarcXmlWriter(expected, "UTF8", indent);
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		DirectMarcXmlWriter directWriter = new DirectMarcXmlWriter(actual, indent);
+		if(convert) {
+			saxWriter.setConverter(new AnselToUnicode());
+			saxWriter.setUnicodeNormalization(true);
+			directWriter.setConverter(new AnselToUnicode());
+			directWriter.setUnicodeNormalization(true);
+		}
+		write(saxWriter, records);
+		write(directWriter, records);
+		assertEquals(message + ", indent: " + indent + ", convert: " + convert,
+				expected.toString("UTF-8"), actual.toString("UTF-8"));
+		assertTrue(Arrays.equals(expected.toByteArray(), actual.toByteArray()));
+	}
+
+	private static void write(MarcWriter writer, List<Record> records) {
+		for(Record record : records) {
+			writer.write(record);
+		}
+		writer.close();
+	}
+}
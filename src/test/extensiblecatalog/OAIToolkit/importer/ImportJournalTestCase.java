@@ -0,0 +1,96 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package test.extensiblecatalog.OAIToolkit.importer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import info.extensiblecatalog.OAIToolkit.importer.ImportJournal;
+
+import junit.framework.TestCase;
+
+public class ImportJournalTestCase extends TestCase {
+
+	private File journalFile;
+	private File xmlFile;
+
+	protected void setUp() throws Exception {
+		journalFile = File.createTempFile("import", ".journal");
+		journalFile.deleteOnExit();
+		xmlFile = File.createTempFile("records", ".xml");
+		xmlFile.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(xmlFile);
+		out.write("<collection/>".getBytes("UTF-8"));
+		out.close();
+	}
+
+	public void testLastCheckpoint() {
+		ImportJournal journal = new ImportJournal(journalFile);
+		journal.reset();
+		assertNull(journal.readLastCheckpoint());
+
+		journal.startFile(xmlFile, 0);
+		journal.recordStored();
+		journal.recordStored();
+		journal.checkpoint(12, 3);
+		journal.recordStored();
+		journal.checkpoint(13, 4);
+
+		ImportJournal.Checkpoint checkpoint =
+			new ImportJournal(journalFile).readLastCheckpoint();
+		assertEquals(xmlFile.getName(), checkpoint.getFileName());
+		assertEquals(3, checkpoint.getRecords());
+		assertEquals(13, checkpoint.getTrackedOaiIdValue());
+		assertEquals(4, checkpoint.getGeneration());
+		assertTrue(checkpoint.isOf(xmlFile));
+		assertFalse(checkpoint.isOf(journalFile));
+	}
+
+	public void testResumedFile() {
+		ImportJournal journal = new ImportJournal(journalFile);
+		journal.reset();
+		journal.startFile(xmlFile, 100);
+		journal.recordStored();
+		journal.checkpoint(7, 1);
+		assertEquals(101, journal.readLastCheckpoint().getRecords());
+	}
+
+	public void testIncompleteLineIsIgnored() throws Exception {
+		ImportJournal journal = new ImportJournal(journalFile);
+		journal.reset();
+		journal.startFile(xmlFile, 0);
+		journal.recordStored();
+		journal.checkpoint(5, 2);
+		FileOutputStream out = new FileOutputStream(journalFile, true);
+		out.write((xmlFile.getName() + "\t13\t2\t6\t3").getBytes("UTF-8"));
+		out.close();
+
+		ImportJournal.Checkpoint checkpoint = journal.readLastCheckpoint();
+		assertEquals(1, checkpoint.getRecords());
+		assertEquals(5, checkpoint.getTrackedOaiIdValue());
+	}
+
+	public void testReset() {
+		ImportJournal journal = new ImportJournal(journalFile);
+		journal.startFile(xmlFile, 0);
+		journal.checkpoint(1, 1);
+		assertNotNull(journal.readLastCheckpoint());
+		journal.reset();
+		assertFalse(journalFile.exists());
+		assertNull(journal.readLastCheckpoint());
+	}
+
+	public void testNoCheckpointBeforeFile() {
+		ImportJournal journal = new ImportJournal(journalFile);
+		journal.reset();
+		journal.checkpoint(1, 1);
+		assertNull(journal.readLastCheckpoint());
+	}
+}
@@ -0,0 +1,244 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package test.extensiblecatalog.OAIToolkit.importer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.store.FSDirectory;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.MarcFactory;
+import org.marc4j.marc.Record;
+
+import info.extensiblecatalog.OAIToolkit.db.LuceneIndexMgr;
+import info.extensiblecatalog.OAIToolkit.importer.MARCRecordWrapper;
+import info.extensiblecatalog.OAIToolkit.importer.ImporterConstants.ImportType;
+import info.extensiblecatalog.OAIToolkit.importer.importers.LuceneImporter;
+import info.extensiblecatalog.OAIToolkit.importer.importers.PreparedRecord;
+import info.extensiblecatalog.OAIToolkit.oai.PayloadRenderer;
+import info.extensiblecatalog.OAIToolkit.utils.ApplInfo;
+import junit.framework.TestCase;
+
+public class LuceneImporterTestCase extends TestCase {
+
+	private static final String SCHEMA = "xsd/MARC21slim_rochester.xsd";
+	private static final String PAYLOAD_FIELD =
+		LuceneIndexMgr.PAYLOAD_FIELD_PREFIX + "marc21";
+
+	private static final MarcFactory factory = MarcFactory.newInstance();
+
+	private File dir;
+	private String recordType;
+
+	public void setUp() throws IOException {
+		dir = File.createTempFile("lucene", "");
+		dir.delete();
+		dir.mkdirs();
+		// the sets are read from the database by the application
+		String type = new MARCRecordWrapper(createRecord(), false)
+			.getRecordTypeAbbreviation();
+		if(!ApplInfo.setIdsByName.containsKey(type)) {
+			ApplInfo.setIdsByName.put(type, 1);
+			recordType = type;
+		}
+	}
+
+	public void tearDown() {
+		if(recordType != null) {
+			ApplInfo.setIdsByName.remove(recordType);
+		}
+		delete(dir);
+	}
+
+	/**
+	 * An unchanged record is stored again, when the payloads are enabled,
+	 * changed or disabled
+	 */
+	public void testPayloadBackfill() throws Exception {
+		assertEquals(ImportType.CREATED, load(null).get(0));
+		assertNull(storedDoc().getBinaryValue(PAYLOAD_FIELD));
+		assertEquals(ImportType.UNCHANGED, load(null).get(0));
+
+		// payloads are enabled
+		PayloadRenderer renderer = renderer(PayloadRenderer.DEFAULT_SCHEMA_URL);
+		assertEquals(ImportType.UPDATED, load(renderer).get(0));
+		String payload = new String(storedDoc().getBinaryValue(PAYLOAD_FIELD),
+				"UTF-8");
+		assertTrue(payload.contains("Title"));
+		assertEquals(ImportType.UNCHANGED, load(renderer).get(0));
+
+		// other schema URL
+		renderer = renderer("http://localhost/MARC21slim_custom.xsd");
+		assertEquals(ImportType.UPDATED, load(renderer).get(0));
+		assertEquals(ImportType.UNCHANGED, load(renderer).get(0));
+
+		// payloads are disabled: the old ones are removed
+		assertEquals(ImportType.UPDATED, load(null).get(0));
+		assertNull(storedDoc().getBinaryValue(PAYLOAD_FIELD));
+		assertEquals(ImportType.UNCHANGED, load(null).get(0));
+	}
+
+	/**
+	 * The records prepared by more threads and stored in the order of the
+	 * file (-load_threads) get the same results and identifiers as the
+	 * records imported one by one
+	 */
+	public void testParallelPreparation() throws Exception {
+		List<Record> records = new ArrayList<Record>();
+		for(int i = 0; i < 60; i++) {
+			Record record = createRecord("p" + i);
+			if(i % 10 == 3) {
+				// invalid according to the schema
+				DataField field = factory.newDataField("24", '1', '0');
+				field.addSubfield(factory.newSubfield('a', "Bad tag"));
+				record.addVariableField(field);
+			}
+			records.add(record);
+		}
+
+		File serialDir = new File(dir, "serial");
+		LuceneImporter importer = new LuceneImporter(SCHEMA,
+				serialDir.getPath());
+		List<List<ImportType>> expected = new ArrayList<List<ImportType>>();
+		for(Record record : records) {
+			expected.add(importer.importRecord(record, false));
+		}
+		importer.commit();
+		importer.optimize();
+
+		File parallelDir = new File(dir, "parallel");
+		final LuceneImporter parallelImporter = new LuceneImporter(SCHEMA,
+				parallelDir.getPath());
+		ExecutorService workers = Executors.newFixedThreadPool(4);
+		List<Future<PreparedRecord>> pending =
+			new ArrayList<Future<PreparedRecord>>();
+		for(final Record record : records) {
+			pending.add(workers.submit(new Callable<PreparedRecord>() {
+				public PreparedRecord call() {
+					return parallelImporter.prepareRecord(record, false);
+				}
+			}));
+		}
+		List<List<ImportType>> types = new ArrayList<List<ImportType>>();
+		for(Future<PreparedRecord> future : pending) {
+			types.add(parallelImporter.importPreparedRecord(future.get()));
+		}
+		workers.shutdown();
+		parallelImporter.commit();
+		parallelImporter.optimize();
+
+		assertEquals(expected, types);
+		assertTrue(expected.contains(Arrays.asList(ImportType.INVALID)));
+		Map<String, Document> serialDocs = storedDocs(serialDir);
+		Map<String, Document> parallelDocs = storedDocs(parallelDir);
+		assertEquals(54, serialDocs.size());
+		assertEquals(serialDocs.keySet(), parallelDocs.keySet());
+		for(String id : serialDocs.keySet()) {
+			Document serialDoc = serialDocs.get(id);
+			Document parallelDoc = parallelDocs.get(id);
+			String[] fields = {"xc_oaiid", "xc_id", "digest"};
+			for(String field : fields) {
+				assertNotNull(serialDoc.get(field));
+				assertEquals(serialDoc.get(field), parallelDoc.get(field));
+			}
+		}
+	}
+
+	private static PayloadRenderer renderer(String schemaUrl)
+			throws Exception {
+		PayloadRenderer renderer = new PayloadRenderer(schemaUrl);
+		renderer.addFormat("marc21", null);
+		return renderer;
+	}
+
+	/**
+	 * Load the record with a new importer
+	 * @param renderer The payload renderer, or null
+	 * @return The types of the import
+	 */
+	private List<ImportType> load(PayloadRenderer renderer) {
+		LuceneImporter importer = new LuceneImporter(SCHEMA, dir.getPath());
+		importer.setPayloadRenderer(renderer);
+		List<ImportType> types = importer.importRecord(createRecord(), false);
+		importer.commit();
+		importer.optimize();
+		return types;
+	}
+
+	private Document storedDoc() throws IOException {
+		IndexReader reader = IndexReader.open(FSDirectory.open(dir), true);
+		try {
+			TermDocs docs = reader.termDocs(new Term("external_id", "123"));
+			assertTrue(docs.next());
+			Document doc = reader.document(docs.doc());
+			assertFalse(docs.next());
+			return doc;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Get the documents of the index by their external id
+	 */
+	private static Map<String, Document> storedDocs(File indexDir)
+			throws IOException {
+		Map<String, Document> docs = new HashMap<String, Document>();
+		IndexReader reader = IndexReader.open(FSDirectory.open(indexDir), true);
+		try {
+			for(int i = 0; i < reader.maxDoc(); i++) {
+				if(!reader.isDeleted(i)) {
+					Document doc = reader.document(i);
+					docs.put(doc.get("external_id"), doc);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return docs;
+	}
+
+	private static Record createRecord() {
+		return createRecord("123");
+	}
+
+	private static Record createRecord(String controlNumber) {
+		Record record = factory.newRecord("00000nam a2200000 a 4500");
+		record.addVariableField(factory.newControlField("001", controlNumber));
+		record.addVariableField(factory.newControlField("003", "NRU"));
+		DataField field = factory.newDataField("245", '1', '0');
+		field.addSubfield(factory.newSubfield('a', "Title"));
+		record.addVariableField(field);
+		return record;
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if(files != null) {
+			for(File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,62 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package test.extensiblecatalog.OAIToolkit.importer;
+
+import java.security.MessageDigest;
+
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.MarcFactory;
+import org.marc4j.marc.Record;
+
+import info.extensiblecatalog.OAIToolkit.importer.MARCRecordWrapper;
+
+import junit.framework.TestCase;
+
+public class MARCRecordWrapperTestCase extends TestCase {
+
+	private static final MarcFactory factory = MarcFactory.newInstance();
+
+	public void testDigestOfCanonicalXml() throws Exception {
+		MARCRecordWrapper wrapper = new MARCRecordWrapper(createRecord("Title"), false);
+		wrapper.setDoIndentXml(false);
+		byte[] hash = MessageDigest.getInstance("MD5").digest(wrapper.getXmlBytes());
+		StringBuilder sb = new StringBuilder();
+		for(byte b : hash) {
+			sb.append(String.format("%02x", b & 0xff));
+		}
+		assertEquals(32, wrapper.getDigest().length());
+		assertEquals(sb.toString(), wrapper.getDigest());
+	}
+
+	public void testDigestIgnoresIndentation() {
+		MARCRecordWrapper plain = new MARCRecordWrapper(createRecord("Title"), false);
+		plain.setDoIndentXml(false);
+		MARCRecordWrapper indented = new MARCRecordWrapper(createRecord("Title"), false);
+		indented.setDoIndentXml(true);
+		assertFalse(plain.getXml().equals(indented.getXml()));
+		assertEquals(plain.getDigest(), indented.getDigest());
+	}
+
+	public void testDigestOfChangedRecord() {
+		MARCRecordWrapper original = new MARCRecordWrapper(createRecord("Title"), false);
+		MARCRecordWrapper changed = new MARCRecordWrapper(createRecord("Title."), false);
+		assertFalse(original.getDigest().equals(changed.getDigest()));
+	}
+
+	private static Record createRecord(String title) {
+		Record record = factory.newRecord("00000nam a2200000 a 4500");
+		record.addVariableField(factory.newControlField("001", "123"));
+		record.addVariableField(factory.newControlField("003", "NRU"));
+		DataField field = factory.newDataField("245", '1', '0');
+		field.addSubfield(factory.newSubfield('a', title));
+		record.addVariableField(field);
+		return record;
+	}
+}
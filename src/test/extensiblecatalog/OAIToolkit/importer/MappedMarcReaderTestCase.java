@@ -0,0 +1,92 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package test.extensiblecatalog.OAIToolkit.importer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.marc4j.MarcPermissiveStreamReader;
+import org.marc4j.MarcReader;
+import org.marc4j.marc.Record;
+
+import info.extensiblecatalog.OAIToolkit.importer.MappedMarcReader;
+
+import junit.framework.TestCase;
+
+public class MappedMarcReaderTestCase extends TestCase {
+
+	private static final String[] MARC_FILES = new String[]{
+		"sample_marcdata/sample_marc1.mrc",
+		"sample_marcdata/demo_175/demo_records_bibs.mrc",
+		"sample_marcdata/diacritics/1.mrc"
+	};
+
+	public void testSameRecords() throws Exception {
+		for(String fileName : MARC_FILES) {
+			File file = new File(fileName);
+			assertEquals(fileName, readPermissive(file), readMapped(file));
+		}
+	}
+
+	public void testDamagedFile() throws Exception {
+		File source = new File(MARC_FILES[0]);
+		byte[] bytes = new byte[(int)source.length()];
+		FileInputStream in = new FileInputStream(source);
+		int read = 0;
+		while(read < bytes.length) {
+			read += in.read(bytes, read, bytes.length - read);
+		}
+		in.close();
+		// break the record length of the second record, and cut the file
+		int second = Integer.parseInt(new String(bytes, 0, 5));
+		bytes[second + 2] = 'x';
+		File damaged = File.createTempFile("damaged", ".mrc");
+		damaged.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(damaged);
+		out.write(bytes, 0, bytes.length - 100);
+		out.close();
+
+		assertEquals(readPermissive(damaged), readMapped(damaged));
+	}
+
+	private List<String> readPermissive(File file) throws Exception {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			return read(new MarcPermissiveStreamReader(in, true, true));
+		} finally {
+			in.close();
+		}
+	}
+
+	private List<String> readMapped(File file) throws Exception {
+		MappedMarcReader reader = new MappedMarcReader(file);
+		try {
+			return read(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	private List<String> read(MarcReader reader) {
+		List<String> records = new ArrayList<String>();
+		while(reader.hasNext()) {
+			try {
+				Record record = reader.next();
+				records.add(record.toString());
+			} catch(Exception e) {
+				records.add(e.getClass().getName() + ": " + e.getMessage());
+			}
+		}
+		return records;
+	}
+}
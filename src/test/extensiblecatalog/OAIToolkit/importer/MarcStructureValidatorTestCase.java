@@ -0,0 +1,96 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package test.extensiblecatalog.OAIToolkit.importer;
+
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.MarcFactory;
+import org.marc4j.marc.Record;
+
+import info.extensiblecatalog.OAIToolkit.importer.MarcStructureValidator;
+
+import junit.framework.TestCase;
+
+public class MarcStructureValidatorTestCase extends TestCase {
+
+	private static final MarcFactory factory = MarcFactory.newInstance();
+
+	public void testValidRecord() {
+		assertTrue(MarcStructureValidator.isValid(createRecord()));
+	}
+
+	public void testLeader() {
+		assertTrue(MarcStructureValidator.isValidLeader("00000nam a2200000 a 4500"));
+		assertTrue(MarcStructureValidator.isValidLeader("00000nam a2200000 a     "));
+		assertFalse(MarcStructureValidator.isValidLeader("00000nam a2200000 a 450"));
+		assertFalse(MarcStructureValidator.isValidLeader("0000xnam a2200000 a 4500"));
+		assertFalse(MarcStructureValidator.isValidLeader("00000n m a2200000 a 4500"));
+		assertFalse(MarcStructureValidator.isValidLeader("00000nam a3200000 a 4500"));
+		// allowed by the Rochester schema, but suspicious for the original
+		assertFalse(MarcStructureValidator.isValidLeader("00000nam a2200000 a 4510"));
+	}
+
+	public void testTags() {
+		assertTrue(MarcStructureValidator.isValidControlTag("001"));
+		assertTrue(MarcStructureValidator.isValidControlTag("00a"));
+		assertFalse(MarcStructureValidator.isValidControlTag("000"));
+		assertFalse(MarcStructureValidator.isValidControlTag("010"));
+
+		assertTrue(MarcStructureValidator.isValidTag("245"));
+		assertTrue(MarcStructureValidator.isValidTag("010"));
+		assertTrue(MarcStructureValidator.isValidTag("0A0"));
+		assertTrue(MarcStructureValidator.isValidTag("abc"));
+		assertFalse(MarcStructureValidator.isValidTag("001"));
+		assertFalse(MarcStructureValidator.isValidTag("aB1"));
+		assertFalse(MarcStructureValidator.isValidTag("24"));
+		assertFalse(MarcStructureValidator.isValidTag("2450"));
+	}
+
+	public void testIndicatorsAndCodes() {
+		assertTrue(MarcStructureValidator.isValidIndicator(' '));
+		assertTrue(MarcStructureValidator.isValidIndicator('0'));
+		assertTrue(MarcStructureValidator.isValidIndicator('z'));
+		assertFalse(MarcStructureValidator.isValidIndicator('Z'));
+		assertFalse(MarcStructureValidator.isValidIndicator('#'));
+
+		assertTrue(MarcStructureValidator.isValidCode('a'));
+		assertTrue(MarcStructureValidator.isValidCode('Z'));
+		assertTrue(MarcStructureValidator.isValidCode('-'));
+		assertTrue(MarcStructureValidator.isValidCode('\\'));
+		assertFalse(MarcStructureValidator.isValidCode(' '));
+		assertFalse(MarcStructureValidator.isValidCode('@'));
+		assertFalse(MarcStructureValidator.isValidCode('|'));
+		assertFalse(MarcStructureValidator.isValidCode('\u00e9'));
+	}
+
+	public void testInvalidRecords() {
+		Record record = createRecord();
+		((DataField)record.getVariableField("245")).getSubfields().clear();
+		assertFalse(MarcStructureValidator.isValid(record));
+
+		record = createRecord();
+		record.addVariableField(factory.newControlField("005", "a\u0001b"));
+		assertFalse(MarcStructureValidator.isValid(record));
+
+		record = createRecord();
+		DataField field = factory.newDataField("500", ' ', ' ');
+		field.addSubfield(factory.newSubfield('a', "broken \ud800 pair"));
+		record.addVariableField(field);
+		assertFalse(MarcStructureValidator.isValid(record));
+	}
+
+	private static Record createRecord() {
+		Record record = factory.newRecord("00000nam a2200000 a 4500");
+		record.addVariableField(factory.newControlField("001", "123"));
+		DataField field = factory.newDataField("245", '1', '0');
+		field.addSubfield(factory.newSubfield('a', "Title \ud834\udd1e"));
+		record.addVariableField(field);
+		return record;
+	}
+}
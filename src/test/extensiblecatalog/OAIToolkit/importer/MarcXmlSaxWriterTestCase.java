@@ -0,0 +1,86 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package test.extensiblecatalog.OAIToolkit.importer;
+
+import java.io.FileInputStream;
+
+import org.marc4j.MarcPermissiveStreamReader;
+import org.marc4j.MarcReader;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.MarcFactory;
+import org.marc4j.marc.Record;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import info.extensiblecatalog.OAIToolkit.importer.DirectMarcXmlWriter;
+import info.extensiblecatalog.OAIToolkit.importer.MarcXmlSaxWriter;
+import info.extensiblecatalog.OAIToolkit.utils.XMLValidator;
+
+import junit.framework.TestCase;
+
+public class MarcXmlSaxWriterTestCase extends TestCase {
+
+	private static final String SCHEMA = "xsd/MARC21slim_rochester.xsd";
+
+	private static final MarcFactory factory = MarcFactory.newInstance();
+
+	public void testValidRecords() throws Exception {
+		XMLValidator validator = new XMLValidator(SCHEMA);
+		MarcXmlSaxWriter writer = new MarcXmlSaxWriter();
+		MarcReader reader = new MarcPermissiveStreamReader(
+				new FileInputStream("sample_marcdata/sample_marc1.mrc"), true, true);
+		while(reader.hasNext()) {
+			Record record = reader.next();
+			validator.validate(new DirectMarcXmlWriter(false).toXml(record));
+			assertTrue(writer.write(record, validator.getValidatorHandler()));
+		}
+	}
+
+	public void testInvalidRecord() throws Exception {
+		XMLValidator validator = new XMLValidator(SCHEMA);
+		Record record = createRecord("1234", "data");
+		try {
+			validator.validate(new DirectMarcXmlWriter(false).toXml(record));
+			fail("The tag should be invalid");
+		} catch(SAXParseException e) {
+			// expected
+		}
+		try {
+			new MarcXmlSaxWriter().write(record, validator.getValidatorHandler());
+			fail("The tag should be invalid");
+		} catch(SAXException e) {
+			// expected
+		}
+		// the handler can be used again after the error
+		assertTrue(new MarcXmlSaxWriter().write(createRecord("245", "data"),
+				validator.getValidatorHandler()));
+	}
+
+	public void testNotRepresentable() throws Exception {
+		XMLValidator validator = new XMLValidator(SCHEMA);
+		MarcXmlSaxWriter writer = new MarcXmlSaxWriter();
+		String[] texts = new String[]{"a\u0001b", "a\ud800", "\udc00", "\uffff"};
+		for(String text : texts) {
+			assertFalse(text, writer.write(createRecord("245", text),
+					validator.getValidatorHandler()));
+		}
+		assertTrue(writer.write(createRecord("245", "\ud83d\ude00\t\r\n\u0085"),
+				validator.getValidatorHandler()));
+	}
+
+	private static Record createRecord(String tag, String data) {
+		Record record = factory.newRecord("00000nam a2200000 a 4500");
+		record.addVariableField(factory.newControlField("001", "1"));
+		DataField field = factory.newDataField(tag, '1', '0');
+		field.addSubfield(factory.newSubfield('a', data));
+		record.addVariableField(field);
+		return record;
+	}
+}
@@ -0,0 +1,109 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package test.extensiblecatalog.OAIToolkit.importer;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.MarcFactory;
+import org.marc4j.marc.Record;
+
+import info.extensiblecatalog.OAIToolkit.importer.MARCRecordWrapper;
+import info.extensiblecatalog.OAIToolkit.importer.Modifier;
+import info.extensiblecatalog.OAIToolkit.utils.XsltTransformator;
+
+import junit.framework.TestCase;
+
+public class ModifierTestCase extends TestCase {
+
+	private static final MarcFactory factory = MarcFactory.newInstance();
+
+	private static final List<String> XSLTS = Arrays.asList(new String[]{
+			"drop_pipeline.xsl", "merge003and001.xsl", "drop999.xsl"});
+
+	public void testChain() throws Exception {
+		Modifier modifier = new Modifier(true, false);
+		modifier.addStyleSheets(XSLTS);
+
+		Record record = MARCRecordWrapper.MARCXML2Record(
+				modifier.modifyRecord(createRecord(), false));
+		assertEquals("00000nam a2200000 a 4500", record.getLeader().toString());
+		assertEquals("NRU-123", record.getControlNumber());
+		assertEquals("Title", ((DataField)record.getVariableField("245"))
+				.getSubfield('a').getData());
+		assertTrue(((DataField)record.getVariableField("999"))
+				.getSubfields().isEmpty());
+	}
+
+	public void testSameAsStylesheetsOneByOne() throws Exception {
+		Modifier modifier = new Modifier(true, false);
+		modifier.addStyleSheets(XSLTS);
+
+		MARCRecordWrapper wrapper = new MARCRecordWrapper(createRecord(), false);
+		wrapper.setDoIndentXml(true);
+		String xml = wrapper.getXml();
+		for(String xslt : XSLTS) {
+			xml = new XsltTransformator("xslts/" + xslt).transform(xml);
+		}
+
+		assertEquals(MARCRecordWrapper.MARCXML2Record(xml).toString(),
+				MARCRecordWrapper.MARCXML2Record(
+						modifier.modifyRecord(wrapper)).toString());
+	}
+
+	public void testModifySameAsReparsedXml() throws Exception {
+		Modifier modifier = new Modifier(false, false);
+		modifier.addStyleSheets(XSLTS);
+		assertEquals(MARCRecordWrapper.MARCXML2Record(
+				modifier.modifyRecord(createRecord(), false)).toString(),
+				modifier.modify(createRecord(), false).toString());
+
+		modifier = new Modifier(false, false);
+		modifier.addStyleSheets(Arrays.asList(new String[]{}));
+		assertEquals(createRecord().toString(),
+				modifier.modify(createRecord(), false).toString());
+	}
+
+	public void testCopyInOtherThread() throws Exception {
+		Modifier modifier = new Modifier(false, false);
+		modifier.addStyleSheets(XSLTS);
+		final Modifier copy = modifier.copy();
+		final String[] result = new String[1];
+		Thread thread = new Thread() {
+			public void run() {
+				result[0] = copy.modifyRecord(createRecord(), false);
+			}
+		};
+		thread.start();
+		thread.join();
+
+		assertEquals(modifier.modifyRecord(createRecord(), false), result[0]);
+	}
+
+	public void testWithoutStylesheets() {
+		Modifier modifier = new Modifier(false, false);
+		modifier.addStyleSheets(Arrays.asList(new String[]{}));
+		assertEquals("<record/>", modifier.modifyRecord("<record/>"));
+	}
+
+	private static Record createRecord() {
+		Record record = factory.newRecord("00000nam a2200000 a|4500");
+		record.addVariableField(factory.newControlField("001", "123"));
+		record.addVariableField(factory.newControlField("003", "NRU"));
+		DataField field = factory.newDataField("245", '1', '0');
+		field.addSubfield(factory.newSubfield('a', "Title"));
+		record.addVariableField(field);
+		field = factory.newDataField("999", ' ', ' ');
+		field.addSubfield(factory.newSubfield('a', "local"));
+		record.addVariableField(field);
+		return record;
+	}
+}
@@ -0,0 +1,98 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package test.extensiblecatalog.OAIToolkit.importer;
+
+import java.io.ByteArrayInputStream;
+
+import org.marc4j.MarcException;
+import org.marc4j.marc.MarcFactory;
+import org.marc4j.marc.Record;
+
+import info.extensiblecatalog.OAIToolkit.importer.BufferedMarcXmlReader;
+import info.extensiblecatalog.OAIToolkit.importer.RecordQueue;
+
+import junit.framework.TestCase;
+
+public class RecordQueueTestCase extends TestCase {
+
+	private static final MarcFactory factory = MarcFactory.newInstance();
+
+	public void testOrder() throws Exception {
+		final RecordQueue queue = new RecordQueue(7);
+		final int total = 1000;
+		Thread producer = new Thread() {
+			public void run() {
+				for(int i = 0; i < total; i++) {
+					queue.push(createRecord(i));
+				}
+				queue.end();
+			}
+		};
+		producer.start();
+
+		int counter = 0;
+		while(queue.hasNext()) {
+			Record record = queue.pop();
+			assertEquals(String.valueOf(counter),
+					record.getControlNumberField().getData());
+			counter++;
+		}
+		assertEquals(total, counter);
+		assertNull(queue.pop());
+		producer.join();
+	}
+
+	public void testExceptionAfterRecords() throws Exception {
+		RecordQueue queue = new RecordQueue(10);
+		queue.push(createRecord(0));
+		queue.push(createRecord(1));
+		queue.passException(new MarcException("parse error"));
+
+		assertTrue(queue.hasNext());
+		assertEquals("0", queue.pop().getControlNumberField().getData());
+		assertEquals("1", queue.pop().getControlNumberField().getData());
+		try {
+			queue.hasNext();
+			fail("The exception of the parser should be passed");
+		} catch(MarcException e) {
+			assertEquals("parse error", e.getMessage());
+		}
+	}
+
+	public void testReader() throws Exception {
+		StringBuffer xml = new StringBuffer();
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>")
+			.append("<collection xmlns=\"http://www.loc.gov/MARC21/slim\">");
+		for(int i = 0; i < 250; i++) {
+			xml.append("<record><leader>00000nam a2200000 a 4500</leader>")
+				.append("<controlfield tag=\"001\">").append(i)
+				.append("</controlfield></record>");
+		}
+		xml.append("</collection>");
+
+		BufferedMarcXmlReader reader = new BufferedMarcXmlReader(
+				new ByteArrayInputStream(xml.toString().getBytes("UTF-8")), 16);
+		int counter = 0;
+		while(reader.hasNext()) {
+			Record record = reader.next();
+			assertEquals(String.valueOf(counter),
+					record.getControlNumberField().getData());
+			counter++;
+		}
+		assertEquals(250, counter);
+	}
+
+	private static Record createRecord(int i) {
+		Record record = factory.newRecord("00000nam a2200000 a 4500");
+		record.addVariableField(
+				factory.newControlField("001", String.valueOf(i)));
+		return record;
+	}
+}
@@ -0,0 +1,119 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package test.extensiblecatalog.OAIToolkit.importer;
+
+import java.util.List;
+
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.MarcFactory;
+import org.marc4j.marc.Record;
+
+import info.extensiblecatalog.OAIToolkit.importer.RecordLine;
+import info.extensiblecatalog.OAIToolkit.importer.RecordSanitizer;
+import info.extensiblecatalog.OAIToolkit.importer.RecordSanitizer.BadCharacter;
+
+import junit.framework.TestCase;
+
+public class RecordSanitizerTestCase extends TestCase {
+
+	private static final MarcFactory factory = MarcFactory.newInstance();
+
+	public void testCleanRecord() {
+		Record record = createRecord("Title", "Note");
+		String before = record.toString();
+		assertTrue(new RecordSanitizer().sanitize(record).isEmpty());
+		assertEquals(before, record.toString());
+	}
+
+	public void testPositions() {
+		Record record = createRecord("Ti\u0001tle", "N\u001fote");
+		record.getLeader().setImplDefined1(new char[]{'\u000b', ' '});
+		String recordString = record.toString();
+
+		List<BadCharacter> badCharacters = new RecordSanitizer().sanitize(record);
+		assertEquals(3, badCharacters.size());
+		for(BadCharacter badCharacter : badCharacters) {
+			RecordLine line = new RecordLine(recordString,
+					badCharacter.getPosition());
+			assertEquals(line.getInvalidChar(), badCharacter.getInvalidChar());
+			assertEquals(line.getErrorLocation(),
+					badCharacter.getLine().getErrorLocation());
+			assertFalse(badCharacter.isReplaced());
+		}
+		assertTrue(badCharacters.get(0).isInLeader());
+		assertFalse(badCharacters.get(1).isInLeader());
+		assertEquals(recordString, record.toString());
+	}
+
+	public void testReplace() {
+		Record record = createRecord("Ti\u0001tle", "N\u001fote");
+		record.getLeader().setImplDefined1(new char[]{'\u000b', ' '});
+		DataField field = factory.newDataField("650", '\u0002', '0');
+		field.addSubfield(factory.newSubfield('\u0003', "Subject"));
+		record.addVariableField(field);
+
+		RecordSanitizer sanitizer = new RecordSanitizer();
+		sanitizer.setTranslateLeaderBadCharsToZero(true);
+		sanitizer.setTranslateNonleaderBadCharsToSpaces(true);
+		List<BadCharacter> badCharacters = sanitizer.sanitize(record);
+		assertEquals(5, badCharacters.size());
+		for(BadCharacter badCharacter : badCharacters) {
+			assertTrue(badCharacter.isReplaced());
+		}
+		assertEquals("00000na0 a2200000 a 4500", record.getLeader().toString());
+		assertEquals("245 10$aTi tle", record.getVariableField("245").toString());
+		assertEquals("650  0$ Subject", record.getVariableField("650").toString());
+		assertTrue(sanitizer.sanitize(record).isEmpty());
+	}
+
+	public void testRepeatedFieldsKeepTheirOrder() {
+		Record record = createRecord("Title", "First");
+		DataField field = factory.newDataField("500", ' ', ' ');
+		field.addSubfield(factory.newSubfield('a', "Sec\u0005ond"));
+		record.addVariableField(field);
+		field = factory.newDataField("500", ' ', ' ');
+		field.addSubfield(factory.newSubfield('a', "Third"));
+		record.addVariableField(field);
+
+		RecordSanitizer sanitizer = new RecordSanitizer();
+		sanitizer.setTranslateNonleaderBadCharsToSpaces(true);
+		assertEquals(1, sanitizer.sanitize(record).size());
+		List<?> notes = record.getVariableFields("500");
+		assertEquals(3, notes.size());
+		assertEquals("500   $aFirst", notes.get(0).toString());
+		assertEquals("500   $aSec ond", notes.get(1).toString());
+		assertEquals("500   $aThird", notes.get(2).toString());
+	}
+
+	public void testTagIsNotReplaced() {
+		Record record = createRecord("Title", "Note");
+		DataField field = factory.newDataField("9\u00019", ' ', ' ');
+		field.addSubfield(factory.newSubfield('a', "Local"));
+		record.addVariableField(field);
+
+		RecordSanitizer sanitizer = new RecordSanitizer();
+		sanitizer.setTranslateNonleaderBadCharsToSpaces(true);
+		List<BadCharacter> badCharacters = sanitizer.sanitize(record);
+		assertEquals(1, badCharacters.size());
+		assertFalse(badCharacters.get(0).isReplaced());
+	}
+
+	private static Record createRecord(String title, String note) {
+		Record record = factory.newRecord("00000nam a2200000 a 4500");
+		record.addVariableField(factory.newControlField("001", "123"));
+		DataField field = factory.newDataField("245", '1', '0');
+		field.addSubfield(factory.newSubfield('a', title));
+		record.addVariableField(field);
+		field = factory.newDataField("500", ' ', ' ');
+		field.addSubfield(factory.newSubfield('a', note));
+		record.addVariableField(field);
+		return record;
+	}
+}
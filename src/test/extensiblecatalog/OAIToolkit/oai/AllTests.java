@@ -19,6 +19,7 @@ public class AllTests {
 				"Test for test.extensiblecatalog.OAIToolkit.oai");
 		//$JUnit-BEGIN$
 		suite.addTestSuite(MetadataFormatUnmarshalerTestCase.class);
+		suite.addTestSuite(PayloadRendererTestCase.class);
 		//$JUnit-END$
 		return suite;
 	}
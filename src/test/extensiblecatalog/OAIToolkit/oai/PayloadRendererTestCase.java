@@ -0,0 +1,79 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package test.extensiblecatalog.OAIToolkit.oai;
+
+import info.extensiblecatalog.OAIToolkit.oai.PayloadRenderer;
+import junit.framework.TestCase;
+
+public class PayloadRendererTestCase extends TestCase {
+
+	private static final String NS_DECL = PayloadRenderer.getNsDecl(
+			PayloadRenderer.DEFAULT_SCHEMA_URL);
+
+	private static final String RECORD =
+		"<record><leader>00714cam a2200205 a 4500</leader>"
+		+ "<controlfield tag=\"001\">12883376</controlfield>"
+		+ "<datafield tag=\"245\" ind1=\"1\" ind2=\"0\">"
+		+ "<subfield code=\"a\">Sound &amp; fury &lt;1&gt; / caf\u00e9</subfield>"
+		+ "<subfield code=\"c\"/>"
+		+ "</datafield></record>";
+
+	/** The earlier implementation of PayloadRenderer.toMarc21() */
+	private static String regexMarc21(String xml, String nsDecl) {
+		return xml.replaceAll("<\\?xml [^<>]+\\?>", "")
+			.replaceAll("<collection[^<>]+>", "")
+			.replace("</collection>", "")
+			.replace("<record", nsDecl)
+			.replace("</", "</marc:")
+			.replaceAll("<([^/])", "<marc:$1");
+	}
+
+	private void assertGolden(String xml) {
+		assertEquals(regexMarc21(xml, NS_DECL),
+				PayloadRenderer.toMarc21(xml, NS_DECL));
+	}
+
+	public void testMarcXmlWriterOutput() {
+		assertGolden("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+				+ "<collection xmlns=\"http://www.loc.gov/MARC21/slim\">"
+				+ RECORD + "</collection>");
+		assertGolden("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<collection xmlns=\"http://www.loc.gov/MARC21/slim\">\n  "
+				+ RECORD.replace("><", ">\n    <") + "\n</collection>\n");
+	}
+
+	public void testRecordOnly() {
+		assertGolden(RECORD);
+		assertGolden("<record/>");
+		assertGolden("<record type=\"Bibliographic\"><leader/></record>");
+	}
+
+	public void testEdgeCases() {
+		assertGolden("");
+		assertGolden("no markup");
+		assertGolden("<collection><record></record></collection>");
+		assertGolden("<?xml?><record/>");
+		assertGolden("<?xml ?><record/>");
+		assertGolden("<?xml-stylesheet href=\"a.xsl\"?><record/>");
+		assertGolden("<!-- comment --><record><![CDATA[x]]></record>");
+		assertGolden("<record>a</record><");
+		assertGolden("<collection x=\"1\"><record/><record/></collection >");
+	}
+
+	public void testAppendToBuffer() {
+		StringBuffer out = new StringBuffer("<metadata>");
+		PayloadRenderer.appendMarc21(RECORD, NS_DECL, out);
+		assertEquals("<metadata>" + regexMarc21(RECORD, NS_DECL),
+				out.toString());
+		assertTrue(out.toString().startsWith("<metadata><marc:record "
+				+ "xmlns:marc=\"http://www.loc.gov/MARC21/slim\""));
+		assertTrue(out.toString().endsWith("</marc:datafield></marc:record>"));
+	}
+}
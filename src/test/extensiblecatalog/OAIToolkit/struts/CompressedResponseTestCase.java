@@ -0,0 +1,196 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package test.extensiblecatalog.OAIToolkit.struts;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import info.extensiblecatalog.OAIToolkit.struts.CompressedResponse;
+import junit.framework.TestCase;
+
+public class CompressedResponseTestCase extends TestCase {
+
+	private static final int MIN_SIZE = 100;
+
+	private MockResponse mock;
+
+	public void setUp() {
+		mock = new MockResponse();
+	}
+
+	private CompressedResponse response(String encoding) {
+		return new CompressedResponse(mock, encoding, 6, MIN_SIZE);
+	}
+
+	private static String text(int length) {
+		StringBuffer sb = new StringBuffer();
+		while(sb.length() < length) {
+			sb.append("<record>").append(sb.length()).append("</record>");
+		}
+		return sb.substring(0, length);
+	}
+
+	/**
+	 * A response shorter than the minimal size is sent uncompressed
+	 */
+	public void testBelowThreshold() throws IOException {
+		CompressedResponse response = response(CompressedResponse.GZIP);
+		response.getWriter().write("short");
+		response.finish();
+		assertNull(mock.getHeader("Content-Encoding"));
+		assertEquals("short", new String(mock.getBody(), "UTF-8"));
+		assertEquals(5, mock.getContentLength());
+	}
+
+	/**
+	 * A longer response is compressed
+	 */
+	public void testAboveThreshold() throws IOException {
+		String text = text(5000);
+		CompressedResponse response = response(CompressedResponse.GZIP);
+		response.getWriter().write(text);
+		response.finish();
+		assertEquals("gzip", mock.getHeader("Content-Encoding"));
+		assertEquals(-1, mock.getContentLength());
+		assertTrue(mock.getBody().length < text.length());
+		assertEquals(text, read(new GZIPInputStream(
+				new ByteArrayInputStream(mock.getBody()))));
+	}
+
+	public void testDeflate() throws IOException {
+		String text = text(5000);
+		CompressedResponse response = response(CompressedResponse.DEFLATE);
+		response.getOutputStream().write(text.getBytes("UTF-8"));
+		response.finish();
+		assertEquals("deflate", mock.getHeader("Content-Encoding"));
+		assertEquals(text, read(new InflaterInputStream(
+				new ByteArrayInputStream(mock.getBody()))));
+	}
+
+	/**
+	 * Flushing the response before the minimal size starts the compression,
+	 * so the header is sent with the compressed bytes
+	 */
+	public void testFlushBelowThreshold() throws IOException {
+		CompressedResponse response = response(CompressedResponse.GZIP);
+		PrintWriter writer = response.getWriter();
+		writer.write("<OAI-PMH>");
+		response.flushBuffer();
+		assertTrue(mock.isCommitted());
+		assertEquals("gzip", mock.getHeader("Content-Encoding"));
+		writer.write("</OAI-PMH>");
+		response.finish();
+		assertEquals("<OAI-PMH></OAI-PMH>", read(new GZIPInputStream(
+				new ByteArrayInputStream(mock.getBody()))));
+	}
+
+	/**
+	 * Flushing the compressed response sends all bytes written so far
+	 */
+	public void testSyncFlush() throws IOException, DataFormatException {
+		String text = text(1000);
+		CompressedResponse response = response(CompressedResponse.DEFLATE);
+		PrintWriter writer = response.getWriter();
+		writer.write(text);
+		writer.flush();
+		Inflater inflater = new Inflater();
+		inflater.setInput(mock.getBody());
+		byte[] buffer = new byte[2000];
+		assertEquals(text.length(), inflater.inflate(buffer));
+		assertEquals(text, new String(buffer, 0, text.length(), "UTF-8"));
+		writer.write("end");
+		response.finish();
+		assertEquals(text + "end", read(new InflaterInputStream(
+				new ByteArrayInputStream(mock.getBody()))));
+	}
+
+	/**
+	 * An empty response stays empty
+	 */
+	public void testFinishEmpty() throws IOException {
+		CompressedResponse response = response(CompressedResponse.GZIP);
+		response.finish();
+		assertNull(mock.getHeader("Content-Encoding"));
+		assertEquals(0, mock.getBody().length);
+		response = response(CompressedResponse.GZIP);
+		response.getOutputStream();
+		response.finish();
+		assertNull(mock.getHeader("Content-Encoding"));
+		assertEquals(0, mock.getBody().length);
+	}
+
+	/**
+	 * A finished response can not be written
+	 */
+	public void testWriteAfterFinish() throws IOException {
+		CompressedResponse response = response(CompressedResponse.GZIP);
+		response.getOutputStream().write(text(500).getBytes("UTF-8"));
+		response.finish();
+		response.finish();
+		try {
+			response.getOutputStream().write(1);
+			fail("The response is closed");
+		} catch(IOException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * An already compressed gzip file is written between the compressed
+	 * parts as a gzip member
+	 */
+	public void testGzipMember() throws IOException {
+		File file = File.createTempFile("page", ".xml.gz");
+		try {
+			GZIPOutputStream gzip = new GZIPOutputStream(
+					new FileOutputStream(file));
+			gzip.write("<cached/>".getBytes("UTF-8"));
+			gzip.close();
+
+			CompressedResponse response = response(CompressedResponse.GZIP);
+			assertTrue(response.acceptsGzipMember());
+			PrintWriter writer = response.getWriter();
+			writer.write("<begin>");
+			writer.flush();
+			assertTrue(response.writeGzipMember(file));
+			writer.write("<end>");
+			response.finish();
+			assertEquals("gzip", mock.getHeader("Content-Encoding"));
+			assertEquals("<begin><cached/><end>", read(new GZIPInputStream(
+					new ByteArrayInputStream(mock.getBody()))));
+
+			response = response(CompressedResponse.DEFLATE);
+			assertFalse(response.acceptsGzipMember());
+			assertFalse(response.writeGzipMember(file));
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int length;
+		while((length = in.read(buffer)) != -1) {
+			out.write(buffer, 0, length);
+		}
+		return out.toString("UTF-8");
+	}
+}
@@ -0,0 +1,73 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package test.extensiblecatalog.OAIToolkit.struts;
+
+import info.extensiblecatalog.OAIToolkit.struts.CompressedResponse;
+import info.extensiblecatalog.OAIToolkit.struts.CompressionFilter;
+import junit.framework.TestCase;
+
+public class CompressionFilterTestCase extends TestCase {
+
+	private static final String GZIP = CompressedResponse.GZIP;
+	private static final String DEFLATE = CompressedResponse.DEFLATE;
+
+	private static String negotiate(String acceptEncoding) {
+		return CompressionFilter.negotiate(acceptEncoding, true, true);
+	}
+
+	public void testSimple() {
+		assertNull(negotiate(null));
+		assertNull(negotiate(""));
+		assertNull(negotiate("identity"));
+		assertNull(negotiate("compress"));
+		assertEquals(GZIP, negotiate("gzip"));
+		assertEquals(GZIP, negotiate("x-gzip"));
+		assertEquals(GZIP, negotiate("GZip"));
+		assertEquals(DEFLATE, negotiate("deflate"));
+		assertEquals(GZIP, negotiate("deflate, gzip"));
+		assertEquals(DEFLATE, negotiate("compress, deflate"));
+	}
+
+	public void testQValues() {
+		assertEquals(DEFLATE, negotiate("gzip;q=0.5, deflate"));
+		assertEquals(DEFLATE, negotiate("gzip ; q=0.8 , deflate ; q=0.9"));
+		assertEquals(GZIP, negotiate("gzip;q=0.5, deflate;q=0.5"));
+		assertEquals(GZIP, negotiate("gzip;q=1.0, deflate;q=0.9"));
+		assertNull(negotiate("gzip;q=0"));
+		assertNull(negotiate("gzip;q=0, deflate;q=0.0"));
+		// an invalid q-value does not accept the coding
+		assertNull(negotiate("gzip;q=high"));
+		assertEquals(DEFLATE, negotiate("gzip;q=high, deflate"));
+	}
+
+	public void testIdentity() {
+		assertEquals(GZIP, negotiate("gzip, identity;q=0"));
+		assertEquals(DEFLATE, negotiate("identity;q=0, deflate;q=0.1"));
+		// no acceptable compression: the response is not compressed
+		assertNull(negotiate("identity;q=0"));
+	}
+
+	public void testWildcard() {
+		assertEquals(GZIP, negotiate("*"));
+		assertEquals(GZIP, negotiate("*;q=0.1"));
+		assertNull(negotiate("*;q=0"));
+		assertEquals(DEFLATE, negotiate("*, gzip;q=0"));
+		assertEquals(GZIP, negotiate("gzip;q=0.2, *;q=0.1"));
+		assertEquals(DEFLATE, negotiate("gzip;q=0.2, *;q=0.5"));
+	}
+
+	public void testConfiguration() {
+		assertNull(CompressionFilter.negotiate("gzip", false, true));
+		assertEquals(DEFLATE,
+				CompressionFilter.negotiate("gzip, deflate", false, true));
+		assertEquals(GZIP, CompressionFilter.negotiate("*", true, false));
+		assertNull(CompressionFilter.negotiate("gzip, deflate", false, false));
+	}
+}
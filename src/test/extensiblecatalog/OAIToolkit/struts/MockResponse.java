@@ -0,0 +1,222 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package test.extensiblecatalog.OAIToolkit.struts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A response in the memory. Like a servlet container, it ignores the
+ * headers set after the response is committed (flushed).
+ */
+public class MockResponse implements HttpServletResponse {
+
+	private ByteArrayOutputStream body = new ByteArrayOutputStream();
+	private Map<String, String> headers = new HashMap<String, String>();
+	private boolean committed = false;
+	private int contentLength = -1;
+	private int status = SC_OK;
+	private String contentType;
+	private String characterEncoding = "UTF-8";
+	private PrintWriter writer;
+
+	private ServletOutputStream stream = new ServletOutputStream() {
+		public void write(int b) {
+			body.write(b);
+		}
+
+		public void write(byte[] b, int off, int len) {
+			body.write(b, off, len);
+		}
+
+		public void flush() {
+			committed = true;
+		}
+	};
+
+	/**
+	 * Get the bytes written so far
+	 */
+	public byte[] getBody() {
+		return body.toByteArray();
+	}
+
+	public String getHeader(String name) {
+		return headers.get(name);
+	}
+
+	public int getContentLength() {
+		return contentLength;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public void addCookie(Cookie cookie) {
+	}
+
+	public boolean containsHeader(String name) {
+		return headers.containsKey(name);
+	}
+
+	public String encodeURL(String url) {
+		return url;
+	}
+
+	public String encodeRedirectURL(String url) {
+		return url;
+	}
+
+	@SuppressWarnings("deprecation")
+	public String encodeUrl(String url) {
+		return url;
+	}
+
+	@SuppressWarnings("deprecation")
+	public String encodeRedirectUrl(String url) {
+		return url;
+	}
+
+	public void sendError(int sc, String msg) {
+		setStatus(sc);
+		committed = true;
+	}
+
+	public void sendError(int sc) {
+		sendError(sc, null);
+	}
+
+	public void sendRedirect(String location) {
+		setStatus(SC_MOVED_TEMPORARILY);
+		committed = true;
+	}
+
+	public void setDateHeader(String name, long date) {
+		setHeader(name, String.valueOf(date));
+	}
+
+	public void addDateHeader(String name, long date) {
+		addHeader(name, String.valueOf(date));
+	}
+
+	public void setHeader(String name, String value) {
+		if(!committed) {
+			headers.put(name, value);
+		}
+	}
+
+	public void addHeader(String name, String value) {
+		if(!committed) {
+			String old = headers.get(name);
+			headers.put(name, old == null ? value : old + ", " + value);
+		}
+	}
+
+	public void setIntHeader(String name, int value) {
+		setHeader(name, String.valueOf(value));
+	}
+
+	public void addIntHeader(String name, int value) {
+		addHeader(name, String.valueOf(value));
+	}
+
+	public void setStatus(int sc) {
+		if(!committed) {
+			status = sc;
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	public void setStatus(int sc, String sm) {
+		setStatus(sc);
+	}
+
+	public String getCharacterEncoding() {
+		return characterEncoding;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public ServletOutputStream getOutputStream() {
+		return stream;
+	}
+
+	public PrintWriter getWriter() throws IOException {
+		if(writer == null) {
+			writer = new PrintWriter(new OutputStreamWriter(stream,
+					characterEncoding));
+		}
+		return writer;
+	}
+
+	public void setCharacterEncoding(String charset) {
+		characterEncoding = charset;
+	}
+
+	public void setContentLength(int len) {
+		if(!committed) {
+			contentLength = len;
+		}
+	}
+
+	public void setContentType(String type) {
+		contentType = type;
+	}
+
+	public void setBufferSize(int size) {
+	}
+
+	public int getBufferSize() {
+		return 0;
+	}
+
+	public void flushBuffer() throws IOException {
+		if(writer != null) {
+			writer.flush();
+		}
+		committed = true;
+	}
+
+	public void resetBuffer() {
+		if(committed) {
+			throw new IllegalStateException("The response is committed.");
+		}
+		body.reset();
+	}
+
+	public boolean isCommitted() {
+		return committed;
+	}
+
+	public void reset() {
+		resetBuffer();
+		headers.clear();
+		status = SC_OK;
+	}
+
+	public void setLocale(Locale loc) {
+	}
+
+	public Locale getLocale() {
+		return Locale.getDefault();
+	}
+}
@@ -18,6 +18,7 @@ public class AllTests {
 		TestSuite suite = new TestSuite("Test for utils");
 		//$JUnit-BEGIN$
 		suite.addTestSuite(ApplInfoTestCase.class);
+		suite.addTestSuite(BloomFilterTestCase.class);
 		suite.addTestSuite(ConfigUtilTestCase.class);
 		suite.addTestSuite(FileIOTestCase.class);
 		suite.addTestSuite(MilliSecFormatterTestCase.class);
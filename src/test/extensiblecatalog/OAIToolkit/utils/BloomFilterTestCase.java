@@ -0,0 +1,56 @@
+/**
+  * Copyright (c) 2009 University of Rochester
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the MIT/X11 license. The text of the
+  * license can be found at http://www.opensource.org/licenses/mit-license.php and copy of the license can be found on the project
+  * website http://www.extensiblecatalog.org/.
+  *
+  */
+
+package test.extensiblecatalog.OAIToolkit.utils;
+
+import info.extensiblecatalog.OAIToolkit.utils.BloomFilter;
+import junit.framework.TestCase;
+
+public class BloomFilterTestCase extends TestCase {
+
+	/**
+	 * The added strings are always found
+	 */
+	public void testAddedStringsAreFound() {
+		BloomFilter filter = new BloomFilter(1000);
+		for(int i = 0; i < 1000; i++) {
+			filter.add(i + "tbibr" + i % 3);
+		}
+		for(int i = 0; i < 1000; i++) {
+			assertTrue(filter.mightContain(i + "tbibr" + i % 3));
+		}
+	}
+
+	/**
+	 * Few of the other strings are found
+	 */
+	public void testFalsePositiveRate() {
+		BloomFilter filter = new BloomFilter(10000);
+		for(int i = 0; i < 10000; i++) {
+			filter.add(i + "tbibr1");
+		}
+		int found = 0;
+		for(int i = 10000; i < 20000; i++) {
+			if(filter.mightContain(i + "tbibr1")) {
+				found++;
+			}
+		}
+		assertTrue("false positives: " + found, found < 300);
+	}
+
+	/**
+	 * The cleared filter is empty
+	 */
+	public void testClear() {
+		BloomFilter filter = new BloomFilter(10);
+		filter.add("1tbibr1");
+		filter.clear();
+		assertFalse(filter.mightContain("1tbibr1"));
+	}
+}
@@ -189,8 +189,6 @@
 					<td>
 						<html:multibox property="compression" value="gzip" disabled="true" />
 						gzip
-						<html:multibox property="compression" value="compress" disabled="true" />
-						compress
 						<html:multibox property="compression" value="deflate" disabled="true" />
 						deflate
 						<html:errors property="compression" />